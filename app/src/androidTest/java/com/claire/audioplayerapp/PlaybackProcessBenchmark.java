@@ -0,0 +1,113 @@
+package com.claire.audioplayerapp;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Process;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Command round trips to MediaPlayerService over its Messenger, and the PSS of every process of
+ * the app. Run once on a default build (service in the app's process) and once with
+ * -PseparatePlaybackProcess to compare in-process and cross-process latency and footprint.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaybackProcessBenchmark {
+
+    private static final String TAG = "PlaybackProcess";
+    private static final int WARMUP = 200;
+    private static final int ROUND_TRIPS = 2000;
+
+    @Test
+    public void commandLatencyAndFootprint() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        final SynchronousQueue<IBinder> bound = new SynchronousQueue<>();
+        ServiceConnection connection = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder service) {
+                bound.offer(service);
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+            }
+        };
+        Intent intent = new Intent(context, MediaPlayerService.class).setAction(MediaPlayerService.ACTION_BIND_MESSENGER);
+        assertTrue(context.bindService(intent, connection, Context.BIND_AUTO_CREATE));
+        Messenger service = new Messenger(bound.poll(10, TimeUnit.SECONDS));
+
+        //Replies land on their own thread, the test thread waits for each one
+        HandlerThread replyThread = new HandlerThread("replies");
+        replyThread.start();
+        final SynchronousQueue<Long> pongs = new SynchronousQueue<>();
+        Messenger replies = new Messenger(new Handler(replyThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == RemotePlayback.MSG_PONG) pongs.offer(System.nanoTime());
+            }
+        });
+
+        long[] latencies = new long[ROUND_TRIPS];
+        for (int i = 0; i < WARMUP + ROUND_TRIPS; i++) {
+            Message ping = Message.obtain(null, RemotePlayback.MSG_PING, i, 0);
+            ping.replyTo = replies;
+            long start = System.nanoTime();
+            service.send(ping);
+            Long answered = pongs.poll(5, TimeUnit.SECONDS);
+            assertNotNull("no reply to ping " + i, answered);
+            if (i >= WARMUP) latencies[i - WARMUP] = answered - start;
+        }
+        Arrays.sort(latencies);
+        long p50 = latencies[ROUND_TRIPS / 2] / 1000;
+        long p99 = latencies[ROUND_TRIPS * 99 / 100] / 1000;
+
+        //PSS of the app's processes: one, or the app and :playback
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        List<Integer> pids = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (ActivityManager.RunningAppProcessInfo process : activityManager.getRunningAppProcesses()) {
+            if (process.uid == Process.myUid()) {
+                pids.add(process.pid);
+                names.add(process.processName);
+            }
+        }
+        int[] pidArray = new int[pids.size()];
+        for (int i = 0; i < pidArray.length; i++) pidArray[i] = pids.get(i);
+        Debug.MemoryInfo[] memory = activityManager.getProcessMemoryInfo(pidArray);
+        int totalPssKb = 0;
+        StringBuilder perProcess = new StringBuilder();
+        for (int i = 0; i < memory.length; i++) {
+            totalPssKb += memory[i].getTotalPss();
+            perProcess.append(' ').append(names.get(i)).append('=').append(memory[i].getTotalPss()).append("KB");
+        }
+
+        Log.i(TAG, (BuildConfig.SEPARATE_PLAYBACK_PROCESS ? "separate process" : "same process")
+                + ": round trip p50 " + p50 + "us p99 " + p99 + "us, PSS " + totalPssKb + "KB:" + perProcess);
+
+        context.unbindService(connection);
+        replyThread.quitSafely();
+        //A command has to reach the player well within a frame
+        assertTrue("p99 " + p99 + "us", p99 < 16000);
+    }
+}
@@ -14,6 +14,11 @@ public class Audio implements Serializable {
     private String title;
     private String album;
     private String artist;
+    //MediaStore DATE_ADDED, seconds since 1970
+    private long dateAdded;
+    private String genre;
+    //MediaStore DURATION in milliseconds, 0 when unknown
+    private long duration;
 
     public Audio(String data, String title, String album, String artist) {
         this.data = data;
@@ -22,6 +27,11 @@ public class Audio implements Serializable {
         this.artist = artist;
     }
 
+    public Audio(String data, String title, String album, String artist, long dateAdded) {
+        this(data, title, album, artist);
+        this.dateAdded = dateAdded;
+    }
+
     public String getData() {
         return data;
     }
@@ -53,4 +63,28 @@ public class Audio implements Serializable {
     public void setArtist(String artist) {
         this.artist = artist;
     }
+
+    public long getDateAdded() {
+        return dateAdded;
+    }
+
+    public void setDateAdded(long dateAdded) {
+        this.dateAdded = dateAdded;
+    }
+
+    public String getGenre() {
+        return genre;
+    }
+
+    public void setGenre(String genre) {
+        this.genre = genre;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
 }
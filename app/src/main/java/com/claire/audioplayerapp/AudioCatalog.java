@@ -0,0 +1,118 @@
+package com.claire.audioplayerapp;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 音頻目錄 The audio catalog loaded by MainActivity.loadAudio()
+ * A track's ordinal is its position in the list. Tracks are only ever appended, so ordinals
+ * stay valid for indices, sort orders and play queues built on top of the catalog.
+ * Must be changed from the main thread; listeners are told about every change. Background work
+ * reads the catalog through snapshot().
+ */
+public class AudioCatalog {
+
+    public interface Listener {
+        /**
+         * @param firstOrdinal ordinal of added.get(0)
+         * @param added        the new tracks, in ordinal order
+         */
+        void onTracksAdded(int firstOrdinal, List<Audio> added);
+    }
+
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private final ArrayList<Audio> tracks;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    //Second copy in fixed-size chunks that never move, so older snapshots stay valid as it grows
+    private Audio[][] chunks = new Audio[0][];
+    private volatile Snapshot published = new Snapshot(chunks, 0);
+
+    public AudioCatalog(ArrayList<Audio> tracks) {
+        this.tracks = tracks;
+        publish(tracks);
+    }
+
+    public ArrayList<Audio> getTracks() {
+        return tracks;
+    }
+
+    public int size() {
+        return tracks.size();
+    }
+
+    public Audio get(int ordinal) {
+        return tracks.get(ordinal);
+    }
+
+    /**
+     * The tracks added so far, safe to read on any thread without copying the list. Later
+     * additions are not visible through it.
+     */
+    public List<Audio> snapshot() {
+        return published;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public void addAll(List<Audio> added) {
+        if (added.isEmpty()) return;
+        int first = tracks.size();
+        tracks.addAll(added);
+        publish(added);
+        List<Audio> snapshot = Collections.unmodifiableList(new ArrayList<>(added));
+        for (Listener listener : listeners) {
+            listener.onTracksAdded(first, snapshot);
+        }
+    }
+
+    private void publish(List<Audio> added) {
+        int size = published.size;
+        int needed = (size + added.size() + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+        if (needed > chunks.length) {
+            chunks = Arrays.copyOf(chunks, needed);
+            for (int i = 0; i < needed; i++) {
+                if (chunks[i] == null) chunks[i] = new Audio[CHUNK_SIZE];
+            }
+        }
+        for (Audio audio : added) {
+            chunks[size >> CHUNK_SHIFT][size & (CHUNK_SIZE - 1)] = audio;
+            size++;
+        }
+        //Slots are written before the volatile store, a reader that sees the size sees them too
+        published = new Snapshot(chunks, size);
+    }
+
+    private static class Snapshot extends AbstractList<Audio> implements RandomAccess {
+        private final Audio[][] chunks;
+        private final int size;
+
+        Snapshot(Audio[][] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        @Override
+        public Audio get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return chunks[index >> CHUNK_SHIFT][index & (CHUNK_SIZE - 1)];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
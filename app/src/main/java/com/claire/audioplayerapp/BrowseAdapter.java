@@ -0,0 +1,46 @@
+package com.claire.audioplayerapp;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.List;
+
+/**
+ * 瀏覽列表 Rows of artists, albums or genres with their track counts
+ */
+public class BrowseAdapter extends RecyclerView.Adapter<ViewHolder> {
+
+    private final List<String> names;
+    private final int[] counts;
+
+    public BrowseAdapter(List<String> names, int[] counts) {
+        this.names = names;
+        this.counts = counts;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_layout, parent, false);
+        ViewHolder holder = new ViewHolder(v);
+        holder.image_playPause.setVisibility(View.GONE);
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder viewHolder, int position) {
+        viewHolder.textTitle.setText(names.get(position) + " (" + counts[position] + ")");
+    }
+
+    @Override
+    public int getItemCount() {
+        return names.size();
+    }
+
+    public String getName(int position) {
+        return names.get(position);
+    }
+}
@@ -0,0 +1,163 @@
+package com.claire.audioplayerapp;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 瀏覽索引 Artist → album → track and genre indices over the audio catalog
+ * Built in a single pass over the catalog and then kept current from AudioCatalog.Listener,
+ * so opening an artist, album or genre costs O(result size) and never rescans the library.
+ * Track membership is stored as ordinals in IntLists. Used from the main thread, like AudioCatalog.
+ */
+public class BrowseIndex implements AudioCatalog.Listener {
+
+    public static final String UNKNOWN = "<unknown>";
+
+    public static class Artist {
+        private final String name;
+        private final IntList tracks = new IntList(8);
+        //album name -> tracks of this artist on that album, in catalog order
+        private final LinkedHashMap<String, IntList> albums = new LinkedHashMap<>();
+
+        Artist(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public IntList getTracks() {
+            return tracks;
+        }
+
+        public List<String> getAlbumNames() {
+            return new ArrayList<>(albums.keySet());
+        }
+
+        public IntList getAlbumTracks(String album) {
+            IntList list = albums.get(album);
+            return list != null ? list : new IntList(0);
+        }
+    }
+
+    private final HashMap<String, Artist> artists = new HashMap<>();
+    private final HashMap<String, IntList> genres = new HashMap<>();
+    private final Collator collator;
+
+    public BrowseIndex(List<Audio> tracks, Locale locale) {
+        collator = Collator.getInstance(locale);
+        collator.setStrength(Collator.SECONDARY);
+        for (int i = 0; i < tracks.size(); i++) {
+            add(i, tracks.get(i));
+        }
+    }
+
+    @Override
+    public void onTracksAdded(int firstOrdinal, List<Audio> added) {
+        for (int i = 0; i < added.size(); i++) {
+            add(firstOrdinal + i, added.get(i));
+        }
+    }
+
+    private void add(int ordinal, Audio audio) {
+        String artistName = key(audio.getArtist());
+        Artist artist = artists.get(artistName);
+        if (artist == null) {
+            artist = new Artist(artistName);
+            artists.put(artistName, artist);
+        }
+        artist.tracks.add(ordinal);
+
+        String albumName = key(audio.getAlbum());
+        IntList album = artist.albums.get(albumName);
+        if (album == null) {
+            album = new IntList(12);
+            artist.albums.put(albumName, album);
+        }
+        album.add(ordinal);
+
+        addGenre(ordinal, audio);
+    }
+
+    /**
+     * Genres learnt after the catalog was loaded (read off the UI thread on older devices):
+     * the genre lists are grouped again, artists and albums are left as they are
+     */
+    public void regroupGenres(List<Audio> tracks) {
+        genres.clear();
+        for (int i = 0; i < tracks.size(); i++) {
+            addGenre(i, tracks.get(i));
+        }
+    }
+
+    private void addGenre(int ordinal, Audio audio) {
+        String genreName = key(audio.getGenre());
+        IntList genre = genres.get(genreName);
+        if (genre == null) {
+            genre = new IntList(64);
+            genres.put(genreName, genre);
+        }
+        genre.add(ordinal);
+    }
+
+    private static String key(String value) {
+        return value == null || value.trim().isEmpty() ? UNKNOWN : value;
+    }
+
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (Artist artist : artists.values()) {
+            bytes += 2 * MemoryTrimmer.ENTRY_BYTES + MemoryTrimmer.stringBytes(artist.name) + artist.tracks.estimatedBytes();
+            for (Map.Entry<String, IntList> album : artist.albums.entrySet()) {
+                bytes += MemoryTrimmer.ENTRY_BYTES + MemoryTrimmer.stringBytes(album.getKey())
+                        + album.getValue().estimatedBytes();
+            }
+        }
+        for (Map.Entry<String, IntList> genre : genres.entrySet()) {
+            bytes += MemoryTrimmer.ENTRY_BYTES + MemoryTrimmer.stringBytes(genre.getKey()) + genre.getValue().estimatedBytes();
+        }
+        return bytes;
+    }
+
+    public Artist getArtist(String name) {
+        return artists.get(name);
+    }
+
+    public IntList getGenreTracks(String genre) {
+        IntList list = genres.get(genre);
+        return list != null ? list : new IntList(0);
+    }
+
+    public int getArtistCount() {
+        return artists.size();
+    }
+
+    /**
+     * Artist names in collation order, "The" and other leading articles ignored
+     */
+    public List<String> getArtistNames() {
+        return sorted(new ArrayList<>(artists.keySet()));
+    }
+
+    public List<String> getGenreNames() {
+        return sorted(new ArrayList<>(genres.keySet()));
+    }
+
+    private List<String> sorted(List<String> names) {
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return collator.compare(TrackSorter.sortableText(a), TrackSorter.sortableText(b));
+            }
+        });
+        return names;
+    }
+}
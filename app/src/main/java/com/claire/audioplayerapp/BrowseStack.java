@@ -0,0 +1,115 @@
+package com.claire.audioplayerapp;
+
+import java.util.ArrayDeque;
+
+/**
+ * 瀏覽 Where the user is among the artist/album/genre/folder/smart playlist lists
+ * The song list is the root and is never popped, the top of the stack is on screen. Knows which
+ * level a row of each list opens, the activity only renders the state it is handed. Main thread only.
+ */
+public class BrowseStack {
+
+    public enum Level {
+        SONGS,
+        ARTISTS,
+        ALBUMS,
+        ALBUM_TRACKS,
+        GENRES,
+        GENRE_TRACKS,
+        UP_NEXT,
+        FOLDER,
+        SMART_PLAYLISTS,
+        SMART_PLAYLIST_TRACKS
+    }
+
+    public static class State {
+        public final Level level;
+        public final String artist;
+        public final String name;
+        public final int folder;
+
+        State(Level level, String artist, String name) {
+            this(level, artist, name, FolderTree.ROOT);
+        }
+
+        State(Level level, String artist, String name, int folder) {
+            this.level = level;
+            this.artist = artist;
+            this.name = name;
+            this.folder = folder;
+        }
+    }
+
+    private final ArrayDeque<State> stack = new ArrayDeque<>();
+
+    public BrowseStack() {
+        stack.push(new State(Level.SONGS, null, null));
+    }
+
+    public State current() {
+        return stack.peek();
+    }
+
+    public boolean isAt(Level... levels) {
+        Level level = stack.peek().level;
+        for (Level candidate : levels) {
+            if (candidate == level) return true;
+        }
+        return false;
+    }
+
+    public int depth() {
+        return stack.size();
+    }
+
+    /**
+     * Back to the song list, then opens level from there
+     * @return the state now on screen
+     */
+    public State openFromRoot(Level level) {
+        while (stack.size() > 1) stack.pop();
+        return level == Level.SONGS ? stack.peek() : push(new State(level, null, null));
+    }
+
+    /**
+     * Opens the row name of the list on screen: an artist's albums, an album's, a genre's or a
+     * smart playlist's tracks
+     * @return the state opened, null when rows of this level do not open a list
+     */
+    public State openItem(String name) {
+        State state = stack.peek();
+        switch (state.level) {
+            case ARTISTS:
+                return push(new State(Level.ALBUMS, name, name));
+            case ALBUMS:
+                return push(new State(Level.ALBUM_TRACKS, state.artist, name));
+            case GENRES:
+                return push(new State(Level.GENRE_TRACKS, null, name));
+            case SMART_PLAYLISTS:
+                return push(new State(Level.SMART_PLAYLIST_TRACKS, null, name));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param path shown as the title
+     */
+    public State openFolder(int folder, String path) {
+        return push(new State(Level.FOLDER, null, path, folder));
+    }
+
+    /**
+     * @return the state now on screen, null at the song list (the activity then finishes)
+     */
+    public State back() {
+        if (stack.size() == 1) return null;
+        stack.pop();
+        return stack.peek();
+    }
+
+    private State push(State state) {
+        stack.push(state);
+        return state;
+    }
+}
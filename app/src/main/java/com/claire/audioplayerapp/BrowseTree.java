@@ -0,0 +1,271 @@
+package com.claire.audioplayerapp;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 媒體瀏覽樹 Paged browse tree for MediaBrowserService clients (car head units, watches...)
+ * root ─┬─ tracks ── track:&lt;ordinal&gt;
+ *       ├─ albums ── album:&lt;artist&gt;&lt;US&gt;&lt;album&gt; ── track:&lt;ordinal&gt;
+ *       └─ artists ── artist:&lt;artist&gt; ── album:… ── track:…
+ * Children are only ever returned one page at a time and pages are cached per parent ID, so a
+ * large library never crosses binder in one go. Not thread-safe: MediaPlayerService calls it from
+ * its single browse thread.
+ */
+public class BrowseTree implements AudioCatalog.Listener {
+
+    public static final String ROOT = "root";
+    public static final String TRACKS = "tracks";
+    public static final String ALBUMS = "albums";
+    public static final String ARTISTS = "artists";
+    public static final String TRACK_PREFIX = "track:";
+    public static final String ALBUM_PREFIX = "album:";
+    public static final String ARTIST_PREFIX = "artist:";
+    //Pre-API 24 clients cannot ask for a page, they get a "more" node whose ID is parent@page
+    public static final char PAGE_SEPARATOR = '@';
+    private static final char FIELD_SEPARATOR = '\u001f';
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int CACHED_PAGES = 64;
+
+    public static class Node {
+        public final String mediaId;
+        public final String title;
+        public final String subtitle;
+        public final boolean browsable;
+
+        Node(String mediaId, String title, String subtitle, boolean browsable) {
+            this.mediaId = mediaId;
+            this.title = title;
+            this.subtitle = subtitle;
+            this.browsable = browsable;
+        }
+    }
+
+    public static class Page {
+        public final List<Node> nodes;
+        public final boolean hasMore;
+
+        Page(List<Node> nodes, boolean hasMore) {
+            this.nodes = nodes;
+            this.hasMore = hasMore;
+        }
+
+        /**
+         * Rough size of the page once parcelled: UTF-16 strings plus a fixed cost per item
+         */
+        public int estimatedBytes() {
+            int bytes = 0;
+            for (Node node : nodes) {
+                bytes += 64 + 2 * (length(node.mediaId) + length(node.title) + length(node.subtitle));
+            }
+            return bytes;
+        }
+
+        private static int length(String s) {
+            return s == null ? 0 : s.length();
+        }
+    }
+
+    private final List<Audio> tracks;
+    private final BrowseIndex index;
+    private final Locale locale;
+    //Sorted once and reused until the catalog changes
+    private List<String> artistNames;
+    private List<String[]> albums;
+    private final LinkedHashMap<String, Page> cache = new LinkedHashMap<String, Page>(CACHED_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    public BrowseTree(List<Audio> tracks, Locale locale) {
+        this.tracks = tracks;
+        this.locale = locale;
+        this.index = new BrowseIndex(tracks, locale);
+    }
+
+    @Override
+    public void onTracksAdded(int firstOrdinal, List<Audio> added) {
+        //A SharedCatalog already holds them once refreshed, a plain list is appended to
+        if (tracks.size() < firstOrdinal + added.size()) tracks.addAll(added);
+        index.onTracksAdded(firstOrdinal, added);
+        artistNames = null;
+        albums = null;
+        cache.clear();
+    }
+
+    public void clearCache() {
+        cache.clear();
+    }
+
+    //The tree's copy of the catalog list (the tracks themselves are shared, a SharedCatalog is
+    //mapped and costs no heap), its index and cached pages
+    public long estimatedBytes() {
+        long bytes = (tracks instanceof SharedCatalog ? 0 : 4L * tracks.size()) + index.estimatedBytes();
+        for (Page page : cache.values()) bytes += MemoryTrimmer.ENTRY_BYTES + page.estimatedBytes();
+        return bytes;
+    }
+
+    /**
+     * Children of parentId, page by page. A parentId of the form "id@3" asks for page 3.
+     */
+    public Page getChildren(String parentId, int page, int pageSize) {
+        int separator = parentId.lastIndexOf(PAGE_SEPARATOR);
+        if (separator > 0) {
+            try {
+                page = Integer.parseInt(parentId.substring(separator + 1));
+                parentId = parentId.substring(0, separator);
+            } catch (NumberFormatException e) {
+                //'@' is part of a name
+            }
+        }
+        String key = parentId + PAGE_SEPARATOR + page + PAGE_SEPARATOR + pageSize;
+        Page cached = cache.get(key);
+        if (cached != null) return cached;
+
+        Page result = loadPage(parentId, page * pageSize, pageSize);
+        cache.put(key, result);
+        return result;
+    }
+
+    private Page loadPage(String parentId, int from, int pageSize) {
+        if (ROOT.equals(parentId)) {
+            List<Node> nodes = new ArrayList<>(3);
+            nodes.add(new Node(TRACKS, "Tracks", tracks.size() + " tracks", true));
+            nodes.add(new Node(ALBUMS, "Albums", null, true));
+            nodes.add(new Node(ARTISTS, "Artists", index.getArtistCount() + " artists", true));
+            return slice(nodes, from, pageSize);
+        }
+        if (TRACKS.equals(parentId)) {
+            int to = Math.min(tracks.size(), from + pageSize);
+            List<Node> nodes = new ArrayList<>(Math.max(0, to - from));
+            for (int ordinal = from; ordinal < to; ordinal++) {
+                nodes.add(trackNode(ordinal));
+            }
+            return new Page(nodes, to < tracks.size());
+        }
+        if (ARTISTS.equals(parentId)) {
+            List<String> names = getArtistNames();
+            int to = Math.min(names.size(), from + pageSize);
+            List<Node> nodes = new ArrayList<>(Math.max(0, to - from));
+            for (int i = from; i < to; i++) {
+                String name = names.get(i);
+                nodes.add(new Node(ARTIST_PREFIX + name, name,
+                        index.getArtist(name).getTracks().size() + " tracks", true));
+            }
+            return new Page(nodes, to < names.size());
+        }
+        if (ALBUMS.equals(parentId)) {
+            List<String[]> all = getAlbums();
+            int to = Math.min(all.size(), from + pageSize);
+            List<Node> nodes = new ArrayList<>(Math.max(0, to - from));
+            for (int i = from; i < to; i++) {
+                nodes.add(albumNode(all.get(i)[0], all.get(i)[1]));
+            }
+            return new Page(nodes, to < all.size());
+        }
+        if (parentId.startsWith(ARTIST_PREFIX)) {
+            BrowseIndex.Artist artist = index.getArtist(parentId.substring(ARTIST_PREFIX.length()));
+            if (artist == null) return new Page(Collections.<Node>emptyList(), false);
+            List<String> names = artist.getAlbumNames();
+            int to = Math.min(names.size(), from + pageSize);
+            List<Node> nodes = new ArrayList<>(Math.max(0, to - from));
+            for (int i = from; i < to; i++) {
+                nodes.add(albumNode(artist.getName(), names.get(i)));
+            }
+            return new Page(nodes, to < names.size());
+        }
+        if (parentId.startsWith(ALBUM_PREFIX)) {
+            String value = parentId.substring(ALBUM_PREFIX.length());
+            int split = value.indexOf(FIELD_SEPARATOR);
+            BrowseIndex.Artist artist = split < 0 ? null : index.getArtist(value.substring(0, split));
+            if (artist == null) return new Page(Collections.<Node>emptyList(), false);
+            IntList ordinals = artist.getAlbumTracks(value.substring(split + 1));
+            int to = Math.min(ordinals.size(), from + pageSize);
+            List<Node> nodes = new ArrayList<>(Math.max(0, to - from));
+            for (int i = from; i < to; i++) {
+                nodes.add(trackNode(ordinals.get(i)));
+            }
+            return new Page(nodes, to < ordinals.size());
+        }
+        return new Page(Collections.<Node>emptyList(), false);
+    }
+
+    private Node trackNode(int ordinal) {
+        Audio audio = tracks.get(ordinal);
+        return new Node(TRACK_PREFIX + ordinal, audio.getTitle(), audio.getArtist(), false);
+    }
+
+    private static Node albumNode(String artist, String album) {
+        return new Node(ALBUM_PREFIX + artist + FIELD_SEPARATOR + album, album, artist, true);
+    }
+
+    private static Page slice(List<Node> nodes, int from, int pageSize) {
+        int to = Math.min(nodes.size(), from + pageSize);
+        if (from >= to) return new Page(Collections.<Node>emptyList(), false);
+        return new Page(new ArrayList<>(nodes.subList(from, to)), to < nodes.size());
+    }
+
+    private List<String> getArtistNames() {
+        if (artistNames == null) artistNames = index.getArtistNames();
+        return artistNames;
+    }
+
+    //(artist, album) pairs sorted by album name
+    private List<String[]> getAlbums() {
+        if (albums == null) {
+            final Collator collator = Collator.getInstance(locale);
+            collator.setStrength(Collator.SECONDARY);
+            List<String[]> list = new ArrayList<>();
+            for (String artistName : getArtistNames()) {
+                for (String album : index.getArtist(artistName).getAlbumNames()) {
+                    list.add(new String[]{artistName, album});
+                }
+            }
+            Collections.sort(list, new Comparator<String[]>() {
+                @Override
+                public int compare(String[] a, String[] b) {
+                    return collator.compare(TrackSorter.sortableText(a[1]), TrackSorter.sortableText(b[1]));
+                }
+            });
+            albums = list;
+        }
+        return albums;
+    }
+
+    /**
+     * Media ID of the "more" node after parentId, for clients that cannot request a page
+     */
+    public static String nextPageId(String parentId) {
+        int separator = parentId.lastIndexOf(PAGE_SEPARATOR);
+        if (separator > 0) {
+            try {
+                int page = Integer.parseInt(parentId.substring(separator + 1));
+                return parentId.substring(0, separator) + PAGE_SEPARATOR + (page + 1);
+            } catch (NumberFormatException e) {
+                //'@' is part of a name
+            }
+        }
+        return parentId + PAGE_SEPARATOR + 1;
+    }
+
+    /**
+     * @return the catalog ordinal of a track media ID, or -1
+     */
+    public static int parseTrackOrdinal(String mediaId) {
+        if (mediaId == null || !mediaId.startsWith(TRACK_PREFIX)) return -1;
+        try {
+            return Integer.parseInt(mediaId.substring(TRACK_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -12,23 +12,49 @@ public class CustomTouchListener implements RecyclerView.OnItemTouchListener {
     //Gesture detector to intercept the touch event
     GestureDetector gestureDetector;
     private onItemClickListener clickListener; //Interface
+    private onItemLongClickListener longClickListener;
+    private RecyclerView pressedIn;
+    private float pressedX;
+    private float pressedY;
 
     public CustomTouchListener(Context context, final onItemClickListener clickListener){
+        this(context, clickListener, null);
+    }
+
+    public CustomTouchListener(Context context, final onItemClickListener clickListener,
+                               final onItemLongClickListener longClickListener){
         this.clickListener = clickListener;
+        this.longClickListener = longClickListener;
         gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener(){
             @Override
             public boolean onSingleTapUp(MotionEvent e) {
                 return true;
             }
+
+            @Override
+            public void onLongPress(MotionEvent e) {
+                //長按 The row under the finger when the press started
+                if (pressedIn == null || CustomTouchListener.this.longClickListener == null) return;
+                View child = pressedIn.findChildViewUnder(pressedX, pressedY);
+                if (child != null) {
+                    CustomTouchListener.this.longClickListener.onLongClick(child, pressedIn.getChildLayoutPosition(child));
+                }
+            }
         });
     }
 
     @Override
     public boolean onInterceptTouchEvent(@NonNull RecyclerView recyclerView, @NonNull MotionEvent e) {
-        View child = recyclerView.findChildViewUnder(e.getX(), e.getY());
+        if (e.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            pressedIn = recyclerView;
+            pressedX = e.getX();
+            pressedY = e.getY();
+        }
 
-        if (child != null && clickListener != null && gestureDetector.onTouchEvent(e)){
-            clickListener.onClick(child, recyclerView.getChildLayoutPosition(child));
+        //Every event goes to the detector, the row is only looked up once it reports a tap
+        if (gestureDetector.onTouchEvent(e) && clickListener != null){
+            View child = recyclerView.findChildViewUnder(e.getX(), e.getY());
+            if (child != null) clickListener.onClick(child, recyclerView.getChildLayoutPosition(child));
         }
         return false;
     }
@@ -0,0 +1,79 @@
+package com.claire.audioplayerapp;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 資料夾列表 Subfolders with their track count and total time, then the folder's own tracks
+ */
+public class FolderAdapter extends RecyclerView.Adapter<ViewHolder> {
+
+    private final FolderTree tree;
+    private final FolderTree.Listing listing;
+    private final List<Audio> list;
+
+    public FolderAdapter(FolderTree tree, int folder, List<Audio> list) {
+        this.tree = tree;
+        this.listing = tree.open(folder);
+        this.list = list;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_layout, parent, false);
+        return new ViewHolder(v);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder viewHolder, int position) {
+        if (isFolder(position)) {
+            int folder = listing.folders[position];
+            viewHolder.image_playPause.setVisibility(View.GONE);
+            viewHolder.textTitle.setText(tree.getName(folder) + " (" + tree.getTrackCount(folder) + ", "
+                    + formatDuration(tree.getDuration(folder)) + ")");
+        } else {
+            viewHolder.image_playPause.setVisibility(View.VISIBLE);
+            viewHolder.textTitle.setText(list.get(getTrack(position)).getTitle());
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return listing.folders.length + listing.tracks.length;
+    }
+
+    public boolean isFolder(int position) {
+        return position < listing.folders.length;
+    }
+
+    public int getFolder(int position) {
+        return listing.folders[position];
+    }
+
+    //Catalog ordinal of a track row
+    public int getTrack(int position) {
+        return listing.tracks[position - listing.folders.length];
+    }
+
+    //Position of the track row among the folder's tracks
+    public int getTrackIndex(int position) {
+        return position - listing.folders.length;
+    }
+
+    public int[] getTracks() {
+        return listing.tracks;
+    }
+
+    //h:mm:ss
+    static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        return String.format(Locale.US, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
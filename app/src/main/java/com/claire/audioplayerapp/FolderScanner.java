@@ -0,0 +1,429 @@
+package com.claire.audioplayerapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 資料夾掃描 Finds audio files in folders the user chose, without going through MediaStore
+ * Directories are walked in parallel on a ForkJoinPool, one task per directory. Every listing is
+ * kept in a state file with the directory's mtime: a directory whose mtime is unchanged since the
+ * last scan is not listed again, its files come from the state and only its subdirectories are
+ * checked. A file counts as audio by its first bytes, not by its extension; its tags are read
+ * (TagReader) through the same open and kept in the state with the listing.
+ * <p>
+ * A directory's mtime changes when entries are added, removed or renamed in it, which is all the
+ * catalog needs; a file rewritten in place keeps its place in the listing.
+ */
+public class FolderScanner {
+
+    //What sniff() recognised, NONE for files that are not audio
+    static final byte KIND_NONE = 0;
+    static final byte KIND_MPEG = 1;
+    static final byte KIND_AAC = 2;
+    static final byte KIND_FLAC = 3;
+    static final byte KIND_OGG = 4;
+    static final byte KIND_WAV = 5;
+    static final byte KIND_MP4 = 6;
+    static final byte KIND_AMR = 7;
+    static final byte KIND_MIDI = 8;
+
+    static final int SNIFF_BYTES = 12;
+    //A directory listed within this long of its mtime may still change inside the same mtime tick
+    //(FAT keeps 2s), such a listing is never reused
+    static final long MTIME_SLACK_MS = 2000;
+    //The artist MediaStore reports for files without tags
+    static final String UNKNOWN_ARTIST = "<unknown>";
+
+    private static final int STATE_MAGIC = 0x46534332; //"FSC2", "FSC1" had no tags
+    private static final String[] NONE = new String[0];
+
+    private static final ThreadLocal<ByteBuffer> HEADER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(SNIFF_BYTES);
+        }
+    };
+    private static final ThreadLocal<TagReader> READER = new ThreadLocal<TagReader>() {
+        @Override
+        protected TagReader initialValue() {
+            return new TagReader();
+        }
+    };
+
+    //One directory as it was last listed, files are sorted by name
+    private static class Directory {
+        //-1: list again on the next scan
+        final long modified;
+        final String[] subdirectories;
+        final String[] files;
+        final byte[] kinds;
+        //Seconds, the file's mtime when it was sniffed
+        final long[] fileModified;
+        //TagReader.FIELDS per file (title, artist, album, genre), null where the file has none
+        final String[] tags;
+        final long[] durations;
+
+        Directory(long modified, String[] subdirectories, String[] files, byte[] kinds, long[] fileModified,
+                  String[] tags, long[] durations) {
+            this.modified = modified;
+            this.subdirectories = subdirectories;
+            this.files = files;
+            this.kinds = kinds;
+            this.fileModified = fileModified;
+            this.tags = tags;
+            this.durations = durations;
+        }
+
+        static Directory empty(long modified) {
+            return new Directory(modified, NONE, NONE, new byte[0], new long[0], NONE, new long[0]);
+        }
+    }
+
+    public static class Result {
+        //Every audio file under the roots, whether or not it was seen before
+        public final List<Audio> tracks;
+        public final int directories;
+        public final int directoriesListed;
+        public final int files;
+        public final int filesSniffed;
+
+        Result(List<Audio> tracks, int directories, int directoriesListed, int files, int filesSniffed) {
+            this.tracks = tracks;
+            this.directories = directories;
+            this.directoriesListed = directoriesListed;
+            this.files = files;
+            this.filesSniffed = filesSniffed;
+        }
+    }
+
+    private final File stateFile;
+    private final ForkJoinPool pool;
+    //Directory path -> listing, loaded from stateFile on the first scan
+    private Map<String, Directory> state;
+
+    public FolderScanner(File stateFile, ForkJoinPool pool) {
+        this.stateFile = stateFile;
+        this.pool = pool;
+    }
+
+    /**
+     * Walks the roots, a root inside another root is only walked once. The state file is
+     * rewritten with the listings of this scan, folders no longer among the roots are dropped.
+     * Call from a background thread.
+     */
+    public synchronized Result scan(List<String> roots) {
+        if (state == null) state = loadState();
+        Walk walk = new Walk(state);
+        List<Audio> tracks = new ArrayList<>();
+        for (String root : distinctRoots(roots)) {
+            tracks.addAll(pool.invoke(walk.new DirectoryTask(new File(root))));
+        }
+        state = walk.next;
+        try {
+            saveState(state);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return new Result(tracks, walk.directories.get(), walk.listed.get(), walk.files.get(), walk.sniffed.get());
+    }
+
+    static List<String> distinctRoots(List<String> roots) {
+        List<String> sorted = new ArrayList<>();
+        for (String root : roots) {
+            String normalized = PathIndex.normalize(root);
+            while (normalized.length() > 1 && normalized.endsWith("/")) {
+                normalized = normalized.substring(0, normalized.length() - 1);
+            }
+            sorted.add(normalized);
+        }
+        Collections.sort(sorted);
+        List<String> distinct = new ArrayList<>();
+        for (String root : sorted) {
+            String last = distinct.isEmpty() ? null : distinct.get(distinct.size() - 1);
+            if (last != null && (root.equals(last) || root.startsWith(last.endsWith("/") ? last : last + "/"))) continue;
+            distinct.add(root);
+        }
+        return distinct;
+    }
+
+    private final class Walk {
+        final Map<String, Directory> previous;
+        final ConcurrentHashMap<String, Directory> next = new ConcurrentHashMap<>();
+        final AtomicInteger directories = new AtomicInteger();
+        final AtomicInteger listed = new AtomicInteger();
+        final AtomicInteger files = new AtomicInteger();
+        final AtomicInteger sniffed = new AtomicInteger();
+
+        Walk(Map<String, Directory> previous) {
+            this.previous = previous;
+        }
+
+        @SuppressWarnings("serial")
+        final class DirectoryTask extends RecursiveTask<List<Audio>> {
+            private final File dir;
+
+            DirectoryTask(File dir) {
+                this.dir = dir;
+            }
+
+            @Override
+            protected List<Audio> compute() {
+                long modified = dir.lastModified();
+                if (modified == 0) return Collections.emptyList(); //gone or unreadable
+                String path = dir.getPath();
+                Directory listing = previous.get(path);
+                if (listing == null || listing.modified != modified) {
+                    listing = list(listing, modified);
+                    listed.incrementAndGet();
+                }
+                next.put(path, listing);
+                directories.incrementAndGet();
+                files.addAndGet(listing.files.length);
+
+                List<DirectoryTask> children = new ArrayList<>(listing.subdirectories.length);
+                for (String name : listing.subdirectories) {
+                    children.add(new DirectoryTask(new File(dir, name)));
+                }
+                invokeAll(children);
+
+                List<Audio> found = new ArrayList<>();
+                for (int i = 0; i < listing.files.length; i++) {
+                    if (listing.kinds[i] != KIND_NONE) {
+                        found.add(toAudio(dir, listing, i));
+                    }
+                }
+                for (DirectoryTask child : children) {
+                    found.addAll(child.join());
+                }
+                return found;
+            }
+
+            //Files already sniffed with the same mtime keep their kind, only new or changed ones are opened
+            private Directory list(Directory previous, long modified) {
+                String[] names = dir.list();
+                if (names == null) return Directory.empty(-1);
+                Arrays.sort(names);
+                //MediaStore skips folders marked .nomedia, so do we
+                if (Arrays.binarySearch(names, ".nomedia") >= 0) return Directory.empty(modified);
+                List<String> subdirectories = new ArrayList<>();
+                List<String> fileNames = new ArrayList<>(names.length);
+                byte[] kinds = new byte[names.length];
+                long[] fileModified = new long[names.length];
+                String[] tags = new String[names.length * TagReader.FIELDS];
+                long[] durations = new long[names.length];
+                TagReader.Tags read = new TagReader.Tags();
+                for (String name : names) {
+                    if (name.startsWith(".")) continue;
+                    File file = new File(dir, name);
+                    if (file.isDirectory()) {
+                        subdirectories.add(name);
+                        continue;
+                    }
+                    int n = fileNames.size();
+                    fileModified[n] = file.lastModified() / 1000;
+                    int known = previous == null ? -1 : Arrays.binarySearch(previous.files, name);
+                    if (known >= 0 && previous.fileModified[known] == fileModified[n]) {
+                        kinds[n] = previous.kinds[known];
+                        System.arraycopy(previous.tags, known * TagReader.FIELDS, tags, n * TagReader.FIELDS, TagReader.FIELDS);
+                        durations[n] = previous.durations[known];
+                    } else {
+                        kinds[n] = sniff(file, read);
+                        tags[n * TagReader.FIELDS + TagReader.TITLE] = read.title;
+                        tags[n * TagReader.FIELDS + TagReader.ARTIST] = read.artist;
+                        tags[n * TagReader.FIELDS + TagReader.ALBUM] = read.album;
+                        tags[n * TagReader.FIELDS + TagReader.GENRE] = read.genre;
+                        durations[n] = read.durationMs;
+                        sniffed.incrementAndGet();
+                    }
+                    fileNames.add(name);
+                }
+                int n = fileNames.size();
+                boolean settled = System.currentTimeMillis() - modified >= MTIME_SLACK_MS;
+                return new Directory(settled ? modified : -1, subdirectories.toArray(NONE),
+                        fileNames.toArray(NONE), Arrays.copyOf(kinds, n), Arrays.copyOf(fileModified, n),
+                        Arrays.copyOf(tags, n * TagReader.FIELDS), Arrays.copyOf(durations, n));
+            }
+        }
+    }
+
+    //Without tags, the file and folder names stand in for title and album, as MediaStore does
+    private static Audio toAudio(File dir, Directory listing, int i) {
+        String name = listing.files[i];
+        String[] tags = listing.tags;
+        int at = i * TagReader.FIELDS;
+        int dot = name.lastIndexOf('.');
+        String title = tags[at + TagReader.TITLE] != null ? tags[at + TagReader.TITLE] : dot > 0 ? name.substring(0, dot) : name;
+        String album = tags[at + TagReader.ALBUM] != null ? tags[at + TagReader.ALBUM] : dir.getName();
+        String artist = tags[at + TagReader.ARTIST] != null ? tags[at + TagReader.ARTIST] : UNKNOWN_ARTIST;
+        Audio audio = new Audio(new File(dir, name).getPath(), title, album, artist, listing.fileModified[i]);
+        audio.setGenre(tags[at + TagReader.GENRE]);
+        audio.setDuration(listing.durations[i]);
+        return audio;
+    }
+
+    /**
+     * Sniffs the file and, when it is audio, reads its tags through the same open
+     * @param tags cleared, then filled for audio files
+     */
+    static byte sniff(File file, TagReader.Tags tags) {
+        ByteBuffer header = HEADER.get();
+        header.clear();
+        tags.clear();
+        byte kind;
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                while (header.hasRemaining() && channel.read(header) > 0) {
+                    //a short read of a regular file only happens at its end
+                }
+                header.flip();
+                kind = sniff(header, file.getName());
+                if (kind != KIND_NONE) READER.get().read(channel, tags);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            tags.clear();
+            return KIND_NONE;
+        }
+        return kind;
+    }
+
+    /**
+     * @param header the first bytes of the file, up to SNIFF_BYTES
+     * @param name   file name, only consulted for MP4 files whose brand does not say audio
+     */
+    static byte sniff(ByteBuffer header, String name) {
+        int n = header.remaining();
+        if (startsWith(header, 0, "ID3")) return KIND_MPEG;
+        if (startsWith(header, 0, "fLaC")) return KIND_FLAC;
+        if (startsWith(header, 0, "OggS")) return KIND_OGG;
+        if (startsWith(header, 0, "RIFF") && startsWith(header, 8, "WAVE")) return KIND_WAV;
+        if (startsWith(header, 0, "#!AMR")) return KIND_AMR;
+        if (startsWith(header, 0, "MThd")) return KIND_MIDI;
+        if (startsWith(header, 4, "ftyp")) {
+            if (startsWith(header, 8, "M4A ") || startsWith(header, 8, "M4B ")
+                    || startsWith(header, 8, "M4P ") || startsWith(header, 8, "F4A ")) return KIND_MP4;
+            //isom/mp42 are shared with video, there only the name tells
+            String lower = name.toLowerCase(Locale.ROOT);
+            return lower.endsWith(".m4a") || lower.endsWith(".m4b") ? KIND_MP4 : KIND_NONE;
+        }
+        if (n >= 3 && (header.get(0) & 0xFF) == 0xFF && (header.get(1) & 0xE0) == 0xE0) {
+            int b1 = header.get(1) & 0xFF;
+            //ADTS: 12 sync bits and layer 00
+            if ((b1 & 0xF6) == 0xF0) return KIND_AAC;
+            //MPEG audio frame: version and layer not reserved, a valid bitrate and sample rate
+            int b2 = header.get(2) & 0xFF;
+            if ((b1 & 0x18) != 0x08 && (b1 & 0x06) != 0 && (b2 & 0xF0) != 0xF0 && (b2 & 0x0C) != 0x0C) {
+                return KIND_MPEG;
+            }
+        }
+        return KIND_NONE;
+    }
+
+    private static boolean startsWith(ByteBuffer header, int offset, String magic) {
+        if (header.remaining() < offset + magic.length()) return false;
+        for (int i = 0; i < magic.length(); i++) {
+            if (header.get(header.position() + offset + i) != (byte) magic.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private Map<String, Directory> loadState() {
+        Map<String, Directory> loaded = new HashMap<>();
+        if (!stateFile.exists()) return loaded;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile), 64 * 1024));
+            try {
+                if (in.readInt() != STATE_MAGIC) return loaded;
+                int count = in.readInt();
+                for (int d = 0; d < count; d++) {
+                    String path = in.readUTF();
+                    long modified = in.readLong();
+                    String[] subdirectories = new String[in.readInt()];
+                    for (int i = 0; i < subdirectories.length; i++) subdirectories[i] = in.readUTF();
+                    int files = in.readInt();
+                    String[] names = new String[files];
+                    byte[] kinds = new byte[files];
+                    long[] fileModified = new long[files];
+                    String[] tags = new String[files * TagReader.FIELDS];
+                    long[] durations = new long[files];
+                    for (int i = 0; i < files; i++) {
+                        names[i] = in.readUTF();
+                        kinds[i] = in.readByte();
+                        fileModified[i] = in.readLong();
+                        //A bit per tag that follows
+                        int present = in.readByte();
+                        for (int f = 0; f < TagReader.FIELDS; f++) {
+                            if ((present & 1 << f) != 0) tags[i * TagReader.FIELDS + f] = in.readUTF();
+                        }
+                        durations[i] = in.readLong();
+                    }
+                    loaded.put(path, new Directory(modified, subdirectories, names, kinds, fileModified, tags, durations));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            //A damaged state only costs a full scan
+            e.printStackTrace();
+            loaded.clear();
+        }
+        return loaded;
+    }
+
+    private void saveState(Map<String, Directory> directories) throws IOException {
+        File temp = new File(stateFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+        try {
+            out.writeInt(STATE_MAGIC);
+            out.writeInt(directories.size());
+            for (Map.Entry<String, Directory> entry : directories.entrySet()) {
+                Directory directory = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(directory.modified);
+                out.writeInt(directory.subdirectories.length);
+                for (String name : directory.subdirectories) out.writeUTF(name);
+                out.writeInt(directory.files.length);
+                for (int i = 0; i < directory.files.length; i++) {
+                    out.writeUTF(directory.files[i]);
+                    out.writeByte(directory.kinds[i]);
+                    out.writeLong(directory.fileModified[i]);
+                    int present = 0;
+                    for (int f = 0; f < TagReader.FIELDS; f++) {
+                        if (directory.tags[i * TagReader.FIELDS + f] != null) present |= 1 << f;
+                    }
+                    out.writeByte(present);
+                    for (int f = 0; f < TagReader.FIELDS; f++) {
+                        String tag = directory.tags[i * TagReader.FIELDS + f];
+                        if (tag != null) out.writeUTF(tag);
+                    }
+                    out.writeLong(directory.durations[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(stateFile)) throw new IOException("cannot replace " + stateFile);
+    }
+}
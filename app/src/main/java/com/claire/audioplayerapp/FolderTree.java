@@ -0,0 +1,311 @@
+package com.claire.audioplayerapp;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 資料夾樹 Folders of the catalog, from the directories in Audio.getData()
+ * A path trie whose chains of single-child folders without tracks of their own are collapsed into
+ * one node ("storage/emulated/0/Music"), split again when a track or a sibling lands inside them.
+ * Nodes live in parallel arrays; track and duration totals include every subfolder and are
+ * updated along the parent chain as tracks are added. The sorted contents of a folder are only
+ * built when it is opened and a bounded number of them are cached. Used from the main thread,
+ * like AudioCatalog.
+ */
+public class FolderTree implements AudioCatalog.Listener {
+
+    public static final int ROOT = 0;
+    private static final char KEY_SEPARATOR = '\u001f';
+
+    /**
+     * Contents of one folder: subfolders in collation order, then its own tracks in catalog order
+     */
+    public static class Listing {
+        public final int[] folders;
+        public final int[] tracks;
+
+        Listing(int[] folders, int[] tracks) {
+            this.folders = folders;
+            this.tracks = tracks;
+        }
+    }
+
+    private final Collator collator;
+    private final LinkedHashMap<Integer, Listing> listings;
+
+    private int nodeCount;
+    private int[] parent = new int[64];
+    private int[] firstChild = new int[64];
+    private int[] nextSibling = new int[64];
+    private int[] firstTrack = new int[64];
+    private int[] lastTrack = new int[64];
+    private int[] trackCount = new int[64];
+    private long[] duration = new long[64];
+    //Path segments of the node, more than one for a collapsed chain
+    private String[][] label = new String[64][];
+    //parent + KEY_SEPARATOR + first segment of the child -> child
+    private final HashMap<String, Integer> childIndex = new HashMap<>();
+    //Directory path -> its node. Most tracks share a folder with others, so only the first one walks
+    //the trie; a split keeps the node of the deeper part, so entries stay valid
+    private final HashMap<String, Integer> folderNodes = new HashMap<>();
+    //Next track in the same folder, by ordinal, -1 ends the chain
+    private final IntList nextTrack = new IntList(1024);
+
+    public FolderTree(List<Audio> tracks, Locale locale, final int cachedListings) {
+        collator = Collator.getInstance(locale);
+        collator.setStrength(Collator.SECONDARY);
+        listings = new LinkedHashMap<Integer, Listing>(cachedListings * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Listing> eldest) {
+                return size() > cachedListings;
+            }
+        };
+        newNode(-1, new String[0]);
+        for (int i = 0; i < tracks.size(); i++) {
+            add(i, tracks.get(i));
+        }
+    }
+
+    @Override
+    public void onTracksAdded(int firstOrdinal, List<Audio> added) {
+        for (int i = 0; i < added.size(); i++) {
+            add(firstOrdinal + i, added.get(i));
+        }
+    }
+
+    private void add(int ordinal, Audio audio) {
+        String path = audio.getData();
+        String folder = path != null ? path.substring(0, Math.max(path.lastIndexOf('/'), 0)) : "";
+        Integer known = folderNodes.get(folder);
+        if (known != null) {
+            addTrack(known, ordinal, audio.getDuration());
+            return;
+        }
+        int node = find(folderSegments(path));
+        folderNodes.put(folder, node);
+        addTrack(node, ordinal, audio.getDuration());
+    }
+
+    //Node of a folder, created or split off as needed
+    private int find(String[] segments) {
+        int node = ROOT;
+        int i = 0;
+        while (i < segments.length) {
+            Integer child = childIndex.get(key(node, segments[i]));
+            if (child == null) {
+                //The rest of the path is new: one collapsed node
+                return attach(node, Arrays.copyOfRange(segments, i, segments.length));
+            }
+            String[] childLabel = label[child];
+            int matched = 1;
+            while (matched < childLabel.length && i + matched < segments.length
+                    && childLabel[matched].equals(segments[i + matched])) {
+                matched++;
+            }
+            node = matched < childLabel.length ? split(child, matched) : child;
+            i += matched;
+        }
+        return node;
+    }
+
+    //Directories of a path, the file name dropped
+    static String[] folderSegments(String path) {
+        if (path == null) return new String[0];
+        int end = path.lastIndexOf('/');
+        if (end <= 0) return new String[0];
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (path.charAt(i) != '/' && (i == 0 || path.charAt(i - 1) == '/')) count++;
+        }
+        String[] segments = new String[count];
+        int n = 0;
+        int start = -1;
+        for (int i = 0; i <= end; i++) {
+            boolean separator = i == end || path.charAt(i) == '/';
+            if (separator && start >= 0) {
+                segments[n++] = path.substring(start, i);
+                start = -1;
+            } else if (!separator && start < 0) {
+                start = i;
+            }
+        }
+        return segments;
+    }
+
+    private static String key(int node, String segment) {
+        return String.valueOf(node) + KEY_SEPARATOR + segment;
+    }
+
+    private int newNode(int parentNode, String[] segments) {
+        if (nodeCount == parent.length) grow();
+        int node = nodeCount++;
+        parent[node] = parentNode;
+        firstChild[node] = -1;
+        nextSibling[node] = -1;
+        firstTrack[node] = -1;
+        lastTrack[node] = -1;
+        trackCount[node] = 0;
+        duration[node] = 0;
+        label[node] = segments;
+        return node;
+    }
+
+    private int attach(int parentNode, String[] segments) {
+        int node = newNode(parentNode, segments);
+        nextSibling[node] = firstChild[parentNode];
+        firstChild[parentNode] = node;
+        childIndex.put(key(parentNode, segments[0]), node);
+        listings.remove(parentNode);
+        return node;
+    }
+
+    /**
+     * Cuts a collapsed node after its first keep segments, returns the new upper node, which
+     * takes the old node's place under the same parent and carries the same totals
+     */
+    private int split(int node, int keep) {
+        String[] segments = label[node];
+        int up = parent[node];
+        int upper = newNode(up, Arrays.copyOfRange(segments, 0, keep));
+        //Swap upper in for node in the parent's child chain
+        nextSibling[upper] = nextSibling[node];
+        if (firstChild[up] == node) {
+            firstChild[up] = upper;
+        } else {
+            int sibling = firstChild[up];
+            while (nextSibling[sibling] != node) sibling = nextSibling[sibling];
+            nextSibling[sibling] = upper;
+        }
+        childIndex.put(key(up, segments[0]), upper);
+
+        label[node] = Arrays.copyOfRange(segments, keep, segments.length);
+        parent[node] = upper;
+        nextSibling[node] = -1;
+        firstChild[upper] = node;
+        childIndex.put(key(upper, label[node][0]), node);
+        trackCount[upper] = trackCount[node];
+        duration[upper] = duration[node];
+        listings.remove(up);
+        return upper;
+    }
+
+    private void addTrack(int node, int ordinal, long durationMs) {
+        while (nextTrack.size() <= ordinal) nextTrack.add(-1);
+        if (lastTrack[node] < 0) {
+            firstTrack[node] = ordinal;
+        } else {
+            nextTrack.set(lastTrack[node], ordinal);
+        }
+        lastTrack[node] = ordinal;
+        listings.remove(node);
+        //Roll the totals up to the root
+        for (int n = node; n >= 0; n = parent[n]) {
+            trackCount[n]++;
+            duration[n] += durationMs;
+        }
+    }
+
+    private void grow() {
+        int capacity = parent.length * 2;
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        firstTrack = Arrays.copyOf(firstTrack, capacity);
+        lastTrack = Arrays.copyOf(lastTrack, capacity);
+        trackCount = Arrays.copyOf(trackCount, capacity);
+        duration = Arrays.copyOf(duration, capacity);
+        label = Arrays.copyOf(label, capacity);
+    }
+
+    /**
+     * The folder's contents, built on first open and cached until evicted or changed
+     */
+    public Listing open(int node) {
+        Listing listing = listings.get(node);
+        if (listing != null) return listing;
+
+        int folders = 0;
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) folders++;
+        Integer[] sorted = new Integer[folders];
+        int n = 0;
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) sorted[n++] = child;
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return collator.compare(label[a][0], label[b][0]);
+            }
+        });
+        int[] folderIds = new int[folders];
+        for (int i = 0; i < folders; i++) folderIds[i] = sorted[i];
+
+        IntList tracks = new IntList();
+        for (int t = firstTrack[node]; t >= 0; t = nextTrack.get(t)) tracks.add(t);
+
+        listing = new Listing(folderIds, tracks.toArray());
+        listings.put(node, listing);
+        return listing;
+    }
+
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    //"Music" or "storage/emulated/0/Music" for a collapsed chain
+    public String getName(int node) {
+        StringBuilder name = new StringBuilder();
+        for (String segment : label[node]) {
+            if (name.length() > 0) name.append('/');
+            name.append(segment);
+        }
+        return name.toString();
+    }
+
+    public String getPath(int node) {
+        if (node == ROOT) return "/";
+        String name = getName(node);
+        return parent[node] == ROOT ? "/" + name : getPath(parent[node]) + "/" + name;
+    }
+
+    //Tracks in the folder and all its subfolders
+    public int getTrackCount(int node) {
+        return trackCount[node];
+    }
+
+    public long getDuration(int node) {
+        return duration[node];
+    }
+
+    public int getFolderCount() {
+        return nodeCount;
+    }
+
+    //Under memory pressure, listings are built again on their next open
+    public void clearListings() {
+        listings.clear();
+    }
+
+    public long estimatedBytes() {
+        //The per-node arrays, the trie's keys and the listings held
+        long bytes = parent.length * (6L * 4 + 8 + 4) + nextTrack.estimatedBytes();
+        for (int node = 0; node < nodeCount; node++) {
+            for (String segment : label[node]) bytes += MemoryTrimmer.stringBytes(segment);
+        }
+        for (String key : childIndex.keySet()) bytes += MemoryTrimmer.ENTRY_BYTES + MemoryTrimmer.stringBytes(key);
+        for (String key : folderNodes.keySet()) bytes += MemoryTrimmer.ENTRY_BYTES + MemoryTrimmer.stringBytes(key);
+        for (Listing listing : listings.values()) {
+            bytes += MemoryTrimmer.ENTRY_BYTES + 4L * (listing.folders.length + listing.tracks.length);
+        }
+        return bytes;
+    }
+
+    //Listings currently held, for tests
+    int getCachedListingCount() {
+        return listings.size();
+    }
+}
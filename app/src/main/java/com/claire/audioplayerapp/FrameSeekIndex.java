@@ -0,0 +1,344 @@
+package com.claire.audioplayerapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * 影格索引 Where every frame of an MPEG audio (MP3) file starts, for exact seeks in VBR files
+ * MediaPlayer seeks a VBR MP3 from its Xing table of contents (100 points) or as if it were CBR,
+ * which lands seconds to minutes off in an audiobook or a long mix. Frames all last the same time,
+ * so a position maps to a frame number; the index turns that into the byte offset the frame starts
+ * at. Built once by reading the frame headers in a single streaming pass, then stored as one byte per
+ * frame (bitrate index and padding bit, the frame length follows from them) with the file's mtime
+ * and length, so a changed file is indexed again.
+ * <p>
+ * Only the frames up to the first broken header are indexed; positions past them are not covered.
+ */
+public class FrameSeekIndex {
+
+    private static final int MAGIC = 0x46534931; //"FSI1"
+    //A stored byte offset every this many frames, the rest is summed from the frame codes
+    private static final int CHECKPOINT_FRAMES = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //Sync, version, layer and sample rate: the same in every frame of a stream
+    private static final int SIGNATURE_MASK = 0xFFFE0C00;
+
+    private static final int[][] BITRATES_KBPS = {
+            //MPEG-1 layer I, II, III
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            //MPEG-2 and 2.5 layer I, then II and III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+    };
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+
+    private final int header;
+    private final long firstFrameOffset;
+    private final byte[] codes;
+    private final int frameCount;
+    private final boolean variableBitrate;
+    private final long[] checkpoints;
+
+    private FrameSeekIndex(int header, long firstFrameOffset, byte[] codes, int frameCount) {
+        this.header = header;
+        this.firstFrameOffset = firstFrameOffset;
+        this.codes = codes;
+        this.frameCount = frameCount;
+        boolean variable = false;
+        checkpoints = new long[(frameCount + CHECKPOINT_FRAMES - 1) / CHECKPOINT_FRAMES];
+        long offset = firstFrameOffset;
+        for (int i = 0; i < frameCount; i++) {
+            if (i % CHECKPOINT_FRAMES == 0) checkpoints[i / CHECKPOINT_FRAMES] = offset;
+            offset += frameLength(header, codes[i]);
+            variable |= (codes[i] & 0x0F) != (codes[0] & 0x0F);
+        }
+        variableBitrate = variable;
+    }
+
+    /**
+     * Reads the index stored for audio, or builds and stores it when there is none or the file changed
+     * @param directory where indexes are kept, e.g. the cache directory
+     */
+    public static FrameSeekIndex loadOrBuild(File directory, String path) throws IOException {
+        File audio = new File(path);
+        File stored = new File(directory, Long.toHexString(ListeningHistory.trackKey(path)) + ".seek");
+        FrameSeekIndex index = load(stored, audio);
+        if (index != null) return index;
+        index = build(audio);
+        if (directory.isDirectory() || directory.mkdirs()) index.save(stored, audio);
+        return index;
+    }
+
+    /**
+     * One pass over the file: ID3v2 tags are skipped, then frame after frame is read by its header
+     */
+    public static FrameSeekIndex build(File audio) throws IOException {
+        FrameReader in = new FrameReader(new FileInputStream(audio));
+        try {
+            long length = audio.length();
+            long offset = skipTags(in);
+            //The first header is only believed when the frame after it starts where it says
+            int header = 0;
+            while (offset + 4 <= length) {
+                int candidate = in.readInt(offset);
+                int size = frameLength(candidate);
+                if (size > 0 && offset + size + 4 <= length
+                        && (in.readInt(offset + size) & SIGNATURE_MASK) == (candidate & SIGNATURE_MASK)
+                        && frameLength(in.readInt(offset + size)) > 0) {
+                    header = candidate;
+                    break;
+                }
+                offset++;
+            }
+            if (header == 0) return new FrameSeekIndex(0, offset, new byte[0], 0);
+            //A Xing, Info or VBRI frame at the start carries no audio
+            if (isInfoFrame(in, offset, header)) offset += frameLength(header);
+
+            long first = offset;
+            //Sized for the first frame's bitrate, grown when the rest are smaller
+            byte[] codes = new byte[(int) Math.min((length - offset) / frameLength(header) + 16, Integer.MAX_VALUE - 8)];
+            int count = 0;
+            while (offset + 4 <= length) {
+                int next = in.readInt(offset);
+                int size = frameLength(next);
+                if ((next & SIGNATURE_MASK) != (header & SIGNATURE_MASK) || size <= 0 || offset + size > length) break;
+                if (count == codes.length) codes = Arrays.copyOf(codes, count + (count >> 1) + 16);
+                codes[count++] = code(next);
+                offset += size;
+            }
+            return new FrameSeekIndex(header, first, Arrays.copyOf(codes, count), count);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long skipTags(FrameReader in) throws IOException {
+        long offset = 0;
+        while (in.available(offset, 10) && in.byteAt(offset) == 'I' && in.byteAt(offset + 1) == 'D'
+                && in.byteAt(offset + 2) == '3') {
+            //Syncsafe size, plus the header and an optional footer
+            int size = (in.byteAt(offset + 6) & 0x7F) << 21 | (in.byteAt(offset + 7) & 0x7F) << 14
+                    | (in.byteAt(offset + 8) & 0x7F) << 7 | in.byteAt(offset + 9) & 0x7F;
+            boolean footer = (in.byteAt(offset + 5) & 0x10) != 0;
+            offset += 10 + size + (footer ? 10 : 0);
+        }
+        return offset;
+    }
+
+    private static boolean isInfoFrame(FrameReader in, long offset, int header) throws IOException {
+        boolean mpeg1 = (header >>> 19 & 3) == 3;
+        boolean mono = (header >>> 6 & 3) == 3;
+        long xing = offset + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+        return tagAt(in, xing, "Xing") || tagAt(in, xing, "Info") || tagAt(in, offset + 36, "VBRI");
+    }
+
+    private static boolean tagAt(FrameReader in, long offset, String tag) throws IOException {
+        if (!in.available(offset, 4)) return false;
+        for (int i = 0; i < 4; i++) {
+            if (in.byteAt(offset + i) != tag.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static byte code(int header) {
+        return (byte) ((header >>> 12 & 0x0F) | (header >>> 9 & 1) << 4);
+    }
+
+    //Bytes in the frame that starts with this header, 0 when it is not a usable header
+    static int frameLength(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) return 0;
+        int version = header >>> 19 & 3;
+        int layer = header >>> 17 & 3;
+        int bitrate = header >>> 12 & 0x0F;
+        int rate = header >>> 10 & 3;
+        if (version == 1 || layer == 0 || bitrate == 0 || bitrate == 15 || rate == 3) return 0;
+        return frameLength(header, code(header));
+    }
+
+    private static int frameLength(int header, byte code) {
+        int version = header >>> 19 & 3;
+        int layer = 4 - (header >>> 17 & 3);
+        boolean mpeg1 = version == 3;
+        int table = mpeg1 ? layer - 1 : (layer == 1 ? 3 : 4);
+        int bitrate = BITRATES_KBPS[table][code & 0x0F] * 1000;
+        int sampleRate = sampleRate(header);
+        int padding = code >>> 4 & 1;
+        if (layer == 1) return (12 * bitrate / sampleRate + padding) * 4;
+        return (layer == 3 && !mpeg1 ? 72 : 144) * bitrate / sampleRate + padding;
+    }
+
+    private static int sampleRate(int header) {
+        int version = header >>> 19 & 3;
+        int rate = SAMPLE_RATES[header >>> 10 & 3];
+        return version == 3 ? rate : version == 2 ? rate / 2 : rate / 4;
+    }
+
+    private static int samplesPerFrame(int header) {
+        int layer = 4 - (header >>> 17 & 3);
+        if (layer == 1) return 384;
+        return layer == 3 && (header >>> 19 & 3) != 3 ? 576 : 1152;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    //Frame lengths differ; a CBR file seeks exactly without the index
+    public boolean isVariableBitrate() {
+        return variableBitrate;
+    }
+
+    public long getDurationMs() {
+        return timeOfFrame(frameCount);
+    }
+
+    /**
+     * @return the frame playing at positionMs, -1 past the indexed frames
+     */
+    public int frameAt(long positionMs) {
+        if (frameCount == 0) return -1;
+        long frame = positionMs * sampleRate(header) / (1000L * samplesPerFrame(header));
+        return frame < frameCount ? (int) Math.max(frame, 0) : -1;
+    }
+
+    public long timeOfFrame(int frame) {
+        return frameCount == 0 ? 0 : (long) frame * samplesPerFrame(header) * 1000 / sampleRate(header);
+    }
+
+    //Byte offset in the file where the frame's header starts
+    public long offsetOfFrame(int frame) {
+        if (frame >= frameCount) throw new IndexOutOfBoundsException("frame " + frame + " of " + frameCount);
+        long offset = checkpoints[frame / CHECKPOINT_FRAMES];
+        for (int i = frame - frame % CHECKPOINT_FRAMES; i < frame; i++) offset += frameLength(header, codes[i]);
+        return offset;
+    }
+
+    //Bytes held, one per frame plus the checkpoints
+    public long estimatedBytes() {
+        return codes.length + 8L * checkpoints.length;
+    }
+
+    private void save(File stored, File audio) throws IOException {
+        File temp = new File(stored.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(audio.getPath());
+            out.writeLong(audio.lastModified());
+            out.writeLong(audio.length());
+            out.writeInt(header);
+            out.writeLong(firstFrameOffset);
+            out.writeInt(frameCount);
+            out.write(codes, 0, frameCount);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(stored)) throw new IOException("rename failed " + temp);
+    }
+
+    //null when nothing is stored for this file as it is now
+    private static FrameSeekIndex load(File stored, File audio) {
+        if (!stored.isFile()) return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stored)));
+            try {
+                if (in.readInt() != MAGIC || !in.readUTF().equals(audio.getPath())
+                        || in.readLong() != audio.lastModified() || in.readLong() != audio.length()) {
+                    return null;
+                }
+                int header = in.readInt();
+                long firstFrameOffset = in.readLong();
+                byte[] codes = new byte[in.readInt()];
+                in.readFully(codes);
+                return new FrameSeekIndex(header, firstFrameOffset, codes, codes.length);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Forward-only reads over a stream through one buffer. Offsets must not go back further than
+     * the start of the buffer; skipping ahead past it skips the stream.
+     */
+    private static class FrameReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        //File offset of buffer[0], and the bytes in the buffer
+        private long start;
+        private int filled;
+        private boolean ended;
+
+        FrameReader(InputStream in) {
+            this.in = in;
+        }
+
+        boolean available(long offset, int count) throws IOException {
+            fill(offset, count);
+            return offset + count <= start + filled;
+        }
+
+        int byteAt(long offset) throws IOException {
+            fill(offset, 1);
+            if (offset >= start + filled) throw new IOException("end of file at " + offset);
+            return buffer[(int) (offset - start)] & 0xFF;
+        }
+
+        int readInt(long offset) throws IOException {
+            fill(offset, 4);
+            if (offset + 4 > start + filled) throw new IOException("end of file at " + offset);
+            int at = (int) (offset - start);
+            return (buffer[at] & 0xFF) << 24 | (buffer[at + 1] & 0xFF) << 16 | (buffer[at + 2] & 0xFF) << 8
+                    | buffer[at + 3] & 0xFF;
+        }
+
+        //Makes [offset, offset + count) part of the buffer, as far as the stream goes
+        private void fill(long offset, int count) throws IOException {
+            if (offset < start) throw new IOException("offset " + offset + " is behind " + start);
+            if (offset + count <= start + filled || ended) return;
+            if (offset >= start + filled) {
+                //Everything buffered is behind us
+                long skip = offset - (start + filled);
+                while (skip > 0) {
+                    long skipped = in.skip(skip);
+                    if (skipped <= 0) {
+                        ended = true;
+                        return;
+                    }
+                    skip -= skipped;
+                }
+                start = offset;
+                filled = 0;
+            } else {
+                int keep = (int) (start + filled - offset);
+                System.arraycopy(buffer, (int) (offset - start), buffer, 0, keep);
+                start = offset;
+                filled = keep;
+            }
+            while (filled < buffer.length) {
+                int read = in.read(buffer, filled, buffer.length - filled);
+                if (read < 0) {
+                    ended = true;
+                    break;
+                }
+                filled += read;
+            }
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.claire.audioplayerapp;
+
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 標題圖片載入 Header images of the collapsing toolbar
+ * Each image is decoded once, off the main thread, subsampled to the size of the ImageView and
+ * without alpha, then kept in a byte-bounded LruCache. Showing an image also decodes the next one
+ * in the cycle, so clicking through them finds every image ready. Used from the main thread.
+ */
+public class HeaderImageLoader implements MemoryTrimmer.Trimmable {
+
+    private final Resources resources;
+    private final int[] imageIds;
+    private final LruCache<Integer, Bitmap> cache;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HeaderImageLoader");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final int fallbackWidth;
+    private final int fallbackHeight;
+
+    //Main thread only
+    private ImageView target;
+    private int requested = -1;
+    private final boolean[] decoding;
+
+    /**
+     * @param arrayId typed array of drawable resources, e.g. R.array.images
+     * @param fallbackHeight used until the ImageView has been laid out
+     */
+    public HeaderImageLoader(Resources resources, int arrayId, int fallbackHeight) {
+        this.resources = resources;
+        //Read the resource IDs once and give the TypedArray back
+        TypedArray array = resources.obtainTypedArray(arrayId);
+        imageIds = new int[array.length()];
+        for (int i = 0; i < imageIds.length; i++) {
+            imageIds[i] = array.getResourceId(i, 0);
+        }
+        array.recycle();
+        decoding = new boolean[imageIds.length];
+
+        this.fallbackWidth = resources.getDisplayMetrics().widthPixels;
+        this.fallbackHeight = fallbackHeight;
+        //Three headers in RGB_565, doubled because subsampling stops short of the view size,
+        //and never more than 1/16 of the heap
+        int maxKb = (int) Math.min(Runtime.getRuntime().maxMemory() / 1024 / 16,
+                3L * fallbackWidth * fallbackHeight * 2 / 1024 * 2);
+        cache = new LruCache<Integer, Bitmap>(Math.max(maxKb, 1)) {
+            @Override
+            protected int sizeOf(Integer key, Bitmap value) {
+                return value.getByteCount() / 1024;
+            }
+        };
+    }
+
+    public int getCount() {
+        return imageIds.length;
+    }
+
+    /**
+     * Shows image index in view, from the cache or as soon as it is decoded, and prefetches the next
+     */
+    public void load(int index, ImageView view) {
+        target = view;
+        requested = index;
+        Bitmap bitmap = cache.get(index);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+        } else {
+            decode(index);
+        }
+        prefetch((index + 1) % imageIds.length);
+    }
+
+    public void prefetch(int index) {
+        if (cache.get(index) == null) decode(index);
+    }
+
+    private void decode(final int index) {
+        if (decoding[index]) return;
+        decoding[index] = true;
+        final int width = target != null && target.getWidth() > 0 ? target.getWidth() : fallbackWidth;
+        final int height = target != null && target.getHeight() > 0 ? target.getHeight() : fallbackHeight;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = decodeSampled(imageIds[index], width, height);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        decoding[index] = false;
+                        if (bitmap == null) return;
+                        cache.put(index, bitmap);
+                        if (index == requested && target != null) target.setImageBitmap(bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    //Largest power-of-two subsampling that still covers width x height (centerCrop)
+    private Bitmap decodeSampled(int resId, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        //Decode at the file's pixel size, not scaled up for the screen density
+        options.inScaled = false;
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, options);
+        int sample = 1;
+        while (options.outWidth / (sample * 2) >= width && options.outHeight / (sample * 2) >= height) {
+            sample *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sample;
+        //The photos have no alpha, 2 bytes per pixel instead of 4
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeResource(resources, resId, options);
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return cache.size() * 1024L;
+    }
+
+    /**
+     * Gives memory back under pressure, the image on screen stays referenced by its ImageView
+     */
+    @Override
+    public void trim(boolean all) {
+        if (all) {
+            cache.evictAll();
+        } else {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    public void close() {
+        executor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+        cache.evictAll();
+        target = null;
+    }
+}
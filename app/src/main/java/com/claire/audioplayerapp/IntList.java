@@ -0,0 +1,73 @@
+package com.claire.audioplayerapp;
+
+import java.util.Arrays;
+
+/**
+ * 基本型別的 int 列表 Growable list of primitive ints
+ * Used for track ordinals (positions in the audio catalog) so large lists do not box every entry.
+ */
+public class IntList {
+
+    private int[] values;
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    public static IntList of(int[] source, int count) {
+        IntList list = new IntList(count);
+        System.arraycopy(source, 0, list.values, 0, count);
+        list.size = count;
+        return list;
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        }
+        values[size++] = value;
+    }
+
+    public int get(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        return values[index];
+    }
+
+    public void set(int index, int value) {
+        if (index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        values[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int indexOf(int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) return i;
+        }
+        return -1;
+    }
+
+    //Capacity included, for MemoryTrimmer
+    public long estimatedBytes() {
+        return 4L * values.length;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
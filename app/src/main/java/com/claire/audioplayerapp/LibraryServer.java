@@ -0,0 +1,499 @@
+package com.claire.audioplayerapp;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 區域網路串流 The catalog and its audio files over HTTP, for other devices on the LAN
+ * One selector thread at minimum priority multiplexes every connection, so dozens of clients
+ * cost no extra threads and never outrank playback. A track body goes from the file to the
+ * socket with FileChannel.transferTo() (sendfile, no copy through the heap) in bounded slices,
+ * one slice per connection per ready event, so a fast client cannot starve the others.
+ * Only catalog ordinals are served, never a path from the request.
+ * <p>
+ * GET /catalog?offset=0&amp;limit=100  a page of the catalog as JSON<br>
+ * GET|HEAD /tracks/{ordinal}         the file; a single "Range: bytes=" is answered with 206
+ */
+public class LibraryServer {
+
+    private static final String TAG = "LibraryServer";
+    private static final int MAX_CONNECTIONS = 64;
+    private static final int MAX_REQUEST_BYTES = 8192;
+    private static final long SLICE_BYTES = 256 * 1024;
+    private static final int DEFAULT_PAGE = 100;
+    private static final int MAX_PAGE = 1000;
+    //Connections silent for longer are closed, so idle clients don't hold slots
+    private static final long IDLE_TIMEOUT_MS = 30000;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int requestedPort;
+    private volatile List<Audio> catalog;
+    private ServerSocketChannel server;
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running;
+    private int connections;
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    //One client connection: the request being read, then the response being written
+    private static class Connection {
+        final SocketChannel channel;
+        final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        ByteBuffer head;
+        FileChannel file;
+        long position;
+        long end;
+        boolean keepAlive;
+        long lastActive;
+
+        Connection(SocketChannel channel, long now) {
+            this.channel = channel;
+            this.lastActive = now;
+        }
+    }
+
+    /**
+     * @param port 0 picks a free port, see getPort()
+     */
+    public LibraryServer(List<Audio> catalog, int port) {
+        this.catalog = catalog;
+        this.requestedPort = port;
+    }
+
+    //A new catalog mapping, ordinals of the old one stay valid
+    public void setCatalog(List<Audio> catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Binds the port on the calling thread, so a port in use fails here, then serves on its own thread
+     */
+    public synchronized void start() throws IOException {
+        if (running) return;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(new InetSocketAddress(requestedPort));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * First site-local IPv4 address of this device, what other devices on the LAN connect to,
+     * null when there is no network
+     */
+    public static String getLanAddress() {
+        try {
+            for (NetworkInterface network : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!network.isUp() || network.isLoopback()) continue;
+                for (InetAddress address : Collections.list(network.getInetAddresses())) {
+                    if (address instanceof Inet4Address && address.isSiteLocalAddress()) return address.getHostAddress();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private void serve() {
+        try {
+            while (running) {
+                selector.select(IDLE_TIMEOUT_MS / 2);
+                long now = System.currentTimeMillis();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept(now);
+                        } else if (key.isReadable()) {
+                            read(key, now);
+                        } else if (key.isWritable()) {
+                            write(key, now);
+                        }
+                    } catch (IOException e) {
+                        //The client went away mid-request
+                        close(key);
+                    } catch (RuntimeException e) {
+                        //One bad request must not take the server down
+                        e.printStackTrace();
+                        close(key);
+                    }
+                }
+                closeIdle(now);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() != null) close(key);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept(long now) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            if (connections >= MAX_CONNECTIONS) {
+                channel.close();
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel, now));
+            connections++;
+        }
+    }
+
+    private void read(SelectionKey key, long now) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        if (connection.channel.read(connection.request) < 0) {
+            close(key);
+            return;
+        }
+        connection.lastActive = now;
+        handleRequest(key, connection);
+    }
+
+    //Answers the request in the buffer once its head is complete
+    private void handleRequest(SelectionKey key, Connection connection) throws IOException {
+        ByteBuffer buffer = connection.request;
+        int headEnd = findHeadEnd(buffer);
+        if (headEnd < 0) {
+            if (!buffer.hasRemaining()) {
+                respond(connection, 431, "Request Header Fields Too Large", null, false);
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+            return;
+        }
+        String head = new String(buffer.array(), 0, headEnd, ASCII);
+        //Keep anything pipelined after this request
+        buffer.flip();
+        buffer.position(headEnd + 4);
+        buffer.compact();
+        answer(connection, head);
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private static int findHeadEnd(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        for (int i = 0; i + 3 < buffer.position(); i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private void answer(Connection connection, String head) {
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            respond(connection, 400, "Bad Request", null, false);
+            return;
+        }
+        String method = requestLine[0];
+        String target = requestLine[1];
+        boolean keepAlive = !"HTTP/1.0".equals(requestLine[2]);
+        String range = null;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) continue;
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Range")) {
+                range = value;
+            } else if (name.equalsIgnoreCase("Connection")) {
+                keepAlive = value.equalsIgnoreCase("keep-alive") || (keepAlive && !value.equalsIgnoreCase("close"));
+            }
+        }
+        boolean headOnly = method.equals("HEAD");
+        if (!headOnly && !method.equals("GET")) {
+            respond(connection, 405, "Method Not Allowed", null, keepAlive);
+            return;
+        }
+        int query = target.indexOf('?');
+        String path = query >= 0 ? target.substring(0, query) : target;
+        if (path.equals("/catalog")) {
+            byte[] body = catalogPage(query >= 0 ? target.substring(query + 1) : "").getBytes(UTF_8);
+            respond(connection, 200, "OK", "Content-Type: application/json; charset=utf-8\r\n"
+                    + "Content-Length: " + body.length + "\r\n", keepAlive);
+            if (!headOnly) connection.head = concat(connection.head, body);
+        } else if (path.startsWith("/tracks/")) {
+            serveTrack(connection, path.substring("/tracks/".length()), range, headOnly, keepAlive);
+        } else {
+            respond(connection, 404, "Not Found", null, keepAlive);
+        }
+    }
+
+    private void serveTrack(Connection connection, String id, String range, boolean headOnly, boolean keepAlive) {
+        List<Audio> tracks = catalog;
+        int ordinal = parseOrdinal(id);
+        if (ordinal < 0 || ordinal >= tracks.size()) {
+            respond(connection, 404, "Not Found", null, keepAlive);
+            return;
+        }
+        String path = tracks.get(ordinal).getData();
+        FileChannel file;
+        long size;
+        try {
+            file = new RandomAccessFile(path, "r").getChannel();
+            size = file.size();
+        } catch (IOException e) {
+            respond(connection, 404, "Not Found", null, keepAlive);
+            return;
+        }
+        long[] span = parseRange(range, size);
+        if (span != null && span[0] < 0) {
+            closeQuietly(file);
+            respond(connection, 416, "Range Not Satisfiable", "Content-Range: bytes */" + size + "\r\n", keepAlive);
+            return;
+        }
+        long start = span != null ? span[0] : 0;
+        long end = span != null ? span[1] : size;
+        String headers = "Content-Type: " + contentType(path) + "\r\n"
+                + "Content-Length: " + (end - start) + "\r\n"
+                + "Accept-Ranges: bytes\r\n"
+                + (span != null ? "Content-Range: bytes " + start + "-" + (end - 1) + "/" + size + "\r\n" : "");
+        if (span != null) {
+            respond(connection, 206, "Partial Content", headers, keepAlive);
+        } else {
+            respond(connection, 200, "OK", headers, keepAlive);
+        }
+        if (headOnly || start == end) {
+            closeQuietly(file);
+            return;
+        }
+        connection.file = file;
+        connection.position = start;
+        connection.end = end;
+    }
+
+    //Status line and headers, a response without headers of its own has an empty body
+    private static void respond(Connection connection, int status, String reason, String headers, boolean keepAlive) {
+        StringBuilder head = new StringBuilder(256)
+                .append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        head.append(headers != null ? headers : "Content-Length: 0\r\n");
+        head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        connection.head = ByteBuffer.wrap(head.toString().getBytes(ASCII));
+        connection.keepAlive = keepAlive;
+    }
+
+    private static ByteBuffer concat(ByteBuffer head, byte[] body) {
+        ByteBuffer joined = ByteBuffer.allocate(head.remaining() + body.length);
+        joined.put(head).put(body).flip();
+        return joined;
+    }
+
+    private void write(SelectionKey key, long now) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.lastActive = now;
+        if (connection.head != null && connection.head.hasRemaining()) {
+            connection.channel.write(connection.head);
+            if (connection.head.hasRemaining()) return;
+        }
+        if (connection.file != null) {
+            long slice = Math.min(SLICE_BYTES, connection.end - connection.position);
+            long sent = connection.file.transferTo(connection.position, slice, connection.channel);
+            connection.position += sent;
+            bytesSent.addAndGet(sent);
+            if (connection.position < connection.end) return;
+            closeQuietly(connection.file);
+            connection.file = null;
+        }
+        connection.head = null;
+        if (!connection.keepAlive) {
+            close(key);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        //A pipelined request may already be complete
+        if (connection.request.position() > 0) handleRequest(key, connection);
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Connection connection = (Connection) key.attachment();
+            if (connection != null && now - connection.lastActive > IDLE_TIMEOUT_MS) close(key);
+        }
+    }
+
+    private void close(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        //The accepting key has no connection and stays registered
+        if (connection == null) return;
+        key.cancel();
+        key.attach(null);
+        connections--;
+        if (connection.file != null) closeQuietly(connection.file);
+        closeQuietly(connection.channel);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int parseOrdinal(String id) {
+        if (id.isEmpty() || id.length() > 9) return -1;
+        for (int i = 0; i < id.length(); i++) {
+            if (id.charAt(i) < '0' || id.charAt(i) > '9') return -1;
+        }
+        return Integer.parseInt(id);
+    }
+
+    /**
+     * [start, end) of a single "bytes=" range, {-1, -1} when it lies beyond the file, null for no
+     * range, a malformed one or several (the whole file is sent then)
+     */
+    static long[] parseRange(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) return null;
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                //The last n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) return new long[]{-1, -1};
+                return new long[]{Math.max(0, size - suffix), size};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last) + 1;
+            if (end <= start) return null;
+            if (start >= size) return new long[]{-1, -1};
+            return new long[]{start, Math.min(end, size)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static String contentType(String path) {
+        String lower = path.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".mp3")) return "audio/mpeg";
+        if (lower.endsWith(".m4a") || lower.endsWith(".aac") || lower.endsWith(".mp4")) return "audio/mp4";
+        if (lower.endsWith(".flac")) return "audio/flac";
+        if (lower.endsWith(".ogg") || lower.endsWith(".oga")) return "audio/ogg";
+        if (lower.endsWith(".opus")) return "audio/opus";
+        if (lower.endsWith(".wav")) return "audio/wav";
+        return "application/octet-stream";
+    }
+
+    /**
+     * {"total": n, "offset": o, "tracks": [{"id", "title", "artist", "album", "genre", "duration"}]},
+     * file paths stay on the device, a track is fetched by its id
+     */
+    private String catalogPage(String query) {
+        List<Audio> tracks = catalog;
+        int offset = Math.max(0, queryInt(query, "offset", 0));
+        int limit = Math.min(MAX_PAGE, Math.max(0, queryInt(query, "limit", DEFAULT_PAGE)));
+        int total = tracks.size();
+        int end = (int) Math.min(total, (long) offset + limit);
+        StringWriter out = new StringWriter(128 + 160 * Math.max(0, end - offset));
+        try {
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject();
+            json.name("total").value(total);
+            json.name("offset").value(offset);
+            json.name("tracks").beginArray();
+            for (int i = offset; i < end; i++) {
+                Audio audio = tracks.get(i);
+                json.beginObject();
+                json.name("id").value(i);
+                json.name("title").value(audio.getTitle());
+                json.name("artist").value(audio.getArtist());
+                json.name("album").value(audio.getAlbum());
+                json.name("genre").value(audio.getGenre());
+                json.name("duration").value(audio.getDuration());
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+            json.close();
+        } catch (IOException e) {
+            //A StringWriter does not fail
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static int queryInt(String query, String name, int fallback) {
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                try {
+                    return Integer.parseInt(pair.substring(equals + 1));
+                } catch (NumberFormatException e) {
+                    return fallback;
+                }
+            }
+        }
+        return fallback;
+    }
+}
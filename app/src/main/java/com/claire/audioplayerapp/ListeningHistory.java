@@ -0,0 +1,559 @@
+package com.claire.audioplayerapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 收聽紀錄 Listening history
+ * Play/skip/complete events are appended as fixed 24-byte records to history.log, in batches,
+ * from a single background thread. Compaction folds the log into per-track aggregates
+ * (history.agg) and truncates it, so queries such as most played, recently played and skip rate
+ * only ever look at one small entry per track and never load the raw log into memory.
+ *
+ * Record: time (ms, strictly increasing) | track key (64-bit path hash) | position ms | event | pad
+ */
+public class ListeningHistory {
+
+    public static final byte EVENT_PLAY = 1;
+    public static final byte EVENT_SKIP = 2;
+    public static final byte EVENT_COMPLETE = 3;
+
+    static final int RECORD_SIZE = 24;
+    private static final int BATCH_RECORDS = 32;
+    //Compact once the raw log holds this many records (about 100KB)
+    private static final int COMPACT_RECORDS = 4096;
+    private static final int AGG_MAGIC = 0x4c484147; //"LHAG"
+    private static final int AGG_HEADER_SIZE = 4 + 8 + 4;
+    private static final int AGG_ENTRY_SIZE = 8 + 4 + 4 + 4 + 8;
+
+    private final File logFile;
+    private final File aggregateFile;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    //Events not yet handed to the executor, guarded by this
+    private ByteBuffer pending = newBatch();
+    private long lastTime;
+
+    //Aggregates, written on the executor and read under aggregateLock
+    private final Object aggregateLock = new Object();
+    private long[] keys = new long[1024];
+    private int[] plays = new int[1024];
+    private int[] skips = new int[1024];
+    private int[] completes = new int[1024];
+    private long[] lastPlayed = new long[1024];
+    private int used;
+    //Only touched on the executor: time of the newest record folded into the aggregate file
+    private long foldedUntil;
+    private long loggedRecords;
+
+    public ListeningHistory(File directory) {
+        logFile = new File(directory, "history.log");
+        aggregateFile = new File(directory, "history.agg");
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Stable 64-bit key for a track (FNV-1a over the path), shared with other history users
+     */
+    public static long trackKey(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        //0 marks an empty slot
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Called from the main thread, only copies 24 bytes unless a batch is full
+     */
+    public void record(byte event, String path, int positionMs) {
+        if (path == null) return;
+        ByteBuffer full = null;
+        synchronized (this) {
+            long now = Math.max(System.currentTimeMillis(), lastTime + 1);
+            lastTime = now;
+            pending.putLong(now).putLong(trackKey(path)).putInt(positionMs).put(event).put((byte) 0).putShort((short) 0);
+            if (!pending.hasRemaining()) {
+                full = pending;
+                pending = newBatch();
+            }
+        }
+        if (full != null) submit(full);
+    }
+
+    /**
+     * Hands the partial batch to the writer, e.g. when playback pauses
+     */
+    public void flush() {
+        ByteBuffer batch;
+        synchronized (this) {
+            if (pending.position() == 0) return;
+            batch = pending;
+            pending = newBatch();
+        }
+        submit(batch);
+    }
+
+    public void close() {
+        flush();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for queued writes, for tests and shutdown paths
+     */
+    public void awaitIdle() throws InterruptedException {
+        final Object done = new Object();
+        final boolean[] finished = {false};
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (done) {
+                    finished[0] = true;
+                    done.notifyAll();
+                }
+            }
+        });
+        synchronized (done) {
+            while (!finished[0]) done.wait();
+        }
+    }
+
+    private static ByteBuffer newBatch() {
+        return ByteBuffer.allocate(BATCH_RECORDS * RECORD_SIZE);
+    }
+
+    private void submit(final ByteBuffer batch) {
+        if (executor.isShutdown()) return;
+        batch.flip();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(batch);
+            }
+        });
+    }
+
+    //Executor thread
+    private void append(ByteBuffer batch) {
+        try {
+            FileOutputStream out = new FileOutputStream(logFile, true);
+            try {
+                FileChannel channel = out.getChannel();
+                while (batch.hasRemaining()) channel.write(batch);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        batch.rewind();
+        synchronized (aggregateLock) {
+            while (batch.hasRemaining()) fold(batch);
+        }
+        loggedRecords += batch.limit() / RECORD_SIZE;
+        if (loggedRecords >= COMPACT_RECORDS) compact();
+    }
+
+    //Executor thread: aggregate file first, then whatever the log holds after it
+    private void load() {
+        synchronized (aggregateLock) {
+            readAggregates();
+            loggedRecords = 0;
+            if (!logFile.exists()) return;
+            ByteBuffer buffer = ByteBuffer.allocate(256 * RECORD_SIZE);
+            try {
+                RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+                try {
+                    //Drop a torn record left by a crash, later appends must stay aligned
+                    long length = file.length() - file.length() % RECORD_SIZE;
+                    file.setLength(length);
+                    FileChannel channel = file.getChannel();
+                    long position = 0;
+                    while (position < length) {
+                        buffer.clear();
+                        int read = channel.read(buffer, position);
+                        if (read <= 0) break;
+                        position += read;
+                        buffer.flip();
+                        while (buffer.remaining() >= RECORD_SIZE) {
+                            //Records at or before the watermark are already in the aggregate file
+                            if (buffer.getLong(buffer.position()) > foldedUntil) {
+                                fold(buffer);
+                                loggedRecords++;
+                            } else {
+                                buffer.position(buffer.position() + RECORD_SIZE);
+                            }
+                        }
+                        position -= buffer.remaining();
+                    }
+                } finally {
+                    file.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void readAggregates() {
+        if (!aggregateFile.exists()) return;
+        try {
+            RandomAccessFile file = new RandomAccessFile(aggregateFile, "r");
+            try {
+                ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                if (buffer.getInt() != AGG_MAGIC) return;
+                foldedUntil = buffer.getLong();
+                int count = buffer.getInt();
+                for (int i = 0; i < count; i++) {
+                    int slot = slot(buffer.getLong());
+                    plays[slot] = buffer.getInt();
+                    skips[slot] = buffer.getInt();
+                    completes[slot] = buffer.getInt();
+                    lastPlayed[slot] = buffer.getLong();
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //Executor thread: write aggregates to a new file, swap it in, then truncate the log
+    private void compact() {
+        if (loggedRecords == 0) return;
+        File temp = new File(aggregateFile.getPath() + ".tmp");
+        try {
+            long watermark;
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                FileChannel channel = out.getChannel();
+                ByteBuffer buffer;
+                synchronized (aggregateLock) {
+                    watermark = lastLoggedTime();
+                    buffer = ByteBuffer.allocate(AGG_HEADER_SIZE + used * AGG_ENTRY_SIZE);
+                    buffer.putInt(AGG_MAGIC).putLong(watermark).putInt(used);
+                    for (int slot = 0; slot < keys.length; slot++) {
+                        if (keys[slot] == 0) continue;
+                        buffer.putLong(keys[slot]).putInt(plays[slot]).putInt(skips[slot])
+                                .putInt(completes[slot]).putLong(lastPlayed[slot]);
+                    }
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) channel.write(buffer);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(aggregateFile)) throw new IOException("rename failed " + temp);
+            foldedUntil = watermark;
+            new FileOutputStream(logFile).close(); //truncate
+            loggedRecords = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private long lastLoggedTime() {
+        long max = foldedUntil;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0 && lastPlayed[slot] > max) max = lastPlayed[slot];
+        }
+        return max;
+    }
+
+    //Caller holds aggregateLock, consumes one record
+    private void fold(ByteBuffer record) {
+        long time = record.getLong();
+        long key = record.getLong();
+        record.getInt(); //position, kept in the log for later analysis
+        byte event = record.get();
+        record.position(record.position() + 3);
+
+        int slot = slot(key);
+        lastPlayed[slot] = Math.max(lastPlayed[slot], time);
+        if (event == EVENT_PLAY) plays[slot]++;
+        else if (event == EVENT_SKIP) skips[slot]++;
+        else if (event == EVENT_COMPLETE) completes[slot]++;
+    }
+
+    //Caller holds aggregateLock, open addressing on the 64-bit key
+    private int slot(long key) {
+        if ((used + 1) * 2 > keys.length) grow();
+        int mask = keys.length - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) slot = (slot + 1) & mask;
+        if (keys[slot] == 0) {
+            keys[slot] = key;
+            used++;
+        }
+        return slot;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldPlays = plays, oldSkips = skips, oldCompletes = completes;
+        long[] oldLast = lastPlayed;
+        int capacity = oldKeys.length * 2;
+        keys = new long[capacity];
+        plays = new int[capacity];
+        skips = new int[capacity];
+        completes = new int[capacity];
+        lastPlayed = new long[capacity];
+        used = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) continue;
+            int slot = slot(oldKeys[i]);
+            plays[slot] = oldPlays[i];
+            skips[slot] = oldSkips[i];
+            completes[slot] = oldCompletes[i];
+            lastPlayed[slot] = oldLast[i];
+        }
+    }
+
+    /**
+     * Queries 查詢, answered from the aggregates only
+     */
+    public int getPlayCount(long key) {
+        synchronized (aggregateLock) {
+            int slot = find(key);
+            return slot < 0 ? 0 : plays[slot];
+        }
+    }
+
+    public int getSkipCount(long key) {
+        synchronized (aggregateLock) {
+            int slot = find(key);
+            return slot < 0 ? 0 : skips[slot];
+        }
+    }
+
+    public long getLastPlayed(long key) {
+        synchronized (aggregateLock) {
+            int slot = find(key);
+            return slot < 0 ? 0 : lastPlayed[slot];
+        }
+    }
+
+    //Skips per play start, 0 for tracks never played
+    public float getSkipRate(long key) {
+        synchronized (aggregateLock) {
+            int slot = find(key);
+            if (slot < 0 || plays[slot] == 0) return 0f;
+            return Math.min(1f, skips[slot] / (float) plays[slot]);
+        }
+    }
+
+    /**
+     * @return keys of the n most played tracks, most played first
+     */
+    public long[] topPlayed(int n) {
+        synchronized (aggregateLock) {
+            return top(n, plays, null);
+        }
+    }
+
+    /**
+     * @return keys of the n most recently played tracks, newest first
+     */
+    public long[] recentlyPlayed(int n) {
+        synchronized (aggregateLock) {
+            return top(n, null, lastPlayed);
+        }
+    }
+
+    //Bounded min-heap of slots over one metric, O(tracks · log n)
+    private long[] top(int n, int[] intMetric, long[] longMetric) {
+        int[] heap = new int[Math.max(0, Math.min(n, used))];
+        int size = 0;
+        for (int slot = 0; slot < keys.length && heap.length > 0; slot++) {
+            if (keys[slot] == 0) continue;
+            if (size < heap.length) {
+                heap[size] = slot;
+                siftUp(heap, size++, intMetric, longMetric);
+            } else if (metric(slot, intMetric, longMetric) > metric(heap[0], intMetric, longMetric)) {
+                heap[0] = slot;
+                siftDown(heap, size, intMetric, longMetric);
+            }
+        }
+        long[] result = new long[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = keys[heap[0]];
+            heap[0] = heap[i];
+            siftDown(heap, i, intMetric, longMetric);
+        }
+        return result;
+    }
+
+    private static long metric(int slot, int[] intMetric, long[] longMetric) {
+        return intMetric != null ? intMetric[slot] : longMetric[slot];
+    }
+
+    private static void siftUp(int[] heap, int i, int[] im, long[] lm) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (metric(heap[i], im, lm) >= metric(heap[parent], im, lm)) break;
+            swap(heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, int[] im, long[] lm) {
+        int i = 0;
+        while (true) {
+            int smallest = i, left = 2 * i + 1, right = left + 1;
+            if (left < size && metric(heap[left], im, lm) < metric(heap[smallest], im, lm)) smallest = left;
+            if (right < size && metric(heap[right], im, lm) < metric(heap[smallest], im, lm)) smallest = right;
+            if (smallest == i) return;
+            swap(heap, i, smallest);
+            i = smallest;
+        }
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        int t = heap[a];
+        heap[a] = heap[b];
+        heap[b] = t;
+    }
+
+    /**
+     * 唯讀追蹤 Follows the files of a ListeningHistory running in another process, never writes them
+     * Each poll() reads only the records appended to the log since the previous poll. When the
+     * aggregate watermark moved (the writer compacted), it starts over from the aggregates.
+     * Not thread-safe, poll from one thread.
+     */
+    public static class Reader {
+
+        public interface Listener {
+            //Any event counts as played, timeMs is when it happened
+            void onPlayed(long key, long timeMs);
+        }
+
+        private final File logFile;
+        private final File aggregateFile;
+        //Watermark of the aggregates last read, -1 before the first poll
+        private long foldedUntil = -1;
+        private long logOffset;
+
+        public Reader(File directory) {
+            logFile = new File(directory, "history.log");
+            aggregateFile = new File(directory, "history.agg");
+        }
+
+        /**
+         * @return the number of plays handed to listener
+         */
+        public int poll(Listener listener) {
+            int plays = 0;
+            long watermark = readWatermark();
+            if (watermark != foldedUntil || logFile.length() < logOffset) {
+                foldedUntil = watermark;
+                logOffset = 0;
+                plays += readAggregates(listener);
+            }
+            if (!logFile.exists()) return plays;
+            ByteBuffer buffer = ByteBuffer.allocate(256 * RECORD_SIZE);
+            try {
+                FileInputStream in = new FileInputStream(logFile);
+                try {
+                    FileChannel channel = in.getChannel();
+                    int read;
+                    while ((read = channel.read(buffer, logOffset + buffer.position())) > 0) {
+                        buffer.flip();
+                        //A record still being written is left for the next poll
+                        while (buffer.remaining() >= RECORD_SIZE) {
+                            long time = buffer.getLong();
+                            long key = buffer.getLong();
+                            buffer.position(buffer.position() + RECORD_SIZE - 16);
+                            logOffset += RECORD_SIZE;
+                            if (time > foldedUntil) {
+                                listener.onPlayed(key, time);
+                                plays++;
+                            }
+                        }
+                        buffer.compact();
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return plays;
+        }
+
+        private long readWatermark() {
+            if (!aggregateFile.exists()) return 0;
+            try {
+                RandomAccessFile file = new RandomAccessFile(aggregateFile, "r");
+                try {
+                    if (file.length() < AGG_HEADER_SIZE || file.readInt() != AGG_MAGIC) return 0;
+                    return file.readLong();
+                } finally {
+                    file.close();
+                }
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        private int readAggregates(Listener listener) {
+            if (!aggregateFile.exists()) return 0;
+            int plays = 0;
+            try {
+                RandomAccessFile file = new RandomAccessFile(aggregateFile, "r");
+                try {
+                    ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                    if (buffer.getInt() != AGG_MAGIC) return 0;
+                    buffer.getLong();
+                    int count = buffer.getInt();
+                    for (int i = 0; i < count; i++) {
+                        long key = buffer.getLong();
+                        buffer.position(buffer.position() + 12);
+                        long lastPlayed = buffer.getLong();
+                        if (lastPlayed > 0) {
+                            listener.onPlayed(key, lastPlayed);
+                            plays++;
+                        }
+                    }
+                } finally {
+                    file.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return plays;
+        }
+    }
+}
@@ -7,42 +7,146 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.content.res.TypedArray;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Messenger;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.support.annotation.NonNull;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.view.ActionMode;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
+import android.support.v7.widget.helper.ItemTouchHelper;
+import android.util.Log;
 import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.PopupMenu;
 import android.widget.ImageView;
+import android.widget.SeekBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class MainActivity extends AppCompatActivity {
 
     public static final String Broadcast_PLAY_NEW_AUDIO = "com.claire.audioplayerapp.PlayNewAudio";
+    public static final String EXTRA_AUDIO_INDEX = "com.claire.audioplayerapp.AudioIndex";
+    //啟動追蹤 When the track was tapped and when the catalog was published, elapsedRealtimeNanos()
+    public static final String EXTRA_TAP_NANOS = "com.claire.audioplayerapp.TapNanos";
+    public static final String EXTRA_PUBLISHED_NANOS = "com.claire.audioplayerapp.PublishedNanos";
 
     private static final int REQUEST_PERMISSION = 100;
-    //綁定MediaPlayer
-    private MediaPlayerService playerService;
+    private static final int REQUEST_IMPORT_PLAYLIST = 101;
+    private static final int REQUEST_EXPORT_PLAYLIST = 102;
+    private static final int REQUEST_SCAN_FOLDER = 103;
+    //綁定MediaPlayer, the service itself or RemotePlayback when it runs in the :playback process
+    private PlaybackCommands playerService;
     boolean serviceBound = false;
     ArrayList<Audio> audioList;
+    AudioCatalog catalog;
 
     private Toolbar toolbar;
     private FloatingActionButton fab;
     private ImageView collapsingImageView;
     int imageIndex = 0;
+    private HeaderImageLoader headerImages;
+
+    //Playlist import/export runs off the UI thread 在背景執行緒匯入/匯出播放列表
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private PlaylistTransfer playlistTransfer;
+    //Only touched on ioExecutor
+    private FolderScanner folderScanner;
+    //Queue waiting for the service to be bound
+    private IntList pendingQueue;
+    private int pendingQueuePosition;
+
+    //排序 Sort orders are computed in parallel off the UI thread, folder scans share the pool
+    private final ForkJoinPool sortPool = new ForkJoinPool();
+    //How long onDestroy() lets the pool's users finish before it is shut down regardless
+    private static final long SORT_POOL_DRAIN_MS = 10000;
+    private TrackSorter trackSorter;
+    private TrackSorter.SortMode sortMode = TrackSorter.SortMode.TITLE;
+    private RecyclerView_Adapter adapter;
+    //Newest MediaStore DATE_ADDED seen, new tracks are loaded incrementally after it
+    private volatile long lastDateAdded;
+    //MediaStore.Audio.Media.GENRE, not in the SDK this is compiled against
+    private static final String MEDIA_GENRE = "genre";
+
+    //瀏覽 Artist/album/genre browsing, the top of the stack is on screen
+    private final BrowseStack browseStack = new BrowseStack();
+    private BrowseIndex browseIndex;
+    private BrowseAdapter browseAdapter;
+    private UpNextAdapter upNextAdapter;
+    //資料夾 Built off the UI thread on the first visit to Folders, then kept current from the catalog
+    private static final int CACHED_FOLDER_LISTINGS = 32;
+    private FolderTree folderTree;
+    private boolean folderTreeLoading;
+    private RecyclerView recyclerView;
+    //快速捲動 Letter rail over the sorted song list, with the section label shown while dragging
+    private SectionScroller sectionScroller;
+    private TextView sectionBubble;
+    //播放進度 Drawn every frame from the service's position snapshot, no call into the player
+    private static final long IDLE_POLL_MS = 100;
+    private SeekBar nowPlayingProgress;
+    private boolean userSeeking;
+    private int drawnVersion = -1;
+    //多選 Contextual action bar over a list of songs, null when not selecting
+    private ActionMode selectionMode;
+    private RecyclerView_Adapter selectingIn;
+    private final TrackSelection trackSelection = new TrackSelection();
+    private final Runnable progressFrame = new Runnable() {
+        @Override
+        public void run() {
+            renderProgress();
+        }
+    };
+    //智慧播放清單 Bitmap index built off the UI thread on the first visit, plays are read from the
+    //service's history files (it may run in another process)
+    private SmartPlaylistIndex smartIndex;
+    private boolean smartIndexLoading;
+    private final SmartPlaylistEditor smartPlaylists = new SmartPlaylistEditor(this, new SmartPlaylistEditor.Callback() {
+        @Override
+        public void onSaved(SmartPlaylist playlist) {
+            browseFromRoot(BrowseStack.Level.SMART_PLAYLISTS);
+        }
+
+        @Override
+        public void onRemoved(SmartPlaylist playlist) {
+            refreshSmartPlaylists();
+        }
+    });
+    private AudioCatalog.Listener smartRefresher;
+    //Only touched on ioExecutor
+    private ListeningHistory.Reader historyReader;
+    //記憶體壓力 Caches and indexes of this activity, shed in tiers from onTrimMemory()
+    private final MemoryTrimmer memoryTrimmer = new MemoryTrimmer();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -52,10 +156,15 @@ public class MainActivity extends AppCompatActivity {
         checkSelfPermission();
         initView();
         initHandler();
+        initProgress();
 
         loadCollapsingImage(imageIndex);
         loadAudio(); //從設備檢索數據後，該playAudio()功能可以在設備上播放Service
         initRecyclerView();
+        initCatalog();
+        loadGenres();
+        initMemoryTrimmer();
+        scanFolders();
 
     }
 
@@ -64,6 +173,9 @@ public class MainActivity extends AppCompatActivity {
         setSupportActionBar(toolbar);
         fab = findViewById(R.id.fab);
         collapsingImageView = findViewById(R.id.collapsingImageView);
+        nowPlayingProgress = findViewById(R.id.nowPlayingProgress);
+        headerImages = new HeaderImageLoader(getResources(), R.array.images,
+                getResources().getDimensionPixelSize(R.dimen.header_image_height));
     }
 
     private void initHandler() {
@@ -74,7 +186,7 @@ public class MainActivity extends AppCompatActivity {
                 //play the first audio in the ArrayList
                // playAudio(2);
 
-                if (imageIndex == 4) {
+                if (imageIndex == headerImages.getCount() - 1) {
                     imageIndex = 0;
                     loadCollapsingImage(imageIndex);
                 } else {
@@ -86,27 +198,706 @@ public class MainActivity extends AppCompatActivity {
 
     }
 
+    private void initProgress() {
+        nowPlayingProgress.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                userSeeking = true;
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                userSeeking = false;
+                if (serviceBound && playerService != null) playerService.seekTo(seekBar.getProgress());
+            }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        startProgress();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        nowPlayingProgress.removeCallbacks(progressFrame);
+    }
+
+    private void startProgress() {
+        nowPlayingProgress.removeCallbacks(progressFrame);
+        drawnVersion = -1;
+        renderProgress();
+    }
+
+    /**
+     * One frame of the seek bar. While playing the position is worked out from the snapshot and
+     * the clock on every frame; otherwise it cannot move until the service publishes again, so the
+     * snapshot is only checked now and then.
+     */
+    private void renderProgress() {
+        //serviceBound is also restored from the saved state, before the connection is back
+        if (!serviceBound || playerService == null) return;
+        PlaybackPosition.Snapshot snapshot = playerService.getPlaybackPosition().get();
+        boolean playing = snapshot.isPlaying();
+        if (playing || snapshot.version != drawnVersion) {
+            drawnVersion = snapshot.version;
+            boolean shown = snapshot.state != PlaybackPosition.STATE_NONE
+                    && snapshot.state != PlaybackPosition.STATE_STOPPED;
+            nowPlayingProgress.setVisibility(shown ? View.VISIBLE : View.GONE);
+            if (shown && !userSeeking) {
+                nowPlayingProgress.setMax((int) snapshot.durationMs);
+                nowPlayingProgress.setProgress((int) snapshot.positionAt(SystemClock.elapsedRealtime()));
+            }
+        }
+        if (playing) nowPlayingProgress.postOnAnimation(progressFrame);
+        else nowPlayingProgress.postDelayed(progressFrame, IDLE_POLL_MS);
+    }
+
     private void loadCollapsingImage(int i) {
-        TypedArray array = getResources().obtainTypedArray(R.array.images);
-        collapsingImageView.setImageDrawable(array.getDrawable(i));
+        //Decoded off the main thread at the view's size, the next image is prefetched
+        headerImages.load(i, collapsingImageView);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        long freed = memoryTrimmer.onTrimMemory(level);
+        Log.d("MainActivity", "trim level " + level + ", freed " + freed / 1024 + "KB, " + memoryTrimmer.describe());
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        memoryTrimmer.onLowMemory();
+    }
+
+    /**
+     * Everything large this activity holds. Indexes built on first use are dropped and built again
+     * the next time, unless they are on screen; the catalog and the sort orders back the song list
+     * and are only reported.
+     */
+    private void initMemoryTrimmer() {
+        memoryTrimmer.register("header images", MemoryTrimmer.PRIORITY_DISPOSABLE, headerImages);
+        memoryTrimmer.register("folders", MemoryTrimmer.PRIORITY_REBUILDABLE, new MemoryTrimmer.Trimmable() {
+            @Override
+            public long estimatedBytes() {
+                return folderTree != null ? folderTree.estimatedBytes() : 0;
+            }
+
+            @Override
+            public void trim(boolean all) {
+                if (folderTree == null) return;
+                if (!all || browseStack.isAt(BrowseStack.Level.FOLDER)) {
+                    folderTree.clearListings();
+                    return;
+                }
+                catalog.removeListener(folderTree);
+                folderTree = null;
+                folderTreeLoading = false;
+            }
+        });
+        memoryTrimmer.register("smart playlists", MemoryTrimmer.PRIORITY_REBUILDABLE, new MemoryTrimmer.Trimmable() {
+            @Override
+            public long estimatedBytes() {
+                return smartIndex != null ? smartIndex.estimatedBytes() : 0;
+            }
+
+            @Override
+            public void trim(boolean all) {
+                if (!all || smartIndex == null
+                        || browseStack.isAt(BrowseStack.Level.SMART_PLAYLISTS, BrowseStack.Level.SMART_PLAYLIST_TRACKS)) return;
+                catalog.removeListener(smartIndex);
+                catalog.removeListener(smartRefresher);
+                smartIndex = null;
+                smartIndexLoading = false;
+            }
+        });
+        memoryTrimmer.register("path index", MemoryTrimmer.PRIORITY_REBUILDABLE, playlistTransfer);
+        memoryTrimmer.register("browse index", MemoryTrimmer.PRIORITY_PINNED, new MemoryTrimmer.Trimmable() {
+            @Override
+            public long estimatedBytes() {
+                return browseIndex.estimatedBytes();
+            }
+
+            @Override
+            public void trim(boolean all) {
+            }
+        });
+        memoryTrimmer.register("catalog", MemoryTrimmer.PRIORITY_PINNED, new MemoryTrimmer.Trimmable() {
+            @Override
+            public long estimatedBytes() {
+                return MemoryTrimmer.estimatedBytes(audioList);
+            }
+
+            @Override
+            public void trim(boolean all) {
+            }
+        });
     }
 
     private void initRecyclerView() {
-        if (audioList.size() > 0) {
-            RecyclerView recyclerView = findViewById(R.id.recyclerView);
-            RecyclerView_Adapter adapter = new RecyclerView_Adapter(audioList, getApplication());
-            recyclerView.setAdapter(adapter);
-            recyclerView.setLayoutManager(new LinearLayoutManager(this));
-            recyclerView.addOnItemTouchListener(new CustomTouchListener(this, new onItemClickListener() {
-                @Override
-                public void onClick(View view, int index) {
-                    playAudio(index);
+        recyclerView = findViewById(R.id.recyclerView);
+        adapter = new RecyclerView_Adapter(audioList, getApplication());
+        recyclerView.setAdapter(adapter);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.addOnItemTouchListener(new CustomTouchListener(this, new onItemClickListener() {
+            @Override
+            public void onClick(View view, int index) {
+                if (recyclerView.getAdapter() == browseAdapter) {
+                    openBrowseItem(index);
+                } else if (recyclerView.getAdapter() instanceof FolderAdapter) {
+                    openFolderItem((FolderAdapter) recyclerView.getAdapter(), index);
+                } else if (recyclerView.getAdapter() == upNextAdapter) {
+                    if (!serviceBound) return;
+                    playerService.playQueueEntry(index);
+                    upNextAdapter.setPosition(playerService.getUpNextPosition());
+                } else if (selectionMode != null) {
+                    toggleSelected(index);
+                } else {
+                    playFromList(index);
+                }
+            }
+        }, new onItemLongClickListener() {
+            @Override
+            public void onLongClick(View view, int index) {
+                if (recyclerView.getAdapter() instanceof RecyclerView_Adapter) {
+                    if (selectionMode == null) startSelection(index);
+                    else extendSelection(index);
+                } else if (recyclerView.getAdapter() instanceof FolderAdapter) {
+                    FolderAdapter folders = (FolderAdapter) recyclerView.getAdapter();
+                    if (!folders.isFolder(index)) showTrackMenu(view, folders.getTrack(index));
+                } else if (recyclerView.getAdapter() == browseAdapter
+                        && browseStack.isAt(BrowseStack.Level.SMART_PLAYLISTS)) {
+                    smartPlaylists.showMenu(view, index);
+                }
+            }
+        }));
+        //待播清單 Drag to reorder and swipe to remove, only on the up-next list
+        new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(ItemTouchHelper.UP | ItemTouchHelper.DOWN,
+                ItemTouchHelper.START | ItemTouchHelper.END) {
+            @Override
+            public int getMovementFlags(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder) {
+                if (recyclerView.getAdapter() != upNextAdapter || !serviceBound
+                        || playerService.getUpNext() == null) return 0;
+                return super.getMovementFlags(recyclerView, viewHolder);
+            }
+
+            @Override
+            public boolean onMove(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder from,
+                                  @NonNull RecyclerView.ViewHolder to) {
+                int fromIndex = from.getAdapterPosition();
+                int toIndex = to.getAdapterPosition();
+                playerService.moveQueueItem(fromIndex, toIndex);
+                upNextAdapter.notifyItemMoved(fromIndex, toIndex);
+                upNextAdapter.setPosition(playerService.getUpNextPosition());
+                return true;
+            }
+
+            @Override
+            public void onSwiped(@NonNull RecyclerView.ViewHolder viewHolder, int direction) {
+                int index = viewHolder.getAdapterPosition();
+                playerService.removeQueueItem(index);
+                UpNextQueue queue = playerService.getUpNext();
+                if (queue == null) {
+                    upNextAdapter.setQueue(null, 0);
+                } else {
+                    upNextAdapter.notifyItemRemoved(index);
+                    upNextAdapter.setPosition(playerService.getUpNextPosition());
                 }
-            }));
+            }
+        }).attachToRecyclerView(recyclerView);
+        initSectionScroller();
+    }
+
+    private void initSectionScroller() {
+        sectionScroller = findViewById(R.id.sectionScroller);
+        sectionBubble = findViewById(R.id.sectionBubble);
+        sectionScroller.setListener(new SectionScroller.Listener() {
+            @Override
+            public void onSectionSelected(int section) {
+                SectionIndex sections = adapter.getSections();
+                if (sections == null || recyclerView.getAdapter() != adapter) return;
+                //Straight to the first row of the section, nothing in between is laid out or bound
+                ((LinearLayoutManager) recyclerView.getLayoutManager())
+                        .scrollToPositionWithOffset(sections.getStart(section), 0);
+                sectionBubble.setText(sections.getLabel(section));
+                sectionBubble.setVisibility(View.VISIBLE);
+            }
+
+            @Override
+            public void onReleased() {
+                sectionBubble.setVisibility(View.GONE);
+            }
+        });
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                SectionIndex sections = adapter.getSections();
+                if (sections == null || recyclerView.getAdapter() != adapter) return;
+                int first = ((LinearLayoutManager) recyclerView.getLayoutManager()).findFirstVisibleItemPosition();
+                if (first >= 0) sectionScroller.setCurrentSection(sections.getSectionForPosition(first));
+            }
+        });
+    }
+
+    //The rail follows the song list's current order and is hidden on every other list
+    private void updateSectionScroller() {
+        sectionScroller.setSections(recyclerView.getAdapter() == adapter ? adapter.getSections() : null);
+        if (recyclerView.getAdapter() != adapter) sectionBubble.setVisibility(View.GONE);
+    }
+
+    /**
+     * 多選 A long press on a song starts selecting: taps toggle rows, another long press selects
+     * every row from the last one toggled, Select all takes the whole list. The action bar hands
+     * the selection to the service as one command, one queue write however many tracks.
+     */
+    private void startSelection(int position) {
+        selectingIn = (RecyclerView_Adapter) recyclerView.getAdapter();
+        trackSelection.clear();
+        trackSelection.toggle(selectingIn.getOrdinal(position));
+        selectingIn.setSelection(trackSelection);
+        selectionMode = startSupportActionMode(selectionCallback);
+        updateSelectionTitle();
+    }
+
+    private void toggleSelected(int position) {
+        trackSelection.toggle(selectingIn.getOrdinal(position));
+        selectingIn.notifyItemChanged(position);
+        if (trackSelection.isEmpty()) {
+            selectionMode.finish();
+        } else {
+            updateSelectionTitle();
         }
+    }
 
+    private void extendSelection(int position) {
+        int from = trackSelection.extendTo(selectingIn.getOrder(), selectingIn.getItemCount(), position);
+        if (from < 0) {
+            selectingIn.notifyItemChanged(position);
+        } else {
+            selectingIn.notifyItemRangeChanged(Math.min(from, position), Math.abs(from - position) + 1);
+        }
+        updateSelectionTitle();
     }
 
+    private void updateSelectionTitle() {
+        selectionMode.setTitle(getString(R.string.selection_count, trackSelection.size()));
+    }
+
+    //Leaving the list ends the selection
+    private void finishSelection() {
+        if (selectionMode != null) selectionMode.finish();
+    }
+
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            int id = item.getItemId();
+            if (id == R.id.action_select_all) {
+                trackSelection.selectAll(selectingIn.getOrder(), selectingIn.getItemCount());
+                selectingIn.notifyItemRangeChanged(0, selectingIn.getItemCount());
+                updateSelectionTitle();
+                return true;
+            }
+            IntList ordinals = trackSelection.inOrder(selectingIn.getOrder(), selectingIn.getItemCount());
+            if (id == R.id.action_save_selected) {
+                startActivityForResult(playlistTransfer.exportIntent(ordinals), REQUEST_EXPORT_PLAYLIST);
+            } else if (id == R.id.action_play_selected || !serviceBound) {
+                //Nothing is playing yet, start with them
+                playQueue(ordinals, 0);
+            } else if (id == R.id.action_play_next) {
+                playerService.playNext(ordinals);
+            } else if (id == R.id.action_enqueue) {
+                playerService.enqueue(ordinals);
+                showMessage(getString(R.string.selection_queued, ordinals.size()));
+            }
+            mode.finish();
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            selectionMode = null;
+            trackSelection.clear();
+            selectingIn.setSelection(null);
+            selectingIn = null;
+        }
+    };
+
+    //Long press on a song: play it next or append it to the up-next queue
+    private void showTrackMenu(View anchor, final int ordinal) {
+        PopupMenu popup = new PopupMenu(this, anchor);
+        popup.getMenuInflater().inflate(R.menu.menu_track, popup.getMenu());
+        popup.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                if (!serviceBound) {
+                    //Nothing is playing yet, start with it
+                    playAudio(ordinal);
+                } else if (item.getItemId() == R.id.action_play_next) {
+                    playerService.playNext(ordinal);
+                } else {
+                    playerService.enqueue(ordinal);
+                }
+                return true;
+            }
+        });
+        popup.show();
+    }
+
+    /**
+     * 建立目錄與排序 Wrap the loaded list as the catalog, start sorting and watch MediaStore for new tracks
+     */
+    private void initCatalog() {
+        catalog = new AudioCatalog(audioList);
+        trackSorter = new TrackSorter(Locale.getDefault(), sortPool, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                runOnUiThread(command);
+            }
+        });
+        trackSorter.setCallback(new TrackSorter.Callback() {
+            @Override
+            public void onSorted(TrackSorter.SortMode mode, int[] order, SectionIndex sections) {
+                if (mode != sortMode) return;
+                adapter.setOrder(order, sections);
+                updateSectionScroller();
+            }
+        });
+        trackSorter.build(audioList);
+        catalog.addListener(trackSorter);
+        //One pass over the catalog, then kept current as tracks arrive
+        browseIndex = new BrowseIndex(audioList, Locale.getDefault());
+        catalog.addListener(browseIndex);
+        catalog.addListener(new AudioCatalog.Listener() {
+            @Override
+            public void onTracksAdded(int firstOrdinal, List<Audio> added) {
+                if (adapter.getOrder() == null) adapter.notifyItemRangeInserted(firstOrdinal, added.size());
+                if (serviceBound) appendToSharedCatalog(added);
+            }
+        });
+
+        playlistTransfer = new PlaylistTransfer(this, catalog, ioExecutor, new PlaylistTransfer.Callback() {
+            @Override
+            public void onImported(IntList ordinals) {
+                playQueue(ordinals, 0);
+            }
+        });
+
+        getContentResolver().registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, libraryObserver);
+    }
+
+    //The running service maps the catalog file, append there and let it refresh its mapping
+    private void appendToSharedCatalog(final List<Audio> added) {
+        final List<Audio> copy = new ArrayList<>(added);
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                new StorageUtil(getApplicationContext()).appendAudio(copy);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (serviceBound) playerService.onCatalogAppended();
+                    }
+                });
+            }
+        });
+    }
+
+    //分享音樂庫 The service serves the published catalog, publish it first when the service is not running yet
+    private void setLibrarySharing(boolean on) {
+        if (on && !serviceBound) new StorageUtil(getApplicationContext()).storeAudio(audioList);
+        Intent intent = new Intent(this, MediaPlayerService.class)
+                .setAction(MediaPlayerService.ACTION_SHARE_LIBRARY)
+                .putExtra(MediaPlayerService.EXTRA_SHARE_LIBRARY, on);
+        startService(intent);
+    }
+
+    private void setSortMode(TrackSorter.SortMode mode) {
+        sortMode = mode;
+        //Cached orders switch instantly, otherwise the callback sets it once sorted
+        int[] order = trackSorter.getOrder(mode);
+        if (order == null) return;
+        //A merge may land between the two reads, the callback then brings the matching pair
+        SectionIndex sections = trackSorter.getSections(mode);
+        adapter.setOrder(order, sections != null && sections.getRowCount() == order.length ? sections : null);
+        updateSectionScroller();
+    }
+
+    //Reset navigation to the song list, then open level from there
+    private void browseFromRoot(BrowseStack.Level level) {
+        showBrowseState(browseStack.openFromRoot(level));
+    }
+
+    private void openBrowseItem(int position) {
+        BrowseStack.State state = browseStack.openItem(browseAdapter.getName(position));
+        if (state != null) showBrowseState(state);
+    }
+
+    private void openFolderItem(FolderAdapter folders, int position) {
+        if (folders.isFolder(position)) {
+            int folder = folders.getFolder(position);
+            showBrowseState(browseStack.openFolder(folder, folderTree.getPath(folder)));
+        } else {
+            int[] tracks = folders.getTracks();
+            playQueue(IntList.of(tracks, tracks.length), folders.getTrackIndex(position));
+        }
+    }
+
+    private void showFolder(final BrowseStack.State state) {
+        if (folderTree != null) {
+            recyclerView.setAdapter(new FolderAdapter(folderTree, state.folder, audioList));
+            setTitle(state.folder == FolderTree.ROOT ? getString(R.string.action_browse_folders) : state.name);
+            return;
+        }
+        if (folderTreeLoading) return;
+        folderTreeLoading = true;
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Audio> snapshot = catalog.snapshot();
+                final FolderTree built = new FolderTree(snapshot, Locale.getDefault(), CACHED_FOLDER_LISTINGS);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        //Tracks that arrived while it was built
+                        if (audioList.size() > snapshot.size()) {
+                            built.onTracksAdded(snapshot.size(),
+                                    new ArrayList<>(audioList.subList(snapshot.size(), audioList.size())));
+                        }
+                        folderTree = built;
+                        catalog.addListener(built);
+                        if (browseStack.current() == state) showFolder(state);
+                    }
+                });
+            }
+        });
+    }
+
+    private void showSmartPlaylists(final BrowseStack.State state) {
+        if (smartIndex != null) {
+            pollPlayHistory();
+            renderSmartPlaylists(state);
+            return;
+        }
+        if (smartIndexLoading) return;
+        smartIndexLoading = true;
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Audio> snapshot = catalog.snapshot();
+                final SmartPlaylistIndex built = new SmartPlaylistIndex(snapshot);
+                historyReader = new ListeningHistory.Reader(getFilesDir());
+                historyReader.poll(built);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        //Tracks that arrived while it was built
+                        if (audioList.size() > snapshot.size()) {
+                            built.onTracksAdded(snapshot.size(),
+                                    new ArrayList<>(audioList.subList(snapshot.size(), audioList.size())));
+                        }
+                        smartIndex = built;
+                        catalog.addListener(built);
+                        smartRefresher = new AudioCatalog.Listener() {
+                            @Override
+                            public void onTracksAdded(int firstOrdinal, List<Audio> added) {
+                                refreshSmartPlaylists();
+                            }
+                        };
+                        catalog.addListener(smartRefresher);
+                        if (browseStack.current() == state) renderSmartPlaylists(state);
+                    }
+                });
+            }
+        });
+    }
+
+    //Results are a few bitmap operations away, recomputed whenever the list is shown or changes
+    private void renderSmartPlaylists(BrowseStack.State state) {
+        long now = System.currentTimeMillis();
+        List<SmartPlaylist> playlists = smartPlaylists.getPlaylists();
+        if (state.level == BrowseStack.Level.SMART_PLAYLIST_TRACKS) {
+            SmartPlaylist playlist = smartPlaylists.find(state.name);
+            showTrackSubset(playlist != null ? smartIndex.evaluate(playlist, now).toIntList() : new IntList(0), state.name);
+            return;
+        }
+        List<String> names = new ArrayList<>(playlists.size());
+        int[] counts = new int[playlists.size()];
+        for (int i = 0; i < counts.length; i++) {
+            names.add(playlists.get(i).getName());
+            counts[i] = smartIndex.evaluate(playlists.get(i), now).cardinality();
+        }
+        showBrowseList(names, counts, getString(R.string.action_smart_playlists));
+    }
+
+    private void refreshSmartPlaylists() {
+        if (browseStack.isAt(BrowseStack.Level.SMART_PLAYLISTS, BrowseStack.Level.SMART_PLAYLIST_TRACKS)) {
+            renderSmartPlaylists(browseStack.current());
+            updateSectionScroller();
+        }
+    }
+
+    //Plays the service logged since the last look, read on ioExecutor and applied on the UI thread
+    private void pollPlayHistory() {
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final PlayBatch batch = new PlayBatch();
+                if (historyReader.poll(batch) == 0) return;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        //Dropped under memory pressure meanwhile, the next build reads the files again
+                        if (smartIndex == null) return;
+                        batch.applyTo(smartIndex);
+                        refreshSmartPlaylists();
+                    }
+                });
+            }
+        });
+    }
+
+    private static final class PlayBatch implements ListeningHistory.Reader.Listener {
+        private long[] keys = new long[16];
+        private long[] times = new long[16];
+        private int count;
+
+        @Override
+        public void onPlayed(long key, long timeMs) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                times = Arrays.copyOf(times, count * 2);
+            }
+            keys[count] = key;
+            times[count++] = timeMs;
+        }
+
+        void applyTo(ListeningHistory.Reader.Listener listener) {
+            for (int i = 0; i < count; i++) listener.onPlayed(keys[i], times[i]);
+        }
+    }
+
+    /**
+     * 顯示瀏覽層級 Every level reads straight from the browse index, nothing rescans the catalog
+     */
+    private void showBrowseState(BrowseStack.State state) {
+        finishSelection();
+        switch (state.level) {
+            case ARTISTS: {
+                List<String> names = browseIndex.getArtistNames();
+                int[] counts = new int[names.size()];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = browseIndex.getArtist(names.get(i)).getTracks().size();
+                }
+                showBrowseList(names, counts, getString(R.string.action_browse_artists));
+                break;
+            }
+            case ALBUMS: {
+                BrowseIndex.Artist artist = browseIndex.getArtist(state.artist);
+                List<String> names = artist.getAlbumNames();
+                int[] counts = new int[names.size()];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = artist.getAlbumTracks(names.get(i)).size();
+                }
+                showBrowseList(names, counts, state.name);
+                break;
+            }
+            case ALBUM_TRACKS:
+                showTrackSubset(browseIndex.getArtist(state.artist).getAlbumTracks(state.name), state.name);
+                break;
+            case GENRES: {
+                List<String> names = browseIndex.getGenreNames();
+                int[] counts = new int[names.size()];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = browseIndex.getGenreTracks(names.get(i)).size();
+                }
+                showBrowseList(names, counts, getString(R.string.action_browse_genres));
+                break;
+            }
+            case GENRE_TRACKS:
+                showTrackSubset(browseIndex.getGenreTracks(state.name), state.name);
+                break;
+            case FOLDER:
+                showFolder(state);
+                break;
+            case SMART_PLAYLISTS:
+            case SMART_PLAYLIST_TRACKS:
+                showSmartPlaylists(state);
+                break;
+            case UP_NEXT:
+                upNextAdapter = serviceBound
+                        ? new UpNextAdapter(audioList, playerService.getUpNext(), playerService.getUpNextPosition())
+                        : new UpNextAdapter(audioList, null, -1);
+                recyclerView.setAdapter(upNextAdapter);
+                setTitle(R.string.action_up_next);
+                break;
+            default:
+                recyclerView.setAdapter(adapter);
+                setTitle(R.string.app_name);
+                break;
+        }
+        updateSectionScroller();
+    }
+
+    private void showBrowseList(List<String> names, int[] counts, String title) {
+        browseAdapter = new BrowseAdapter(names, counts);
+        recyclerView.setAdapter(browseAdapter);
+        setTitle(title);
+    }
+
+    private void showTrackSubset(IntList ordinals, String title) {
+        RecyclerView_Adapter subset = new RecyclerView_Adapter(audioList, getApplication());
+        subset.setOrder(ordinals.toArray());
+        recyclerView.setAdapter(subset);
+        setTitle(title);
+    }
+
+    @Override
+    public void onBackPressed() {
+        BrowseStack.State state = browseStack.back();
+        if (state != null) {
+            showBrowseState(state);
+        } else {
+            super.onBackPressed();
+        }
+    }
+
+    //Play the tapped row, the rest of the displayed order becomes the play queue
+    private void playFromList(int position) {
+        RecyclerView_Adapter current = (RecyclerView_Adapter) recyclerView.getAdapter();
+        int[] order = current.getOrder();
+        if (order == null) {
+            playAudio(position);
+        } else {
+            playQueue(IntList.of(order, order.length), position);
+        }
+    }
+
+    private final ContentObserver libraryObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            loadNewAudio();
+        }
+    };
+
     private void checkSelfPermission() {
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE)
                 != PackageManager.PERMISSION_GRANTED &&
@@ -138,28 +929,42 @@ public class MainActivity extends AppCompatActivity {
         public void onServiceConnected(ComponentName name, IBinder service) {
             //We've bound to LocalService, cast the IBinder and LocalService instance.
             //我們綁定到LocalService，將制轉換IBinder並獲取LocalService實例
-            MediaPlayerService.LocalBinder binder = (MediaPlayerService.LocalBinder) service;
-
-            playerService = binder.getService();
+            if (service instanceof MediaPlayerService.LocalBinder) {
+                playerService = ((MediaPlayerService.LocalBinder) service).getService();
+            } else {
+                //Service in its own process: commands go over its Messenger
+                playerService = new RemotePlayback(new Messenger(service));
+            }
             serviceBound = true;
+            if (pendingQueue != null) {
+                playerService.setQueue(pendingQueue, pendingQueuePosition);
+                pendingQueue = null;
+            }
+            startProgress();
             Toast.makeText(MainActivity.this, "Service Bound", Toast.LENGTH_SHORT).show();
         }
 
         @Override
         public void onServiceDisconnected(ComponentName name) {
             serviceBound = false;
+            nowPlayingProgress.removeCallbacks(progressFrame);
         }
     };
 
     private void playAudio(int audioIndex) {
         //Check is service is active
         if (!serviceBound) { //true
-            //Store Serializable audioList to SharedPreferences
+            long tap = SystemClock.elapsedRealtimeNanos();
+            //Publish audioList as the shared catalog file the service maps
             StorageUtil storage = new StorageUtil(getApplicationContext());
             storage.storeAudio(audioList);
             storage.storeAudioIndex(audioIndex);
 
             Intent playerIntent = new Intent(this, MediaPlayerService.class);
+            playerIntent.putExtra(EXTRA_AUDIO_INDEX, audioIndex);
+            //The service traces its start from here, see StartupTrace
+            playerIntent.putExtra(EXTRA_TAP_NANOS, tap);
+            playerIntent.putExtra(EXTRA_PUBLISHED_NANOS, SystemClock.elapsedRealtimeNanos());
             startService(playerIntent);
             bindService(playerIntent, serviceConnection, Context.BIND_AUTO_CREATE);
 
@@ -172,45 +977,316 @@ public class MainActivity extends AppCompatActivity {
             //Service is active
             //Send a broadcast to the service -> PLAY_NEW_AUDIO
             Intent broadcastIntent = new Intent(Broadcast_PLAY_NEW_AUDIO);
+            broadcastIntent.putExtra(EXTRA_AUDIO_INDEX, audioIndex);
             sendBroadcast(broadcastIntent);
         }
     }
 
+    /**
+     * 播放匯入的播放列表 Hand catalog ordinals to the service as its play queue
+     */
+    private void playQueue(IntList ordinals, int position) {
+        if (ordinals.isEmpty()) return;
+        if (serviceBound) {
+            playerService.playQueue(ordinals, position);
+        } else {
+            //Start the service on that entry, the queue follows once it is bound
+            pendingQueue = ordinals;
+            pendingQueuePosition = position;
+            playAudio(ordinals.get(position));
+        }
+    }
+
+    private void showMessage(final String message) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        IntList selected = playlistTransfer.takeExportSelection();
+        if (resultCode != RESULT_OK || data == null || data.getData() == null || audioList == null) return;
+
+        if (requestCode == REQUEST_IMPORT_PLAYLIST) {
+            playlistTransfer.importPlaylist(data.getData());
+        } else if (requestCode == REQUEST_EXPORT_PLAYLIST) {
+            playlistTransfer.exportPlaylist(data.getData(), selected, adapter.getOrder());
+        } else if (requestCode == REQUEST_SCAN_FOLDER) {
+            addScanFolder(data.getData());
+        }
+    }
+
     /**
      * 要從本地設備獲取數據，它以升序從設備檢索數據
      * 從設備檢索數據後，該playAudio()功能可以在設備上播放Service
      */
     private void loadAudio() {
+        String selection = MediaStore.Audio.Media.IS_MUSIC + "!=0";
+        audioList = queryAudio(selection, null, null);
+    }
+
+    /**
+     * 曲風 Before Android 11 genres are only in their own table, one query per genre. They are read
+     * on ioExecutor once the catalog is up, then set on the tracks and regrouped in the browse index.
+     */
+    private void loadGenres() {
+        if (genreInMediaTable()) return;
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final HashMap<String, String> genres = queryGenres();
+                if (genres.isEmpty()) return;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Audio audio : audioList) {
+                            //Tracks from a folder scan carry the genre tag of the file
+                            if (audio.getGenre() == null) audio.setGenre(genres.get(audio.getData()));
+                        }
+                        browseIndex.regroupGenres(audioList);
+                        //Built without the genres, rebuilt on the next visit
+                        if (smartIndex != null) {
+                            catalog.removeListener(smartIndex);
+                            catalog.removeListener(smartRefresher);
+                            smartIndex = null;
+                            smartIndexLoading = false;
+                        }
+                        if (browseStack.isAt(BrowseStack.Level.GENRES, BrowseStack.Level.GENRE_TRACKS,
+                                BrowseStack.Level.SMART_PLAYLISTS, BrowseStack.Level.SMART_PLAYLIST_TRACKS)) {
+                            showBrowseState(browseStack.current());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 載入新增的曲目 Load tracks MediaStore added since the last query and append them to the catalog
+     */
+    private void loadNewAudio() {
+        final int known = catalog.size();
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                //DATE_ADDED is in seconds, a track added in the same second as the newest one seen
+                //would be missed by ">"; those already in the catalog are dropped by path below
+                String selection = MediaStore.Audio.Media.IS_MUSIC + "!=0 AND "
+                        + MediaStore.Audio.Media.DATE_ADDED + ">=?";
+                ArrayList<Audio> added = queryAudio(selection, new String[]{String.valueOf(lastDateAdded)},
+                        genreInMediaTable() ? null : queryGenres());
+                //A folder scan may have found them first
+                mergeTracks(added, known, null);
+            }
+        });
+    }
+
+    /**
+     * 資料夾掃描 Scans the folders the user chose for files MediaStore has not indexed
+     */
+    private void scanFolders() {
+        final Set<String> folders = new StorageUtil(this).loadScanFolders();
+        if (folders.isEmpty()) return;
+        final int known = catalog.size();
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (folderScanner == null) {
+                    folderScanner = new FolderScanner(new StorageUtil(getApplicationContext()).scanStateFile(), sortPool);
+                }
+                long start = System.nanoTime();
+                FolderScanner.Result result;
+                try {
+                    result = folderScanner.scan(new ArrayList<>(folders));
+                } catch (RejectedExecutionException e) {
+                    //The activity is gone and the pool shut down, the next start scans again
+                    return;
+                }
+                Log.d("FolderScanner", result.files + " files in " + result.directories + " folders ("
+                        + result.directoriesListed + " listed, " + result.filesSniffed + " sniffed) in "
+                        + (System.nanoTime() - start) / 1000000 + "ms");
+                mergeTracks(result.tracks, known, getString(R.string.scan_folder_found));
+            }
+        });
+    }
+
+    private void addScanFolder(Uri treeUri) {
+        String path = folderPath(treeUri);
+        if (path == null) {
+            Toast.makeText(this, R.string.scan_folder_unsupported, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        StorageUtil storage = new StorageUtil(this);
+        Set<String> folders = storage.loadScanFolders();
+        folders.add(path);
+        storage.storeScanFolders(folders);
+        scanFolders();
+    }
+
+    //The scanner reads files directly, only trees of the external storage provider map to a path
+    private static String folderPath(Uri treeUri) {
+        if (!"com.android.externalstorage.documents".equals(treeUri.getAuthority())) return null;
+        String id = DocumentsContract.getTreeDocumentId(treeUri);
+        int colon = id.indexOf(':');
+        if (colon < 0) return null;
+        String volume = id.substring(0, colon);
+        String relative = id.substring(colon + 1);
+        File base = "primary".equalsIgnoreCase(volume)
+                ? Environment.getExternalStorageDirectory() : new File("/storage", volume);
+        return relative.isEmpty() ? base.getPath() : new File(base, relative).getPath();
+    }
+
+    /**
+     * Appends the tracks whose path is not in the catalog yet. Runs on ioExecutor; known is the
+     * catalog size when the work was queued, tracks appended since are checked on the UI thread.
+     *
+     * @param message format for the number of tracks added and found, null for no message
+     */
+    private void mergeTracks(List<Audio> found, final int known, final String message) {
+        final ArrayList<Audio> fresh = new ArrayList<>();
+        PathIndex index = playlistTransfer.getPathIndex();
+        for (Audio audio : found) {
+            if (!index.contains(audio.getData())) fresh.add(audio);
+        }
+        final int total = found.size();
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (catalog.size() > known) {
+                    Set<String> appended = new HashSet<>();
+                    for (int i = known; i < catalog.size(); i++) {
+                        appended.add(PathIndex.normalize(catalog.get(i).getData()));
+                    }
+                    for (int i = fresh.size() - 1; i >= 0; i--) {
+                        if (appended.contains(PathIndex.normalize(fresh.get(i).getData()))) fresh.remove(i);
+                    }
+                }
+                catalog.addAll(fresh);
+                if (message != null) {
+                    Toast.makeText(MainActivity.this, String.format(message, fresh.size(), total),
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+
+    /**
+     * @param genres path -> genre from queryGenres() before Android 11, null to leave the genre
+     *               for loadGenres()
+     */
+    private ArrayList<Audio> queryAudio(String selection, String[] selectionArgs, HashMap<String, String> genres) {
         ContentResolver contentResolver = getContentResolver();
 
         Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-        String selection = MediaStore.Audio.Media.IS_MUSIC + "!=0";
-        String sortOrder = MediaStore.Audio.Media.TITLE + "ASC";
-        //Cursor cursor = contentResolver.query(uri, null, selection, null, sortOrder);
-        Cursor cursor = contentResolver.query(uri, null, null, null, null);
+        String sortOrder = MediaStore.Audio.Media.TITLE + " ASC";
+        Cursor cursor = contentResolver.query(uri, null, selection, selectionArgs, sortOrder);
 
-        if (cursor != null && cursor.getCount() > 0) {
-            audioList = new ArrayList<>();
+        ArrayList<Audio> list = new ArrayList<>();
+        if (cursor == null) return list;
+        if (cursor.getCount() > 0) {
+            int dataColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DATA);
+            int titleColumn = cursor.getColumnIndex(MediaStore.Audio.Media.TITLE);
+            int albumColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM);
+            int artistColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST);
+            int dateAddedColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DATE_ADDED);
+            int genreColumn = genreInMediaTable() ? cursor.getColumnIndex(MEDIA_GENRE) : -1;
+            int durationColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DURATION);
             while (cursor.moveToNext()) {
-                String data = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.DATA));
-                String title = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.TITLE));
-                String album = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM));
-                String artist = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST));
+                String data = cursor.getString(dataColumn);
+                String title = cursor.getString(titleColumn);
+                String album = cursor.getString(albumColumn);
+                String artist = cursor.getString(artistColumn);
+                long dateAdded = cursor.getLong(dateAddedColumn);
+                lastDateAdded = Math.max(lastDateAdded, dateAdded);
+
+                Audio audio = new Audio(data, title, album, artist, dateAdded);
+                if (genreColumn >= 0) {
+                    audio.setGenre(cursor.getString(genreColumn));
+                } else if (genres != null) {
+                    audio.setGenre(genres.get(data));
+                }
+                audio.setDuration(cursor.getLong(durationColumn));
 
                 // Save to audioList
-                audioList.add(new Audio(data, title, album, artist));
+                list.add(audio);
             }
         }
         cursor.close();
+        return list;
+    }
+
+    //MediaStore.Audio.Media.GENRE, a column of the audio table since Android 11 (API 30)
+    private static boolean genreInMediaTable() {
+        return Build.VERSION.SDK_INT >= 30;
+    }
+
+    /**
+     * 曲風 Before Android 11 MediaStore keeps genres in their own table, map track path -> genre
+     * name. One query per genre: never on the UI thread.
+     */
+    private HashMap<String, String> queryGenres() {
+        HashMap<String, String> map = new HashMap<>();
+        ContentResolver contentResolver = getContentResolver();
+        Cursor genres = contentResolver.query(MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI,
+                new String[]{MediaStore.Audio.Genres._ID, MediaStore.Audio.Genres.NAME}, null, null, null);
+        if (genres == null) return map;
+        try {
+            while (genres.moveToNext()) {
+                String name = genres.getString(1);
+                Cursor members = contentResolver.query(
+                        MediaStore.Audio.Genres.Members.getContentUri("external", genres.getLong(0)),
+                        new String[]{MediaStore.Audio.Genres.Members.DATA}, null, null, null);
+                if (members == null) continue;
+                try {
+                    while (members.moveToNext()) {
+                        map.put(members.getString(0), name);
+                    }
+                } finally {
+                    members.close();
+                }
+            }
+        } finally {
+            genres.close();
+        }
+        return map;
+    }
+
+    /**
+     * The sorter and a folder scan on ioExecutor may still be inside the pool, a task handed to it
+     * after shutdown() is rejected. Wait for both to stop, off the main thread, then shut it down.
+     */
+    private void shutdownSortPoolAfterUsers() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    trackSorter.awaitTermination(SORT_POOL_DRAIN_MS);
+                    ioExecutor.awaitTermination(SORT_POOL_DRAIN_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    //Shut it down anyway, the users drop what is rejected
+                }
+                sortPool.shutdown();
+            }
+        }, "SortPoolShutdown").start();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        headerImages.close();
+        ioExecutor.shutdown();
+        getContentResolver().unregisterContentObserver(libraryObserver);
+        trackSorter.shutdown();
+        shutdownSortPoolAfterUsers();
         if (serviceBound){
             unbindService(serviceConnection);
             //service is active
-            playerService.stopSelf();
+            playerService.stopPlayback();
         }
     }
 
@@ -243,6 +1319,60 @@ public class MainActivity extends AppCompatActivity {
         //noinspection SimplifiableIfStatement
         if (id == R.id.action_settings) {
             return true;
+        } else if (id == R.id.action_browse_songs) {
+            browseFromRoot(BrowseStack.Level.SONGS);
+            return true;
+        } else if (id == R.id.action_browse_artists) {
+            browseFromRoot(BrowseStack.Level.ARTISTS);
+            return true;
+        } else if (id == R.id.action_browse_genres) {
+            browseFromRoot(BrowseStack.Level.GENRES);
+            return true;
+        } else if (id == R.id.action_browse_folders) {
+            browseFromRoot(BrowseStack.Level.FOLDER);
+            return true;
+        } else if (id == R.id.action_up_next) {
+            browseFromRoot(BrowseStack.Level.UP_NEXT);
+            return true;
+        } else if (id == R.id.action_smart_playlists) {
+            browseFromRoot(BrowseStack.Level.SMART_PLAYLISTS);
+            return true;
+        } else if (id == R.id.action_new_smart_playlist) {
+            smartPlaylists.showDialog(null);
+            return true;
+        } else if (id == R.id.action_sort_title) {
+            item.setChecked(true);
+            setSortMode(TrackSorter.SortMode.TITLE);
+            return true;
+        } else if (id == R.id.action_sort_artist) {
+            item.setChecked(true);
+            setSortMode(TrackSorter.SortMode.ARTIST);
+            return true;
+        } else if (id == R.id.action_sort_album) {
+            item.setChecked(true);
+            setSortMode(TrackSorter.SortMode.ALBUM);
+            return true;
+        } else if (id == R.id.action_sort_date_added) {
+            item.setChecked(true);
+            setSortMode(TrackSorter.SortMode.DATE_ADDED);
+            return true;
+        } else if (id == R.id.action_shuffle) {
+            item.setChecked(!item.isChecked());
+            if (serviceBound) playerService.setShuffle(item.isChecked());
+            return true;
+        } else if (id == R.id.action_share_library) {
+            item.setChecked(!item.isChecked());
+            setLibrarySharing(item.isChecked());
+            return true;
+        } else if (id == R.id.action_scan_folder) {
+            startActivityForResult(new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE), REQUEST_SCAN_FOLDER);
+            return true;
+        } else if (id == R.id.action_import_playlist) {
+            startActivityForResult(PlaylistTransfer.importIntent(), REQUEST_IMPORT_PLAYLIST);
+            return true;
+        } else if (id == R.id.action_export_playlist) {
+            startActivityForResult(playlistTransfer.exportIntent(null), REQUEST_EXPORT_PLAYLIST);
+            return true;
         }
 
         return super.onOptionsItemSelected(item);
@@ -0,0 +1,126 @@
+package com.claire.audioplayerapp;
+
+import android.content.Context;
+import android.media.MediaDescription;
+import android.media.browse.MediaBrowser;
+import android.service.media.MediaBrowserService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * MediaBrowser 瀏覽樹 The pages car head units, watches and other controllers browse the library in
+ * The BrowseTree is built on the first request, over the catalog the service has mapped, and kept
+ * current as tracks are appended. The tree is only touched on the executor and requests are
+ * answered from there, so only one page ever crosses binder. Called from the main thread.
+ */
+public class MediaBrowserPages implements MemoryTrimmer.Trimmable {
+
+    private final Context context;
+    private final Executor executor;
+    //Only touched on executor
+    private BrowseTree tree;
+    //Main thread: a build has been queued on executor
+    private boolean requested;
+    //Written on executor after each change to the tree, read by the memory trimmer
+    private volatile long treeBytes;
+
+    public MediaBrowserPages(Context context, Executor executor) {
+        this.context = context.getApplicationContext();
+        this.executor = executor;
+    }
+
+    //The tree reads the catalog it was built over, the next request builds it again
+    public void onCatalogReplaced() {
+        requested = false;
+    }
+
+    /**
+     * @return whether a tree is built (or queued), clients should then reload the root
+     */
+    public boolean onTracksAdded(final int firstOrdinal, final List<Audio> added) {
+        if (!requested) return false;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                tree.onTracksAdded(firstOrdinal, added);
+                treeBytes = tree.estimatedBytes();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Detaches result and sends it from the executor
+     * @param catalog     the service's mapped catalog, null to read the stored one
+     * @param addMoreNode pre-API 24 clients cannot page, they get a "more" node at the end of each page
+     */
+    public void loadChildren(final String parentId, final int page, final int pageSize, final boolean addMoreNode,
+                             SharedCatalog catalog, final MediaBrowserService.Result<List<MediaBrowser.MediaItem>> result) {
+        result.detach();
+        //The mapped catalog itself: it is read and decoded on the executor, one entry at a time,
+        //and later additions arrive through onTracksAdded()
+        final SharedCatalog tracks = !requested ? catalog : null;
+        final boolean build = !requested;
+        requested = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (build) {
+                    List<Audio> source = tracks;
+                    if (source == null) {
+                        SharedCatalog stored = new StorageUtil(context).loadAudio();
+                        source = stored != null ? stored : new ArrayList<Audio>();
+                    }
+                    tree = new BrowseTree(source, Locale.getDefault());
+                    treeBytes = tree.estimatedBytes();
+                }
+                BrowseTree.Page children = tree.getChildren(parentId, page, pageSize);
+                List<MediaBrowser.MediaItem> items = new ArrayList<>(children.nodes.size() + 1);
+                for (BrowseTree.Node node : children.nodes) {
+                    items.add(mediaItem(node.mediaId, node.title, node.subtitle, node.browsable));
+                }
+                if (addMoreNode && children.hasMore) {
+                    items.add(mediaItem(BrowseTree.nextPageId(parentId), "More…", null, true));
+                }
+                result.sendResult(items);
+            }
+        });
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return treeBytes;
+    }
+
+    @Override
+    public void trim(final boolean all) {
+        if (!requested) return;
+        //Requests already queued still find the tree, the next one builds it again
+        if (all) requested = false;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (all) {
+                    tree = null;
+                    treeBytes = 0;
+                } else {
+                    tree.clearCache();
+                    treeBytes = tree.estimatedBytes();
+                }
+            }
+        });
+    }
+
+    private static MediaBrowser.MediaItem mediaItem(String mediaId, String title, String subtitle, boolean browsable) {
+        MediaDescription description = new MediaDescription.Builder()
+                .setMediaId(mediaId)
+                .setTitle(title)
+                .setSubtitle(subtitle)
+                .build();
+        return new MediaBrowser.MediaItem(description,
+                browsable ? MediaBrowser.MediaItem.FLAG_BROWSABLE : MediaBrowser.MediaItem.FLAG_PLAYABLE);
+    }
+}
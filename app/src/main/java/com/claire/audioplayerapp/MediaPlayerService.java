@@ -3,7 +3,6 @@ package com.claire.audioplayerapp;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -13,23 +12,40 @@ import android.graphics.BitmapFactory;
 import android.media.AudioManager;
 import android.media.MediaMetadata;
 import android.media.MediaPlayer;
+import android.media.browse.MediaBrowser;
 import android.media.session.MediaController;
 import android.media.session.MediaSession;
 import android.media.session.MediaSessionManager;
 import android.media.session.PlaybackState;
 import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.service.media.MediaBrowserService;
 import android.support.v4.app.NotificationCompat;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.Log;
+import android.widget.Toast;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 // Service需要在AndroidManifest.xml文件中聲明 <service android:name=".MediaPlayerService"/>
-public class MediaPlayerService extends Service implements
+// 同時也是 MediaBrowserService，讓車機、手錶等外部控制器可以瀏覽音樂庫
+public class MediaPlayerService extends MediaBrowserService implements
+        PlaybackCommands,
         MediaPlayer.OnCompletionListener,
         MediaPlayer.OnPreparedListener,
         MediaPlayer.OnErrorListener,
@@ -44,6 +60,11 @@ public class MediaPlayerService extends Service implements
     public static final String ACTION_PREVIOUS = "com.claire.audioplayerapp.ACTION_PREVIOUS"; //以前
     public static final String ACTION_NEXT = "com.claire.audioplayerapp.ACTION_NEXT";
     public static final String ACTION_STOP = "com.claire.audioplayerapp.ACTION_STOP";
+    //Bind for the Messenger interface even when the service shares the app's process
+    public static final String ACTION_BIND_MESSENGER = "com.claire.audioplayerapp.BIND_MESSENGER";
+    //分享音樂庫 Starts or stops the LAN library server, EXTRA_SHARE_LIBRARY says which
+    public static final String ACTION_SHARE_LIBRARY = "com.claire.audioplayerapp.SHARE_LIBRARY";
+    public static final String EXTRA_SHARE_LIBRARY = "com.claire.audioplayerapp.ShareLibrary";
 
     /**
      *  MediaSession 控制媒體播放，允許與媒體控制器，音量鍵，媒體按鈕和傳輸控件進行交互
@@ -60,30 +81,153 @@ public class MediaPlayerService extends Service implements
     //path to the audio file
     private String mediaFile;
 
-    //Used to pause/resume MediaPlayer 儲存暫停/重啟的位置
-    private int resumePosition;
-
     //AudioFocus
     private AudioManager audioManager;
 
     // Binder given to clients
     private final IBinder iBinder = new LocalBinder();
+    //跨行程 Commands from MainActivity when the service runs in its own process (see RemotePlayback)
+    private final Messenger commandMessenger = new Messenger(new Handler(Looper.getMainLooper()) {
+        @Override
+        public void handleMessage(Message msg) {
+            onCommand(msg);
+        }
+    });
+    private final ArrayList<Messenger> clients = new ArrayList<>();
+    //False while a client's own move/remove runs, it has already applied the edit to its mirror
+    private boolean forwardEdits = true;
 
     //處理來電 Handle incoming phone calls
     private boolean ongoingCall = false; //正在進行通話  ongoing (前進、不斷的)
     private PhoneStateListener phoneStateListener;
     private TelephonyManager telephonyManager;
 
-    //List of available Audio files 可用音頻文件列表
-    private ArrayList<Audio> audioList;
-    private int audioIndex = -1;
+    //List of available Audio files 可用音頻文件列表, mapped from the shared catalog file
+    private SharedCatalog audioList;
     private Audio activeAudio; //an object of the currently playing audio 當前播放音頻的對象
 
+    //播放核心 Queue, skip, focus and pause/resume rules, MediaPlayer sits behind its Player
+    private PlaybackCore core;
+    //待播佇列 The up-next queue is saved as snapshot + edit journal
+    private QueueJournal queueJournal;
+
+    //預讀即將播放的曲目 Readahead of the upcoming queue entries
+    private static final int READAHEAD_TRACKS = 2;
+    private TrackReadahead readahead;
+    private long prepareStartTime;
+    private boolean preparingWarm;
+
+    //精確快轉 Frame index of the current track when it is a long VBR MP3, read or built on
+    //seekIndexExecutor; seeks then prepare the file again from the target frame
+    private final ExecutorService seekIndexExecutor = Executors.newSingleThreadExecutor();
+    private SeekIndexLoader seekIndexes;
+    //Where in the track the prepared data starts, 0 unless an indexed seek opened it at a frame
+    private int seekBaseMs;
+    //An indexed seek is preparing, start() and pause() apply once it is ready
+    private boolean reopening;
+    private boolean startAfterReopen;
+    private float volume = 1.0f;
+    private final Runnable seekDone = new Runnable() {
+        @Override
+        public void run() {
+            core.onSeekComplete();
+        }
+    };
+
+    //收聽紀錄 Play/skip/complete events, appended off the main thread
+    private ListeningHistory history;
+
+    //智慧隨機播放 Weighted shuffle, built here and handed to the core
+    private static final int SHUFFLE_EXCLUDE_RECENT = 50;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    //閒置釋放 Paused longer than this, the MediaPlayer and its decoder are released; the core keeps
+    //track, queue and position and prepares again on resume
+    private long idleReleaseMs;
+    //Resume of a released player requested at (elapsedRealtime), -1 when none is pending
+    private long warmResumeStart = -1;
+    //連續跳曲 End of a skip burst, see PlaybackCore.setSkipSettleMs()
+    private final Runnable settleSkips = new Runnable() {
+        @Override
+        public void run() {
+            core.onSettled();
+        }
+    };
+    //區域網路串流 HTTP server for other devices, only while sharing is on
+    private LibraryServer libraryServer;
+    //Ordinal shown in the session metadata and sent to clients
+    private int displayedOrdinal = -1;
+    //Of the displayed track, from the catalog or from the player once prepared; 0 when unknown
+    private long durationMs;
+
+    //播放進度 The position as of the last jump, for the session, bound clients and MainActivity
+    private final PlaybackPosition playbackPosition = new PlaybackPosition();
+    //Where a seek in progress goes, -1 when none
+    private long seekTarget = -1;
+    private static final long PLAYBACK_ACTIONS = PlaybackState.ACTION_PLAY | PlaybackState.ACTION_PAUSE
+            | PlaybackState.ACTION_PLAY_PAUSE | PlaybackState.ACTION_SKIP_TO_NEXT
+            | PlaybackState.ACTION_SKIP_TO_PREVIOUS | PlaybackState.ACTION_STOP | PlaybackState.ACTION_SEEK_TO;
+    //Artwork of the notification and the session, decoded once and again after memory pressure;
+    //decoded on artworkExecutor, both are updated when it arrives
+    private Bitmap artwork;
+    private boolean artworkDecoding;
+    private final ExecutorService artworkExecutor = Executors.newSingleThreadExecutor();
+    //What the notification shows, null when there is none
+    private PlaybackStatusEnum notificationStatus;
+
+    //啟動追蹤 Stages of the first start of this service, logged and dropped once audio flows
+    private StartupTrace startupTrace;
+    private long createBegin, createEnd;
+    //After start(), the position is polled until it moves: the first buffers reached the mixer
+    private static final int FIRST_AUDIO_POLL_MS = 5;
+    private static final int FIRST_AUDIO_MAX_POLLS = 400;
+    private int firstAudioPolls;
+    private final Runnable firstAudioCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (startupTrace == null || mediaPlayer == null) return;
+            if (mediaPlayer.isPlaying() && mediaPlayer.getCurrentPosition() > 0) {
+                startupTrace.finish(SystemClock.elapsedRealtimeNanos());
+            } else if (++firstAudioPolls < FIRST_AUDIO_MAX_POLLS) {
+                mainHandler.postDelayed(this, FIRST_AUDIO_POLL_MS);
+                return;
+            }
+            Log.i("MediaPlayerService", "startup " + startupTrace.describe());
+            startupTrace = null;
+        }
+    };
+    private final Runnable idleRelease = new Runnable() {
+        @Override
+        public void run() {
+            if (!core.releaseIdle()) return;
+            readahead.releasePool();
+            Log.d("MediaPlayerService", "idle release at " + core.getResumePosition() + "ms");
+        }
+    };
+
+    //MediaBrowser 瀏覽樹, built and paged on browseExecutor; shuffle weights are computed there too
+    private final ExecutorService browseExecutor = Executors.newSingleThreadExecutor();
+    private MediaBrowserPages browsePages;
+
+    //記憶體壓力 What this process can give back before the system has to kill it; a playing
+    //track is never touched
+    private final MemoryTrimmer memoryTrimmer = new MemoryTrimmer();
+    //A guess at what a prepared MediaPlayer costs: decoder and buffers, mostly outside our heap
+    private static final long PLAYER_ESTIMATED_BYTES = 1024 * 1024;
+
     /**
      * Service lifecycle methods 生命週期
      */
     @Override
     public IBinder onBind(Intent intent) {
+        //MediaBrowser clients (car head units, watches...) bind with SERVICE_INTERFACE
+        if (SERVICE_INTERFACE.equals(intent.getAction())) {
+            return super.onBind(intent);
+        }
+        //A LocalBinder is only usable inside this process
+        if (BuildConfig.SEPARATE_PLAYBACK_PROCESS || ACTION_BIND_MESSENGER.equals(intent.getAction())) {
+            return commandMessenger.getBinder();
+        }
         return iBinder;
     }
 
@@ -93,6 +237,7 @@ public class MediaPlayerService extends Service implements
     @Override
     public void onCreate() {
         super.onCreate();
+        createBegin = SystemClock.elapsedRealtimeNanos();
         // Perform one-time setup procedures 執行一次性設置程序
 
         //Manage incoming phone calls during playback. 在播放期間管理來電
@@ -104,6 +249,45 @@ public class MediaPlayerService extends Service implements
         registerBecomingNoisyReceiver();
         //Listen for new Audio to play -- BroadcastReceiver
         register_playNewAudio();
+
+        readahead = new TrackReadahead();
+        browsePages = new MediaBrowserPages(this, browseExecutor);
+        idleReleaseMs = getResources().getInteger(R.integer.idle_release_timeout_ms);
+        seekIndexes = new SeekIndexLoader(new StorageUtil(getApplicationContext()).seekIndexDir(),
+                getResources().getInteger(R.integer.seek_index_min_duration_ms), seekIndexExecutor, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        });
+        history = new ListeningHistory(getFilesDir());
+        core = new PlaybackCore(player, coreHost, READAHEAD_TRACKS);
+        core.setSkipSettleMs(getResources().getInteger(R.integer.skip_settle_ms));
+        initMemoryTrimmer();
+        queueJournal = new QueueJournal(getFilesDir());
+        queueJournal.setForwardListener(new UpNextQueue.EditListener() {
+            @Override
+            public void onInsert(int index, int value) {
+                if (forwardEdits) sendToClients(Message.obtain(null, RemotePlayback.MSG_QUEUE_INSERT, index, value));
+            }
+
+            @Override
+            public void onRemove(int index) {
+                if (forwardEdits) sendToClients(Message.obtain(null, RemotePlayback.MSG_QUEUE_REMOVE, index, 0));
+            }
+
+            @Override
+            public void onMove(int from, int to) {
+                if (forwardEdits) sendToClients(Message.obtain(null, RemotePlayback.MSG_QUEUE_MOVE, from, to));
+            }
+        });
+
+        //The session exists from the start so MediaBrowser clients get its token before playback
+        mediaSession = new MediaSession(getApplicationContext(), "AudioPlayer");
+        setSessionToken(mediaSession.getSessionToken());
+        //Decoded while the first track prepares, ready for its notification
+        getArtwork();
+        createEnd = SystemClock.elapsedRealtimeNanos();
     }
 
 
@@ -114,11 +298,27 @@ public class MediaPlayerService extends Service implements
      */
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        //Sharing is switched on its own, playback is left as it is
+        if (intent != null && ACTION_SHARE_LIBRARY.equals(intent.getAction())) {
+            setLibrarySharing(intent.getBooleanExtra(EXTRA_SHARE_LIBRARY, false));
+            return START_NOT_STICKY;
+        }
+        int audioIndex = -1;
+        boolean starting = mediaSessionManager == null;
+        if (starting) beginStartupTrace(intent);
+        beginStage("catalog");
         try {
-            //Load data from SharePreferences
+            //Map the catalog MainActivity published, index from SharedPreferences
             StorageUtil storage = new StorageUtil(getApplicationContext());
+            SharedCatalog previous = audioList;
             audioList = storage.loadAudio();
-            audioIndex = storage.loadAudioIndex();
+            if (previous != null && audioList != previous) browsePages.onCatalogReplaced();
+            if (libraryServer != null && audioList != null) libraryServer.setCatalog(audioList);
+            //SharedPreferences are not kept in step across processes, the intent carries the index
+            audioIndex = intent != null ? intent.getIntExtra(MainActivity.EXTRA_AUDIO_INDEX, -1) : -1;
+            if (audioIndex == -1) audioIndex = storage.loadAudioIndex();
+            core.setTrackCount(audioList.size());
+            queueJournal.setCatalog(audioList);
 
             if (audioIndex != -1 && audioIndex < audioList.size()){
                 //index is in a valid range
@@ -131,39 +331,157 @@ public class MediaPlayerService extends Service implements
 
             stopSelf();
         }
-
-        //Request audio focus 請求音頻焦點
-        if (requestAudioFocus() == false){
+        endStage("catalog");
+
+        if (starting){
+            beginStage("queue");
+            //Pick up the saved queue when it still ends at the stored track
+            UpNextQueue saved = queueJournal.restore();
+            int savedPosition = queueJournal.getRestoredPosition();
+            if (saved != null && saved.get(savedPosition) != audioIndex){
+                queueJournal.replace(null, 0);
+                saved = null;
+            }
+            endStage("queue");
+            if (!core.startCold(saved, savedPosition, audioIndex, startup)) stopSelf();
+        } else if (requestAudioFocus() == false){
+            //Request audio focus 請求音頻焦點
             //Could nto gain focus //無法獲很焦點
             stopSelf();
         }
 
-        if (mediaSessionManager == null){
+        //Handle Intent action from MediaSession.TransportControls
+        handleIncomingActions(intent);
+
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    /**
+     * 啟動追蹤 From the tap when MainActivity sent it, from the start of the service otherwise
+     */
+    //Each step of a cold start is a stage of the startup trace
+    private final PlaybackCore.Startup startup = new PlaybackCore.Startup() {
+        @Override
+        public boolean requestFocus() {
+            beginStage("focus");
+            boolean focused = requestAudioFocus();
+            endStage("focus");
+            return focused;
+        }
+
+        @Override
+        public void initSession() {
+            beginStage("session");
             try {
                 initMediaSession();
-                initMediaPlayer();
-
             } catch (RemoteException e) {
                 e.printStackTrace();
                 stopSelf();
             }
+            endStage("session");
+        }
+
+        @Override
+        public void showNotification() {
+            beginStage("notification");
             buildNotification(PlaybackStatusEnum.PLAYING);
+            endStage("notification");
         }
+    };
 
-        //Handle Intent action from MediaSession.TransportControls
-        handleIncomingActions(intent);
+    private void beginStartupTrace(Intent intent) {
+        long tap = intent != null ? intent.getLongExtra(MainActivity.EXTRA_TAP_NANOS, -1) : -1;
+        startupTrace = new StartupTrace(tap >= 0 ? tap : createBegin);
+        if (tap >= 0) {
+            long published = intent.getLongExtra(MainActivity.EXTRA_PUBLISHED_NANOS, tap);
+            startupTrace.begin("publish", tap);
+            startupTrace.end("publish", published);
+            //Process start when the service process was not running, binder round trips otherwise
+            startupTrace.begin("launch", published);
+            startupTrace.end("launch", createBegin);
+        }
+        startupTrace.begin("create", createBegin);
+        startupTrace.end("create", createEnd);
+    }
 
-        return super.onStartCommand(intent, flags, startId);
+    //A stage of the start on the main thread, also a systrace section
+    private void beginStage(String stage) {
+        Trace.beginSection(stage);
+        if (startupTrace != null) startupTrace.begin(stage, SystemClock.elapsedRealtimeNanos());
+    }
+
+    private void endStage(String stage) {
+        if (startupTrace != null) startupTrace.end(stage, SystemClock.elapsedRealtimeNanos());
+        Trace.endSection();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        long freed = memoryTrimmer.onTrimMemory(level);
+        Log.d("MediaPlayerService", "trim level " + level + ", freed " + freed / 1024 + "KB, " + memoryTrimmer.describe());
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        memoryTrimmer.onLowMemory();
+    }
+
+    /**
+     * The notification artwork goes first, then the MediaBrowser tree (built again by the next
+     * browse), then a paused player is released without waiting for the idle timeout
+     */
+    private void initMemoryTrimmer() {
+        memoryTrimmer.register("artwork", MemoryTrimmer.PRIORITY_DISPOSABLE, new MemoryTrimmer.Trimmable() {
+            @Override
+            public long estimatedBytes() {
+                return artwork != null ? artwork.getByteCount() : 0;
+            }
+
+            @Override
+            public void trim(boolean all) {
+                //Still shown by the notification, decoded again for the next one
+                artwork = null;
+            }
+        });
+        memoryTrimmer.register("browse tree", MemoryTrimmer.PRIORITY_REBUILDABLE, browsePages);
+        memoryTrimmer.register("seek index", MemoryTrimmer.PRIORITY_WORKING, seekIndexes);
+        memoryTrimmer.register("player", MemoryTrimmer.PRIORITY_WORKING, new MemoryTrimmer.Trimmable() {
+            @Override
+            public long estimatedBytes() {
+                return mediaPlayer != null ? PLAYER_ESTIMATED_BYTES : 0;
+            }
+
+            @Override
+            public void trim(boolean all) {
+                //Only a paused player, as if the idle timeout had run out
+                mainHandler.removeCallbacks(idleRelease);
+                idleRelease.run();
+            }
+        });
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        mainHandler.removeCallbacks(idleRelease);
+        mainHandler.removeCallbacks(settleSkips);
+        mainHandler.removeCallbacks(seekDone);
+        mainHandler.removeCallbacks(firstAudioCheck);
+        seekIndexExecutor.shutdownNow();
+        artworkExecutor.shutdownNow();
+        if (libraryServer != null) libraryServer.stop();
         if (mediaPlayer != null){
             stopMedia();
             mediaPlayer.release();
         }
-        removeAudioFocus();
+        if (audioManager != null) removeAudioFocus();
+        readahead.close();
+        history.close();
+        queueJournal.close();
+        browseExecutor.shutdownNow();
+        mediaSession.release();
 
         //Disable the PhoneStateListener
         if (phoneStateListener != null){
@@ -184,6 +502,11 @@ public class MediaPlayerService extends Service implements
      * MediaPlayer actions
      */
     private void initMediaPlayer(){
+        initMediaPlayer(0);
+    }
+
+    //fromByte: where playback starts in the file, a frame boundary after an indexed seek
+    private void initMediaPlayer(long fromByte){
         if (mediaPlayer == null){
             mediaPlayer = new MediaPlayer(); //new MediaPlayer instance
         }
@@ -202,22 +525,25 @@ public class MediaPlayerService extends Service implements
 
         try {
             // set the data source the mediaFile location
-            mediaPlayer.setDataSource(activeAudio.getData());
+            // 使用預先開啟的文件描述符 use the descriptor opened (and warmed) by the readahead
+            TrackReadahead.Source source = readahead.acquire(activeAudio.getData());
+            try {
+                preparingWarm = source.isWarm();
+                mediaPlayer.setDataSource(source.getFileDescriptor(), source.getOffset() + fromByte, source.getLength() - fromByte);
+            } finally {
+                readahead.release(source);
+            }
         } catch (IOException e) {
             e.printStackTrace();
             stopSelf();
         }
 
+        prepareStartTime = SystemClock.elapsedRealtimeNanos();
+        if (startupTrace != null && !reopening) startupTrace.begin("prepare", prepareStartTime);
         mediaPlayer.prepareAsync();
 
     }
 
-    private void playMedia(){
-        if (!mediaPlayer.isPlaying()){
-            mediaPlayer.start();
-        }
-    }
-
     private void stopMedia(){
         if (mediaPlayer == null) return;
 
@@ -226,20 +552,137 @@ public class MediaPlayerService extends Service implements
         }
     }
 
-    private void pauseMedia(){
-        if (mediaPlayer.isPlaying()){
-            mediaPlayer.pause();
-            resumePosition = mediaPlayer.getCurrentPosition();
+    /**
+     * PlaybackCore 的播放器 MediaPlayer behind the core's Player interface
+     */
+    private final PlaybackCore.Player player = new PlaybackCore.Player() {
+        @Override
+        public void prepare(int ordinal) {
+            seekBaseMs = 0;
+            reopening = false;
+            initMediaPlayer();
         }
-    }
 
-    private void resumeMedia(){
-        if (!mediaPlayer.isPlaying()){
-            mediaPlayer.seekTo(resumePosition);
+        @Override
+        public void start() {
+            if (reopening) {
+                startAfterReopen = true;
+                return;
+            }
             mediaPlayer.start();
         }
-    }
 
+        @Override
+        public void pause() {
+            if (reopening) {
+                startAfterReopen = false;
+                return;
+            }
+            mediaPlayer.pause();
+        }
+
+        @Override
+        public void stop() {
+            reopening = false;
+            stopMedia();
+            //reset() also abandons a prepareAsync() still running
+            if (mediaPlayer != null) mediaPlayer.reset();
+        }
+
+        @Override
+        public void seekTo(int positionMs) {
+            FrameSeekIndex seekIndex = seekIndexes.get();
+            int frame = seekIndex != null ? seekIndex.frameAt(positionMs) : -1;
+            if (frame >= 0) {
+                seekToFrame(frame, positionMs);
+            } else {
+                //Not indexed (or past the indexed frames): MediaPlayer's own seek, in its own timeline
+                mediaPlayer.seekTo(Math.max(positionMs - seekBaseMs, 0));
+            }
+        }
+
+        @Override
+        public int getPosition() {
+            if (mediaPlayer == null) return 0;
+            return reopening ? seekBaseMs : seekBaseMs + mediaPlayer.getCurrentPosition();
+        }
+
+        @Override
+        public void setVolume(float volume) {
+            MediaPlayerService.this.volume = volume;
+            if (!reopening) mediaPlayer.setVolume(volume, volume);
+        }
+
+        @Override
+        public void release() {
+            reopening = false;
+            mediaPlayer.release();
+            mediaPlayer = null;
+        }
+    };
+
+    //Side effects of the core's decisions
+    private final PlaybackCore.Host coreHost = new PlaybackCore.Host() {
+        @Override
+        public void onTrackChanged(int ordinal) {
+            //Update stored index
+            new StorageUtil(getApplicationContext()).storeAudioIndex(ordinal);
+            seekIndexes.load(audioList.get(ordinal));
+            //Already shown when it ends a skip burst
+            if (ordinal != displayedOrdinal) showTrack(ordinal);
+            publishPosition(ordinal, PlaybackPosition.STATE_BUFFERING, 0);
+        }
+
+        @Override
+        public void onTrackPending(int ordinal) {
+            showTrack(ordinal);
+            publishPosition(ordinal, PlaybackPosition.STATE_BUFFERING, 0);
+        }
+
+        @Override
+        public void scheduleSettle(long delayMs) {
+            mainHandler.removeCallbacks(settleSkips);
+            mainHandler.postDelayed(settleSkips, delayMs);
+        }
+
+        @Override
+        public void onStateChanged(PlaybackCore.State state) {
+            //A pause is a good moment to hand buffered events to disk
+            if (state == PlaybackCore.State.PAUSED) history.flush();
+            mainHandler.removeCallbacks(idleRelease);
+            if (state == PlaybackCore.State.PAUSED && !core.isReleased()) {
+                mainHandler.postDelayed(idleRelease, idleReleaseMs);
+            }
+            if (state == PlaybackCore.State.PLAYING && warmResumeStart >= 0) {
+                Log.d("MediaPlayerService", "resume after release " + (SystemClock.elapsedRealtime() - warmResumeStart) + "ms");
+                warmResumeStart = -1;
+            }
+            publishPosition();
+        }
+
+        @Override
+        public void onTrackEvent(byte event, int ordinal, int positionMs) {
+            history.record(event, audioList.get(ordinal).getData(), positionMs);
+        }
+
+        @Override
+        public void onPlaybackEnded() {
+            //stop the service
+            stopSelf();
+        }
+
+        @Override
+        public void onQueueReplaced(UpNextQueue queue, int position) {
+            queueJournal.replace(queue, position);
+            if (!clients.isEmpty()) sendToClients(queueMessage());
+        }
+
+        @Override
+        public void onQueuePositionChanged(int position) {
+            queueJournal.setPosition(position);
+            sendToClients(Message.obtain(null, RemotePlayback.MSG_QUEUE_POSITION, position, 0));
+        }
+    };
 
     /**
      * MediaPlayer callback methods
@@ -257,11 +700,9 @@ public class MediaPlayerService extends Service implements
      */
     @Override
     public void onCompletion(MediaPlayer mp) {
-        //Invoked when playback of a media source has completed
-        stopMedia();
-
-        //stop the service
-        stopSelf();
+        //Invoked when playback of a media source has completed, the core goes on to the next
+        //entry or, at the end of the queue, stops the service
+        core.onCompletion();
     }
 
     /**
@@ -301,7 +742,175 @@ public class MediaPlayerService extends Service implements
      */
     @Override
     public void onPrepared(MediaPlayer mp) {
-        playMedia();
+        if (reopening) {
+            onReopened();
+            return;
+        }
+        readahead.recordPrepare(preparingWarm, SystemClock.elapsedRealtimeNanos() - prepareStartTime);
+        if (BuildConfig.DEBUG) Log.d("MediaPlayerService", readahead.describePrepareTimes());
+        if (startupTrace != null) startupTrace.end("prepare", SystemClock.elapsedRealtimeNanos());
+        if (durationMs <= 0 && seekBaseMs == 0 && mediaPlayer.getDuration() > 0) {
+            //Not in the catalog, the lock screen gets it from the metadata
+            durationMs = mediaPlayer.getDuration();
+            updateMetaData();
+        }
+        core.onPrepared();
+        if (startupTrace != null && core.isPlaying()) {
+            firstAudioPolls = 0;
+            mainHandler.removeCallbacks(firstAudioCheck);
+            mainHandler.post(firstAudioCheck);
+        }
+        prefetchUpcoming();
+    }
+
+    /**
+     * 分享音樂庫 Starts the LAN server on the catalog being played, or the published one when
+     * nothing plays yet
+     */
+    private void setLibrarySharing(boolean on) {
+        if (!on) {
+            if (libraryServer != null) libraryServer.stop();
+            libraryServer = null;
+            //Started for sharing alone, nothing left to do
+            if (activeAudio == null) stopSelf();
+            return;
+        }
+        if (libraryServer != null) return;
+        List<Audio> catalog = audioList != null ? audioList : new StorageUtil(getApplicationContext()).loadAudio();
+        LibraryServer server = new LibraryServer(catalog, getResources().getInteger(R.integer.library_server_port));
+        try {
+            if (catalog == null) throw new IOException("no catalog published");
+            server.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Toast.makeText(this, R.string.library_sharing_failed, Toast.LENGTH_LONG).show();
+            return;
+        }
+        libraryServer = server;
+        String url = "http://" + LibraryServer.getLanAddress() + ":" + server.getPort() + "/catalog";
+        Log.i("MediaPlayerService", "library shared at " + url);
+        Toast.makeText(this, getString(R.string.library_sharing_on, url), Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Prepares the track again from a frame boundary, one frame ahead of the target so the decoder
+     * has the bits that frame borrows from the one before it. Lands within two frames (about 50ms)
+     * before the target and reports the position exactly from there.
+     */
+    private void seekToFrame(int frame, int positionMs) {
+        FrameSeekIndex seekIndex = seekIndexes.get();
+        int from = Math.max(frame - 1, 0);
+        //A resume from pause seeks to where the player already is
+        if (!reopening && Math.abs(player.getPosition() - positionMs) <= seekIndex.timeOfFrame(2)) {
+            mainHandler.post(seekDone);
+            return;
+        }
+        if (!reopening) startAfterReopen = mediaPlayer.isPlaying();
+        reopening = true;
+        seekBaseMs = (int) seekIndex.timeOfFrame(from);
+        initMediaPlayer(seekIndex.offsetOfFrame(from));
+    }
+
+    private void onReopened() {
+        reopening = false;
+        Log.d("MediaPlayerService", "indexed seek to " + seekBaseMs + "ms in "
+                + (SystemClock.elapsedRealtimeNanos() - prepareStartTime) / 1000000 + "ms");
+        mediaPlayer.setVolume(volume, volume);
+        if (startAfterReopen) mediaPlayer.start();
+        core.onSeekComplete();
+    }
+
+    //The track in the session metadata and on bound clients
+    private void showTrack(int ordinal) {
+        displayedOrdinal = ordinal;
+        activeAudio = audioList.get(ordinal);
+        durationMs = activeAudio.getDuration();
+        updateMetaData();
+        sendToClients(Message.obtain(null, RemotePlayback.MSG_TRACK_CHANGED, ordinal, 0));
+    }
+
+    /**
+     * 播放進度 Works out where playback is from the core's state; only a playing track asks the
+     * player. Called on every state change, a position that follows from the last snapshot is
+     * not published again.
+     */
+    private void publishPosition() {
+        int state;
+        long position;
+        switch (core.getState()) {
+            case PLAYING:
+                state = PlaybackPosition.STATE_PLAYING;
+                position = player.getPosition();
+                break;
+            case PAUSED:
+                state = PlaybackPosition.STATE_PAUSED;
+                position = core.getResumePosition();
+                break;
+            case PREPARING:
+                //From the start, or back to the resume position after a release
+                state = PlaybackPosition.STATE_BUFFERING;
+                position = core.getResumePosition();
+                break;
+            case SEEKING:
+                state = PlaybackPosition.STATE_BUFFERING;
+                position = seekTarget >= 0 ? seekTarget : core.getResumePosition();
+                break;
+            default:
+                state = PlaybackPosition.STATE_STOPPED;
+                position = 0;
+                break;
+        }
+        if (core.getState() != PlaybackCore.State.SEEKING) seekTarget = -1;
+        publishPosition(displayedOrdinal, state, position);
+    }
+
+    private void publishPosition(int ordinal, int state, long position) {
+        if (ordinal < 0) return;
+        PlaybackPosition.Snapshot snapshot = playbackPosition.publish(ordinal, state, position,
+                SystemClock.elapsedRealtime(), state == PlaybackPosition.STATE_PLAYING ? 1f : 0f, durationMs);
+        if (snapshot == null) return;
+        mediaSession.setPlaybackState(new PlaybackState.Builder()
+                .setActions(PLAYBACK_ACTIONS)
+                .setState(snapshot.state, snapshot.positionMs, snapshot.speed, snapshot.anchorMs)
+                .build());
+        if (!clients.isEmpty()) sendToClients(RemotePlayback.positionMessage(snapshot));
+    }
+
+    //null until decoded, the first call starts the decode
+    private Bitmap getArtwork() {
+        if (artwork != null || artworkDecoding) return artwork;
+        artworkDecoding = true;
+        artworkExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap decoded = BitmapFactory.decodeResource(getResources(), R.drawable.image1); //replace with medias albumArt
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        artworkDecoding = false;
+                        artwork = decoded;
+                        if (decoded == null || activeAudio == null) return;
+                        updateMetaData();
+                        if (notificationStatus != null) buildNotification(notificationStatus);
+                    }
+                });
+            }
+        });
+        return null;
+    }
+
+    //Start of a resume that has to prepare the released player again, logged once it plays
+    private void markWarmResume() {
+        if (core.isReleased()) warmResumeStart = SystemClock.elapsedRealtime();
+    }
+
+    //Warm the next entries of the playlist while the current one plays
+    private void prefetchUpcoming() {
+        if (audioList == null || audioList.isEmpty()) return;
+        int length = core.upcomingCount();
+        for (int i = 1; i <= READAHEAD_TRACKS && i < length; i++) {
+            readahead.prefetch(audioList.get(core.peek(i)).getData());
+        }
     }
 
     /**
@@ -310,7 +919,7 @@ public class MediaPlayerService extends Service implements
      */
     @Override
     public void onSeekComplete(MediaPlayer mp) {
-
+        core.onSeekComplete();
     }
 
     /**
@@ -321,30 +930,17 @@ public class MediaPlayerService extends Service implements
         //Invoked when the audio focus of the system is updated.
         switch (focusState){
             case AudioManager.AUDIOFOCUS_GAIN: //該服務獲取了音頻焦點，因此需要開始播放
-                //resume playback 恢復播放
-                if (mediaPlayer == null){
-                    initMediaPlayer();
-                }
-                else if (!mediaPlayer.isPlaying()){
-                    mediaPlayer.start();;
-                    mediaPlayer.setVolume(1.0f, 1.0f);
-                }
+                markWarmResume();
+                core.onFocusChange(PlaybackCore.Focus.GAIN);
                 break;
             case AudioManager.AUDIOFOCUS_LOSS: //該服務丟失了音頻焦點，用戶可能轉移到另一個應用程序上播放媒體，因此釋放媒體播放器
-                // Lost focus for an unbounded amount of time: stop playback and release media player
-                if (mediaPlayer.isPlaying()) mediaPlayer.stop();
-                mediaPlayer.release();
-                mediaPlayer = null;
+                core.onFocusChange(PlaybackCore.Focus.LOSS);
                 break;
             case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT: //Focus失去了一小段時間，暫停了MediaPlayer。
-                // Lost focus a short time, but we have to stop playback
-                // We don't release the media player because playback is likely to resume
-                if (mediaPlayer.isPlaying()) mediaPlayer.pause();
+                core.onFocusChange(PlaybackCore.Focus.LOSS_TRANSIENT);
                 break;
             case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK: //短時間丟失焦點，可能是設備上的通知，降低了播放音量
-                // Lost focus for a short time, but it's ok to keep playing
-                // at an attenuated level
-                if (mediaPlayer.isPlaying()) mediaPlayer.setVolume(0.1f,0.1f);
+                core.onFocusChange(PlaybackCore.Focus.LOSS_TRANSIENT_CAN_DUCK);
                 break;
 
         }
@@ -377,7 +973,7 @@ public class MediaPlayerService extends Service implements
         @Override
         public void onReceive(Context context, Intent intent) {
             //pause audio on ACTION_AUDIO_BECOMING_NOISY
-            pauseMedia();
+            core.pause();
             buildNotification(PlaybackStatusEnum.PAUSED);
         }
     };
@@ -406,18 +1002,17 @@ public class MediaPlayerService extends Service implements
                     //pause the MediaPlayer
                     case TelephonyManager.CALL_STATE_OFFHOOK:
                     case TelephonyManager.CALL_STATE_RINGING:
-                        if (mediaFile != null){
-                            pauseMedia();
+                        if (core.isPlaying()){
+                            core.pause();
                             ongoingCall = true;
                         }
                         break;
                     case TelephonyManager.CALL_STATE_IDLE:
                         // Phone idle. Start playing.
-                        if(mediaPlayer != null){
-                            if (ongoingCall){
-                                ongoingCall = false;
-                                resumeMedia();
-                            }
+                        if (ongoingCall){
+                            ongoingCall = false;
+                            markWarmResume();
+                            core.resume();
                         }
                         break;
                 }
@@ -434,21 +1029,16 @@ public class MediaPlayerService extends Service implements
     private BroadcastReceiver playNewAudio = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            //Get the new media index form SharedPreferences
-            audioIndex = new StorageUtil(getApplicationContext()).loadAudioIndex();
+            //Get the new media index from the broadcast, or form SharedPreferences
+            int audioIndex = intent.getIntExtra(MainActivity.EXTRA_AUDIO_INDEX, -1);
+            if (audioIndex == -1) audioIndex = new StorageUtil(getApplicationContext()).loadAudioIndex();
             if (audioIndex != -1 && audioIndex < audioList.size()){
                 //index is in a valid range (index處於有效範圍內)
-                activeAudio = audioList.get(audioIndex);
+                //A PLAY_NEW_AUDIO action received, the list plays in order again from there, or shuffles
+                core.play(audioIndex);
             } else {
                 stopSelf();
             }
-
-            //A PLAY_NEW_AUDIO action received
-            //reset mediaPlayer to play the new Audio (重置mediaPlayer以播放新音頻)
-            stopMedia();
-            mediaPlayer.reset();
-            initMediaPlayer();
-            updateMetaData();
             buildNotification(PlaybackStatusEnum.PAUSED);
         }
     };
@@ -467,8 +1057,7 @@ public class MediaPlayerService extends Service implements
         if (mediaSessionManager != null) return; //mediaSessionManager exists 存在
 
         mediaSessionManager = (MediaSessionManager)getSystemService(Context.MEDIA_SESSION_SERVICE);
-        //Create a new MediaSession
-        mediaSession = new MediaSession(getApplicationContext(),"AudioPlayer");
+        //The MediaSession itself is created in onCreate()
         //Get MediaSessions transport controls (獲取MediaSessions傳輸控件)
         transportControls = mediaSession.getController().getTransportControls();
         //set MediaSession -> ready to receive media commands (準備接收命令)
@@ -488,31 +1077,29 @@ public class MediaPlayerService extends Service implements
             @Override
             public void onPlay() {
                 super.onPlay();
-                resumeMedia();
+                markWarmResume();
+                core.resume();
                 buildNotification(PlaybackStatusEnum.PLAYING);
             }
 
             @Override
             public void onPause() {
                 super.onPause();
-                pauseMedia();
+                core.pause();
                 buildNotification(PlaybackStatusEnum.PAUSED);
             }
 
             @Override
             public void onSkipToNext() {
                 super.onSkipToNext();
-                skipToNext();
-                updateMetaData();
+                core.skipToNext();
                 buildNotification(PlaybackStatusEnum.PLAYING);
             }
 
             @Override
             public void onSkipToPrevious() {
                 super.onSkipToPrevious();
-
-                skipToPrevious();
-                updateMetaData();
+                core.skipToPrevious();
                 buildNotification(PlaybackStatusEnum.PLAYING);
             }
 
@@ -527,47 +1114,277 @@ public class MediaPlayerService extends Service implements
             @Override
             public void onSeekTo(long pos) {
                 super.onSeekTo(pos);
+                seekTo((int) pos);
+            }
+
+            @Override
+            public void onPlayFromMediaId(String mediaId, Bundle extras) {
+                super.onPlayFromMediaId(mediaId, extras);
+                playFromMediaId(mediaId);
             }
         });
 
     }
 
-    private void skipToNext(){
-        if (audioIndex == audioList.size() - 1){
-            //if last in playlist
-            audioIndex = 0;
-            activeAudio = audioList.get(audioIndex);
-        } else {
-            //get next in playlist
-            activeAudio = audioList.get(++audioIndex);
+    /**
+     * 設定播放佇列 Replace the play queue with audioList ordinals, without interrupting playback
+     * An empty or null queue goes back to playing audioList in order.
+     */
+    @Override
+    public void setQueue(IntList ordinals, int position){
+        core.setQueue(ordinals, position);
+    }
+
+    /**
+     * 播放佇列 Replace the play queue and start playing it at position
+     */
+    @Override
+    public void playQueue(IntList ordinals, int position){
+        if (audioList == null) return;
+        core.playQueue(ordinals, position);
+        buildNotification(PlaybackStatusEnum.PLAYING);
+    }
+
+    /**
+     * 由瀏覽器播放 A track picked in a MediaBrowser client
+     */
+    private void playFromMediaId(String mediaId){
+        int ordinal = BrowseTree.parseTrackOrdinal(mediaId);
+        if (ordinal < 0) return;
+        if (audioList == null){
+            //Only bound by a browser so far, onStartCommand() loads the list and plays the stored index
+            new StorageUtil(getApplicationContext()).storeAudioIndex(ordinal);
+            startService(new Intent(this, MediaPlayerService.class));
+            return;
+        }
+        if (ordinal >= audioList.size()) return;
+
+        core.play(ordinal);
+        buildNotification(PlaybackStatusEnum.PLAYING);
+    }
+
+    /**
+     * 新增曲目 Tracks appended to the shared catalog while the service is running, ordinals stay the same
+     */
+    @Override
+    public void onCatalogAppended(){
+        if (audioList == null) return;
+        int firstOrdinal = audioList.size();
+        try {
+            audioList.refresh();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
         }
+        List<Audio> added = new ArrayList<>(audioList.subList(firstOrdinal, audioList.size()));
+        core.addTracks(added.size());
+        if (browsePages.onTracksAdded(firstOrdinal, added)) notifyChildrenChanged(BrowseTree.ROOT);
+    }
 
-        //Update stored index
-        new StorageUtil(getApplicationContext()).storeAudioIndex(audioIndex);
+    /**
+     * 智慧隨機播放 Turn weighted shuffle over the whole catalog on or off
+     * Weights come from the listening history and are computed once, off the main thread.
+     */
+    @Override
+    public void setShuffle(boolean enabled){
+        core.setShuffleEnabled(enabled);
+        if (!enabled || core.hasShuffle() || audioList == null) return;
+        //Read where the weights are computed: each entry is decoded there, never on this thread
+        final SharedCatalog tracks = audioList;
+        final int count = tracks.size();
+        browseExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                int[] weights = new int[count];
+                for (int i = 0; i < weights.length; i++) {
+                    long key = ListeningHistory.trackKey(tracks.getData(i));
+                    weights[i] = WeightedShuffle.weightOf(history.getPlayCount(key),
+                            history.getSkipRate(key), history.getLastPlayed(key), now);
+                }
+                final WeightedShuffle built = new WeightedShuffle(weights, weights.length,
+                        SHUFFLE_EXCLUDE_RECENT, new Random());
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        core.setShuffle(built);
+                    }
+                });
+            }
+        });
+    }
 
-        stopMedia();
-        mediaPlayer.reset();
-        initMediaPlayer();
+    public boolean isShuffleEnabled(){
+        return core.isShuffleEnabled();
     }
 
-    private void skipToPrevious(){
-        if (audioIndex == 0){
-            //if first in playlist
-            //set index to the last of audioList
-            audioIndex = audioList.size() - 1;
-            activeAudio = audioList.get(audioIndex);
-        } else {
-            //get previous in playlist 獲取上一個播放列表
-            activeAudio = audioList.get(--audioIndex);
+    /**
+     * 待播 Up-next edits from the activity, each O(log n) and journaled
+     */
+    @Override
+    public void playNext(int ordinal){
+        core.playNext(ordinal);
+        prefetchUpcoming();
+    }
+
+    @Override
+    public void enqueue(int ordinal){
+        core.enqueue(ordinal);
+    }
+
+    /**
+     * 批次 A selection from the activity: the queue is replaced once, so one snapshot is saved
+     * and one queue sent to clients
+     */
+    @Override
+    public void playNext(IntList ordinals){
+        core.playNext(ordinals);
+        prefetchUpcoming();
+    }
+
+    @Override
+    public void enqueue(IntList ordinals){
+        core.enqueue(ordinals);
+    }
+
+    @Override
+    public void moveQueueItem(int from, int to){
+        core.moveQueueItem(from, to);
+    }
+
+    @Override
+    public void removeQueueItem(int index){
+        core.removeQueueItem(index);
+    }
+
+    @Override
+    public void playQueueEntry(int index){
+        core.playQueueEntry(index);
+        buildNotification(PlaybackStatusEnum.PLAYING);
+    }
+
+    @Override
+    public void seekTo(int positionMs){
+        seekTarget = Math.max(positionMs, 0);
+        core.seekTo(positionMs);
+        //A paused seek only moves the resume position, no state change publishes it
+        publishPosition();
+    }
+
+    @Override
+    public PlaybackPosition getPlaybackPosition(){
+        return playbackPosition;
+    }
+
+    @Override
+    public UpNextQueue getUpNext(){
+        return core.getQueue();
+    }
+
+    @Override
+    public int getUpNextPosition(){
+        return core.getQueuePosition();
+    }
+
+    @Override
+    public void stopPlayback(){
+        stopSelf();
+    }
+
+    /**
+     * 跨行程命令 RemotePlayback messages, handled on the main thread like the local calls
+     */
+    private void onCommand(Message msg){
+        switch (msg.what){
+            case RemotePlayback.MSG_REGISTER:
+                clients.add(msg.replyTo);
+                sendTo(msg.replyTo, queueMessage());
+                if (core.getCurrentOrdinal() >= 0){
+                    sendTo(msg.replyTo, Message.obtain(null, RemotePlayback.MSG_TRACK_CHANGED, core.getCurrentOrdinal(), 0));
+                }
+                sendTo(msg.replyTo, RemotePlayback.positionMessage(playbackPosition.get()));
+                break;
+            case RemotePlayback.MSG_UNREGISTER:
+                clients.remove(msg.replyTo);
+                break;
+            case RemotePlayback.MSG_PING:
+                sendTo(msg.replyTo, Message.obtain(null, RemotePlayback.MSG_PONG, msg.arg1, 0));
+                break;
+            case RemotePlayback.MSG_PLAY_QUEUE:
+                playQueue(intListOf(msg), msg.arg1);
+                break;
+            case RemotePlayback.MSG_SET_QUEUE:
+                setQueue(intListOf(msg), msg.arg1);
+                break;
+            case RemotePlayback.MSG_CATALOG_APPENDED:
+                onCatalogAppended();
+                break;
+            case RemotePlayback.MSG_SET_SHUFFLE:
+                setShuffle(msg.arg1 != 0);
+                break;
+            case RemotePlayback.MSG_PLAY_NEXT:
+                playNext(msg.arg1);
+                break;
+            case RemotePlayback.MSG_ENQUEUE:
+                enqueue(msg.arg1);
+                break;
+            case RemotePlayback.MSG_PLAY_NEXT_ALL:
+                playNext(intListOf(msg));
+                break;
+            case RemotePlayback.MSG_ENQUEUE_ALL:
+                enqueue(intListOf(msg));
+                break;
+            case RemotePlayback.MSG_MOVE:
+                forwardEdits = false;
+                moveQueueItem(msg.arg1, msg.arg2);
+                forwardEdits = true;
+                break;
+            case RemotePlayback.MSG_REMOVE:
+                forwardEdits = false;
+                removeQueueItem(msg.arg1);
+                forwardEdits = true;
+                break;
+            case RemotePlayback.MSG_PLAY_ENTRY:
+                playQueueEntry(msg.arg1);
+                break;
+            case RemotePlayback.MSG_STOP:
+                stopPlayback();
+                break;
+            case RemotePlayback.MSG_SEEK:
+                seekTo(msg.arg1);
+                break;
+            default:
+                break;
         }
+    }
 
-        //Update stored index
-        new StorageUtil(getApplicationContext()).storeAudioIndex(audioIndex);
+    private static IntList intListOf(Message msg){
+        int[] ordinals = msg.getData().getIntArray(RemotePlayback.KEY_ORDINALS);
+        return ordinals != null ? IntList.of(ordinals, ordinals.length) : null;
+    }
 
-        stopMedia();
-        //reset mediaPlayer
-        mediaPlayer.reset();
-        initMediaPlayer();
+    //The whole queue, sent when it is replaced and to a client that registers
+    private Message queueMessage(){
+        UpNextQueue queue = core.getQueue();
+        Message msg = Message.obtain(null, RemotePlayback.MSG_QUEUE, core.getQueuePosition(), 0);
+        msg.setData(RemotePlayback.bundleOf(queue != null ? queue.toArray() : null));
+        return msg;
+    }
+
+    private void sendToClients(Message msg){
+        for (int i = clients.size() - 1; i >= 0; i--){
+            //A Message can only be sent once
+            sendTo(clients.get(i), i == 0 ? msg : Message.obtain(msg));
+        }
+    }
+
+    private void sendTo(Messenger client, Message msg){
+        try {
+            client.send(msg);
+        } catch (RemoteException e) {
+            //The activity's process died
+            clients.remove(client);
+        }
     }
 
     /**
@@ -583,6 +1400,7 @@ public class MediaPlayerService extends Service implements
     private void buildNotification(PlaybackStatusEnum playbackStatusEnum) {
         int notificationAction = android.R.drawable.ic_media_pause; //needs to be initialized
         PendingIntent play_pauseAction = null;
+        notificationStatus = playbackStatusEnum;
 
         //Build a new notification according to the current state of the MediaPlayer
         if (playbackStatusEnum == PlaybackStatusEnum.PLAYING){
@@ -595,7 +1413,7 @@ public class MediaPlayerService extends Service implements
             play_pauseAction = playbackAction(0);
         }
 
-        Bitmap largeIcon = BitmapFactory.decodeResource(getResources(),R.drawable.image1); //replace with your own image
+        Bitmap largeIcon = getArtwork();
 
         //Create a new Notification
         Notification.Builder notificationBuilder =
@@ -628,6 +1446,7 @@ public class MediaPlayerService extends Service implements
     }
 
     private void removeNotification(){
+        notificationStatus = null;
         NotificationManager notificationManager = (NotificationManager)getSystemService(Context.NOTIFICATION_SERVICE);
         notificationManager.cancel(NOTIFICATION_ID);
     }
@@ -680,16 +1499,42 @@ public class MediaPlayerService extends Service implements
     }
 
     private void updateMetaData() {
-        Bitmap albumArt = BitmapFactory.decodeResource(getResources(), R.drawable.image1); //replace with medias albumArt
+        Bitmap albumArt = getArtwork();
         // Update the current metadata
         mediaSession.setMetadata(new MediaMetadata.Builder()
             .putBitmap(MediaMetadata.METADATA_KEY_ALBUM_ART, albumArt)
             .putString(MediaMetadata.METADATA_KEY_ALBUM_ARTIST, activeAudio.getArtist())
             .putString(MediaMetadata.METADATA_KEY_ALBUM, activeAudio.getAlbum())
             .putString(MediaMetadata.METADATA_KEY_TITLE, activeAudio.getTitle())
+            .putLong(MediaMetadata.METADATA_KEY_DURATION, durationMs)
             .build());
     }
 
+    /**
+     * MediaBrowserService 瀏覽 The library is exposed as a paged tree (see BrowseTree)
+     */
+    @Override
+    public BrowserRoot onGetRoot(String clientPackageName, int clientUid, Bundle rootHints) {
+        return new BrowserRoot(BrowseTree.ROOT, null);
+    }
+
+    @Override
+    public void onLoadChildren(String parentId, Result<List<MediaBrowser.MediaItem>> result) {
+        //Pre-API 24 clients cannot page, they get a "more" node at the end of each page
+        browsePages.loadChildren(parentId, 0, BrowseTree.DEFAULT_PAGE_SIZE, true, audioList, result);
+    }
+
+    @Override
+    public void onLoadChildren(String parentId, Result<List<MediaBrowser.MediaItem>> result, Bundle options) {
+        int page = options.getInt(MediaBrowser.EXTRA_PAGE, -1);
+        int pageSize = options.getInt(MediaBrowser.EXTRA_PAGE_SIZE, -1);
+        if (page < 0 || pageSize < 1) {
+            onLoadChildren(parentId, result);
+            return;
+        }
+        browsePages.loadChildren(parentId, page, pageSize, false, audioList, result);
+    }
+
     /**
      * Service Binder
      */
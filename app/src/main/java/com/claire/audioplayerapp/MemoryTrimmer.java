@@ -0,0 +1,149 @@
+package com.claire.audioplayerapp;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 記憶體壓力 The caches and large structures of one component, with what to give back as memory runs low
+ * Each entry registers with a priority and a size estimate. onTrimMemory() turns the trim level
+ * into a tier, and the tiers walk up the priorities: entries of a priority are first asked to
+ * shrink, one tier later to drop whatever they can rebuild, before the next priority is touched.
+ * PRIORITY_PINNED entries are only reported. Used from the main thread, where the system delivers
+ * onTrimMemory().
+ */
+public class MemoryTrimmer {
+
+    public interface Trimmable {
+        /**
+         * Rough bytes held right now, 0 once dropped
+         */
+        long estimatedBytes();
+
+        /**
+         * @param all false: shrink, e.g. halve a cache; true: drop everything that can be rebuilt
+         */
+        void trim(boolean all);
+    }
+
+    //Decoded images and other copies that are cheap to get again
+    public static final int PRIORITY_DISPOSABLE = 0;
+    //Indexes built from the catalog, rebuilt on their next use
+    public static final int PRIORITY_REBUILDABLE = 1;
+    //What the user is in the middle of, e.g. a paused player
+    public static final int PRIORITY_WORKING = 2;
+    //Needed as long as the component lives, reported only
+    public static final int PRIORITY_PINNED = 3;
+
+    //HashMap node with its boxed or String key, not counting the key's characters
+    static final int ENTRY_BYTES = 48;
+
+    private static class Entry {
+        final String name;
+        final int priority;
+        final Trimmable trimmable;
+
+        Entry(String name, int priority, Trimmable trimmable) {
+            this.name = name;
+            this.priority = priority;
+            this.trimmable = trimmable;
+        }
+    }
+
+    private final ArrayList<Entry> entries = new ArrayList<>();
+    private int lastTier;
+
+    public void register(String name, int priority, Trimmable trimmable) {
+        //Kept in priority order, registration order within a priority
+        int at = entries.size();
+        while (at > 0 && entries.get(at - 1).priority > priority) at--;
+        entries.add(at, new Entry(name, priority, trimmable));
+    }
+
+    /**
+     * 0 for no pressure, up to 6 when the process is next in line to be killed. A priority p
+     * shrinks at tier 2p+1 and drops at 2p+2.
+     */
+    static int tierOf(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) return 6;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) return 5;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) return 4;
+        //Just left the screen, the UI's own caches go
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) return 2;
+        //Still in front while the system runs out: anything that can be rebuilt goes
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) return 4;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) return 3;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) return 1;
+        return 0;
+    }
+
+    /**
+     * @return rough bytes given back
+     */
+    public long onTrimMemory(int level) {
+        int tier = tierOf(level);
+        lastTier = tier;
+        long freed = 0;
+        for (Entry entry : entries) {
+            if (entry.priority == PRIORITY_PINNED || tier <= 2 * entry.priority) continue;
+            long before = entry.trimmable.estimatedBytes();
+            entry.trimmable.trim(tier >= 2 * entry.priority + 2);
+            freed += before - entry.trimmable.estimatedBytes();
+        }
+        return freed;
+    }
+
+    //onLowMemory() comes from older releases and means the same as the last trim level
+    public long onLowMemory() {
+        return onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Current bytes of every entry, in priority order
+     */
+    public LinkedHashMap<String, Long> getSizes() {
+        LinkedHashMap<String, Long> sizes = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            sizes.put(entry.name, entry.trimmable.estimatedBytes());
+        }
+        return sizes;
+    }
+
+    public long getTotalBytes() {
+        long total = 0;
+        for (Entry entry : entries) total += entry.trimmable.estimatedBytes();
+        return total;
+    }
+
+    //For the log, e.g. "tier 4, 2450KB: header images 0KB, folders 0KB, catalog 2450KB"
+    public String describe() {
+        StringBuilder text = new StringBuilder("tier " + lastTier + ", " + getTotalBytes() / 1024 + "KB:");
+        String separator = " ";
+        for (Map.Entry<String, Long> size : getSizes().entrySet()) {
+            text.append(separator).append(size.getKey()).append(' ').append(size.getValue() / 1024).append("KB");
+            separator = ", ";
+        }
+        return text.toString();
+    }
+
+    //A String with its UTF-16 characters
+    static long stringBytes(String s) {
+        return s == null ? 0 : 40 + 2L * s.length();
+    }
+
+    /**
+     * Rough heap of a list of tracks, the Audio objects and their strings
+     */
+    public static long estimatedBytes(List<Audio> tracks) {
+        long bytes = 4L * tracks.size();
+        for (int i = 0; i < tracks.size(); i++) {
+            Audio audio = tracks.get(i);
+            bytes += 48 + stringBytes(audio.getData()) + stringBytes(audio.getTitle()) + stringBytes(audio.getAlbum())
+                    + stringBytes(audio.getArtist()) + stringBytes(audio.getGenre());
+        }
+        return bytes;
+    }
+}
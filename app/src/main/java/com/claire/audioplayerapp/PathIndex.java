@@ -0,0 +1,196 @@
+package com.claire.audioplayerapp;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 路徑雜湊索引 Hash index from file path to catalog ordinal
+ * Open addressing over int arrays, so resolving a playlist entry is O(1) instead of a linear
+ * search of audioList. A second table keyed by file name resolves entries written on another
+ * device (different mount point), as long as the name is unique in the catalog.
+ */
+public class PathIndex {
+
+    private static final int EMPTY = 0;
+
+    private List<Audio> tracks;
+    //ordinal + 1, 0 means empty. A negative name entry means more than one track has that name
+    private int[] pathSlots;
+    private int[] nameSlots;
+    private int count;
+
+    public PathIndex(List<Audio> tracks) {
+        this.tracks = tracks;
+        int capacity = tableSize(tracks.size());
+        pathSlots = new int[capacity];
+        nameSlots = new int[capacity];
+        for (int i = 0; i < tracks.size(); i++) {
+            insert(i);
+        }
+    }
+
+    public long estimatedBytes() {
+        return 4L * (pathSlots.length + nameSlots.length);
+    }
+
+    /**
+     * Adds tracks appended to the catalog after the index was built
+     */
+    public void add(int ordinal) {
+        if ((count + 1) * 2 > pathSlots.length) {
+            int capacity = pathSlots.length * 2;
+            pathSlots = new int[capacity];
+            nameSlots = new int[capacity];
+            count = 0;
+            for (int i = 0; i < ordinal; i++) {
+                insert(i);
+            }
+        }
+        insert(ordinal);
+    }
+
+    /**
+     * Adds the tracks appended since the index was built or last extended
+     *
+     * @param newer a later snapshot of the same catalog
+     */
+    public void extend(List<Audio> newer) {
+        int from = tracks.size();
+        tracks = newer;
+        for (int i = from; i < newer.size(); i++) {
+            add(i);
+        }
+    }
+
+    /**
+     * @return the catalog ordinal for path, or -1 if it is not in the catalog
+     */
+    public int find(String path) {
+        String normalized = normalize(path);
+        int ordinal = findPath(normalized);
+        return ordinal >= 0 ? ordinal : findByName(fileName(normalized));
+    }
+
+    /**
+     * Exact path match only, for merging tracks found outside MediaStore
+     */
+    public boolean contains(String path) {
+        return findPath(normalize(path)) >= 0;
+    }
+
+    private int findPath(String normalized) {
+        int mask = pathSlots.length - 1;
+        for (int slot = mix(normalized.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int entry = pathSlots[slot];
+            if (entry == EMPTY) return -1;
+            if (normalize(tracks.get(entry - 1).getData()).equals(normalized)) return entry - 1;
+        }
+    }
+
+    private int findByName(String name) {
+        int mask = nameSlots.length - 1;
+        for (int slot = mix(name.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int entry = nameSlots[slot];
+            if (entry == EMPTY) return -1;
+            int ordinal = nameOrdinal(entry);
+            if (fileName(normalize(tracks.get(ordinal).getData())).equals(name)) {
+                return entry < 0 ? -1 : ordinal;
+            }
+        }
+    }
+
+    private void insert(int ordinal) {
+        String path = tracks.get(ordinal).getData();
+        if (path == null) return;
+        String normalized = normalize(path);
+        int mask = pathSlots.length - 1;
+        int slot = mix(normalized.hashCode()) & mask;
+        while (pathSlots[slot] != EMPTY) slot = (slot + 1) & mask;
+        pathSlots[slot] = ordinal + 1;
+        count++;
+
+        String name = fileName(normalized);
+        slot = mix(name.hashCode()) & mask;
+        while (nameSlots[slot] != EMPTY) {
+            if (fileName(normalize(tracks.get(nameOrdinal(nameSlots[slot])).getData())).equals(name)) {
+                //Ambiguous, keep the first ordinal (negated) so the chain still compares names
+                nameSlots[slot] = -Math.abs(nameSlots[slot]);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        nameSlots[slot] = ordinal + 1;
+    }
+
+    private static int nameOrdinal(int entry) {
+        return Math.abs(entry) - 1;
+    }
+
+    /**
+     * Strips file:// and percent escapes, unifies separators and resolves "." and ".."
+     */
+    public static String normalize(String path) {
+        String p = path.trim();
+        if (p.regionMatches(true, 0, "file://", 0, 7)) {
+            p = percentDecode(p.substring(7));
+        }
+        p = p.replace('\\', '/');
+        if (p.indexOf("/.") < 0 && p.indexOf("//") < 0) return p;
+
+        StringBuilder out = new StringBuilder(p.length());
+        int start = 0;
+        while (start <= p.length()) {
+            int end = p.indexOf('/', start);
+            if (end < 0) end = p.length();
+            String segment = p.substring(start, end);
+            if (segment.equals("..")) {
+                int cut = out.lastIndexOf("/");
+                out.setLength(Math.max(cut, 0));
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                out.append('/').append(segment);
+            }
+            start = end + 1;
+        }
+        if (!p.startsWith("/") && out.length() > 0) out.deleteCharAt(0);
+        return out.toString();
+    }
+
+    private static String fileName(String normalizedPath) {
+        return normalizedPath.substring(normalizedPath.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static String percentDecode(String s) {
+        if (s.indexOf('%') < 0) return s;
+        byte[] bytes = new byte[s.length()];
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%' && i + 2 < s.length()
+                    && Character.digit(s.charAt(i + 1), 16) >= 0 && Character.digit(s.charAt(i + 2), 16) >= 0) {
+                bytes[n++] = (byte) (Character.digit(s.charAt(i + 1), 16) << 4 | Character.digit(s.charAt(i + 2), 16));
+                i += 2;
+            } else if (c < 0x80) {
+                bytes[n++] = (byte) c;
+            } else {
+                //Already decoded text, leave it alone
+                return s;
+            }
+        }
+        return new String(bytes, 0, n, Charset.forName("UTF-8"));
+    }
+
+    static int tableSize(int entries) {
+        int capacity = 16;
+        while (capacity < entries * 2) capacity <<= 1;
+        return capacity;
+    }
+
+    //Spread String.hashCode() over the low bits used by the mask
+    static int mix(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+}
@@ -0,0 +1,46 @@
+package com.claire.audioplayerapp;
+
+/**
+ * 播放命令 What MainActivity asks of the player
+ * MediaPlayerService implements it directly when it runs in the app's process, RemotePlayback
+ * sends the same commands over a Messenger when it runs in its own :playback process.
+ */
+public interface PlaybackCommands {
+
+    void playQueue(IntList ordinals, int position);
+
+    void setQueue(IntList ordinals, int position);
+
+    //Tracks were appended to the shared catalog (StorageUtil.appendAudio)
+    void onCatalogAppended();
+
+    void setShuffle(boolean enabled);
+
+    void playNext(int ordinal);
+
+    void enqueue(int ordinal);
+
+    //Many at once, in the given order: one queue replacement however many tracks
+    void playNext(IntList ordinals);
+
+    void enqueue(IntList ordinals);
+
+    void moveQueueItem(int from, int to);
+
+    void removeQueueItem(int index);
+
+    void playQueueEntry(int index);
+
+    //Within the current track
+    void seekTo(int positionMs);
+
+    //Updated by the service on every jump, read it every frame rather than asking for positions
+    PlaybackPosition getPlaybackPosition();
+
+    //Null while the catalog plays in order; read-only for callers
+    UpNextQueue getUpNext();
+
+    int getUpNextPosition();
+
+    void stopPlayback();
+}
@@ -0,0 +1,691 @@
+package com.claire.audioplayerapp;
+
+/**
+ * 播放核心 Playback state machine without Android dependencies
+ * Owns the play queue, shuffle, skip/previous, audio focus and pause/resume rules. The actual
+ * player and every side effect (persisting the index, metadata, history, stopping the service)
+ * sit behind the Player and Host interfaces, so MediaPlayerService plugs in MediaPlayer and a unit
+ * test plugs in a simulated player. All methods must be called from one thread.
+ */
+public class PlaybackCore {
+
+    public enum State {
+        IDLE,
+        PREPARING,
+        //start() was called after a seek that has not completed yet
+        SEEKING,
+        PLAYING,
+        PAUSED,
+        STOPPED
+    }
+
+    public enum Focus {
+        GAIN,
+        LOSS,
+        LOSS_TRANSIENT,
+        LOSS_TRANSIENT_CAN_DUCK
+    }
+
+    /**
+     * The media player. prepare() is asynchronous and answered by onPrepared(), seekTo() by
+     * onSeekComplete().
+     */
+    public interface Player {
+        //Drop whatever is loaded and start preparing the track at this catalog ordinal
+        void prepare(int ordinal);
+
+        void start();
+
+        void pause();
+
+        //Also abandons a prepare that has not completed
+        void stop();
+
+        void seekTo(int positionMs);
+
+        int getPosition();
+
+        void setVolume(float volume);
+
+        //Free the player, the next prepare() creates a new one
+        void release();
+    }
+
+    public interface Host {
+        //A new track becomes current, before it is prepared
+        void onTrackChanged(int ordinal);
+
+        //Target of a skip burst that has not settled yet: show it, nothing is prepared or saved
+        void onTrackPending(int ordinal);
+
+        //Call onSettled() after delayMs, replacing an earlier request that has not run yet
+        void scheduleSettle(long delayMs);
+
+        void onStateChanged(State state);
+
+        //ListeningHistory.EVENT_PLAY, EVENT_SKIP or EVENT_COMPLETE
+        void onTrackEvent(byte event, int ordinal, int positionMs);
+
+        //The last track finished, the service stops itself
+        void onPlaybackEnded();
+
+        //The queue was replaced as a whole, null when the catalog plays in order
+        void onQueueReplaced(UpNextQueue queue, int position);
+
+        void onQueuePositionChanged(int position);
+    }
+
+    /**
+     * What a cold start sets up while the first track prepares
+     */
+    public interface Startup {
+        //false when audio focus was denied
+        boolean requestFocus();
+
+        void initSession();
+
+        void showNotification();
+    }
+
+    private static final float DUCK_VOLUME = 0.1f;
+
+    private final Player player;
+    private final Host host;
+    //Number of shuffle picks kept ahead of the current entry
+    private final int lookahead;
+
+    private State state = State.IDLE;
+    private int trackCount;
+    private int current = -1;
+    //Play queue of catalog ordinals, null plays the catalog in order
+    private UpNextQueue queue;
+    private int queuePosition;
+    private boolean shuffleEnabled;
+    private WeightedShuffle shuffle;
+
+    //Start as soon as prepared, false when paused while preparing
+    private boolean playWhenReady = true;
+    private int resumePosition;
+    //The player was released (focus loss or idle), the next start prepares again
+    private boolean released;
+    //Seek here once prepared: a released track resumes where it was, -1 starts from the top
+    private int pendingSeek = -1;
+    //Playing when focus was lost, GAIN starts again; a user pause stays paused
+    private boolean resumeOnGain;
+    //連續跳曲 Skips within this window of each other only prepare the last target, 0 prepares every one
+    private long skipSettleMs;
+    //A skip burst is running: the target is shown, its prepare and queue position wait for onSettled()
+    private boolean settling;
+
+    public PlaybackCore(Player player, Host host, int lookahead) {
+        this.player = player;
+        this.host = host;
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * State 狀態
+     */
+    public State getState() {
+        return state;
+    }
+
+    public int getCurrentOrdinal() {
+        return current;
+    }
+
+    public boolean isPlaying() {
+        return state == State.PLAYING || state == State.SEEKING;
+    }
+
+    public int getResumePosition() {
+        return resumePosition;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    public void setSkipSettleMs(long settleMs) {
+        skipSettleMs = settleMs;
+    }
+
+    public void setTrackCount(int count) {
+        trackCount = count;
+    }
+
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    /**
+     * Tracks appended to the catalog, ordinals of the existing ones stay the same
+     */
+    public void addTracks(int count) {
+        trackCount += count;
+        if (shuffle != null) {
+            for (int i = 0; i < count; i++) shuffle.add(WeightedShuffle.weightOf(0, 0f, 0, 0));
+        }
+    }
+
+    /**
+     * Ordinal of the entry offset steps after the current one
+     */
+    public int peek(int offset) {
+        if (queue != null) return queue.get((queuePosition + offset) % queue.size());
+        return (current + offset) % trackCount;
+    }
+
+    //Entries peek() can return before it wraps around
+    public int upcomingCount() {
+        return queue != null ? queue.size() : trackCount;
+    }
+
+    /**
+     * Queue 佇列
+     */
+    public void setQueue(IntList ordinals, int position) {
+        replaceQueue(ordinals == null || ordinals.isEmpty() ? null : UpNextQueue.of(ordinals), position);
+    }
+
+    /**
+     * A queue saved by an earlier run, its position is the entry that was playing. That entry is
+     * prepared right away: a start is no skip, nothing waits for a skip burst to settle.
+     */
+    public void playRestoredQueue(UpNextQueue restored, int position) {
+        if (restored == null || restored.isEmpty()) return;
+        queue = restored;
+        queuePosition = Math.max(0, Math.min(position, restored.size() - 1));
+        load(queue.get(queuePosition));
+    }
+
+    public UpNextQueue getQueue() {
+        return queue;
+    }
+
+    public int getQueuePosition() {
+        return queue != null ? queuePosition : current;
+    }
+
+    private void replaceQueue(UpNextQueue replacement, int position) {
+        if (replacement == null && queue == null) return;
+        queue = replacement;
+        queuePosition = replacement == null ? 0 : Math.max(0, Math.min(position, replacement.size() - 1));
+        host.onQueueReplaced(queue, queuePosition);
+    }
+
+    private void setQueuePosition(int position) {
+        queuePosition = position;
+        if (!settling) host.onQueuePositionChanged(position);
+    }
+
+    //Edits need a real queue: the catalog order from the current track becomes one
+    private void ensureQueue() {
+        if (queue != null) return;
+        replaceQueue(UpNextQueue.range(trackCount), Math.max(current, 0));
+    }
+
+    /**
+     * Up next 待播 edits, each O(log n)
+     */
+    public void playNext(int ordinal) {
+        if (ordinal < 0 || ordinal >= trackCount) return;
+        ensureQueue();
+        queue.insert(queuePosition + 1, ordinal);
+    }
+
+    public void enqueue(int ordinal) {
+        if (ordinal < 0 || ordinal >= trackCount) return;
+        ensureQueue();
+        queue.add(ordinal);
+    }
+
+    /**
+     * 批次 Many tracks at once, e.g. a selection in the list, in the given order. The queue is
+     * rebuilt and replaced once: one snapshot is saved and one queue sent to clients, instead of a
+     * journal record and a message per track.
+     */
+    public void playNext(IntList ordinals) {
+        insertAll(ordinals, true);
+    }
+
+    public void enqueue(IntList ordinals) {
+        insertAll(ordinals, false);
+    }
+
+    private void insertAll(IntList ordinals, boolean next) {
+        if (ordinals == null) return;
+        IntList valid = new IntList(ordinals.size());
+        for (int i = 0; i < ordinals.size(); i++) {
+            int ordinal = ordinals.get(i);
+            if (ordinal >= 0 && ordinal < trackCount) valid.add(ordinal);
+        }
+        if (valid.isEmpty()) return;
+        int[] base;
+        int position;
+        if (queue != null) {
+            base = queue.toArray();
+            position = queuePosition;
+        } else {
+            //As ensureQueue(), without saving the catalog order only to replace it again
+            base = new int[trackCount];
+            for (int i = 0; i < trackCount; i++) base[i] = i;
+            position = Math.max(current, 0);
+        }
+        int at = next ? Math.min(position + 1, base.length) : base.length;
+        int[] merged = new int[base.length + valid.size()];
+        System.arraycopy(base, 0, merged, 0, at);
+        System.arraycopy(valid.toArray(), 0, merged, at, valid.size());
+        System.arraycopy(base, at, merged, at + valid.size(), base.length - at);
+        replaceQueue(UpNextQueue.of(merged, merged.length), position);
+    }
+
+    public void moveQueueItem(int from, int to) {
+        ensureQueue();
+        if (from < 0 || to < 0 || from >= queue.size() || to >= queue.size() || from == to) return;
+        queue.move(from, to);
+        setQueuePosition(positionAfterMove(queuePosition, from, to));
+    }
+
+    //The playing entry keeps playing wherever it goes
+    static int positionAfterMove(int position, int from, int to) {
+        if (from == position) return to;
+        if (from < position && to >= position) return position - 1;
+        if (from > position && to <= position) return position + 1;
+        return position;
+    }
+
+    public void removeQueueItem(int index) {
+        ensureQueue();
+        if (index < 0 || index >= queue.size()) return;
+        if (queue.size() == 1) {
+            replaceQueue(null, 0);
+            return;
+        }
+        queue.remove(index);
+        setQueuePosition(positionAfterRemove(queuePosition, index, queue.size()));
+    }
+
+    //Removing the playing entry lets it finish, next plays what followed it
+    static int positionAfterRemove(int position, int index, int remaining) {
+        if (index < position || (index == position && position > 0)) return position - 1;
+        //It was the first entry: wrap so that next lands on the new first entry
+        if (index == position) return remaining - 1;
+        return position;
+    }
+
+    //Jump to an entry of the queue, e.g. tapped in the up-next list
+    public void playQueueEntry(int index) {
+        if (queue == null) {
+            play(index);
+            return;
+        }
+        if (index < 0 || index >= queue.size()) return;
+        beginSkip();
+        setQueuePosition(index);
+        skipTo(queue.get(index));
+    }
+
+    public void playQueue(IntList ordinals, int position) {
+        if (ordinals == null || ordinals.isEmpty()) return;
+        recordSkip();
+        //An explicit queue (playlist, album...) is played as given
+        shuffleEnabled = false;
+        setQueue(ordinals, position);
+        load(queue.get(queuePosition));
+    }
+
+    /**
+     * A track picked from the list or a browser: the catalog plays in order from it, or shuffles
+     */
+    public void play(int ordinal) {
+        if (ordinal < 0 || ordinal >= trackCount) return;
+        recordSkip();
+        current = ordinal;
+        if (!startShuffleQueue()) replaceQueue(null, 0);
+        load(ordinal);
+    }
+
+    /**
+     * 冷啟動 First start of the service: the track starts preparing first, so the media server
+     * opens and parses the file while focus, session and notification are set up. onPrepared()
+     * is delivered after all of them. A denied focus stops the prepare.
+     *
+     * @param restored saved queue to play from restoredPosition, null plays ordinal
+     * @return false when focus was denied
+     */
+    public boolean startCold(UpNextQueue restored, int restoredPosition, int ordinal, Startup startup) {
+        if (restored != null) {
+            playRestoredQueue(restored, restoredPosition);
+        } else {
+            play(ordinal);
+        }
+        boolean focused = startup.requestFocus();
+        //The prepared track must not start
+        if (!focused) stop();
+        startup.initSession();
+        startup.showNotification();
+        return focused;
+    }
+
+    public void skipToNext() {
+        if (trackCount == 0) return;
+        beginSkip();
+        fillShuffleQueue();
+        int next;
+        if (queue != null) {
+            //next entry of the play queue, wrap around at the end
+            setQueuePosition((queuePosition + 1) % queue.size());
+            next = queue.get(queuePosition);
+        } else {
+            next = current == trackCount - 1 ? 0 : current + 1;
+        }
+        skipTo(next);
+    }
+
+    public void skipToPrevious() {
+        if (trackCount == 0) return;
+        beginSkip();
+        int previous;
+        if (queue != null) {
+            setQueuePosition((queuePosition + queue.size() - 1) % queue.size());
+            previous = queue.get(queuePosition);
+        } else {
+            previous = current <= 0 ? trackCount - 1 : current - 1;
+        }
+        skipTo(previous);
+    }
+
+    /**
+     * Shuffle 智慧隨機播放
+     */
+    public void setShuffleEnabled(boolean enabled) {
+        shuffleEnabled = enabled;
+        if (enabled) {
+            startShuffleQueue();
+        } else {
+            replaceQueue(null, 0);
+        }
+    }
+
+    public boolean isShuffleEnabled() {
+        return shuffleEnabled;
+    }
+
+    //Weights are built by the caller, possibly on another thread
+    public void setShuffle(WeightedShuffle built) {
+        shuffle = built;
+        for (int i = built.size(); i < trackCount; i++) {
+            built.add(WeightedShuffle.weightOf(0, 0f, 0, 0));
+        }
+        startShuffleQueue();
+    }
+
+    public boolean hasShuffle() {
+        return shuffle != null;
+    }
+
+    //The shuffle queue starts with the track playing now, picks are appended so previous walks back
+    private boolean startShuffleQueue() {
+        if (!shuffleEnabled || shuffle == null || current < 0) return false;
+        UpNextQueue picks = new UpNextQueue(64);
+        picks.add(current);
+        replaceQueue(picks, 0);
+        fillShuffleQueue();
+        return true;
+    }
+
+    //Keep lookahead picks after the current entry, so readahead knows what comes next
+    private void fillShuffleQueue() {
+        if (!shuffleEnabled || shuffle == null || queue == null) return;
+        while (queue.size() - 1 - queuePosition < lookahead) {
+            int next = shuffle.pick();
+            if (next < 0) return;
+            queue.add(next);
+        }
+    }
+
+    /**
+     * Transport 播放控制
+     */
+    public void pause() {
+        if (state == State.PREPARING) {
+            playWhenReady = false;
+            return;
+        }
+        if (!isPlaying()) return;
+        player.pause();
+        resumePosition = player.getPosition();
+        setState(State.PAUSED);
+    }
+
+    public void resume() {
+        resumeOnGain = false;
+        if (state == State.PREPARING) {
+            playWhenReady = true;
+        } else if (released && current >= 0) {
+            reload();
+        } else if (state == State.PAUSED) {
+            player.seekTo(resumePosition);
+            player.start();
+            setState(State.SEEKING);
+        } else if ((state == State.STOPPED || state == State.IDLE) && current >= 0) {
+            load(current);
+        }
+    }
+
+    /**
+     * 快轉 Moves within the current track. Paused or released, only the resume position moves and
+     * resume() seeks there; a track still preparing starts from the beginning.
+     */
+    public void seekTo(int positionMs) {
+        if (current < 0) return;
+        positionMs = Math.max(positionMs, 0);
+        if (released || state == State.PAUSED) {
+            resumePosition = positionMs;
+        } else if (isPlaying()) {
+            player.seekTo(positionMs);
+            setState(State.SEEKING);
+        }
+    }
+
+    public void stop() {
+        if (state == State.IDLE || state == State.STOPPED) return;
+        player.stop();
+        setState(State.STOPPED);
+    }
+
+    /**
+     * 閒置釋放 Paused long enough: free the player and its decoder. The track, queue and position
+     * stay here, resume() prepares the track again and seeks back.
+     * @return false when not paused or already released
+     */
+    public boolean releaseIdle() {
+        if (state != State.PAUSED || released) return false;
+        player.release();
+        released = true;
+        return true;
+    }
+
+    /**
+     * Audio focus 音頻焦點
+     */
+    public void onFocusChange(Focus focus) {
+        switch (focus) {
+            case GAIN:
+                //resume playback 恢復播放, only if the focus loss paused it
+                if (resumeOnGain && current >= 0) {
+                    resumeOnGain = false;
+                    if (released) {
+                        reload();
+                    } else if (state == State.PAUSED) {
+                        player.start();
+                        setState(State.PLAYING);
+                    }
+                }
+                if (!released) player.setVolume(1.0f);
+                break;
+            case LOSS:
+                // Lost focus for an unbounded amount of time: stop playback and release media player
+                // The position is kept, GAIN or resume() seeks back to it
+                if (isPlaying()) {
+                    resumeOnGain = true;
+                    resumePosition = player.getPosition();
+                    player.stop();
+                }
+                if (!released) player.release();
+                released = true;
+                setState(State.STOPPED);
+                break;
+            case LOSS_TRANSIENT:
+                // Lost focus a short time, playback is likely to resume
+                if (isPlaying()) resumeOnGain = true;
+                pause();
+                break;
+            case LOSS_TRANSIENT_CAN_DUCK:
+                // Lost focus for a short time, but it's ok to keep playing at an attenuated level
+                if (isPlaying()) player.setVolume(DUCK_VOLUME);
+                break;
+        }
+    }
+
+    /**
+     * Player callbacks
+     */
+    public void onPrepared() {
+        if (state != State.PREPARING || settling) return;
+        if (pendingSeek >= 0) {
+            //Rebuilt after a release: same listen, back to where it was
+            int position = pendingSeek;
+            pendingSeek = -1;
+            if (playWhenReady) {
+                player.seekTo(position);
+                player.start();
+                setState(State.SEEKING);
+            } else {
+                resumePosition = position;
+                setState(State.PAUSED);
+            }
+            return;
+        }
+        host.onTrackEvent(ListeningHistory.EVENT_PLAY, current, 0);
+        if (playWhenReady) {
+            player.start();
+            setState(State.PLAYING);
+        } else {
+            resumePosition = 0;
+            setState(State.PAUSED);
+        }
+    }
+
+    public void onSeekComplete() {
+        if (state == State.SEEKING) setState(State.PLAYING);
+    }
+
+    /**
+     * The track played to its end: on to the next entry of the queue (up next, shuffle picks) or
+     * of the catalog. Playback only ends once the queue or the catalog has played through.
+     */
+    public void onCompletion() {
+        if (current >= 0) {
+            host.onTrackEvent(ListeningHistory.EVENT_COMPLETE, current, player.getPosition());
+            if (shuffle != null) {
+                int weight = shuffle.getWeight(current);
+                shuffle.setWeight(current, Math.min(weight + weight / 4, 20 * WeightedShuffle.BASE_WEIGHT));
+            }
+        }
+        int next = advanceAfterCompletion();
+        if (next >= 0) {
+            load(next);
+            return;
+        }
+        player.stop();
+        setState(State.STOPPED);
+        host.onPlaybackEnded();
+    }
+
+    //Unlike skipToNext() there is no wrap around, -1 when nothing follows
+    private int advanceAfterCompletion() {
+        fillShuffleQueue();
+        if (queue != null) {
+            if (queuePosition + 1 >= queue.size()) return -1;
+            setQueuePosition(queuePosition + 1);
+            return queue.get(queuePosition);
+        }
+        return current >= 0 && current + 1 < trackCount ? current + 1 : -1;
+    }
+
+    /**
+     * The skip burst is over: the last target is saved and prepared. Paused during the window, it
+     * is prepared without starting, as a pause while preparing.
+     */
+    public void onSettled() {
+        if (!settling) return;
+        settling = false;
+        if (queue != null) host.onQueuePositionChanged(queuePosition);
+        //Stopped or focus lost meanwhile, the target is prepared by the next resume()
+        if (state != State.PREPARING) return;
+        boolean play = playWhenReady;
+        load(current);
+        playWhenReady = play;
+    }
+
+    //Skip, previous or queue jump: with a settle window, leave the current track (or its prepare) now
+    private void beginSkip() {
+        recordSkip();
+        if (skipSettleMs <= 0) return;
+        if (isPlaying() || (state == State.PREPARING && !settling)) player.stop();
+        settling = true;
+    }
+
+    //Target of beginSkip(): prepared now, or shown and prepared once the burst settles
+    private void skipTo(int ordinal) {
+        if (!settling) {
+            load(ordinal);
+            return;
+        }
+        current = ordinal;
+        host.onTrackPending(ordinal);
+        playWhenReady = true;
+        resumePosition = 0;
+        pendingSeek = -1;
+        setState(State.PREPARING);
+        host.scheduleSettle(skipSettleMs);
+    }
+
+    //The track playing now is left before its end
+    private void recordSkip() {
+        if (!isPlaying() || current < 0) return;
+        host.onTrackEvent(ListeningHistory.EVENT_SKIP, current, player.getPosition());
+        //Skipped tracks come up less often in shuffle
+        if (shuffle != null) shuffle.setWeight(current, shuffle.getWeight(current) * 3 / 4);
+    }
+
+    private void load(int ordinal) {
+        current = ordinal;
+        host.onTrackChanged(ordinal);
+        if (isPlaying()) player.stop();
+        released = false;
+        settling = false;
+        playWhenReady = true;
+        resumePosition = 0;
+        pendingSeek = -1;
+        setState(State.PREPARING);
+        player.prepare(ordinal);
+    }
+
+    //Prepares the current track again after a release and seeks back to resumePosition
+    private void reload() {
+        released = false;
+        playWhenReady = true;
+        pendingSeek = resumePosition;
+        setState(State.PREPARING);
+        player.prepare(current);
+    }
+
+    private void setState(State newState) {
+        if (state == newState) return;
+        state = newState;
+        host.onStateChanged(newState);
+    }
+}
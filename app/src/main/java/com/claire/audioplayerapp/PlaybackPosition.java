@@ -0,0 +1,93 @@
+package com.claire.audioplayerapp;
+
+/**
+ * 播放進度 Where playback is, published by the service only when it jumps
+ * Between a track change, seek, pause or resume the position just moves at the playback speed, so
+ * a snapshot of the last jump (position, when, speed, state) is enough: readers work the position
+ * out from the clock every frame instead of asking MediaPlayer, a JNI call, each time. Snapshots
+ * are immutable and swapped through a volatile field, one writer (the service's main thread) and
+ * any number of readers on any thread, without locks.
+ * <p>
+ * Times are SystemClock.elapsedRealtime(), as in PlaybackState, and hold across processes.
+ */
+public class PlaybackPosition {
+
+    //The values of PlaybackState.STATE_*, so a snapshot goes to the session as it is
+    public static final int STATE_NONE = 0;
+    public static final int STATE_STOPPED = 1;
+    public static final int STATE_PAUSED = 2;
+    public static final int STATE_PLAYING = 3;
+    public static final int STATE_BUFFERING = 6;
+
+    //A position this close to where the last snapshot says playback is, is no jump
+    static final long TOLERANCE_MS = 40;
+
+    public static final class Snapshot {
+        public final int ordinal;
+        public final int state;
+        //At anchorMs
+        public final long positionMs;
+        public final long anchorMs;
+        //1 while playing, 0 otherwise
+        public final float speed;
+        //0 when not known
+        public final long durationMs;
+        //Counts snapshots, a reader redraws when it changes
+        public final int version;
+
+        public Snapshot(int ordinal, int state, long positionMs, long anchorMs, float speed, long durationMs, int version) {
+            this.ordinal = ordinal;
+            this.state = state;
+            this.positionMs = positionMs;
+            this.anchorMs = anchorMs;
+            this.speed = speed;
+            this.durationMs = durationMs;
+            this.version = version;
+        }
+
+        public boolean isPlaying() {
+            return state == STATE_PLAYING;
+        }
+
+        /**
+         * @param nowMs elapsedRealtime()
+         */
+        public long positionAt(long nowMs) {
+            if (state != STATE_PLAYING) return positionMs;
+            long position = positionMs + (long) ((nowMs - anchorMs) * speed);
+            if (durationMs > 0 && position > durationMs) return durationMs;
+            return Math.max(position, 0);
+        }
+    }
+
+    private static final Snapshot NONE = new Snapshot(-1, STATE_NONE, 0, 0, 0, 0, 0);
+
+    private volatile Snapshot snapshot = NONE;
+
+    public Snapshot get() {
+        return snapshot;
+    }
+
+    /**
+     * Publishes the position unless it follows from the current snapshot: same track, state,
+     * speed and duration, and within TOLERANCE_MS of where that snapshot has playback by now
+     * @return the new snapshot, null when nothing was published
+     */
+    public Snapshot publish(int ordinal, int state, long positionMs, long nowMs, float speed, long durationMs) {
+        Snapshot last = snapshot;
+        if (last.ordinal == ordinal && last.state == state && last.speed == speed && last.durationMs == durationMs
+                && Math.abs(last.positionAt(nowMs) - positionMs) <= TOLERANCE_MS) {
+            return null;
+        }
+        Snapshot next = new Snapshot(ordinal, state, positionMs, nowMs, speed, durationMs, last.version + 1);
+        snapshot = next;
+        return next;
+    }
+
+    /**
+     * Takes a snapshot published elsewhere, e.g. by the service in its own process
+     */
+    public void set(Snapshot published) {
+        snapshot = published;
+    }
+}
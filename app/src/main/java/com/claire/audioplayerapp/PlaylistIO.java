@@ -0,0 +1,125 @@
+package com.claire.audioplayerapp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 播放列表匯入/匯出 M3U / M3U8 / PLS import and export
+ * Both directions stream line by line, so memory does not grow with the playlist size.
+ * Entries are resolved against the catalog with a {@link PathIndex}.
+ */
+public class PlaylistIO {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public enum Format {
+        M3U,
+        PLS
+    }
+
+    public static Format formatOf(String fileName) {
+        if (fileName != null && fileName.toLowerCase(Locale.ROOT).endsWith(".pls")) {
+            return Format.PLS;
+        }
+        return Format.M3U;
+    }
+
+    /**
+     * Reads a playlist and appends the catalog ordinal of every entry it can resolve to out.
+     *
+     * @param baseDir directory of the playlist file, used for relative entries (may be null)
+     * @return number of entries that are not in the catalog
+     */
+    public static int importPlaylist(InputStream in, Format format, String baseDir,
+                                     PathIndex index, IntList out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8), 64 * 1024);
+        int missing = 0;
+        String line;
+        boolean first = true;
+        while ((line = reader.readLine()) != null) {
+            if (first) {
+                //Skip the UTF-8 byte order mark
+                if (line.length() > 0 && line.charAt(0) == '\uFEFF') line = line.substring(1);
+                first = false;
+            }
+            String entry = format == Format.PLS ? plsEntry(line) : m3uEntry(line);
+            if (entry == null) continue;
+
+            int ordinal = index.find(resolve(baseDir, entry));
+            if (ordinal >= 0) {
+                out.add(ordinal);
+            } else {
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    //Everything that is not blank or a #EXT comment is a path
+    private static String m3uEntry(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.charAt(0) == '#') return null;
+        return trimmed;
+    }
+
+    //File1=/path/to/file.mp3
+    private static String plsEntry(String line) {
+        if (!line.regionMatches(true, 0, "File", 0, 4)) return null;
+        int equals = line.indexOf('=');
+        if (equals < 0) return null;
+        String value = line.substring(equals + 1).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String resolve(String baseDir, String entry) {
+        if (baseDir == null || entry.startsWith("/") || entry.contains("://")
+                || (entry.length() > 1 && entry.charAt(1) == ':')) {
+            return entry;
+        }
+        return baseDir + "/" + entry;
+    }
+
+    /**
+     * Writes the given catalog ordinals as a playlist, one entry at a time.
+     */
+    public static void exportPlaylist(List<Audio> catalog, IntList ordinals, Format format,
+                                      OutputStream outputStream) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8), 64 * 1024);
+        if (format == Format.PLS) {
+            out.write("[playlist]\n");
+            for (int i = 0; i < ordinals.size(); i++) {
+                Audio audio = catalog.get(ordinals.get(i));
+                int n = i + 1;
+                out.write("File" + n + "=" + audio.getData() + "\n");
+                out.write("Title" + n + "=" + displayName(audio) + "\n");
+            }
+            //PLS readers accept the entry count after the entries, so nothing has to be buffered
+            out.write("NumberOfEntries=" + ordinals.size() + "\n");
+            out.write("Version=2\n");
+        } else {
+            out.write("#EXTM3U\n");
+            for (int i = 0; i < ordinals.size(); i++) {
+                Audio audio = catalog.get(ordinals.get(i));
+                out.write("#EXTINF:-1," + displayName(audio) + "\n");
+                out.write(audio.getData());
+                out.write('\n');
+            }
+        }
+        out.flush();
+    }
+
+    private static String displayName(Audio audio) {
+        String title = audio.getTitle() == null ? "" : audio.getTitle();
+        if (audio.getArtist() == null || audio.getArtist().isEmpty()) return title;
+        return audio.getArtist() + " - " + title;
+    }
+}
@@ -0,0 +1,203 @@
+package com.claire.audioplayerapp;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.OpenableColumns;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 匯入/匯出播放列表 M3U/M3U8/PLS files picked in the system document UI
+ * Reading, matching paths and writing run on the activity's io executor, results and messages
+ * come back on the main thread. Owns the path index imports match against; folder scans use the
+ * same index to drop tracks the catalog already has. Called from the main thread.
+ */
+public class PlaylistTransfer implements MemoryTrimmer.Trimmable {
+
+    public interface Callback {
+        /**
+         * Main thread, once a playlist is read
+         * @param ordinals its tracks found in the catalog, in playlist order
+         */
+        void onImported(IntList ordinals);
+    }
+
+    private final Context context;
+    private final AudioCatalog catalog;
+    private final Executor ioExecutor;
+    private final Callback callback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    //Guarded by this
+    private PathIndex pathIndex;
+    //Selected tracks waiting for the document they are saved to
+    private IntList pendingExport;
+
+    public PlaylistTransfer(Context context, AudioCatalog catalog, Executor ioExecutor, Callback callback) {
+        this.context = context.getApplicationContext();
+        this.catalog = catalog;
+        this.ioExecutor = ioExecutor;
+        this.callback = callback;
+    }
+
+    public static Intent importIntent() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        return intent;
+    }
+
+    /**
+     * @param selected tracks picked in the list, kept for the document picked next; null for the
+     *                 song list in the order shown
+     */
+    public Intent exportIntent(IntList selected) {
+        pendingExport = selected;
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("audio/x-mpegurl");
+        intent.putExtra(Intent.EXTRA_TITLE, "playlist.m3u8");
+        return intent;
+    }
+
+    /**
+     * Only good for the document picked right after exportIntent(), call it on every result
+     */
+    public IntList takeExportSelection() {
+        IntList selected = pendingExport;
+        pendingExport = null;
+        return selected;
+    }
+
+    //Runs on ioExecutor. Built once from a catalog snapshot, then extended by the tracks appended since
+    public PathIndex getPathIndex() {
+        List<Audio> tracks = catalog.snapshot();
+        synchronized (this) {
+            if (pathIndex == null) {
+                pathIndex = new PathIndex(tracks);
+            } else {
+                pathIndex.extend(tracks);
+            }
+            return pathIndex;
+        }
+    }
+
+    @Override
+    public synchronized long estimatedBytes() {
+        return pathIndex != null ? pathIndex.estimatedBytes() : 0;
+    }
+
+    @Override
+    public synchronized void trim(boolean all) {
+        pathIndex = null; //rebuilt on the next import
+    }
+
+    public void importPlaylist(final Uri uri) {
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final IntList ordinals = new IntList();
+                final int missing;
+                try {
+                    String baseDir = "file".equals(uri.getScheme()) ? new File(uri.getPath()).getParent() : null;
+                    InputStream in = context.getContentResolver().openInputStream(uri);
+                    if (in == null) throw new FileNotFoundException(uri.toString());
+                    try {
+                        missing = PlaylistIO.importPlaylist(in, PlaylistIO.formatOf(displayNameOf(uri)),
+                                baseDir, getPathIndex(), ordinals);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    showMessage(context.getString(R.string.playlist_failed));
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context, context.getString(R.string.playlist_imported, ordinals.size(), missing),
+                                Toast.LENGTH_SHORT).show();
+                        callback.onImported(ordinals);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @param selected from takeExportSelection(), null exports the song list in the order shown
+     * @param order    the song list's display order, null for the catalog order
+     */
+    public void exportPlaylist(final Uri uri, final IntList selected, final int[] order) {
+        //Tracks are appended on the main thread while this is written
+        final List<Audio> snapshot = catalog.snapshot();
+        final int count = snapshot.size();
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                IntList ordinals;
+                if (selected != null) {
+                    ordinals = selected;
+                } else if (order != null) {
+                    ordinals = IntList.of(order, order.length);
+                } else {
+                    ordinals = new IntList(count);
+                    for (int i = 0; i < count; i++) {
+                        ordinals.add(i);
+                    }
+                }
+                try {
+                    OutputStream out = context.getContentResolver().openOutputStream(uri);
+                    if (out == null) throw new FileNotFoundException(uri.toString());
+                    try {
+                        PlaylistIO.exportPlaylist(snapshot, ordinals, PlaylistIO.formatOf(displayNameOf(uri)), out);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    showMessage(context.getString(R.string.playlist_failed));
+                    return;
+                }
+                showMessage(context.getString(R.string.playlist_exported, ordinals.size()));
+            }
+        });
+    }
+
+    /**
+     * Document URIs from the system picker are opaque ids, the file name (and its extension) is the
+     * provider's DISPLAY_NAME column. Queries the provider, call it off the UI thread.
+     */
+    private String displayNameOf(Uri uri) {
+        Cursor cursor = context.getContentResolver().query(uri, new String[]{OpenableColumns.DISPLAY_NAME},
+                null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst() && !cursor.isNull(0)) return cursor.getString(0);
+            } finally {
+                cursor.close();
+            }
+        }
+        return uri.getLastPathSegment();
+    }
+
+    private void showMessage(final String message) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+}
@@ -0,0 +1,271 @@
+package com.claire.audioplayerapp;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 佇列日誌 Saves the up-next queue as a snapshot plus a journal of edits
+ * queue.snap holds the whole queue and is only written when the queue is replaced or the journal
+ * has grown long; every insert, remove, move and position change in between is a 9-byte record
+ * appended to queue.log. Writes happen on a single background thread. The snapshot carries a stamp
+ * of the catalog prefix it was saved against: the catalog only ever grows while the app runs, so
+ * ordinals stay valid as long as those first tracks are the same.
+ */
+public class QueueJournal implements UpNextQueue.EditListener {
+
+    private static final byte OP_INSERT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_MOVE = 3;
+    private static final byte OP_POSITION = 4;
+    private static final int RECORD_SIZE = 9;
+    private static final int SNAPSHOT_MAGIC = 0x55514e32; //"UQN2"
+    //Rewrite the snapshot once the journal holds this many records
+    private static final int COMPACT_RECORDS = 8192;
+
+    private final File snapshotFile;
+    private final File logFile;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    //Main thread
+    private UpNextQueue queue;
+    private int position;
+    private int loggedRecords;
+    private int restoredPosition;
+    private List<Audio> catalog;
+    //Stamp of the first stampedCount catalog entries, extended as the catalog grows
+    private int stampedCount;
+    private long stamp;
+    //Gets every edit after it is journaled, e.g. to mirror the queue into another process
+    private UpNextQueue.EditListener forward;
+
+    public QueueJournal(File directory) {
+        snapshotFile = new File(directory, "queue.snap");
+        logFile = new File(directory, "queue.log");
+    }
+
+    public void setForwardListener(UpNextQueue.EditListener listener) {
+        forward = listener;
+    }
+
+    /**
+     * The catalog the ordinals refer to
+     */
+    public void setCatalog(List<Audio> tracks) {
+        if (tracks != catalog) stampedCount = 0;
+        catalog = tracks;
+    }
+
+    //Hash of the paths of the first count catalog entries
+    private long stampOf(int count) {
+        if (count < stampedCount) stampedCount = 0;
+        if (stampedCount == 0) stamp = 0;
+        for (int i = stampedCount; i < count; i++) {
+            stamp = stamp * 31 + ListeningHistory.trackKey(catalog.get(i).getData());
+        }
+        stampedCount = count;
+        return stamp;
+    }
+
+    /**
+     * Snapshot plus journal, or null when nothing was saved for this catalog. Attaches the journal
+     * to the returned queue.
+     */
+    public UpNextQueue restore() {
+        if (!snapshotFile.exists() || catalog == null) return null;
+        int trackCount = catalog.size();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+            UpNextQueue restored;
+            int savedPosition;
+            try {
+                if (in.readInt() != SNAPSHOT_MAGIC) return null;
+                int savedCount = in.readInt();
+                if (savedCount > trackCount || in.readLong() != stampOf(savedCount)) return null;
+                savedPosition = in.readInt();
+                int size = in.readInt();
+                int[] values = new int[size];
+                for (int i = 0; i < size; i++) values[i] = in.readInt();
+                restored = UpNextQueue.of(values, size);
+            } finally {
+                in.close();
+            }
+            savedPosition = replay(restored, savedPosition, trackCount);
+            if (restored.isEmpty()) return null;
+            for (int ordinal : restored.toArray()) {
+                if (ordinal >= trackCount) return null;
+            }
+            queue = restored;
+            restoredPosition = Math.max(0, Math.min(savedPosition, restored.size() - 1));
+            position = restoredPosition;
+            restored.setListener(this);
+            return restored;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public int getRestoredPosition() {
+        return restoredPosition;
+    }
+
+    //Applies the journal to the snapshot, a torn last record is ignored
+    private int replay(UpNextQueue target, int savedPosition, int trackCount) throws IOException {
+        if (!logFile.exists()) return savedPosition;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+        try {
+            while (true) {
+                byte op = in.readByte();
+                int a = in.readInt();
+                int b = in.readInt();
+                loggedRecords++;
+                if (op == OP_INSERT && a >= 0 && a <= target.size() && b >= 0 && b < trackCount) {
+                    target.insert(a, b);
+                } else if (op == OP_REMOVE && a >= 0 && a < target.size()) {
+                    target.remove(a);
+                } else if (op == OP_MOVE && a >= 0 && b >= 0 && a < target.size() && b < target.size()) {
+                    target.move(a, b);
+                } else if (op == OP_POSITION) {
+                    savedPosition = a;
+                }
+            }
+        } catch (EOFException e) {
+            //End of the journal
+        } finally {
+            in.close();
+        }
+        //Cut a torn record off, later appends must stay aligned
+        long length = logFile.length();
+        if (length % RECORD_SIZE != 0) {
+            RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+            try {
+                file.setLength(length - length % RECORD_SIZE);
+            } finally {
+                file.close();
+            }
+        }
+        return savedPosition;
+    }
+
+    /**
+     * The queue was replaced as a whole (a new playlist, shuffle...): one snapshot, empty journal.
+     * A null queue means the catalog plays in order and nothing is saved.
+     */
+    public void replace(UpNextQueue replacement, int newPosition) {
+        if (queue != null) queue.setListener(null);
+        queue = replacement;
+        position = newPosition;
+        if (replacement == null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    snapshotFile.delete();
+                    logFile.delete();
+                }
+            });
+            return;
+        }
+        replacement.setListener(this);
+        writeSnapshot();
+    }
+
+    public void setPosition(int newPosition) {
+        if (queue == null || newPosition == position) return;
+        position = newPosition;
+        append(OP_POSITION, newPosition, 0);
+    }
+
+    @Override
+    public void onInsert(int index, int value) {
+        append(OP_INSERT, index, value);
+        if (forward != null) forward.onInsert(index, value);
+    }
+
+    @Override
+    public void onRemove(int index) {
+        append(OP_REMOVE, index, 0);
+        if (forward != null) forward.onRemove(index);
+    }
+
+    @Override
+    public void onMove(int from, int to) {
+        append(OP_MOVE, from, to);
+        if (forward != null) forward.onMove(from, to);
+    }
+
+    private void append(byte op, int a, int b) {
+        if (++loggedRecords >= COMPACT_RECORDS) {
+            writeSnapshot();
+            return;
+        }
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(op).putInt(a).putInt(b).flip();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileOutputStream out = new FileOutputStream(logFile, true);
+                    try {
+                        FileChannel channel = out.getChannel();
+                        while (record.hasRemaining()) channel.write(record);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    //Copies the queue on the caller's thread, writes on the executor and starts a new journal
+    private void writeSnapshot() {
+        loggedRecords = 0;
+        final int[] values = queue.toArray();
+        final int savedPosition = position;
+        final int savedCount = catalog.size();
+        final long savedStamp = stampOf(savedCount);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File temp = new File(snapshotFile.getPath() + ".tmp");
+                try {
+                    ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 8 + 4 + 4 + 4 * values.length);
+                    buffer.putInt(SNAPSHOT_MAGIC).putInt(savedCount).putLong(savedStamp)
+                            .putInt(savedPosition).putInt(values.length);
+                    buffer.asIntBuffer().put(values);
+                    buffer.rewind();
+                    RandomAccessFile file = new RandomAccessFile(temp, "rw");
+                    try {
+                        file.setLength(0);
+                        FileChannel channel = file.getChannel();
+                        while (buffer.hasRemaining()) channel.write(buffer);
+                    } finally {
+                        file.close();
+                    }
+                    //Journal first: a crash in between leaves an old snapshot and no edits, never
+                    //a new snapshot with stale edits replayed on top
+                    logFile.delete();
+                    if (!temp.renameTo(snapshotFile)) throw new IOException("rename failed " + temp);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    public void close() {
+        if (queue != null) queue.setListener(null);
+        executor.shutdown();
+    }
+}
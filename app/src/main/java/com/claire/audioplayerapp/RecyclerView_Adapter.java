@@ -16,6 +16,12 @@ public class RecyclerView_Adapter extends RecyclerView.Adapter<ViewHolder> {
 
     List<Audio> list = Collections.emptyList();
     Context context;
+    //Display order as catalog ordinals, null shows the list in catalog order 顯示順序
+    int[] order;
+    //Fast scroller sections of order, null when the rows are not in a sorted order
+    SectionIndex sections;
+    //多選 Selected rows are shown activated, null outside of selection mode
+    TrackSelection selection;
 
     public RecyclerView_Adapter(List<Audio> list, Context context) {
         this.list = list;
@@ -33,13 +39,47 @@ public class RecyclerView_Adapter extends RecyclerView.Adapter<ViewHolder> {
     @Override
     public void onBindViewHolder(@NonNull ViewHolder viewHolder, int position) {
         //use the provided View Holder on the onCreateViewHolder method to populate the current row on the RecyclerView
-        viewHolder.textTitle.setText(list.get(position).getTitle());
+        int ordinal = getOrdinal(position);
+        viewHolder.textTitle.setText(list.get(ordinal).getTitle());
+        viewHolder.itemView.setActivated(selection != null && selection.contains(ordinal));
     }
 
     @Override
     public int getItemCount() {
         //returns the number of elements the RecyclerView will display
-        return list.size();
+        return order != null ? order.length : list.size();
+    }
+
+    public void setOrder(int[] order) {
+        setOrder(order, null);
+    }
+
+    public void setOrder(int[] order, SectionIndex sections) {
+        this.order = order;
+        this.sections = sections;
+        notifyDataSetChanged();
+    }
+
+    public SectionIndex getSections() {
+        return sections;
+    }
+
+    public int[] getOrder() {
+        return order;
+    }
+
+    public void setSelection(TrackSelection selection) {
+        this.selection = selection;
+        notifyDataSetChanged();
+    }
+
+    public TrackSelection getSelection() {
+        return selection;
+    }
+
+    //Catalog ordinal of the row at position
+    public int getOrdinal(int position) {
+        return order != null ? order[position] : position;
     }
 
     @Override
@@ -0,0 +1,243 @@
+package com.claire.audioplayerapp;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+
+/**
+ * 跨行程播放 PlaybackCommands for a MediaPlayerService running in its own process
+ * Commands are one-way Messenger messages handled in order on the service's main thread. The
+ * service pushes the up-next queue once and then every edit, so getUpNext() answers from a local
+ * mirror without a round trip. Moves and removals made here are applied to the mirror right away
+ * (the service does not echo them back), which keeps drag and swipe in the list in step. The
+ * position snapshots the service publishes are mirrored the same way.
+ * Used from the main thread.
+ */
+public class RemotePlayback implements PlaybackCommands {
+
+    //Activity -> service
+    public static final int MSG_REGISTER = 1;
+    public static final int MSG_UNREGISTER = 2;
+    public static final int MSG_PING = 3;
+    public static final int MSG_PLAY_QUEUE = 4;
+    public static final int MSG_SET_QUEUE = 5;
+    public static final int MSG_CATALOG_APPENDED = 6;
+    public static final int MSG_SET_SHUFFLE = 7;
+    public static final int MSG_PLAY_NEXT = 8;
+    public static final int MSG_ENQUEUE = 9;
+    public static final int MSG_MOVE = 10;
+    public static final int MSG_REMOVE = 11;
+    public static final int MSG_PLAY_ENTRY = 12;
+    public static final int MSG_STOP = 13;
+    public static final int MSG_SEEK = 14;
+    public static final int MSG_PLAY_NEXT_ALL = 15;
+    public static final int MSG_ENQUEUE_ALL = 16;
+    //Service -> activity
+    public static final int MSG_PONG = 100;
+    public static final int MSG_QUEUE = 101;
+    public static final int MSG_QUEUE_POSITION = 102;
+    public static final int MSG_QUEUE_INSERT = 103;
+    public static final int MSG_QUEUE_REMOVE = 104;
+    public static final int MSG_QUEUE_MOVE = 105;
+    public static final int MSG_TRACK_CHANGED = 106;
+    public static final int MSG_POSITION = 107;
+
+    public static final String KEY_ORDINALS = "ordinals";
+    private static final String KEY_POSITION = "position";
+    private static final String KEY_ANCHOR = "anchor";
+    private static final String KEY_SPEED = "speed";
+    private static final String KEY_DURATION = "duration";
+    private static final String KEY_VERSION = "version";
+
+    private final Messenger service;
+    private final Messenger replies = new Messenger(new Handler(Looper.getMainLooper()) {
+        @Override
+        public void handleMessage(Message msg) {
+            onServiceMessage(msg);
+        }
+    });
+
+    //Mirror of the service's up-next queue
+    private UpNextQueue upNext;
+    private int upNextPosition;
+    private int current = -1;
+    private final PlaybackPosition position = new PlaybackPosition();
+
+    public RemotePlayback(Messenger service) {
+        this.service = service;
+        send(Message.obtain(null, MSG_REGISTER));
+    }
+
+    private void onServiceMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_QUEUE:
+                upNext = queueOf(msg.getData());
+                upNextPosition = msg.arg1;
+                break;
+            case MSG_QUEUE_POSITION:
+                upNextPosition = msg.arg1;
+                break;
+            case MSG_QUEUE_INSERT:
+                if (upNext != null) upNext.insert(msg.arg1, msg.arg2);
+                break;
+            case MSG_QUEUE_REMOVE:
+                if (upNext != null) upNext.remove(msg.arg1);
+                break;
+            case MSG_QUEUE_MOVE:
+                if (upNext != null) upNext.move(msg.arg1, msg.arg2);
+                break;
+            case MSG_TRACK_CHANGED:
+                current = msg.arg1;
+                break;
+            case MSG_POSITION:
+                Bundle data = msg.getData();
+                position.set(new PlaybackPosition.Snapshot(msg.arg1, msg.arg2, data.getLong(KEY_POSITION),
+                        data.getLong(KEY_ANCHOR), data.getFloat(KEY_SPEED), data.getLong(KEY_DURATION),
+                        data.getInt(KEY_VERSION)));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static UpNextQueue queueOf(Bundle data) {
+        int[] ordinals = data.getIntArray(KEY_ORDINALS);
+        return ordinals != null ? UpNextQueue.of(ordinals, ordinals.length) : null;
+    }
+
+    //Ordinal and state in the arguments, the rest in the data
+    public static Message positionMessage(PlaybackPosition.Snapshot snapshot) {
+        Message msg = Message.obtain(null, MSG_POSITION, snapshot.ordinal, snapshot.state);
+        Bundle data = new Bundle();
+        data.putLong(KEY_POSITION, snapshot.positionMs);
+        data.putLong(KEY_ANCHOR, snapshot.anchorMs);
+        data.putFloat(KEY_SPEED, snapshot.speed);
+        data.putLong(KEY_DURATION, snapshot.durationMs);
+        data.putInt(KEY_VERSION, snapshot.version);
+        msg.setData(data);
+        return msg;
+    }
+
+    public static Bundle bundleOf(int[] ordinals) {
+        Bundle data = new Bundle();
+        data.putIntArray(KEY_ORDINALS, ordinals);
+        return data;
+    }
+
+    private void send(Message msg) {
+        msg.replyTo = replies;
+        try {
+            service.send(msg);
+        } catch (RemoteException e) {
+            //The playback process is gone, onServiceDisconnected() follows
+            e.printStackTrace();
+        }
+    }
+
+    private void send(int what, int arg1, int arg2) {
+        send(Message.obtain(null, what, arg1, arg2));
+    }
+
+    private void sendQueue(int what, IntList ordinals, int position) {
+        Message msg = Message.obtain(null, what, position, 0);
+        msg.setData(bundleOf(ordinals != null ? ordinals.toArray() : null));
+        send(msg);
+    }
+
+    @Override
+    public void playQueue(IntList ordinals, int position) {
+        sendQueue(MSG_PLAY_QUEUE, ordinals, position);
+    }
+
+    @Override
+    public void setQueue(IntList ordinals, int position) {
+        sendQueue(MSG_SET_QUEUE, ordinals, position);
+    }
+
+    @Override
+    public void onCatalogAppended() {
+        send(MSG_CATALOG_APPENDED, 0, 0);
+    }
+
+    @Override
+    public void setShuffle(boolean enabled) {
+        send(MSG_SET_SHUFFLE, enabled ? 1 : 0, 0);
+    }
+
+    @Override
+    public void playNext(int ordinal) {
+        send(MSG_PLAY_NEXT, ordinal, 0);
+    }
+
+    @Override
+    public void enqueue(int ordinal) {
+        send(MSG_ENQUEUE, ordinal, 0);
+    }
+
+    //The service replies with the whole new queue (MSG_QUEUE)
+    @Override
+    public void playNext(IntList ordinals) {
+        sendQueue(MSG_PLAY_NEXT_ALL, ordinals, 0);
+    }
+
+    @Override
+    public void enqueue(IntList ordinals) {
+        sendQueue(MSG_ENQUEUE_ALL, ordinals, 0);
+    }
+
+    @Override
+    public void moveQueueItem(int from, int to) {
+        if (upNext == null || from < 0 || to < 0 || from >= upNext.size() || to >= upNext.size()) return;
+        upNext.move(from, to);
+        upNextPosition = PlaybackCore.positionAfterMove(upNextPosition, from, to);
+        send(MSG_MOVE, from, to);
+    }
+
+    @Override
+    public void removeQueueItem(int index) {
+        if (upNext == null || index < 0 || index >= upNext.size()) return;
+        if (upNext.size() == 1) {
+            upNext = null;
+        } else {
+            upNext.remove(index);
+            upNextPosition = PlaybackCore.positionAfterRemove(upNextPosition, index, upNext.size());
+        }
+        send(MSG_REMOVE, index, 0);
+    }
+
+    @Override
+    public void playQueueEntry(int index) {
+        if (upNext != null) upNextPosition = index;
+        send(MSG_PLAY_ENTRY, index, 0);
+    }
+
+    @Override
+    public void seekTo(int positionMs) {
+        send(MSG_SEEK, positionMs, 0);
+    }
+
+    //Anchor times are elapsedRealtime(), the same in both processes
+    @Override
+    public PlaybackPosition getPlaybackPosition() {
+        return position;
+    }
+
+    @Override
+    public UpNextQueue getUpNext() {
+        return upNext;
+    }
+
+    @Override
+    public int getUpNextPosition() {
+        return upNext != null ? upNextPosition : current;
+    }
+
+    @Override
+    public void stopPlayback() {
+        send(MSG_UNREGISTER, 0, 0);
+        send(MSG_STOP, 0, 0);
+    }
+}
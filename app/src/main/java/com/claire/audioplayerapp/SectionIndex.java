@@ -0,0 +1,91 @@
+package com.claire.audioplayerapp;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * 分段索引 Sections of a sorted track list for the fast scroller
+ * Every track has a section key per sort mode (initial letter of the sorted field, or the year it
+ * was added); a section is a run of rows with the same key, found in one pass over the display
+ * order and kept as an int[] of start positions. Jumping to a section is starts[section], the
+ * section of a row is a binary search over the starts. Immutable, a new order gets a new index.
+ */
+public class SectionIndex {
+
+    //Digits, symbols and empty text
+    public static final int KEY_OTHER = '#';
+
+    private final int[] keys;
+    private final int[] starts;
+    private final int rowCount;
+
+    private SectionIndex(int[] keys, int[] starts, int rowCount) {
+        this.keys = keys;
+        this.starts = starts;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * @param order      display order as catalog ordinals
+     * @param sectionKey section key of each ordinal, see letterKey() and yearKey()
+     */
+    public static SectionIndex build(int[] order, int[] sectionKey) {
+        IntList keys = new IntList(64);
+        IntList starts = new IntList(64);
+        for (int position = 0; position < order.length; position++) {
+            int key = sectionKey[order[position]];
+            if (keys.isEmpty() || keys.get(keys.size() - 1) != key) {
+                keys.add(key);
+                starts.add(position);
+            }
+        }
+        return new SectionIndex(keys.toArray(), starts.toArray(), order.length);
+    }
+
+    /**
+     * Upper case initial without accents ("Élan" → E), the character itself in scripts without
+     * case, KEY_OTHER for digits and symbols. Expects TrackSorter.sortableText().
+     */
+    public static int letterKey(String text) {
+        if (text.isEmpty()) return KEY_OTHER;
+        int first = text.codePointAt(0);
+        if (!Character.isLetter(first)) return KEY_OTHER;
+        if (first < 0x80) return Character.toUpperCase(first);
+        String base = Normalizer.normalize(new String(Character.toChars(first)), Normalizer.Form.NFD);
+        return Character.toUpperCase(base.codePointAt(0));
+    }
+
+    /**
+     * Year of a MediaStore DATE_ADDED (seconds), stored negated so it never collides with a letter
+     */
+    public static int yearKey(long dateAddedSeconds, Calendar calendar) {
+        if (dateAddedSeconds <= 0) return KEY_OTHER;
+        calendar.setTimeInMillis(dateAddedSeconds * 1000L);
+        return -calendar.get(Calendar.YEAR);
+    }
+
+    public int getSectionCount() {
+        return starts.length;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    //"A", "#", "2019"
+    public String getLabel(int section) {
+        int key = keys[section];
+        return key < 0 ? String.valueOf(-key) : new String(Character.toChars(key));
+    }
+
+    //First row of the section
+    public int getStart(int section) {
+        return starts[section];
+    }
+
+    public int getSectionForPosition(int position) {
+        int found = Arrays.binarySearch(starts, position);
+        return found >= 0 ? found : Math.max(-found - 2, 0);
+    }
+}
@@ -0,0 +1,106 @@
+package com.claire.audioplayerapp;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * 快速捲動 Letter rail beside the track list
+ * Draws the labels of a SectionIndex top to bottom, sampled when they don't all fit, and reports
+ * the section under the finger. The listener jumps the list to SectionIndex.getStart(), so rows
+ * between the old and new position are never bound.
+ */
+public class SectionScroller extends View {
+
+    public interface Listener {
+        void onSectionSelected(int section);
+
+        //Finger lifted
+        void onReleased();
+    }
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final int textColor;
+    private final int currentColor;
+    private SectionIndex sections;
+    private Listener listener;
+    private int currentSection = -1;
+    private int touchedSection = -1;
+
+    public SectionScroller(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        paint.setTextAlign(Paint.Align.CENTER);
+        paint.setTextSize(getResources().getDimension(R.dimen.section_scroller_text));
+        textColor = getResources().getColor(R.color.secondary_text);
+        currentColor = getResources().getColor(R.color.colorAccent);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    //Hidden without sections or with a single one
+    public void setSections(SectionIndex sections) {
+        this.sections = sections;
+        currentSection = -1;
+        setVisibility(sections != null && sections.getSectionCount() > 1 ? VISIBLE : GONE);
+        invalidate();
+    }
+
+    //Section of the first visible row, highlighted on the rail
+    public void setCurrentSection(int section) {
+        if (section == currentSection) return;
+        currentSection = section;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (sections == null) return;
+        int count = sections.getSectionCount();
+        float rowHeight = paint.getFontSpacing();
+        int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        int slots = Math.max(1, Math.min(count, (int) (height / rowHeight)));
+        float slotHeight = height / (float) slots;
+        float x = getWidth() / 2f;
+        for (int slot = 0; slot < slots; slot++) {
+            int section = slot * count / slots;
+            int next = (slot + 1) * count / slots;
+            boolean current = currentSection >= section && currentSection < next;
+            paint.setColor(current ? currentColor : textColor);
+            paint.setFakeBoldText(current);
+            float y = getPaddingTop() + slot * slotHeight + (slotHeight - paint.ascent() - paint.descent()) / 2f;
+            canvas.drawText(sections.getLabel(section), x, y, paint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (sections == null) return false;
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                getParent().requestDisallowInterceptTouchEvent(true);
+                //fall through
+            case MotionEvent.ACTION_MOVE:
+                int height = getHeight() - getPaddingTop() - getPaddingBottom();
+                float fraction = (event.getY() - getPaddingTop()) / Math.max(height, 1);
+                int count = sections.getSectionCount();
+                int section = Math.min(count - 1, Math.max(0, (int) (fraction * count)));
+                if (section != touchedSection) {
+                    touchedSection = section;
+                    setCurrentSection(section);
+                    if (listener != null) listener.onSectionSelected(section);
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                touchedSection = -1;
+                if (listener != null) listener.onReleased();
+                return true;
+        }
+        return super.onTouchEvent(event);
+    }
+}
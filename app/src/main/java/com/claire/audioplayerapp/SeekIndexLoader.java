@@ -0,0 +1,84 @@
+package com.claire.audioplayerapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * 精確快轉 The frame index of the track playing, when it is a long VBR MP3
+ * Long MP3s are indexed once, on the worker; the stored index is read back on later plays. CBR
+ * files are left to MediaPlayer, which seeks them exactly. Only the last track asked for gets its
+ * index, requests for earlier tracks still queued are dropped. load() and get() on the main thread.
+ */
+public class SeekIndexLoader implements MemoryTrimmer.Trimmable {
+
+    private final File directory;
+    private final long minDurationMs;
+    private final Executor worker;
+    private final Executor mainThread;
+    private FrameSeekIndex index;
+    //The track the index is wanted for
+    private volatile String wanted;
+
+    /**
+     * @param directory     where indexes are stored, see FrameSeekIndex.loadOrBuild()
+     * @param minDurationMs shorter tracks are not indexed, MediaPlayer's seek is close enough
+     * @param mainThread    runs the hand-over of a finished index
+     */
+    public SeekIndexLoader(File directory, long minDurationMs, Executor worker, Executor mainThread) {
+        this.directory = directory;
+        this.minDurationMs = minDurationMs;
+        this.worker = worker;
+        this.mainThread = mainThread;
+    }
+
+    /**
+     * Drops the index of the previous track and, when audio is worth indexing, reads or builds its own
+     */
+    public void load(Audio audio) {
+        index = null;
+        final String path = audio.getData();
+        wanted = path;
+        if (path == null || !path.toLowerCase(Locale.ROOT).endsWith(".mp3")
+                || audio.getDuration() > 0 && audio.getDuration() < minDurationMs) return;
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!path.equals(wanted)) return;
+                final FrameSeekIndex built;
+                try {
+                    built = FrameSeekIndex.loadOrBuild(directory, path);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                if (!built.isVariableBitrate()) return;
+                mainThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (path.equals(wanted)) index = built;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the index of the track last loaded, null while it is read or when it has none
+     */
+    public FrameSeekIndex get() {
+        return index;
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return index != null ? index.estimatedBytes() : 0;
+    }
+
+    @Override
+    public void trim(boolean all) {
+        //Seeks in this track fall back to MediaPlayer's, the next track reads its index from disk
+        if (all) index = null;
+    }
+}
@@ -0,0 +1,252 @@
+package com.claire.audioplayerapp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 共享目錄 The catalog as a memory-mapped file both processes read without copying
+ * MainActivity publishes it once before starting the service and appends tracks MediaStore adds
+ * later; the service maps it read-only. An entry is only decoded into an Audio when get() asks
+ * for it, so the playback process never holds the whole catalog on its heap.
+ * <p>
+ * Layout: magic, committed count and committed end (one 8-byte write, so readers never see a
+ * count without its records), then one record per track: length, dateAdded, duration and five strings
+ * (data, title, album, artist, genre) as UTF-8 with a -1 length for null.
+ */
+public class SharedCatalog extends AbstractList<Audio> implements RandomAccess {
+
+    private static final int MAGIC = 0x53434132; //"SCA2"
+    private static final int HEADER_SIZE = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //Replaced as a whole by refresh(), so concurrent get() always sees a consistent pair
+    private static class Mapping {
+        final ByteBuffer buffer;
+        final int[] offsets;
+        final int count;
+
+        Mapping(ByteBuffer buffer, int[] offsets, int count) {
+            this.buffer = buffer;
+            this.offsets = offsets;
+            this.count = count;
+        }
+    }
+
+    private final File file;
+    private volatile Mapping mapping;
+
+    private SharedCatalog(File file, Mapping mapping) {
+        this.file = file;
+        this.mapping = mapping;
+    }
+
+    /**
+     * Writes the whole catalog to a new file that replaces the old one, a process that still maps
+     * the old file keeps reading it until it opens the new one
+     */
+    public static void publish(File file, List<Audio> tracks) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+        long end;
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(0);
+            out.writeInt(0);
+            for (int i = 0; i < tracks.size(); i++) {
+                writeRecord(out, tracks.get(i));
+            }
+            end = out.size();
+        } finally {
+            out.close();
+        }
+        commit(temp, tracks.size(), end);
+        if (!temp.renameTo(file)) throw new IOException("rename failed " + temp);
+    }
+
+    /**
+     * Appends tracks in place, readers see them after refresh()
+     */
+    public static void append(File file, List<Audio> added) throws IOException {
+        if (!file.exists()) {
+            publish(file, added);
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        int count;
+        long end;
+        try {
+            if (raf.readInt() != MAGIC) throw new IOException("not a catalog " + file);
+            long committed = raf.readLong();
+            count = (int) (committed >>> 32);
+            end = committed & 0xffffffffL;
+        } finally {
+            raf.close();
+        }
+        //Records go after the committed end, a torn earlier append is overwritten
+        RecordBuffer records = new RecordBuffer();
+        DataOutputStream out = new DataOutputStream(records);
+        for (int i = 0; i < added.size(); i++) {
+            writeRecord(out, added.get(i));
+        }
+        out.flush();
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(end);
+            raf.write(records.bytes(), 0, records.size());
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+        commit(file, count + added.size(), end + records.size());
+    }
+
+    //Count and end together in one write, after the records are on disk
+    private static void commit(File file, int count, long end) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(4);
+            raf.writeLong(((long) count << 32) | end);
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, Audio audio) throws IOException {
+        byte[][] strings = {
+                bytesOf(audio.getData()), bytesOf(audio.getTitle()), bytesOf(audio.getAlbum()),
+                bytesOf(audio.getArtist()), bytesOf(audio.getGenre())
+        };
+        int length = 16;
+        for (byte[] s : strings) length += 4 + (s != null ? s.length : 0);
+        out.writeInt(length);
+        out.writeLong(audio.getDateAdded());
+        out.writeLong(audio.getDuration());
+        for (byte[] s : strings) {
+            if (s == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(s.length);
+                out.write(s);
+            }
+        }
+    }
+
+    private static byte[] bytesOf(String s) {
+        return s != null ? s.getBytes(UTF_8) : null;
+    }
+
+    /**
+     * Maps the file read-only
+     */
+    public static SharedCatalog open(File file) throws IOException {
+        SharedCatalog catalog = new SharedCatalog(file, null);
+        catalog.mapping = catalog.map(new int[0], 0);
+        return catalog;
+    }
+
+    /**
+     * Picks up appended tracks, returns how many there are now
+     */
+    public int refresh() throws IOException {
+        Mapping current = mapping;
+        mapping = map(current.offsets, current.count);
+        return mapping.count;
+    }
+
+    //Maps the committed part of the file, offsets of the first known records are reused
+    private Mapping map(int[] known, int knownCount) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.readInt() != MAGIC) throw new IOException("not a catalog " + file);
+            long committed = raf.readLong();
+            int count = (int) (committed >>> 32);
+            long end = committed & 0xffffffffL;
+            //The mapping stays valid after the file is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, end);
+            //Republished smaller instead of appended to: index from the start
+            if (count < knownCount) knownCount = 0;
+            int[] offsets = Arrays.copyOf(known, count);
+            int position = knownCount > 0
+                    ? offsets[knownCount - 1] + 4 + buffer.getInt(offsets[knownCount - 1]) : HEADER_SIZE;
+            for (int i = knownCount; i < count; i++) {
+                offsets[i] = position;
+                position += 4 + buffer.getInt(position);
+            }
+            return new Mapping(buffer, offsets, count);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public int size() {
+        return mapping.count;
+    }
+
+    /**
+     * Decodes entry index, each call returns a new Audio
+     */
+    @Override
+    public Audio get(int index) {
+        Mapping m = mapping;
+        if (index < 0 || index >= m.count) throw new IndexOutOfBoundsException("index " + index + ", size " + m.count);
+        //A private view, the shared buffer's position is never touched
+        ByteBuffer buffer = m.buffer.duplicate();
+        int position = m.offsets[index] + 4;
+        long dateAdded = buffer.getLong(position);
+        long duration = buffer.getLong(position + 8);
+        position += 16;
+        String[] strings = new String[5];
+        for (int i = 0; i < strings.length; i++) {
+            int length = buffer.getInt(position);
+            position += 4;
+            if (length < 0) continue;
+            byte[] bytes = new byte[length];
+            buffer.position(position);
+            buffer.get(bytes);
+            strings[i] = new String(bytes, UTF_8);
+            position += length;
+        }
+        Audio audio = new Audio(strings[0], strings[1], strings[2], strings[3], dateAdded);
+        audio.setGenre(strings[4]);
+        audio.setDuration(duration);
+        return audio;
+    }
+
+    /**
+     * Only the path of entry index, for callers that key tracks by it (history, shuffle weights)
+     */
+    public String getData(int index) {
+        Mapping m = mapping;
+        if (index < 0 || index >= m.count) throw new IndexOutOfBoundsException("index " + index + ", size " + m.count);
+        ByteBuffer buffer = m.buffer.duplicate();
+        int position = m.offsets[index] + 4 + 16;
+        int length = buffer.getInt(position);
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.position(position + 4);
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    //ByteArrayOutputStream that hands out its array without copying
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
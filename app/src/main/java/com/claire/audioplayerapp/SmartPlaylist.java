@@ -0,0 +1,137 @@
+package com.claire.audioplayerapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 智慧播放清單 A saved playlist defined by rules instead of tracks
+ * Written and shown one rule per line, e.g. "artist is Adele", "album contains live",
+ * "added in the last 30 days", "never played"; "not " in front negates any rule. The playlist
+ * matches tracks that pass all of its rules, or any of them. SmartPlaylistIndex evaluates it.
+ */
+public class SmartPlaylist {
+
+    public enum Condition {
+        ARTIST_IS("artist is "),
+        ARTIST_CONTAINS("artist contains "),
+        ALBUM_IS("album is "),
+        ALBUM_CONTAINS("album contains "),
+        GENRE_IS("genre is "),
+        GENRE_CONTAINS("genre contains "),
+        ADDED_WITHIN_DAYS("added in the last "),
+        PLAYED_WITHIN_DAYS("played in the last "),
+        PLAYED("played");
+
+        final String phrase;
+
+        Condition(String phrase) {
+            this.phrase = phrase;
+        }
+
+        boolean takesDays() {
+            return this == ADDED_WITHIN_DAYS || this == PLAYED_WITHIN_DAYS;
+        }
+    }
+
+    public static class Rule {
+        public final Condition condition;
+        //The text to match, or the number of days; empty for PLAYED
+        public final String value;
+        public final boolean negated;
+
+        public Rule(Condition condition, String value, boolean negated) {
+            this.condition = condition;
+            this.value = value;
+            this.negated = negated;
+        }
+
+        int getDays() {
+            return Integer.parseInt(value);
+        }
+
+        @Override
+        public String toString() {
+            if (condition == Condition.PLAYED) return negated ? "never played" : "played";
+            String days = value.equals("1") ? " day" : " days";
+            String text = condition.phrase + value + (condition.takesDays() ? days : "");
+            return negated ? "not " + text : text;
+        }
+    }
+
+    private final String name;
+    private final boolean matchAll;
+    private final List<Rule> rules;
+
+    public SmartPlaylist(String name, boolean matchAll, List<Rule> rules) {
+        this.name = name;
+        this.matchAll = matchAll;
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+    }
+
+    /**
+     * @param text one rule per line, blank lines are ignored
+     * @throws IllegalArgumentException naming the first line that is not a rule
+     */
+    public static SmartPlaylist parse(String name, boolean matchAll, String text) {
+        List<Rule> rules = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            if (!line.trim().isEmpty()) rules.add(parseRule(line.trim()));
+        }
+        return new SmartPlaylist(name, matchAll, rules);
+    }
+
+    static Rule parseRule(String line) {
+        String lower = line.toLowerCase(Locale.ROOT);
+        if (lower.equals("never played")) return new Rule(Condition.PLAYED, "", true);
+        boolean negated = lower.startsWith("not ");
+        int start = negated ? 4 : 0;
+        for (Condition condition : Condition.values()) {
+            if (condition == Condition.PLAYED) {
+                if (lower.substring(start).equals(condition.phrase)) return new Rule(condition, "", negated);
+                continue;
+            }
+            if (!lower.startsWith(condition.phrase, start)) continue;
+            String value = line.substring(start + condition.phrase.length()).trim();
+            if (condition.takesDays()) value = parseDays(value, line);
+            if (value.isEmpty()) throw new IllegalArgumentException("Missing value: " + line);
+            return new Rule(condition, value, negated);
+        }
+        throw new IllegalArgumentException("Not a rule: " + line);
+    }
+
+    //"30", "30 days" or "1 day"
+    private static String parseDays(String value, String line) {
+        String digits = value.toLowerCase(Locale.ROOT).replaceFirst("\\s*days?$", "");
+        try {
+            int days = Integer.parseInt(digits);
+            if (days > 0) return String.valueOf(days);
+        } catch (NumberFormatException e) {
+            //reported below
+        }
+        throw new IllegalArgumentException("Not a number of days: " + line);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isMatchAll() {
+        return matchAll;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    //The rules as parse() reads them
+    public String getRulesText() {
+        StringBuilder text = new StringBuilder();
+        for (Rule rule : rules) {
+            if (text.length() > 0) text.append('\n');
+            text.append(rule);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package com.claire.audioplayerapp;
+
+import android.app.Activity;
+import android.content.DialogInterface;
+import android.support.v7.app.AlertDialog;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.PopupMenu;
+
+import java.util.List;
+
+/**
+ * 智慧播放清單 The user's smart playlists: the list kept in StorageUtil, the dialog that creates or
+ * edits one and the long press menu of a row. Rules are parsed before the dialog closes, a line
+ * that is not a rule keeps it open. Evaluating them is SmartPlaylistIndex's. Main thread only.
+ */
+public class SmartPlaylistEditor {
+
+    public interface Callback {
+        //The list changed and was stored
+        void onSaved(SmartPlaylist playlist);
+
+        void onRemoved(SmartPlaylist playlist);
+    }
+
+    private final Activity activity;
+    private final Callback callback;
+    private List<SmartPlaylist> playlists;
+
+    public SmartPlaylistEditor(Activity activity, Callback callback) {
+        this.activity = activity;
+        this.callback = callback;
+    }
+
+    //Read from StorageUtil on first use
+    public List<SmartPlaylist> getPlaylists() {
+        if (playlists == null) playlists = new StorageUtil(activity).loadSmartPlaylists();
+        return playlists;
+    }
+
+    public SmartPlaylist find(String name) {
+        for (SmartPlaylist playlist : getPlaylists()) {
+            if (playlist.getName().equals(name)) return playlist;
+        }
+        return null;
+    }
+
+    //Long press on a playlist: edit or delete it
+    public void showMenu(View anchor, final int index) {
+        final SmartPlaylist playlist = getPlaylists().get(index);
+        PopupMenu popup = new PopupMenu(activity, anchor);
+        popup.getMenuInflater().inflate(R.menu.menu_smart_playlist, popup.getMenu());
+        popup.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                if (item.getItemId() == R.id.action_edit_smart_playlist) {
+                    showDialog(playlist);
+                } else {
+                    getPlaylists().remove(playlist);
+                    new StorageUtil(activity).storeSmartPlaylists(getPlaylists());
+                    callback.onRemoved(playlist);
+                }
+                return true;
+            }
+        });
+        popup.show();
+    }
+
+    /**
+     * @param editing null for a new playlist
+     */
+    public void showDialog(final SmartPlaylist editing) {
+        View form = activity.getLayoutInflater().inflate(R.layout.dialog_smart_playlist, null);
+        final EditText name = form.findViewById(R.id.smartPlaylistName);
+        final EditText rules = form.findViewById(R.id.smartPlaylistRules);
+        final CheckBox matchAny = form.findViewById(R.id.smartPlaylistMatchAny);
+        if (editing != null) {
+            name.setText(editing.getName());
+            rules.setText(editing.getRulesText());
+            matchAny.setChecked(!editing.isMatchAll());
+        }
+        final AlertDialog dialog = new AlertDialog.Builder(activity)
+                .setTitle(editing == null ? R.string.action_new_smart_playlist : R.string.action_edit_smart_playlist)
+                .setView(form)
+                .setPositiveButton(R.string.smart_playlist_save, null)
+                .setNegativeButton(R.string.smart_playlist_cancel, null)
+                .create();
+        //Checked before the dialog closes, a line that is not a rule keeps it open
+        dialog.setOnShowListener(new DialogInterface.OnShowListener() {
+            @Override
+            public void onShow(DialogInterface dialogInterface) {
+                dialog.getButton(AlertDialog.BUTTON_POSITIVE).setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        String title = name.getText().toString().trim();
+                        if (title.isEmpty()) {
+                            name.setError(activity.getString(R.string.smart_playlist_unnamed));
+                            return;
+                        }
+                        try {
+                            save(SmartPlaylist.parse(title, !matchAny.isChecked(),
+                                    rules.getText().toString()), editing);
+                        } catch (IllegalArgumentException e) {
+                            rules.setError(e.getMessage());
+                            return;
+                        }
+                        dialog.dismiss();
+                    }
+                });
+            }
+        });
+        dialog.show();
+    }
+
+    //Names are unique, saving under an existing name replaces that playlist
+    private void save(SmartPlaylist playlist, SmartPlaylist replaced) {
+        List<SmartPlaylist> playlists = getPlaylists();
+        int index = replaced != null ? playlists.indexOf(replaced) : -1;
+        for (int i = playlists.size() - 1; i >= 0; i--) {
+            if (i != index && playlists.get(i).getName().equals(playlist.getName())) {
+                playlists.remove(i);
+                if (i < index) index--;
+            }
+        }
+        if (index >= 0) {
+            playlists.set(index, playlist);
+        } else {
+            playlists.add(playlist);
+        }
+        new StorageUtil(activity).storeSmartPlaylists(playlists);
+        callback.onSaved(playlist);
+    }
+}
@@ -0,0 +1,212 @@
+package com.claire.audioplayerapp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 智慧播放清單索引 Per-attribute bitmap indexes that SmartPlaylist rules compile to
+ * One TrackBitmap per distinct artist, album and genre, one per day tracks were added and one per
+ * day they were last played. A rule becomes a lookup or an OR over a few bitmaps, the playlist an
+ * AND/OR of its rules and NOT against the whole catalog, so no rule ever visits the tracks.
+ * "contains" rules scan the distinct names only. Days are whole UTC days, "in the last 30 days"
+ * being today and the 29 before it.
+ * <p>
+ * Kept current from AudioCatalog.Listener and ListeningHistory.Reader. Used from the main thread.
+ */
+public class SmartPlaylistIndex implements AudioCatalog.Listener, ListeningHistory.Reader.Listener {
+
+    private static final long DAY_SECONDS = 86400;
+    private static final long DAY_MS = DAY_SECONDS * 1000;
+
+    private final HashMap<String, TrackBitmap> artists = new HashMap<>();
+    private final HashMap<String, TrackBitmap> albums = new HashMap<>();
+    private final HashMap<String, TrackBitmap> genres = new HashMap<>();
+    private final TreeMap<Integer, TrackBitmap> addedByDay = new TreeMap<>();
+    private final TreeMap<Integer, TrackBitmap> playedByDay = new TreeMap<>();
+    private final TrackBitmap played = new TrackBitmap();
+    //Per ordinal: UTC day of the last play, -1 when never played
+    private final IntList lastPlayedDay = new IntList();
+    private TrackBitmap all = new TrackBitmap();
+
+    //History track key -> ordinal, open addressing; keys are never 0
+    private long[] keySlots = new long[1024];
+    private int[] ordinalSlots = new int[1024];
+    private int keyCount;
+    //Plays of tracks not in the catalog (yet), matched when they are added
+    private final HashMap<Long, Long> unmatchedPlays = new HashMap<>();
+
+    public SmartPlaylistIndex(List<Audio> tracks) {
+        onTracksAdded(0, tracks);
+    }
+
+    @Override
+    public void onTracksAdded(int firstOrdinal, List<Audio> added) {
+        for (int i = 0; i < added.size(); i++) {
+            int ordinal = firstOrdinal + i;
+            Audio audio = added.get(i);
+            bitmapOf(artists, key(audio.getArtist())).add(ordinal);
+            bitmapOf(albums, key(audio.getAlbum())).add(ordinal);
+            bitmapOf(genres, key(audio.getGenre())).add(ordinal);
+            bitmapOf(addedByDay, (int) (audio.getDateAdded() / DAY_SECONDS)).add(ordinal);
+            lastPlayedDay.add(-1);
+            if (audio.getData() == null) continue;
+            long trackKey = ListeningHistory.trackKey(audio.getData());
+            putKey(trackKey, ordinal);
+            Long time = unmatchedPlays.isEmpty() ? null : unmatchedPlays.remove(trackKey);
+            if (time != null) onPlayed(trackKey, time);
+        }
+        all = TrackBitmap.range(0, lastPlayedDay.size());
+    }
+
+    /**
+     * A play from the listening history, older plays of the same track change nothing
+     */
+    @Override
+    public void onPlayed(long trackKey, long timeMs) {
+        int ordinal = findKey(trackKey);
+        if (ordinal < 0) {
+            Long known = unmatchedPlays.get(trackKey);
+            if (known == null || known < timeMs) unmatchedPlays.put(trackKey, timeMs);
+            return;
+        }
+        int day = (int) (timeMs / DAY_MS);
+        int previous = lastPlayedDay.get(ordinal);
+        if (day <= previous) return;
+        if (previous >= 0) {
+            TrackBitmap old = playedByDay.get(previous);
+            old.remove(ordinal);
+            if (old.isEmpty()) playedByDay.remove(previous);
+        }
+        bitmapOf(playedByDay, day).add(ordinal);
+        played.add(ordinal);
+        lastPlayedDay.set(ordinal, day);
+    }
+
+    public int getTrackCount() {
+        return lastPlayedDay.size();
+    }
+
+    public long estimatedBytes() {
+        long bytes = played.sizeInBytes() + all.sizeInBytes() + lastPlayedDay.estimatedBytes() + 12L * keySlots.length
+                + unmatchedPlays.size() * (MemoryTrimmer.ENTRY_BYTES + 16L);
+        for (Map<String, TrackBitmap> index : Arrays.asList(artists, albums, genres)) {
+            for (Map.Entry<String, TrackBitmap> entry : index.entrySet()) {
+                bytes += MemoryTrimmer.ENTRY_BYTES + MemoryTrimmer.stringBytes(entry.getKey()) + entry.getValue().sizeInBytes();
+            }
+        }
+        for (TreeMap<Integer, TrackBitmap> byDay : Arrays.asList(addedByDay, playedByDay)) {
+            for (TrackBitmap bitmap : byDay.values()) bytes += MemoryTrimmer.ENTRY_BYTES + bitmap.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the matching ordinals; toIntList() gives them in catalog order for a play queue
+     */
+    public TrackBitmap evaluate(SmartPlaylist playlist, long nowMs) {
+        boolean matchAll = playlist.isMatchAll();
+        TrackBitmap result = matchAll ? all : new TrackBitmap();
+        for (SmartPlaylist.Rule rule : playlist.getRules()) {
+            TrackBitmap matches = matchesOf(rule, nowMs);
+            if (matchAll) {
+                result = rule.negated ? TrackBitmap.andNot(result, matches) : TrackBitmap.and(result, matches);
+            } else {
+                result = TrackBitmap.or(result, rule.negated ? TrackBitmap.andNot(all, matches) : matches);
+            }
+        }
+        //An empty rule list matches everything, hand out a copy rather than the shared bitmap
+        return result == all ? TrackBitmap.range(0, getTrackCount()) : result;
+    }
+
+    //Tracks that pass the rule as if it were not negated
+    private TrackBitmap matchesOf(SmartPlaylist.Rule rule, long nowMs) {
+        switch (rule.condition) {
+            case ARTIST_IS:
+                return exact(artists, rule.value);
+            case ARTIST_CONTAINS:
+                return containing(artists, rule.value);
+            case ALBUM_IS:
+                return exact(albums, rule.value);
+            case ALBUM_CONTAINS:
+                return containing(albums, rule.value);
+            case GENRE_IS:
+                return exact(genres, rule.value);
+            case GENRE_CONTAINS:
+                return containing(genres, rule.value);
+            case ADDED_WITHIN_DAYS:
+                return since(addedByDay, nowMs, rule.getDays());
+            case PLAYED_WITHIN_DAYS:
+                return since(playedByDay, nowMs, rule.getDays());
+            default:
+                return played;
+        }
+    }
+
+    private static TrackBitmap exact(Map<String, TrackBitmap> index, String value) {
+        TrackBitmap bitmap = index.get(key(value));
+        return bitmap != null ? bitmap : new TrackBitmap();
+    }
+
+    private static TrackBitmap containing(Map<String, TrackBitmap> index, String value) {
+        String needle = value.toLowerCase(Locale.ROOT);
+        TrackBitmap union = new TrackBitmap();
+        for (Map.Entry<String, TrackBitmap> entry : index.entrySet()) {
+            if (entry.getKey().contains(needle)) union = TrackBitmap.or(union, entry.getValue());
+        }
+        return union;
+    }
+
+    private static TrackBitmap since(TreeMap<Integer, TrackBitmap> byDay, long nowMs, int days) {
+        int firstDay = (int) (nowMs / DAY_MS) - days + 1;
+        TrackBitmap union = new TrackBitmap();
+        for (TrackBitmap bitmap : byDay.tailMap(firstDay, true).values()) {
+            union = TrackBitmap.or(union, bitmap);
+        }
+        return union;
+    }
+
+    private static <K> TrackBitmap bitmapOf(Map<K, TrackBitmap> index, K key) {
+        TrackBitmap bitmap = index.get(key);
+        if (bitmap == null) {
+            bitmap = new TrackBitmap();
+            index.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    //Same unknown bucket as the browse index, compared without case
+    private static String key(String value) {
+        return (value == null || value.trim().isEmpty() ? BrowseIndex.UNKNOWN : value.trim()).toLowerCase(Locale.ROOT);
+    }
+
+    private void putKey(long trackKey, int ordinal) {
+        if ((keyCount + 1) * 2 > keySlots.length) {
+            long[] oldKeys = keySlots;
+            int[] oldOrdinals = ordinalSlots;
+            keySlots = new long[oldKeys.length * 2];
+            ordinalSlots = new int[oldKeys.length * 2];
+            keyCount = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) putKey(oldKeys[i], oldOrdinals[i]);
+            }
+        }
+        int mask = keySlots.length - 1;
+        int slot = PathIndex.mix((int) (trackKey ^ (trackKey >>> 32))) & mask;
+        while (keySlots[slot] != 0 && keySlots[slot] != trackKey) slot = (slot + 1) & mask;
+        if (keySlots[slot] == 0) keyCount++;
+        keySlots[slot] = trackKey;
+        ordinalSlots[slot] = ordinal;
+    }
+
+    private int findKey(long trackKey) {
+        int mask = keySlots.length - 1;
+        for (int slot = PathIndex.mix((int) (trackKey ^ (trackKey >>> 32))) & mask; ; slot = (slot + 1) & mask) {
+            if (keySlots[slot] == 0) return -1;
+            if (keySlots[slot] == trackKey) return ordinalSlots[slot];
+        }
+    }
+}
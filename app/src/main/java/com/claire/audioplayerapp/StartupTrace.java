@@ -0,0 +1,108 @@
+package com.claire.audioplayerapp;
+
+import java.util.ArrayList;
+
+/**
+ * 啟動追蹤 The stages of one start of playback, from the tap in MainActivity to the first audio
+ * Times are SystemClock.elapsedRealtimeNanos(), the same clock in every process, so the tap in the
+ * activity and the stages in the service line up. Stages may overlap: the player prepares in the
+ * media server while the session, focus and notification are set up. describe() reports every
+ * stage, the time to first audio, and what it would have been with each stage waiting for the last.
+ */
+public class StartupTrace {
+
+    private final long origin;
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<long[]> spans = new ArrayList<>();
+    private long firstAudio = -1;
+
+    /**
+     * @param originNanos the tap, or the start of the service when the tap is not known
+     */
+    public StartupTrace(long originNanos) {
+        origin = originNanos;
+    }
+
+    public long getOrigin() {
+        return origin;
+    }
+
+    public void begin(String stage, long nowNanos) {
+        names.add(stage);
+        spans.add(new long[]{nowNanos, -1});
+    }
+
+    //Ends the last open stage of that name, ignored when there is none
+    public void end(String stage, long nowNanos) {
+        for (int i = names.size() - 1; i >= 0; i--) {
+            if (names.get(i).equals(stage) && spans.get(i)[1] < 0) {
+                spans.get(i)[1] = nowNanos;
+                return;
+            }
+        }
+    }
+
+    public void finish(long nowNanos) {
+        if (firstAudio < 0) firstAudio = nowNanos;
+    }
+
+    public boolean isFinished() {
+        return firstAudio >= 0;
+    }
+
+    public long getFirstAudioMs() {
+        return firstAudio < 0 ? -1 : (firstAudio - origin) / 1000000;
+    }
+
+    /**
+     * Time the ended stages ran alongside each other: the sum of their lengths less the length of
+     * their union
+     */
+    public long getOverlapMs() {
+        long total = 0;
+        ArrayList<long[]> ended = new ArrayList<>();
+        for (long[] span : spans) {
+            if (span[1] < 0) continue;
+            total += span[1] - span[0];
+            //Insertion by start, there are only a handful of stages
+            int at = ended.size();
+            while (at > 0 && ended.get(at - 1)[0] > span[0]) at--;
+            ended.add(at, span);
+        }
+        long union = 0, coveredTo = Long.MIN_VALUE;
+        for (long[] span : ended) {
+            long from = Math.max(span[0], coveredTo);
+            if (span[1] > from) union += span[1] - from;
+            coveredTo = Math.max(coveredTo, span[1]);
+        }
+        return (total - union) / 1000000;
+    }
+
+    /**
+     * Time to first audio had the stages run one after another, as they did before preparation
+     * was started ahead of the rest
+     */
+    public long getSerialMs() {
+        return firstAudio < 0 ? -1 : getFirstAudioMs() + getOverlapMs();
+    }
+
+    //For the log, e.g. "first audio 212ms (back to back 305ms): launch 0-61ms, catalog 62-66ms, ..."
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        if (firstAudio >= 0) {
+            text.append("first audio ").append(getFirstAudioMs()).append("ms (back to back ")
+                    .append(getSerialMs()).append("ms):");
+        } else {
+            text.append("no audio yet:");
+        }
+        String separator = " ";
+        for (int i = 0; i < names.size(); i++) {
+            long[] span = spans.get(i);
+            text.append(separator).append(names.get(i)).append(' ').append((span[0] - origin) / 1000000).append('-');
+            if (span[1] >= 0) text.append((span[1] - origin) / 1000000).append("ms");
+            else text.append("?");
+            separator = ", ";
+        }
+        return text.toString();
+    }
+}
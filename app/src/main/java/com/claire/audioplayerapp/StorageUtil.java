@@ -4,14 +4,23 @@ import android.content.Context;
 import android.content.SharedPreferences;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
 
-import java.lang.reflect.Type;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class StorageUtil {
 
     private final String STORAGE = "com.claire.audioplayerapp.STORAGE";
+    //Kept apart from STORAGE, which the service clears when it stops
+    private final String SCAN_STORAGE = "com.claire.audioplayerapp.SCAN";
+    private final String PLAYLIST_STORAGE = "com.claire.audioplayerapp.PLAYLISTS";
     private SharedPreferences preferences;
     private Context context;
 
@@ -19,24 +28,36 @@ public class StorageUtil {
         this.context = context;
     }
 
-    //儲存音頻
-    public void storeAudio(ArrayList<Audio> arrayList){
-        preferences = context.getSharedPreferences(STORAGE, Context.MODE_PRIVATE);
+    //The catalog is a memory-mapped file shared with the playback process, see SharedCatalog
+    private File catalogFile(){
+        return new File(context.getFilesDir(), "catalog.bin");
+    }
 
-        SharedPreferences.Editor editor = preferences.edit();
-        Gson gson = new Gson();
-        String json = gson.toJson(arrayList);
-        editor.putString("audioArrayList", json);
-        editor.apply();
+    //儲存音頻
+    public void storeAudio(List<Audio> list){
+        try {
+            SharedCatalog.publish(catalogFile(), list);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
-    public ArrayList<Audio> loadAudio(){
-        preferences = context.getSharedPreferences(STORAGE, Context.MODE_PRIVATE);
-        Gson gson = new Gson();
-        String json = preferences.getString("audioArrayList", null);
-        Type type = new TypeToken<ArrayList<Audio>>(){}.getType();
+    //新增音頻 Tracks appended while the service runs, it picks them up with SharedCatalog.refresh()
+    public void appendAudio(List<Audio> added){
+        try {
+            SharedCatalog.append(catalogFile(), added);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        return gson.fromJson(json, type);
+    //null when nothing was stored
+    public SharedCatalog loadAudio(){
+        try {
+            return SharedCatalog.open(catalogFile());
+        } catch (IOException e) {
+            return null;
+        }
     }
 
     public void storeAudioIndex(int index){
@@ -51,6 +72,51 @@ public class StorageUtil {
         return preferences.getInt("audioIndex", -1); //return -1 if no data found
     }
 
+    //資料夾掃描 Folders scanned directly besides MediaStore, see FolderScanner
+    public void storeScanFolders(Set<String> folders){
+        preferences = context.getSharedPreferences(SCAN_STORAGE, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putStringSet("scanFolders", new HashSet<>(folders));
+        editor.apply();
+    }
+
+    public Set<String> loadScanFolders(){
+        preferences = context.getSharedPreferences(SCAN_STORAGE, Context.MODE_PRIVATE);
+        //The returned set must not be modified, hand out a copy
+        return new HashSet<>(preferences.getStringSet("scanFolders", Collections.<String>emptySet()));
+    }
+
+    //Directory listings kept between scans
+    public File scanStateFile(){
+        return new File(context.getFilesDir(), "folderscan.bin");
+    }
+
+    //精確快轉 Frame seek indexes, one file per track; the system may clear them, they are built again
+    public File seekIndexDir(){
+        return new File(context.getCacheDir(), "seek");
+    }
+
+    //智慧播放清單 Saved smart playlists as JSON, in the order the user created them
+    public void storeSmartPlaylists(List<SmartPlaylist> playlists){
+        preferences = context.getSharedPreferences(PLAYLIST_STORAGE, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putString("smartPlaylists", new Gson().toJson(playlists));
+        editor.apply();
+    }
+
+    public List<SmartPlaylist> loadSmartPlaylists(){
+        preferences = context.getSharedPreferences(PLAYLIST_STORAGE, Context.MODE_PRIVATE);
+        String json = preferences.getString("smartPlaylists", null);
+        if (json == null) return new ArrayList<>();
+        try {
+            List<SmartPlaylist> playlists = new Gson().fromJson(json, new TypeToken<List<SmartPlaylist>>(){}.getType());
+            return playlists != null ? playlists : new ArrayList<SmartPlaylist>();
+        } catch (JsonParseException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
     public void clearCachedAudioPlaylist(){
         preferences = context.getSharedPreferences(STORAGE, Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = preferences.edit();
@@ -0,0 +1,708 @@
+package com.claire.audioplayerapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 標籤讀取 Title, artist, album and genre straight from the file, without MediaStore
+ * Reads ID3v2.2-2.4 and ID3v1 (MP3), Vorbis comments (FLAC, Ogg Vorbis, Opus) and iTunes ilst
+ * atoms (MP4/M4A). Only the tag regions are read, by positional reads on the FileChannel into a
+ * window that is reused: pictures, sample tables and the audio itself are skipped by offset. A
+ * region that has to be put together first (an unsynchronised ID3 tag, a comment packet spread
+ * over Ogg pages) goes to a second buffer that grows once and is kept.
+ * <p>
+ * Not thread safe, one reader per thread. Once the buffers have grown, reading a file allocates
+ * nothing but the FileChannel and the strings it returns.
+ */
+public class TagReader {
+
+    /**
+     * What a file says about itself, null for what it does not say
+     */
+    public static class Tags {
+        public String title;
+        public String artist;
+        public String album;
+        public String genre;
+        //0 when the header does not have it (FLAC, MP4 and ID3 TLEN do)
+        public long durationMs;
+
+        public void clear() {
+            title = artist = album = genre = null;
+            durationMs = 0;
+        }
+
+        String get(int field) {
+            switch (field) {
+                case TITLE: return title;
+                case ARTIST: return artist;
+                case ALBUM: return album;
+                default: return genre;
+            }
+        }
+
+        //The first value found wins: ID3v2 over ID3v1, TITLE over a second TITLE
+        void set(int field, String value) {
+            if (value == null || get(field) != null) return;
+            switch (field) {
+                case TITLE: title = value; break;
+                case ARTIST: artist = value; break;
+                case ALBUM: album = value; break;
+                default: genre = value; break;
+            }
+        }
+    }
+
+    static final int TITLE = 0;
+    static final int ARTIST = 1;
+    static final int ALBUM = 2;
+    static final int GENRE = 3;
+    static final int FIELDS = 4;
+    //ID3 TLEN, only used for durationMs
+    private static final int LENGTH = 4;
+
+    //Bytes asked of the file at a time, most tags fit
+    static final int READ_BYTES = 16 * 1024;
+    //The largest region put together in memory, what lies beyond is not looked at
+    static final int MAX_TAG_BYTES = 1024 * 1024;
+    //Longer values are cut
+    static final int MAX_TEXT_BYTES = 4096;
+    private static final int MAX_OGG_PAGES = 64;
+    private static final int MAX_ATOM_DEPTH = 5;
+
+    private static final int MOOV = fourcc("moov");
+    private static final int UDTA = fourcc("udta");
+    private static final int META = fourcc("meta");
+    private static final int HDLR = fourcc("hdlr");
+    private static final int ILST = fourcc("ilst");
+    private static final int MVHD = fourcc("mvhd");
+    private static final int DATA = fourcc("data");
+    private static final int GNRE = fourcc("gnre");
+    private static final int ITEM_TITLE = 0xA9000000 | fourcc("\u0000nam");
+    private static final int ITEM_ARTIST = 0xA9000000 | fourcc("\u0000ART");
+    private static final int ITEM_ALBUM = 0xA9000000 | fourcc("\u0000alb");
+    private static final int ITEM_GENRE = 0xA9000000 | fourcc("\u0000gen");
+
+    //ID3v1 genres, with Winamp's extensions up to 125
+    private static final String[] GENRES = {
+            "Blues", "Classic Rock", "Country", "Dance", "Disco", "Funk", "Grunge", "Hip-Hop", "Jazz",
+            "Metal", "New Age", "Oldies", "Other", "Pop", "R&B", "Rap", "Reggae", "Rock", "Techno",
+            "Industrial", "Alternative", "Ska", "Death Metal", "Pranks", "Soundtrack", "Euro-Techno",
+            "Ambient", "Trip-Hop", "Vocal", "Jazz+Funk", "Fusion", "Trance", "Classical", "Instrumental",
+            "Acid", "House", "Game", "Sound Clip", "Gospel", "Noise", "AlternRock", "Bass", "Soul", "Punk",
+            "Space", "Meditative", "Instrumental Pop", "Instrumental Rock", "Ethnic", "Gothic", "Darkwave",
+            "Techno-Industrial", "Electronic", "Pop-Folk", "Eurodance", "Dream", "Southern Rock", "Comedy",
+            "Cult", "Gangsta", "Top 40", "Christian Rap", "Pop/Funk", "Jungle", "Native American", "Cabaret",
+            "New Wave", "Psychadelic", "Rave", "Showtunes", "Trailer", "Lo-Fi", "Tribal", "Acid Punk",
+            "Acid Jazz", "Polka", "Retro", "Musical", "Rock & Roll", "Hard Rock", "Folk", "Folk-Rock",
+            "National Folk", "Swing", "Fast Fusion", "Bebob", "Latin", "Revival", "Celtic", "Bluegrass",
+            "Avantgarde", "Gothic Rock", "Progressive Rock", "Psychedelic Rock", "Symphonic Rock",
+            "Slow Rock", "Big Band", "Chorus", "Easy Listening", "Acoustic", "Humour", "Speech", "Chanson",
+            "Opera", "Chamber Music", "Sonata", "Symphony", "Booty Bass", "Primus", "Porn Groove", "Satire",
+            "Slow Jam", "Club", "Tango", "Samba", "Folklore", "Ballad", "Power Ballad", "Rhythmic Soul",
+            "Freestyle", "Duet", "Punk Rock", "Drum Solo", "A capella", "Euro-House", "Dance Hall",
+    };
+
+    private FileChannel channel;
+    private long fileLength;
+    //File bytes [windowStart, windowStart + windowLength) are in buf
+    private byte[] buf = new byte[READ_BYTES];
+    private ByteBuffer bufBuffer = ByteBuffer.wrap(buf);
+    private long windowStart;
+    private int windowLength;
+    //Regions put together in memory; swapped into buf and pinned while they are parsed
+    private byte[] spare = new byte[READ_BYTES];
+    private ByteBuffer spareBuffer = ByteBuffer.wrap(spare);
+    private boolean pinned;
+    private final char[] chars = new char[MAX_TEXT_BYTES];
+    private final int[] lacing = new int[255];
+    private long bytesRead;
+
+    /**
+     * @return false when the file is not one of the formats read here, or cannot be read
+     */
+    public boolean read(File file, Tags tags) {
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                return read(in.getChannel(), tags);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            tags.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Reads from an open channel with positional reads, its position is left alone
+     */
+    public boolean read(FileChannel channel, Tags tags) throws IOException {
+        tags.clear();
+        this.channel = channel;
+        fileLength = channel.size();
+        windowLength = 0;
+        pinned = false;
+        try {
+            long start = readId3v2(tags);
+            //FLAC with an ID3 tag in front happens
+            if (matches(start, "fLaC")) {
+                readFlac(start + 4, tags);
+                return true;
+            }
+            if (start == 0 && matches(0, "OggS")) {
+                readOgg(tags);
+                return true;
+            }
+            if (start == 0 && matches(4, "ftyp")) {
+                readAtoms(0, fileLength, 0, tags);
+                return true;
+            }
+            boolean id3v1 = readId3v1(tags);
+            return start > 0 || id3v1 || isFrameSync(0);
+        } finally {
+            this.channel = null;
+        }
+    }
+
+    //Bytes read from files so far, for the benchmark
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Makes [pos, pos + length) of the file available in buf at at(pos)
+     */
+    private boolean fill(long pos, int length) throws IOException {
+        if (pos >= windowStart && pos + length <= windowStart + windowLength) return true;
+        if (pinned || pos < 0 || length > buf.length || pos + length > fileLength) return false;
+        bufBuffer.clear();
+        bufBuffer.limit((int) Math.min(Math.max(length, READ_BYTES), Math.min(buf.length, fileLength - pos)));
+        windowStart = pos;
+        while (bufBuffer.hasRemaining()) {
+            if (channel.read(bufBuffer, pos + bufBuffer.position()) < 0) break;
+        }
+        windowLength = bufBuffer.position();
+        bytesRead += windowLength;
+        return windowLength >= length;
+    }
+
+    private int at(long pos) {
+        return (int) (pos - windowStart);
+    }
+
+    private int u8(long pos) {
+        return buf[at(pos)] & 0xFF;
+    }
+
+    private int u16(long pos) {
+        return u8(pos) << 8 | u8(pos + 1);
+    }
+
+    private int u24(long pos) {
+        return u8(pos) << 16 | u16(pos + 1);
+    }
+
+    private int u32(long pos) {
+        return u16(pos) << 16 | u16(pos + 2);
+    }
+
+    private long u64(long pos) {
+        return (u32(pos) & 0xFFFFFFFFL) << 32 | u32(pos + 4) & 0xFFFFFFFFL;
+    }
+
+    private long u32le(long pos) {
+        return (u8(pos) | u8(pos + 1) << 8 | u8(pos + 2) << 16 | (long) u8(pos + 3) << 24);
+    }
+
+    //ID3 sizes keep the top bit of every byte clear
+    private int syncsafe(long pos) {
+        return (u8(pos) & 0x7F) << 21 | (u8(pos + 1) & 0x7F) << 14 | (u8(pos + 2) & 0x7F) << 7 | u8(pos + 3) & 0x7F;
+    }
+
+    private boolean matches(long pos, String magic) throws IOException {
+        if (!fill(pos, magic.length())) return false;
+        for (int i = 0; i < magic.length(); i++) {
+            if (buf[at(pos) + i] != (byte) magic.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int fourcc(String type) {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+
+    private boolean isFrameSync(long pos) throws IOException {
+        return fill(pos, 2) && u8(pos) == 0xFF && (u8(pos + 1) & 0xE0) == 0xE0;
+    }
+
+    /**
+     * Copies length file bytes from pos to spare[to], growing spare when it is too small
+     */
+    private void copyToSpare(long pos, int length, int to) throws IOException {
+        if (spare.length < to + length) {
+            spare = Arrays.copyOf(spare, Math.max(to + length, Math.min(2 * spare.length, MAX_TAG_BYTES)));
+            spareBuffer = ByteBuffer.wrap(spare);
+        }
+        while (length > 0) {
+            int chunk = Math.min(length, READ_BYTES);
+            if (!fill(pos, chunk)) throw new IOException("short read at " + pos);
+            System.arraycopy(buf, at(pos), spare, to, chunk);
+            pos += chunk;
+            to += chunk;
+            length -= chunk;
+        }
+    }
+
+    //Parses the first length bytes of spare in place of the file, positions start at 0
+    private void pinSpare(int length) {
+        byte[] bytes = buf;
+        buf = spare;
+        spare = bytes;
+        ByteBuffer buffer = bufBuffer;
+        bufBuffer = spareBuffer;
+        spareBuffer = buffer;
+        windowStart = 0;
+        windowLength = length;
+        pinned = true;
+    }
+
+    private void unpin() {
+        pinned = false;
+        windowLength = 0;
+    }
+
+    /**
+     * Undoes ID3 unsynchronisation in place: every 0xFF 0x00 back to 0xFF
+     * @return the new length
+     */
+    static int resync(byte[] data, int offset, int length) {
+        int write = offset;
+        int end = offset + length;
+        for (int read = offset; read < end; read++) {
+            data[write++] = data[read];
+            if ((data[read] & 0xFF) == 0xFF && read + 1 < end && data[read + 1] == 0) read++;
+        }
+        return write - offset;
+    }
+
+    /**
+     * ID3v2 at the start of the file
+     * @return where the audio starts, 0 without a tag
+     */
+    private long readId3v2(Tags tags) throws IOException {
+        if (!matches(0, "ID3") || !fill(0, 10)) return 0;
+        int major = u8(3);
+        int flags = u8(5);
+        int size = syncsafe(6);
+        long end = 10L + size + ((flags & 0x10) != 0 ? 10 : 0);
+        //2.2 with compression was never defined
+        if (major < 2 || major > 4 || major == 2 && (flags & 0x40) != 0) return end;
+        long pos = 10;
+        long tagEnd = 10L + size;
+        boolean unsynchronised = major < 4 && (flags & 0x80) != 0;
+        if (unsynchronised) {
+            //Before 2.4 the whole tag is unsynchronised, frame sizes count the restored bytes
+            int length = (int) Math.min(Math.min(size, fileLength - 10), MAX_TAG_BYTES);
+            copyToSpare(10, length, 0);
+            pinSpare(resync(spare, 0, length));
+            pos = 0;
+            tagEnd = windowLength;
+        }
+        try {
+            if (major > 2 && (flags & 0x40) != 0) {
+                //Extended header: 2.3 does not count its size field, 2.4 does
+                if (!fill(pos, 4)) return end;
+                pos += major == 4 ? syncsafe(pos) : 4 + (u32(pos) & 0xFFFFFFFFL);
+            }
+            readId3Frames(pos, tagEnd, major, tags);
+        } finally {
+            if (unsynchronised) unpin();
+        }
+        return end;
+    }
+
+    private void readId3Frames(long pos, long end, int major, Tags tags) throws IOException {
+        int headerLength = major == 2 ? 6 : 10;
+        while (pos + headerLength <= end && fill(pos, headerLength)) {
+            //Padding
+            if (u8(pos) == 0) return;
+            int id;
+            long size;
+            int format = 0;
+            if (major == 2) {
+                id = u24(pos);
+                size = u24(pos + 3);
+            } else {
+                id = u32(pos);
+                size = major == 4 ? syncsafe(pos + 4) : u32(pos + 4) & 0xFFFFFFFFL;
+                format = u8(pos + 9);
+            }
+            long body = pos + headerLength;
+            pos = body + size;
+            if (pos > end) return;
+            int field = id3Field(id, major);
+            if (field < 0 || field < FIELDS && tags.get(field) != null) continue;
+
+            boolean frameUnsynchronised = false;
+            if (major == 3) {
+                //Compressed or encrypted
+                if ((format & 0xC0) != 0) continue;
+                if ((format & 0x20) != 0) body++;
+            } else if (major == 4) {
+                if ((format & 0x0C) != 0) continue;
+                if ((format & 0x40) != 0) body++;
+                if ((format & 0x01) != 0) body += 4;
+                frameUnsynchronised = (format & 0x02) != 0;
+            }
+            int length = (int) Math.min(pos - body, MAX_TEXT_BYTES);
+            if (length < 2) continue;
+            String text;
+            if (frameUnsynchronised) {
+                copyToSpare(body, length, 0);
+                length = resync(spare, 0, length);
+                text = id3Text(spare, 1, length - 1, spare[0]);
+            } else {
+                if (!fill(body, length)) return;
+                text = id3Text(buf, at(body) + 1, length - 1, buf[at(body)]);
+            }
+            if (field == LENGTH) {
+                if (tags.durationMs == 0) tags.durationMs = parseLong(text);
+            } else {
+                tags.set(field, field == GENRE ? genreName(text) : text);
+            }
+        }
+    }
+
+    private static int id3Field(int id, int major) {
+        if (major == 2) {
+            if (id == (fourcc("TT2\u0000") >>> 8)) return TITLE;
+            if (id == (fourcc("TP1\u0000") >>> 8)) return ARTIST;
+            if (id == (fourcc("TAL\u0000") >>> 8)) return ALBUM;
+            if (id == (fourcc("TCO\u0000") >>> 8)) return GENRE;
+            if (id == (fourcc("TLE\u0000") >>> 8)) return LENGTH;
+            return -1;
+        }
+        if (id == fourcc("TIT2")) return TITLE;
+        if (id == fourcc("TPE1")) return ARTIST;
+        if (id == fourcc("TALB")) return ALBUM;
+        if (id == fourcc("TCON")) return GENRE;
+        if (id == fourcc("TLEN")) return LENGTH;
+        return -1;
+    }
+
+    //ID3v1 in the last 128 bytes, only fills what ID3v2 left empty
+    private boolean readId3v1(Tags tags) throws IOException {
+        long pos = fileLength - 128;
+        if (pos < 0 || !matches(pos, "TAG") || !fill(pos, 128)) return false;
+        tags.set(TITLE, latin1(buf, at(pos) + 3, 30));
+        tags.set(ARTIST, latin1(buf, at(pos) + 33, 30));
+        tags.set(ALBUM, latin1(buf, at(pos) + 63, 30));
+        int genre = u8(pos + 127);
+        if (genre < GENRES.length) tags.set(GENRE, GENRES[genre]);
+        return true;
+    }
+
+    /**
+     * FLAC metadata blocks: STREAMINFO for the duration, VORBIS_COMMENT for the tags
+     */
+    private void readFlac(long pos, Tags tags) throws IOException {
+        while (fill(pos, 4)) {
+            int header = u8(pos);
+            int type = header & 0x7F;
+            long body = pos + 4;
+            pos = body + u24(pos + 1);
+            if (type == 0 && fill(body, 18)) {
+                //20 bits sample rate, 3 channels, 5 bits per sample, 36 total samples
+                long bits = u64(body + 10);
+                long rate = bits >>> 44;
+                long samples = bits & 0xFFFFFFFFFL;
+                if (rate > 0) tags.durationMs = samples * 1000 / rate;
+            } else if (type == 4) {
+                readVorbisComments(body, pos, tags);
+            }
+            if ((header & 0x80) != 0) return;
+        }
+    }
+
+    /**
+     * Ogg Vorbis and Opus: the comment header is the second packet, put together in spare from the
+     * segments of the pages it spans
+     */
+    private void readOgg(Tags tags) throws IOException {
+        long pos = 0;
+        int packet = 0;
+        int length = 0;
+        boolean complete = false;
+        for (int page = 0; page < MAX_OGG_PAGES && !complete && matches(pos, "OggS") && fill(pos, 27); page++) {
+            int segments = u8(pos + 26);
+            if (!fill(pos, 27 + segments)) return;
+            long data = pos + 27 + segments;
+            for (int s = 0; s < segments; s++) lacing[s] = u8(pos + 27 + s);
+            for (int s = 0; s < segments; s++) {
+                int lace = lacing[s];
+                if (packet == 1 && length + lace <= MAX_TAG_BYTES) {
+                    copyToSpare(data, lace, length);
+                    length += lace;
+                }
+                data += lace;
+                if (lace < 255) {
+                    if (packet == 1) complete = true;
+                    packet++;
+                }
+            }
+            pos = data;
+        }
+        if (length == 0) return;
+        pinSpare(length);
+        try {
+            if (matches(0, "\u0003vorbis")) readVorbisComments(7, length, tags);
+            else if (matches(0, "OpusTags")) readVorbisComments(8, length, tags);
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * Vendor string, then KEY=value pairs, lengths little endian; only the keys are looked at
+     * before a value is read
+     */
+    private void readVorbisComments(long pos, long end, Tags tags) throws IOException {
+        if (!fill(pos, 4)) return;
+        pos += 4 + u32le(pos);
+        if (pos + 4 > end || !fill(pos, 4)) return;
+        long count = u32le(pos);
+        pos += 4;
+        for (long i = 0; i < count && pos + 4 <= end && fill(pos, 4); i++) {
+            long length = u32le(pos);
+            long text = pos + 4;
+            pos = text + length;
+            if (pos > end) return;
+            int peek = (int) Math.min(length, 16);
+            if (!fill(text, peek)) return;
+            int key = 0;
+            while (key < peek && buf[at(text) + key] != '=') key++;
+            if (key == peek) continue;
+            int field = vorbisField(at(text), key);
+            if (field < 0 || tags.get(field) != null) continue;
+            long value = text + key + 1;
+            int valueLength = (int) Math.min(pos - value, MAX_TEXT_BYTES);
+            if (!fill(value, valueLength)) return;
+            tags.set(field, utf8(buf, at(value), valueLength));
+        }
+    }
+
+    private int vorbisField(int offset, int length) {
+        if (keyIs(offset, length, "TITLE")) return TITLE;
+        if (keyIs(offset, length, "ARTIST")) return ARTIST;
+        if (keyIs(offset, length, "ALBUM")) return ALBUM;
+        if (keyIs(offset, length, "GENRE")) return GENRE;
+        return -1;
+    }
+
+    //Vorbis keys are ASCII and case-insensitive
+    private boolean keyIs(int offset, int length, String key) {
+        if (length != key.length()) return false;
+        for (int i = 0; i < length; i++) {
+            int c = buf[offset + i];
+            if (c >= 'a' && c <= 'z') c -= 'a' - 'A';
+            if (c != key.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * MP4 atoms: moov/udta/meta/ilst for the tags, mvhd for the duration; mdat and trak are
+     * skipped by their size, wherever moov is in the file
+     */
+    private void readAtoms(long pos, long end, int depth, Tags tags) throws IOException {
+        while (pos + 8 <= end && fill(pos, 8)) {
+            long size = u32(pos) & 0xFFFFFFFFL;
+            int type = u32(pos + 4);
+            int header = 8;
+            if (size == 1) {
+                if (!fill(pos, 16)) return;
+                size = u64(pos + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = end - pos;
+            }
+            if (size < header || pos + size > end) return;
+            long body = pos + header;
+            pos += size;
+            if (type == MOOV || type == UDTA) {
+                if (depth < MAX_ATOM_DEPTH) readAtoms(body, pos, depth + 1, tags);
+            } else if (type == META) {
+                //iTunes writes meta as a full box, QuickTime does not: then hdlr follows right away
+                if (depth < MAX_ATOM_DEPTH && fill(body, 8)) {
+                    readAtoms(u32(body + 4) == HDLR ? body : body + 4, pos, depth + 1, tags);
+                }
+            } else if (type == ILST) {
+                readItems(body, pos, tags);
+            } else if (type == MVHD && fill(body, 32)) {
+                boolean wide = u8(body) == 1;
+                long timescale = u32(body + (wide ? 20 : 12)) & 0xFFFFFFFFL;
+                long duration = wide ? u64(body + 24) : u32(body + 16) & 0xFFFFFFFFL;
+                if (timescale > 0 && tags.durationMs == 0) tags.durationMs = duration * 1000 / timescale;
+            }
+        }
+    }
+
+    private void readItems(long pos, long end, Tags tags) throws IOException {
+        while (pos + 8 <= end && fill(pos, 8)) {
+            long size = u32(pos) & 0xFFFFFFFFL;
+            int type = u32(pos + 4);
+            long data = pos + 8;
+            if (size < 8 || pos + size > end) return;
+            pos += size;
+            int field = type == ITEM_TITLE ? TITLE : type == ITEM_ARTIST ? ARTIST : type == ITEM_ALBUM ? ALBUM
+                    : type == ITEM_GENRE || type == GNRE ? GENRE : -1;
+            if (field < 0 || tags.get(field) != null) continue;
+            //The value is the item's data atom: size, "data", type, locale, bytes
+            if (data + 16 > pos || !fill(data, 16) || u32(data + 4) != DATA) continue;
+            int dataType = u32(data + 8) & 0xFFFFFF;
+            long value = data + 16;
+            int length = (int) Math.min(Math.min(u32(data) & 0xFFFFFFFFL, pos - data) - 16, MAX_TEXT_BYTES);
+            if (length <= 0 || !fill(value, length)) continue;
+            if (type == GNRE) {
+                //ID3v1 genre plus one
+                int genre = length >= 2 ? u16(value) - 1 : -1;
+                if (genre >= 0 && genre < GENRES.length) tags.set(GENRE, GENRES[genre]);
+            } else if (dataType == 1) {
+                tags.set(field, utf8(buf, at(value), length));
+            } else if (dataType == 2) {
+                tags.set(field, utf16(buf, at(value), length, true));
+            }
+        }
+    }
+
+    /**
+     * ID3 text in the given encoding, up to the first terminator; later values of a 2.4 list are
+     * dropped
+     */
+    private String id3Text(byte[] data, int offset, int length, int encoding) {
+        switch (encoding) {
+            case 0:
+                return latin1(data, offset, length);
+            case 1:
+                if (length >= 2 && (data[offset] & 0xFF) == 0xFF && (data[offset + 1] & 0xFF) == 0xFE) {
+                    return utf16(data, offset + 2, length - 2, false);
+                }
+                if (length >= 2 && (data[offset] & 0xFF) == 0xFE && (data[offset + 1] & 0xFF) == 0xFF) {
+                    return utf16(data, offset + 2, length - 2, true);
+                }
+                return utf16(data, offset, length, true);
+            case 2:
+                return utf16(data, offset, length, true);
+            case 3:
+                return utf8(data, offset, length);
+            default:
+                return null;
+        }
+    }
+
+    private String latin1(byte[] data, int offset, int length) {
+        int n = 0;
+        for (int i = offset; i < offset + length && data[i] != 0; i++) chars[n++] = (char) (data[i] & 0xFF);
+        return trimmed(n);
+    }
+
+    private String utf16(byte[] data, int offset, int length, boolean bigEndian) {
+        int n = 0;
+        for (int i = offset; i + 1 < offset + length; i += 2) {
+            int hi = data[bigEndian ? i : i + 1] & 0xFF;
+            int lo = data[bigEndian ? i + 1 : i] & 0xFF;
+            char c = (char) (hi << 8 | lo);
+            if (c == 0) break;
+            chars[n++] = c;
+        }
+        return trimmed(n);
+    }
+
+    private String utf8(byte[] data, int offset, int length) {
+        int n = 0;
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            int b = data[i++] & 0xFF;
+            if (b == 0) break;
+            if (b < 0x80) {
+                chars[n++] = (char) b;
+                continue;
+            }
+            int extra;
+            int code;
+            if (b >= 0xF8 || b < 0xC0) {
+                chars[n++] = '\uFFFD';
+                continue;
+            } else if (b >= 0xF0) {
+                extra = 3;
+                code = b & 0x07;
+            } else if (b >= 0xE0) {
+                extra = 2;
+                code = b & 0x0F;
+            } else {
+                extra = 1;
+                code = b & 0x1F;
+            }
+            int k = 0;
+            while (k < extra && i < end && (data[i] & 0xC0) == 0x80) {
+                code = code << 6 | data[i++] & 0x3F;
+                k++;
+            }
+            if (k < extra || code > 0x10FFFF) {
+                chars[n++] = '\uFFFD';
+            } else if (code >= 0x10000) {
+                chars[n++] = Character.highSurrogate(code);
+                chars[n++] = Character.lowSurrogate(code);
+            } else {
+                chars[n++] = (char) code;
+            }
+        }
+        return trimmed(n);
+    }
+
+    //chars[0, n) without surrounding blanks, null when nothing is left
+    private String trimmed(int n) {
+        int start = 0;
+        while (start < n && chars[start] <= ' ') start++;
+        while (n > start && chars[n - 1] <= ' ') n--;
+        return n > start ? new String(chars, start, n - start) : null;
+    }
+
+    private static long parseLong(String text) {
+        if (text == null) return 0;
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9' || value > Long.MAX_VALUE / 10 - 10) return 0;
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    /**
+     * ID3 genre text: "Rock", "17", "(17)" or "(17)Rock Live", the last keeps its own words
+     */
+    static String genreName(String text) {
+        if (text == null) return null;
+        boolean parenthesised = text.startsWith("(");
+        int start = parenthesised ? 1 : 0;
+        int end = start;
+        while (end < text.length() && end - start < 3 && text.charAt(end) >= '0' && text.charAt(end) <= '9') end++;
+        if (end == start) return text;
+        if (parenthesised) {
+            if (end >= text.length() || text.charAt(end) != ')') return text;
+            if (end + 1 < text.length()) return text.substring(end + 1).trim();
+        } else if (end != text.length()) {
+            return text;
+        }
+        int genre = Integer.parseInt(text.substring(start, end));
+        return genre < GENRES.length ? GENRES[genre] : text;
+    }
+}
@@ -0,0 +1,428 @@
+package com.claire.audioplayerapp;
+
+import java.util.Arrays;
+
+/**
+ * 壓縮點陣圖 Compressed set of track ordinals, laid out like a Roaring bitmap
+ * Ordinals are split into chunks of 65536 by their high 16 bits. A chunk holding up to 4096
+ * ordinals keeps their low 16 bits as a sorted char array, a fuller chunk switches to a 8KB bitset,
+ * so a rare artist costs a few bytes and "all tracks added this year" a few bitsets. AND, OR and
+ * AND NOT walk both chunk lists once and combine chunk by chunk, word by word for bitsets.
+ * <p>
+ * add() and remove() change the bitmap in place; and(), or(), andNot() and range() return new
+ * bitmaps that share nothing with their inputs. Not thread-safe.
+ */
+public class TrackBitmap {
+
+    //Above this many members a chunk is cheaper as a bitset (4096 chars = 8KB = 1024 longs)
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(int low);
+
+        //May return a container of the other kind
+        abstract Container add(int low);
+
+        abstract Container remove(int low);
+
+        abstract void appendTo(IntList out, int base);
+
+        abstract Container copy();
+
+        abstract int sizeInBytes();
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values;
+        int count;
+
+        ArrayContainer(int capacity) {
+            values = new char[Math.max(capacity, 4)];
+        }
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return Arrays.binarySearch(values, 0, count, (char) low) >= 0;
+        }
+
+        @Override
+        Container add(int low) {
+            int index = Arrays.binarySearch(values, 0, count, (char) low);
+            if (index >= 0) return this;
+            if (count == ARRAY_MAX) return toBitmap().add(low);
+            index = -index - 1;
+            if (count == values.length) values = Arrays.copyOf(values, Math.min(ARRAY_MAX, count * 2));
+            System.arraycopy(values, index, values, index + 1, count - index);
+            values[index] = (char) low;
+            count++;
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            int index = Arrays.binarySearch(values, 0, count, (char) low);
+            if (index < 0) return this;
+            System.arraycopy(values, index + 1, values, index, count - index - 1);
+            count--;
+            return this;
+        }
+
+        //Appending in ascending order, for the set operations
+        void append(int low) {
+            if (count == values.length) values = Arrays.copyOf(values, count * 2);
+            values[count++] = (char) low;
+        }
+
+        @Override
+        void appendTo(IntList out, int base) {
+            for (int i = 0; i < count; i++) out.add(base | values[i]);
+        }
+
+        @Override
+        Container copy() {
+            ArrayContainer copy = new ArrayContainer(0);
+            copy.values = Arrays.copyOf(values, Math.max(count, 4));
+            copy.count = count;
+            return copy;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < count; i++) bitmap.words[values[i] >>> 6] |= 1L << values[i];
+            bitmap.count = count;
+            return bitmap;
+        }
+
+        @Override
+        int sizeInBytes() {
+            return 2 * values.length;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words = new long[WORDS];
+        int count;
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container add(int low) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                count++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) return this;
+            words[low >>> 6] &= ~bit;
+            count--;
+            return count <= ARRAY_MAX ? toArray() : this;
+        }
+
+        @Override
+        void appendTo(IntList out, int base) {
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    out.add(base | (w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, WORDS);
+            copy.count = count;
+            return copy;
+        }
+
+        ArrayContainer toArray() {
+            ArrayContainer array = new ArrayContainer(count);
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    array.values[array.count++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return array;
+        }
+
+        //Recounts after a word-wise operation, and drops back to an array when sparse
+        Container settle() {
+            int total = 0;
+            for (int w = 0; w < WORDS; w++) total += Long.bitCount(words[w]);
+            count = total;
+            return count <= ARRAY_MAX ? toArray() : this;
+        }
+
+        @Override
+        int sizeInBytes() {
+            return 8 * WORDS;
+        }
+    }
+
+    //Chunk keys (ordinal >>> 16) in ascending order, with their containers
+    private int[] keys = new int[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    public TrackBitmap() {
+    }
+
+    /**
+     * Ordinals from..to-1
+     */
+    public static TrackBitmap range(int from, int to) {
+        TrackBitmap bitmap = new TrackBitmap();
+        int start = Math.max(from, 0);
+        while (start < to) {
+            int key = start >>> 16;
+            int end = Math.min(to, (key + 1) << 16);
+            int low = start & 0xFFFF;
+            int count = end - start;
+            if (count > ARRAY_MAX) {
+                BitmapContainer chunk = new BitmapContainer();
+                for (int i = low; i < low + count; i++) chunk.words[i >>> 6] |= 1L << i;
+                chunk.count = count;
+                bitmap.append(key, chunk);
+            } else {
+                ArrayContainer chunk = new ArrayContainer(count);
+                for (int i = low; i < low + count; i++) chunk.values[chunk.count++] = (char) i;
+                bitmap.append(key, chunk);
+            }
+            start = end;
+        }
+        return bitmap;
+    }
+
+    public void add(int ordinal) {
+        int key = ordinal >>> 16;
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            containers[index] = containers[index].add(ordinal & 0xFFFF);
+            return;
+        }
+        ArrayContainer chunk = new ArrayContainer(4);
+        chunk.add(ordinal & 0xFFFF);
+        insert(-index - 1, key, chunk);
+    }
+
+    public void remove(int ordinal) {
+        int index = Arrays.binarySearch(keys, 0, size, ordinal >>> 16);
+        if (index < 0) return;
+        containers[index] = containers[index].remove(ordinal & 0xFFFF);
+        if (containers[index].cardinality() == 0) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+            containers[--size] = null;
+        }
+    }
+
+    public boolean contains(int ordinal) {
+        int index = Arrays.binarySearch(keys, 0, size, ordinal >>> 16);
+        return index >= 0 && containers[index].contains(ordinal & 0xFFFF);
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) total += containers[i].cardinality();
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Members in ascending order, ready to be a play queue
+     */
+    public IntList toIntList() {
+        IntList out = new IntList(cardinality());
+        for (int i = 0; i < size; i++) containers[i].appendTo(out, keys[i] << 16);
+        return out;
+    }
+
+    //Approximate heap held by the chunks, for measurements
+    int sizeInBytes() {
+        int total = 8 * keys.length;
+        for (int i = 0; i < size; i++) total += containers[i].sizeInBytes();
+        return total;
+    }
+
+    public static TrackBitmap and(TrackBitmap a, TrackBitmap b) {
+        TrackBitmap out = new TrackBitmap();
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container chunk = and(a.containers[i], b.containers[j]);
+                if (chunk.cardinality() > 0) out.append(a.keys[i], chunk);
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    public static TrackBitmap or(TrackBitmap a, TrackBitmap b) {
+        TrackBitmap out = new TrackBitmap();
+        int i = 0, j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                out.append(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                out.append(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                out.append(a.keys[i], or(a.containers[i], b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Members of a that are not in b
+     */
+    public static TrackBitmap andNot(TrackBitmap a, TrackBitmap b) {
+        TrackBitmap out = new TrackBitmap();
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) j++;
+            Container chunk = j < b.size && b.keys[j] == a.keys[i]
+                    ? andNot(a.containers[i], b.containers[j]) : a.containers[i].copy();
+            if (chunk.cardinality() > 0) out.append(a.keys[i], chunk);
+        }
+        return out;
+    }
+
+    private static Container and(Container x, Container y) {
+        if (x instanceof ArrayContainer && y instanceof ArrayContainer) {
+            ArrayContainer a = (ArrayContainer) x, b = (ArrayContainer) y;
+            ArrayContainer out = new ArrayContainer(Math.min(a.count, b.count));
+            int i = 0, j = 0;
+            while (i < a.count && j < b.count) {
+                if (a.values[i] < b.values[j]) i++;
+                else if (a.values[i] > b.values[j]) j++;
+                else {
+                    out.values[out.count++] = a.values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return out;
+        }
+        if (y instanceof ArrayContainer) return and(y, x);
+        if (x instanceof ArrayContainer) {
+            ArrayContainer a = (ArrayContainer) x;
+            ArrayContainer out = new ArrayContainer(a.count);
+            for (int i = 0; i < a.count; i++) {
+                if (y.contains(a.values[i])) out.values[out.count++] = a.values[i];
+            }
+            return out;
+        }
+        BitmapContainer a = (BitmapContainer) x, b = (BitmapContainer) y;
+        BitmapContainer out = new BitmapContainer();
+        for (int w = 0; w < WORDS; w++) out.words[w] = a.words[w] & b.words[w];
+        return out.settle();
+    }
+
+    private static Container or(Container x, Container y) {
+        if (x instanceof ArrayContainer && y instanceof ArrayContainer) {
+            ArrayContainer a = (ArrayContainer) x, b = (ArrayContainer) y;
+            if (a.count + b.count > ARRAY_MAX) {
+                BitmapContainer out = a.toBitmap();
+                for (int j = 0; j < b.count; j++) out.words[b.values[j] >>> 6] |= 1L << b.values[j];
+                return out.settle();
+            }
+            ArrayContainer out = new ArrayContainer(a.count + b.count);
+            int i = 0, j = 0;
+            while (i < a.count || j < b.count) {
+                if (j == b.count || (i < a.count && a.values[i] < b.values[j])) out.append(a.values[i++]);
+                else if (i == a.count || a.values[i] > b.values[j]) out.append(b.values[j++]);
+                else {
+                    out.append(a.values[i]);
+                    i++;
+                    j++;
+                }
+            }
+            return out;
+        }
+        if (x instanceof ArrayContainer) return or(y, x);
+        BitmapContainer out = (BitmapContainer) x.copy();
+        if (y instanceof ArrayContainer) {
+            ArrayContainer b = (ArrayContainer) y;
+            for (int j = 0; j < b.count; j++) out.add(b.values[j]);
+            return out;
+        }
+        BitmapContainer b = (BitmapContainer) y;
+        for (int w = 0; w < WORDS; w++) out.words[w] |= b.words[w];
+        return out.settle();
+    }
+
+    private static Container andNot(Container x, Container y) {
+        if (x instanceof ArrayContainer) {
+            ArrayContainer a = (ArrayContainer) x;
+            ArrayContainer out = new ArrayContainer(a.count);
+            for (int i = 0; i < a.count; i++) {
+                if (!y.contains(a.values[i])) out.values[out.count++] = a.values[i];
+            }
+            return out;
+        }
+        BitmapContainer out = (BitmapContainer) x.copy();
+        if (y instanceof ArrayContainer) {
+            ArrayContainer b = (ArrayContainer) y;
+            for (int j = 0; j < b.count; j++) out.words[b.values[j] >>> 6] &= ~(1L << b.values[j]);
+        } else {
+            BitmapContainer b = (BitmapContainer) y;
+            for (int w = 0; w < WORDS; w++) out.words[w] &= ~b.words[w];
+        }
+        return out.settle();
+    }
+
+    //Chunks are appended in key order by the set operations
+    private void append(int key, Container chunk) {
+        insert(size, key, chunk);
+    }
+
+    private void insert(int index, int key, Container chunk) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = chunk;
+        size++;
+    }
+}
@@ -0,0 +1,266 @@
+package com.claire.audioplayerapp;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 預讀下一首曲目 Next-track readahead
+ * 預先開啟播放列表中即將播放的文件，把文件頭和開頭幾秒的音頻讀進系統的 page cache，
+ * 讓 prepareAsync() 不必等待冷啟動的 SD 卡。
+ * Keeps a small pool of open file descriptors that are handed to the MediaPlayer through
+ * setDataSource(FileDescriptor, offset, length). A descriptor is pinned while it is warmed or
+ * handed over, one evicted meanwhile is closed when the last pin is released.
+ */
+public class TrackReadahead {
+
+    private static final int DEFAULT_POOL_SIZE = 3;
+    //Header and the first seconds of audio (about 10s at 320kbps)
+    private static final int DEFAULT_HEAD_BYTES = 512 * 1024;
+    //Tail of the file, some containers (MP4 moov, ID3v1) keep their index at the end
+    private static final int TAIL_BYTES = 64 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final int poolSize;
+    private final int headBytes;
+
+    //Open descriptors, least recently used first
+    private final LinkedHashMap<String, Source> pool = new LinkedHashMap<>(16, 0.75f, true);
+    private final ExecutorService executor;
+    //Only touched from the executor thread
+    private final ByteBuffer scratch = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+    //Prepare latency, split by cold and warm page cache
+    private int coldCount;
+    private long coldNanos;
+    private int warmCount;
+    private long warmNanos;
+
+    public TrackReadahead() {
+        this(DEFAULT_POOL_SIZE, DEFAULT_HEAD_BYTES);
+    }
+
+    public TrackReadahead(int poolSize, int headBytes) {
+        this(poolSize, headBytes, Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TrackReadahead");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        }));
+    }
+
+    TrackReadahead(int poolSize, int headBytes, ExecutorService executor) {
+        this.poolSize = poolSize;
+        this.headBytes = headBytes;
+        this.executor = executor;
+    }
+
+    /**
+     * An open audio file that can be handed to MediaPlayer.setDataSource(fd, offset, length)
+     */
+    public static class Source {
+        private final RandomAccessFile file;
+        private final long length;
+        private volatile boolean warm;
+        //Guarded by the TrackReadahead
+        private int pins;
+        private boolean evicted;
+
+        Source(RandomAccessFile file) throws IOException {
+            this.file = file;
+            this.length = file.length();
+        }
+
+        public FileDescriptor getFileDescriptor() throws IOException {
+            return file.getFD();
+        }
+
+        public long getOffset() {
+            return 0;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        //true when the head of the file has already been read into the page cache
+        public boolean isWarm() {
+            return warm;
+        }
+
+        FileChannel getChannel() {
+            return file.getChannel();
+        }
+
+        void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns the pooled descriptor for path, or opens a new (cold) one, pinned until release().
+     * MediaPlayer duplicates the descriptor in setDataSource(), release it once that returns.
+     */
+    public Source acquire(String path) throws IOException {
+        ArrayList<Source> evicted;
+        Source source;
+        synchronized (this) {
+            source = pool.get(path);
+            if (source == null) {
+                source = new Source(new RandomAccessFile(path, "r"));
+                pool.put(path, source);
+            }
+            source.pins++;
+            evicted = trimPool();
+        }
+        closeAll(evicted);
+        return source;
+    }
+
+    public void release(Source source) {
+        synchronized (this) {
+            if (--source.pins > 0 || !source.evicted) return;
+        }
+        source.close();
+    }
+
+    /**
+     * Opens path in the background and warms its head and tail into the page cache.
+     */
+    public void prefetch(final String path) {
+        if (path == null || executor.isShutdown()) return;
+        synchronized (this) {
+            Source pooled = pool.get(path);
+            if (pooled != null && pooled.isWarm()) return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Source source;
+                try {
+                    source = acquire(path);
+                } catch (IOException e) {
+                    //missing or unreadable file, initMediaPlayer() reports it when it is played
+                    return;
+                }
+                try {
+                    warm(source);
+                } catch (IOException e) {
+                    //read error, the player reads it again and reports it
+                } finally {
+                    release(source);
+                }
+            }
+        });
+    }
+
+    //Positional reads, they do not move the descriptor offset the MediaPlayer will use
+    private void warm(Source source) throws IOException {
+        if (source.isWarm()) return;
+        FileChannel channel = source.getChannel();
+        long length = source.getLength();
+        readRange(channel, 0, Math.min(length, headBytes));
+        if (length > headBytes) {
+            long tailStart = Math.max(headBytes, length - TAIL_BYTES);
+            readRange(channel, tailStart, length);
+        }
+        source.warm = true;
+    }
+
+    private void readRange(FileChannel channel, long from, long to) throws IOException {
+        long position = from;
+        while (position < to) {
+            scratch.clear();
+            if (to - position < scratch.capacity()) scratch.limit((int) (to - position));
+            int read = channel.read(scratch, position);
+            if (read <= 0) break;
+            position += read;
+        }
+    }
+
+    //Evicts the least recently used entries, returns the ones that can be closed right away
+    private ArrayList<Source> trimPool() {
+        ArrayList<Source> closable = new ArrayList<>();
+        Iterator<Map.Entry<String, Source>> iterator = pool.entrySet().iterator();
+        while (pool.size() > poolSize && iterator.hasNext()) {
+            Source eldest = iterator.next().getValue();
+            iterator.remove();
+            if (evict(eldest)) closable.add(eldest);
+        }
+        return closable;
+    }
+
+    //true when nothing holds source, otherwise the last release() closes it
+    private boolean evict(Source source) {
+        source.evicted = true;
+        return source.pins == 0;
+    }
+
+    private static void closeAll(ArrayList<Source> sources) {
+        for (Source source : sources) {
+            source.close();
+        }
+    }
+
+    synchronized int pooledCount() {
+        return pool.size();
+    }
+
+    /**
+     * Records the time between prepareAsync() and onPrepared()
+     */
+    public synchronized void recordPrepare(boolean warm, long nanos) {
+        if (warm) {
+            warmCount++;
+            warmNanos += nanos;
+        } else {
+            coldCount++;
+            coldNanos += nanos;
+        }
+    }
+
+    public synchronized String describePrepareTimes() {
+        return "prepare cold avg " + average(coldNanos, coldCount) + "ms (" + coldCount + ")"
+                + ", warm avg " + average(warmNanos, warmCount) + "ms (" + warmCount + ")";
+    }
+
+    private static long average(long nanos, int count) {
+        return count == 0 ? 0 : nanos / count / 1000000L;
+    }
+
+    /**
+     * Closes the pooled descriptors, e.g. when the player is released while idle. Pinned ones are
+     * closed when they are released.
+     */
+    public void releasePool() {
+        ArrayList<Source> closable = new ArrayList<>();
+        synchronized (this) {
+            for (Source source : pool.values()) {
+                if (evict(source)) closable.add(source);
+            }
+            pool.clear();
+        }
+        closeAll(closable);
+    }
+
+    public void close() {
+        executor.shutdownNow();
+        releasePool();
+    }
+}
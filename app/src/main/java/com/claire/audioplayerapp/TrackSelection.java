@@ -0,0 +1,115 @@
+package com.claire.audioplayerapp;
+
+import java.util.Arrays;
+
+/**
+ * 多選 Tracks selected in a list of songs, as catalog ordinals in a TrackBitmap
+ * Rows are addressed by their position in the displayed order (null for the catalog in order),
+ * selection by ordinal, so it survives a re-sort. Select all and range select sort the ordinals
+ * first and build the bitmap in one pass; inOrder() hands the selection back in display order,
+ * ready to be sent to the service as one command. Main thread only.
+ */
+public class TrackSelection {
+
+    private TrackBitmap selected = new TrackBitmap();
+    private int count;
+    //Ordinal of the row last toggled, range select starts from it; -1 when none
+    private int anchor = -1;
+
+    public boolean contains(int ordinal) {
+        return count > 0 && selected.contains(ordinal);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return whether the ordinal is selected now
+     */
+    public boolean toggle(int ordinal) {
+        anchor = ordinal;
+        if (selected.contains(ordinal)) {
+            selected.remove(ordinal);
+            count--;
+            return false;
+        }
+        selected.add(ordinal);
+        count++;
+        return true;
+    }
+
+    /**
+     * Selects every row from the anchor to position, both included, and makes position the anchor
+     * @return position of the anchor, -1 when there was none (or it is no longer shown) and only
+     * the row at position was selected
+     */
+    public int extendTo(int[] order, int rows, int position) {
+        int from = anchor >= 0 ? positionOf(order, rows, anchor) : -1;
+        if (from < 0) {
+            if (!contains(ordinalAt(order, position))) toggle(ordinalAt(order, position));
+            anchor = ordinalAt(order, position);
+            return -1;
+        }
+        int first = Math.min(from, position);
+        int last = Math.max(from, position);
+        int[] ordinals = new int[last - first + 1];
+        for (int i = first; i <= last; i++) ordinals[i - first] = ordinalAt(order, i);
+        selected = TrackBitmap.or(selected, bitmapOf(ordinals, ordinals.length));
+        count = selected.cardinality();
+        anchor = ordinalAt(order, position);
+        return from;
+    }
+
+    public void selectAll(int[] order, int rows) {
+        if (order == null) {
+            selected = TrackBitmap.range(0, rows);
+        } else {
+            selected = bitmapOf(Arrays.copyOf(order, rows), rows);
+        }
+        count = selected.cardinality();
+    }
+
+    public void clear() {
+        selected = new TrackBitmap();
+        count = 0;
+        anchor = -1;
+    }
+
+    /**
+     * The selected ordinals in the order the rows are shown
+     */
+    public IntList inOrder(int[] order, int rows) {
+        if (order == null && count == rows) return selected.toIntList();
+        IntList ordinals = new IntList(count);
+        for (int i = 0; i < rows && ordinals.size() < count; i++) {
+            int ordinal = ordinalAt(order, i);
+            if (selected.contains(ordinal)) ordinals.add(ordinal);
+        }
+        return ordinals;
+    }
+
+    private static int ordinalAt(int[] order, int position) {
+        return order != null ? order[position] : position;
+    }
+
+    private static int positionOf(int[] order, int rows, int ordinal) {
+        if (order == null) return ordinal < rows ? ordinal : -1;
+        for (int i = 0; i < rows; i++) {
+            if (order[i] == ordinal) return i;
+        }
+        return -1;
+    }
+
+    //Sorts in place; ascending adds only ever append to the last chunk
+    private static TrackBitmap bitmapOf(int[] ordinals, int length) {
+        Arrays.sort(ordinals, 0, length);
+        TrackBitmap bitmap = new TrackBitmap();
+        for (int i = 0; i < length; i++) bitmap.add(ordinals[i]);
+        return bitmap;
+    }
+}
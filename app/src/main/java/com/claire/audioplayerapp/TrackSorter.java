@@ -0,0 +1,397 @@
+package com.claire.audioplayerapp;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 依語系排序 Locale-aware sort orders over the audio catalog
+ * Collation keys are computed once per track (leading articles such as "The" removed) and kept
+ * as byte arrays, so comparing two tracks is a plain byte compare. Every sort mode is sorted in
+ * parallel in the background and cached as an int[] of ordinals; tracks added to the catalog are
+ * merged into the cached orders instead of sorting again, so switching modes is instant.
+ * Each published order comes with its SectionIndex for the fast scroller.
+ */
+public class TrackSorter implements AudioCatalog.Listener {
+
+    public enum SortMode {
+        TITLE,
+        ARTIST,
+        ALBUM,
+        DATE_ADDED
+    }
+
+    public interface Callback {
+        //Called on the callback executor whenever the order of mode changes
+        void onSorted(SortMode mode, int[] order, SectionIndex sections);
+    }
+
+    //Compared in lower case, a trailing space or apostrophe separates the article from the name
+    private static final String[] ARTICLES = {
+            "the ", "a ", "an ", "le ", "la ", "les ", "l'", "der ", "die ", "das ", "el ", "los ", "las "
+    };
+    private static final int SEQUENTIAL_THRESHOLD = 4096;
+    private static final int INSERTION_THRESHOLD = 32;
+
+    private final Collator collator;
+    private final ForkJoinPool pool;
+    //All key and order updates happen on this thread, the fork/join pool only does the heavy lifting
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final Executor callbackExecutor;
+    private final AtomicReferenceArray<int[]> orders = new AtomicReferenceArray<>(SortMode.values().length);
+    private final AtomicReferenceArray<SectionIndex> sections = new AtomicReferenceArray<>(SortMode.values().length);
+    private volatile Callback callback;
+
+    private Keys keys = new Keys(0);
+
+    public TrackSorter(Locale locale, ForkJoinPool pool, Executor callbackExecutor) {
+        collator = Collator.getInstance(locale);
+        //Accents sort after their base letter, case is ignored
+        collator.setStrength(Collator.SECONDARY);
+        this.pool = pool;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Computes the keys for the whole catalog and pre-sorts every mode in the background
+     */
+    public void build(final List<Audio> tracks) {
+        final Audio[] snapshot = tracks.toArray(new Audio[tracks.size()]);
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Keys built = new Keys(snapshot.length);
+                    pool.invoke(new KeyTask(built, snapshot, 0, 0, snapshot.length));
+                    keys = built;
+                    for (SortMode mode : SortMode.values()) {
+                        if (Thread.currentThread().isInterrupted()) return;
+                        int[] order = new int[built.count];
+                        for (int i = 0; i < order.length; i++) order[i] = i;
+                        pool.invoke(new SortTask(new Order(mode, built), order, new int[order.length], 0, order.length));
+                        publish(mode, order, built);
+                    }
+                } catch (RejectedExecutionException e) {
+                    //The pool was shut down, nobody is left to show the result
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the cached order for mode, or null while it is still being sorted
+     */
+    public int[] getOrder(SortMode mode) {
+        return orders.get(mode.ordinal());
+    }
+
+    /**
+     * @return the sections of getOrder(mode), null while it is still being sorted
+     */
+    public SectionIndex getSections(SortMode mode) {
+        return sections.get(mode.ordinal());
+    }
+
+    @Override
+    public void onTracksAdded(final int firstOrdinal, final List<Audio> added) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                Keys grown = keys.grow(firstOrdinal + added.size());
+                Audio[] snapshot = added.toArray(new Audio[added.size()]);
+                try {
+                    pool.invoke(new KeyTask(grown, snapshot, firstOrdinal, 0, snapshot.length));
+                } catch (RejectedExecutionException e) {
+                    //The pool was shut down, nobody is left to show the result
+                    return;
+                }
+                keys = grown;
+
+                for (SortMode mode : SortMode.values()) {
+                    if (Thread.currentThread().isInterrupted()) return;
+                    int[] current = orders.get(mode.ordinal());
+                    if (current == null) continue;
+                    Order order = new Order(mode, grown);
+                    int[] fresh = new int[snapshot.length];
+                    for (int i = 0; i < fresh.length; i++) fresh[i] = firstOrdinal + i;
+                    sequentialSort(order, fresh, new int[fresh.length], 0, fresh.length);
+                    publish(mode, merge(order, current, fresh), grown);
+                }
+            }
+        });
+    }
+
+    private void publish(final SortMode mode, final int[] order, Keys keys) {
+        final SectionIndex index = SectionIndex.build(order, keys.sectionKeys(mode));
+        //Sections first: whoever sees the new order also finds its sections
+        sections.set(mode.ordinal(), index);
+        orders.set(mode.ordinal(), order);
+        final Callback listener = callback;
+        if (listener == null) return;
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSorted(mode, order, index);
+            }
+        });
+    }
+
+    /**
+     * Stops the worker: queued updates are dropped, a running one stops before its next sort mode.
+     * It may still be using the pool until awaitTermination() returns, shut the pool down after.
+     */
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        return worker.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Text used for sorting and section letters: trimmed and without a leading article
+     */
+    public static String sortableText(String text) {
+        if (text == null) return "";
+        String trimmed = text.trim();
+        for (String article : ARTICLES) {
+            if (trimmed.length() > article.length()
+                    && trimmed.regionMatches(true, 0, article, 0, article.length())) {
+                return trimmed.substring(article.length()).trim();
+            }
+        }
+        return trimmed;
+    }
+
+    //Merges two sorted runs of ordinals into a new array
+    private static int[] merge(Order order, int[] a, int[] b) {
+        int[] out = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            out[k++] = order.compare(a[i], b[j]) <= 0 ? a[i++] : b[j++];
+        }
+        while (i < a.length) out[k++] = a[i++];
+        while (j < b.length) out[k++] = b[j++];
+        return out;
+    }
+
+    private static void sequentialSort(Order order, int[] a, int[] tmp, int lo, int hi) {
+        if (hi - lo <= INSERTION_THRESHOLD) {
+            insertionSort(order, a, lo, hi);
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        sequentialSort(order, a, tmp, lo, mid);
+        sequentialSort(order, a, tmp, mid, hi);
+        mergeRuns(order, a, tmp, lo, mid, hi);
+    }
+
+    private static void insertionSort(Order order, int[] a, int lo, int hi) {
+        for (int i = lo + 1; i < hi; i++) {
+            int value = a[i];
+            int j = i - 1;
+            while (j >= lo && order.compare(a[j], value) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = value;
+        }
+    }
+
+    private static void mergeRuns(Order order, int[] a, int[] tmp, int lo, int mid, int hi) {
+        if (order.compare(a[mid - 1], a[mid]) <= 0) return; //already in order
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+            tmp[k++] = order.compare(a[i], a[j]) <= 0 ? a[i++] : a[j++];
+        }
+        while (i < mid) tmp[k++] = a[i++];
+        while (j < hi) tmp[k++] = a[j++];
+        System.arraycopy(tmp, lo, a, lo, hi - lo);
+    }
+
+    private static int compareKeys(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) return diff;
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Per-track sort and section keys, indexed by ordinal. Grown by copying so running sorts never
+     * see a change.
+     */
+    private static class Keys {
+        final int count;
+        final byte[][] title;
+        final byte[][] artist;
+        final byte[][] album;
+        final long[] dateAdded;
+        //SectionIndex keys, one array per sort mode
+        final int[][] section;
+
+        Keys(int count) {
+            this(count, new byte[count][], new byte[count][], new byte[count][], new long[count],
+                    new int[SortMode.values().length][count]);
+        }
+
+        private Keys(int count, byte[][] title, byte[][] artist, byte[][] album, long[] dateAdded, int[][] section) {
+            this.count = count;
+            this.title = title;
+            this.artist = artist;
+            this.album = album;
+            this.dateAdded = dateAdded;
+            this.section = section;
+        }
+
+        Keys grow(int newCount) {
+            int[][] grownSection = new int[section.length][];
+            for (int i = 0; i < section.length; i++) grownSection[i] = Arrays.copyOf(section[i], newCount);
+            return new Keys(newCount, Arrays.copyOf(title, newCount), Arrays.copyOf(artist, newCount),
+                    Arrays.copyOf(album, newCount), Arrays.copyOf(dateAdded, newCount), grownSection);
+        }
+
+        int[] sectionKeys(SortMode mode) {
+            return section[mode.ordinal()];
+        }
+    }
+
+    /**
+     * Comparison of two ordinals for one sort mode, ties are broken by ordinal so sorting is stable
+     */
+    private static class Order {
+        private final SortMode mode;
+        private final Keys keys;
+
+        Order(SortMode mode, Keys keys) {
+            this.mode = mode;
+            this.keys = keys;
+        }
+
+        int compare(int a, int b) {
+            int result;
+            switch (mode) {
+                case ARTIST:
+                    result = compareKeys(keys.artist[a], keys.artist[b]);
+                    if (result == 0) result = compareKeys(keys.album[a], keys.album[b]);
+                    if (result == 0) result = compareKeys(keys.title[a], keys.title[b]);
+                    break;
+                case ALBUM:
+                    result = compareKeys(keys.album[a], keys.album[b]);
+                    if (result == 0) result = compareKeys(keys.title[a], keys.title[b]);
+                    break;
+                case DATE_ADDED:
+                    //newest first
+                    result = compareLong(keys.dateAdded[b], keys.dateAdded[a]);
+                    if (result == 0) result = compareKeys(keys.title[a], keys.title[b]);
+                    break;
+                default:
+                    result = compareKeys(keys.title[a], keys.title[b]);
+                    if (result == 0) result = compareKeys(keys.artist[a], keys.artist[b]);
+                    break;
+            }
+            return result != 0 ? result : a - b;
+        }
+
+        private static int compareLong(long a, long b) {
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+    }
+
+    /**
+     * Computes collation keys for a slice of tracks, each leaf uses its own Collator clone
+     */
+    @SuppressWarnings("serial")
+    private class KeyTask extends RecursiveAction {
+        private final Keys target;
+        private final Audio[] source;
+        private final int firstOrdinal;
+        private final int lo;
+        private final int hi;
+
+        KeyTask(Keys target, Audio[] source, int firstOrdinal, int lo, int hi) {
+            this.target = target;
+            this.source = source;
+            this.firstOrdinal = firstOrdinal;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > SEQUENTIAL_THRESHOLD) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new KeyTask(target, source, firstOrdinal, lo, mid),
+                        new KeyTask(target, source, firstOrdinal, mid, hi));
+                return;
+            }
+            Collator local = (Collator) collator.clone();
+            Calendar calendar = Calendar.getInstance();
+            int[] titleSection = target.sectionKeys(SortMode.TITLE);
+            int[] artistSection = target.sectionKeys(SortMode.ARTIST);
+            int[] albumSection = target.sectionKeys(SortMode.ALBUM);
+            int[] dateSection = target.sectionKeys(SortMode.DATE_ADDED);
+            for (int i = lo; i < hi; i++) {
+                Audio audio = source[i];
+                int ordinal = firstOrdinal + i;
+                String title = sortableText(audio.getTitle());
+                String artist = sortableText(audio.getArtist());
+                String album = sortableText(audio.getAlbum());
+                target.title[ordinal] = local.getCollationKey(title).toByteArray();
+                target.artist[ordinal] = local.getCollationKey(artist).toByteArray();
+                target.album[ordinal] = local.getCollationKey(album).toByteArray();
+                target.dateAdded[ordinal] = audio.getDateAdded();
+                titleSection[ordinal] = SectionIndex.letterKey(title);
+                artistSection[ordinal] = SectionIndex.letterKey(artist);
+                albumSection[ordinal] = SectionIndex.letterKey(album);
+                dateSection[ordinal] = SectionIndex.yearKey(audio.getDateAdded(), calendar);
+            }
+        }
+    }
+
+    /**
+     * Parallel merge sort of ordinals
+     */
+    @SuppressWarnings("serial")
+    private static class SortTask extends RecursiveAction {
+        private final Order order;
+        private final int[] a;
+        private final int[] tmp;
+        private final int lo;
+        private final int hi;
+
+        SortTask(Order order, int[] a, int[] tmp, int lo, int hi) {
+            this.order = order;
+            this.a = a;
+            this.tmp = tmp;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= SEQUENTIAL_THRESHOLD) {
+                sequentialSort(order, a, tmp, lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new SortTask(order, a, tmp, lo, mid), new SortTask(order, a, tmp, mid, hi));
+            mergeRuns(order, a, tmp, lo, mid, hi);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.claire.audioplayerapp;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.List;
+
+/**
+ * 待播清單 Rows of the up-next queue, read straight from the treap so a long queue binds in O(log n)
+ * per row. A null queue means the catalog plays in order.
+ */
+public class UpNextAdapter extends RecyclerView.Adapter<ViewHolder> {
+
+    private final List<Audio> list;
+    private UpNextQueue queue;
+    private int position;
+
+    public UpNextAdapter(List<Audio> list, UpNextQueue queue, int position) {
+        this.list = list;
+        this.queue = queue;
+        this.position = position;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_layout, parent, false);
+        return new ViewHolder(v);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder viewHolder, int index) {
+        viewHolder.textTitle.setText(list.get(getOrdinal(index)).getTitle());
+        //The playing entry shows pause
+        viewHolder.image_playPause.setImageResource(index == position
+                ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play);
+    }
+
+    @Override
+    public int getItemCount() {
+        return queue != null ? queue.size() : list.size();
+    }
+
+    public int getOrdinal(int index) {
+        return queue != null ? queue.get(index) : index;
+    }
+
+    public void setQueue(UpNextQueue queue, int position) {
+        this.queue = queue;
+        this.position = position;
+        notifyDataSetChanged();
+    }
+
+    public void setPosition(int position) {
+        int old = this.position;
+        this.position = position;
+        notifyItemChanged(old);
+        notifyItemChanged(position);
+    }
+}
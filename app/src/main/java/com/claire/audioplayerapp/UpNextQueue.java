@@ -0,0 +1,262 @@
+package com.claire.audioplayerapp;
+
+import java.util.Arrays;
+
+/**
+ * 待播佇列 Editable up-next queue of catalog ordinals
+ * An implicit treap (a randomized balanced tree keyed by position) stored in parallel int arrays:
+ * get, insert, remove and move are all O(log n), also on queues of 100k entries, and no node is
+ * an object. Node 0 is the empty tree. Edits are reported to an EditListener, which is how
+ * QueueJournal saves them. Not thread-safe.
+ */
+public class UpNextQueue {
+
+    public interface EditListener {
+        void onInsert(int index, int value);
+
+        void onRemove(int index);
+
+        void onMove(int from, int to);
+    }
+
+    private int[] value;
+    private int[] left;
+    private int[] right;
+    private int[] count;
+    private int[] priority;
+    private int root;
+    //Next never-used node, freed nodes are chained through left[]
+    private int allocated = 1;
+    private int free;
+    private int seed = 0x2545f491;
+    private EditListener listener;
+
+    //split() results, kept in fields so splitting allocates nothing
+    private int splitLeft;
+    private int splitRight;
+
+    public UpNextQueue(int capacity) {
+        int nodes = Math.max(capacity, 15) + 1;
+        value = new int[nodes];
+        left = new int[nodes];
+        right = new int[nodes];
+        count = new int[nodes];
+        priority = new int[nodes];
+    }
+
+    /**
+     * O(n) construction of a balanced tree, priorities decrease with depth so it is a valid treap
+     */
+    public static UpNextQueue of(int[] values, int length) {
+        UpNextQueue queue = new UpNextQueue(length);
+        queue.root = queue.build(values, 0, length, 0);
+        return queue;
+    }
+
+    public static UpNextQueue of(IntList values) {
+        return of(values.toArray(), values.size());
+    }
+
+    //0, 1, ... length - 1: the catalog in order
+    public static UpNextQueue range(int length) {
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) values[i] = i;
+        return of(values, length);
+    }
+
+    private int build(int[] values, int from, int to, int depth) {
+        if (from >= to) return 0;
+        int mid = (from + to) >>> 1;
+        int node = newNode(values[mid]);
+        //Top 5 bits from the depth, the rest random
+        priority[node] = (Math.max(0, 31 - depth) << 26) | (nextRandom() & 0x3ffffff);
+        left[node] = build(values, from, mid, depth + 1);
+        right[node] = build(values, mid + 1, to, depth + 1);
+        update(node);
+        return node;
+    }
+
+    public void setListener(EditListener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return count[root];
+    }
+
+    public boolean isEmpty() {
+        return root == 0;
+    }
+
+    public int get(int index) {
+        checkIndex(index, size());
+        int node = root;
+        while (true) {
+            int leftCount = count[left[node]];
+            if (index < leftCount) {
+                node = left[node];
+            } else if (index == leftCount) {
+                return value[node];
+            } else {
+                index -= leftCount + 1;
+                node = right[node];
+            }
+        }
+    }
+
+    public void add(int ordinal) {
+        insert(size(), ordinal);
+    }
+
+    public void insert(int index, int ordinal) {
+        checkIndex(index, size() + 1);
+        insertNode(index, newNode(ordinal));
+        if (listener != null) listener.onInsert(index, ordinal);
+    }
+
+    /**
+     * @return the removed ordinal
+     */
+    public int remove(int index) {
+        checkIndex(index, size());
+        int node = detach(index);
+        int removed = value[node];
+        left[node] = free;
+        free = node;
+        if (listener != null) listener.onRemove(index);
+        return removed;
+    }
+
+    /**
+     * Moves the entry at from so that it ends up at index to
+     */
+    public void move(int from, int to) {
+        int size = size();
+        checkIndex(from, size);
+        checkIndex(to, size);
+        if (from == to) return;
+        insertNode(to, detach(from));
+        if (listener != null) listener.onMove(from, to);
+    }
+
+    public int[] toArray() {
+        int[] result = new int[size()];
+        //In-order walk with an explicit stack, the tree depth is O(log n)
+        int[] stack = new int[64];
+        int top = 0;
+        int node = root;
+        int i = 0;
+        while (node != 0 || top > 0) {
+            while (node != 0) {
+                if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = node;
+                node = left[node];
+            }
+            node = stack[--top];
+            result[i++] = value[node];
+            node = right[node];
+        }
+        return result;
+    }
+
+    //Height of the tree, for tests
+    int depth() {
+        return depth(root);
+    }
+
+    private int depth(int node) {
+        return node == 0 ? 0 : 1 + Math.max(depth(left[node]), depth(right[node]));
+    }
+
+    private void insertNode(int index, int node) {
+        split(root, index);
+        int rest = splitRight;
+        root = merge(merge(splitLeft, node), rest);
+    }
+
+    //Unlinks the node at index and returns it
+    private int detach(int index) {
+        split(root, index);
+        int before = splitLeft;
+        split(splitRight, 1);
+        int node = splitLeft;
+        root = merge(before, splitRight);
+        return node;
+    }
+
+    //First k entries of t into splitLeft, the rest into splitRight
+    private void split(int t, int k) {
+        if (t == 0) {
+            splitLeft = 0;
+            splitRight = 0;
+            return;
+        }
+        if (count[left[t]] >= k) {
+            split(left[t], k);
+            left[t] = splitRight;
+            update(t);
+            splitRight = t;
+        } else {
+            split(right[t], k - count[left[t]] - 1);
+            right[t] = splitLeft;
+            update(t);
+            splitLeft = t;
+        }
+    }
+
+    //All of a before all of b
+    private int merge(int a, int b) {
+        if (a == 0) return b;
+        if (b == 0) return a;
+        if (priority[a] > priority[b]) {
+            right[a] = merge(right[a], b);
+            update(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        update(b);
+        return b;
+    }
+
+    private void update(int node) {
+        count[node] = 1 + count[left[node]] + count[right[node]];
+    }
+
+    private int newNode(int ordinal) {
+        int node;
+        if (free != 0) {
+            node = free;
+            free = left[node];
+        } else {
+            if (allocated == value.length) grow();
+            node = allocated++;
+        }
+        value[node] = ordinal;
+        left[node] = 0;
+        right[node] = 0;
+        count[node] = 1;
+        priority[node] = nextRandom() & 0x7fffffff;
+        return node;
+    }
+
+    private void grow() {
+        int nodes = value.length + (value.length >> 1) + 1;
+        value = Arrays.copyOf(value, nodes);
+        left = Arrays.copyOf(left, nodes);
+        right = Arrays.copyOf(right, nodes);
+        count = Arrays.copyOf(count, nodes);
+        priority = Arrays.copyOf(priority, nodes);
+    }
+
+    //xorshift32
+    private int nextRandom() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) throw new IndexOutOfBoundsException("index " + index + ", size " + bound);
+    }
+}
@@ -0,0 +1,179 @@
+package com.claire.audioplayerapp;
+
+import java.util.Random;
+
+/**
+ * 智慧隨機播放 Weighted shuffle over catalog ordinals
+ * Weights live in a Fenwick tree of long prefix sums, so pick() and setWeight() are O(log n).
+ * The last few picks are excluded by zeroing their weight and restoring it once they leave the
+ * exclusion window, the tree is never rebuilt for that. Not thread-safe, the service uses it from
+ * the main thread.
+ */
+public class WeightedShuffle {
+
+    //Weight of a track with no history, other weights are relative to it
+    public static final int BASE_WEIGHT = 1000;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private int size;
+    //Current weight per ordinal, 0 while excluded
+    private int[] weights;
+    //Weight to restore when an excluded ordinal leaves the window
+    private int[] saved;
+    //1-based Fenwick tree over weights
+    private long[] tree;
+
+    //Ring of recently picked ordinals
+    private final int[] recent;
+    private int recentCount;
+    private int recentHead;
+    private final Random random;
+
+    public WeightedShuffle(int[] initialWeights, int count, int excludeRecent, Random random) {
+        this.random = random;
+        int capacity = Math.max(16, count);
+        weights = new int[capacity];
+        saved = new int[capacity];
+        tree = new long[capacity + 1];
+        System.arraycopy(initialWeights, 0, weights, 0, count);
+        size = count;
+        build();
+        //Never exclude so many tracks that nothing is left to pick
+        recent = new int[Math.max(0, Math.min(excludeRecent, count / 2))];
+    }
+
+    /**
+     * Favors often played tracks, tracks not heard for a while and tracks rarely skipped
+     */
+    public static int weightOf(int plays, float skipRate, long lastPlayed, long now) {
+        double weight = BASE_WEIGHT * (1 + Math.log(1 + plays));
+        //Never played or not played for 30 days: x1.5, played just now: x0.5
+        double days = lastPlayed == 0 ? 30 : Math.max(0, now - lastPlayed) / (double) DAY_MS;
+        weight *= 0.5 + Math.min(days, 30) / 30;
+        weight *= 1 - 0.8 * Math.min(1f, skipRate);
+        return (int) Math.max(1, weight);
+    }
+
+    //O(n) construction: every node pushes its sum to its parent once
+    private void build() {
+        for (int i = 1; i <= size; i++) tree[i] = weights[i - 1];
+        for (int i = 1; i <= size; i++) {
+            int parent = i + (i & -i);
+            if (parent <= size) tree[parent] += tree[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long totalWeight() {
+        long sum = 0;
+        for (int i = size; i > 0; i -= i & -i) sum += tree[i];
+        return sum;
+    }
+
+    public int getWeight(int ordinal) {
+        return isExcluded(ordinal) ? saved[ordinal] : weights[ordinal];
+    }
+
+    /**
+     * O(log n). The weight of an excluded track takes effect when it leaves the window.
+     */
+    public void setWeight(int ordinal, int weight) {
+        weight = Math.max(0, weight);
+        if (isExcluded(ordinal)) {
+            saved[ordinal] = weight;
+            return;
+        }
+        update(ordinal, weight - weights[ordinal]);
+        weights[ordinal] = weight;
+    }
+
+    /**
+     * Appends tracks added to the catalog, O(log n) each
+     */
+    public void add(int weight) {
+        if (size == weights.length) {
+            int capacity = weights.length * 2;
+            int[] w = new int[capacity];
+            System.arraycopy(weights, 0, w, 0, size);
+            weights = w;
+            int[] s = new int[capacity];
+            System.arraycopy(saved, 0, s, 0, size);
+            saved = s;
+            long[] t = new long[capacity + 1];
+            System.arraycopy(tree, 0, t, 0, size + 1);
+            tree = t;
+        }
+        weights[size] = weight;
+        size++;
+        //Node i covers (i - lowbit(i), i]: its own weight plus the nodes below it
+        int i = size;
+        long sum = weight;
+        for (int child = i - 1, stop = i - (i & -i); child > stop; child -= child & -child) {
+            sum += tree[child];
+        }
+        tree[i] = sum;
+    }
+
+    /**
+     * Draws an ordinal with probability weight / total and excludes it for the next picks
+     * @return the ordinal, or -1 when every weight is 0
+     */
+    public int pick() {
+        long total = totalWeight();
+        if (total <= 0) return -1;
+        long target = nextLong(total);
+        //Descend the implicit tree: find the smallest i whose prefix sum exceeds target
+        int position = 0;
+        for (int step = Integer.highestOneBit(size); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= size && tree[next] <= target) {
+                position = next;
+                target -= tree[next];
+            }
+        }
+        exclude(position);
+        return position;
+    }
+
+    private void exclude(int ordinal) {
+        if (recent.length == 0) return;
+        if (recentCount == recent.length) {
+            //Oldest pick leaves the window and gets its weight back
+            int oldest = recent[recentHead];
+            weights[oldest] = saved[oldest];
+            update(oldest, saved[oldest]);
+        } else {
+            recentCount++;
+        }
+        recent[recentHead] = ordinal;
+        recentHead = (recentHead + 1) % recent.length;
+        saved[ordinal] = weights[ordinal];
+        update(ordinal, -weights[ordinal]);
+        weights[ordinal] = 0;
+    }
+
+    private boolean isExcluded(int ordinal) {
+        for (int i = 0; i < recentCount; i++) {
+            if (recent[i] == ordinal) return true;
+        }
+        return false;
+    }
+
+    private void update(int ordinal, long delta) {
+        if (delta == 0) return;
+        for (int i = ordinal + 1; i <= size; i += i & -i) tree[i] += delta;
+    }
+
+    //Uniform in [0, bound), Random.nextLong(bound) is API 24+
+    private long nextLong(long bound) {
+        long bits, value;
+        do {
+            bits = random.nextLong() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+}
@@ -0,0 +1,7 @@
+package com.claire.audioplayerapp;
+
+import android.view.View;
+
+public interface onItemLongClickListener {
+     void onLongClick(View view, int index);
+}
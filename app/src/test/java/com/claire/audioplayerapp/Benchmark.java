@@ -0,0 +1,9 @@
+package com.claire.audioplayerapp;
+
+/**
+ * 效能測試 JUnit category of the tests that time an operation over a large synthetic library and
+ * print what they measured. Wall-clock limits depend on the machine, so the category is left out
+ * of the regular unit test run; ./gradlew testDebugUnitTest -Pbenchmarks runs only these.
+ */
+public interface Benchmark {
+}
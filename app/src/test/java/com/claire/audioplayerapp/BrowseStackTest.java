@@ -0,0 +1,72 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drilling down from artists and genres, folders, going back and resetting to the song list.
+ */
+public class BrowseStackTest {
+
+    @Test
+    public void drillsDownAndBack() {
+        BrowseStack stack = new BrowseStack();
+        assertTrue(stack.isAt(BrowseStack.Level.SONGS));
+        assertNull(stack.openItem("Adele"));
+        assertNull(stack.back());
+        assertEquals(1, stack.depth());
+
+        stack.openFromRoot(BrowseStack.Level.ARTISTS);
+        BrowseStack.State albums = stack.openItem("Adele");
+        assertEquals(BrowseStack.Level.ALBUMS, albums.level);
+        assertEquals("Adele", albums.artist);
+        BrowseStack.State tracks = stack.openItem("25");
+        assertEquals(BrowseStack.Level.ALBUM_TRACKS, tracks.level);
+        assertEquals("Adele", tracks.artist);
+        assertEquals("25", tracks.name);
+        //Track lists do not open further
+        assertNull(stack.openItem("Hello"));
+        assertEquals(4, stack.depth());
+
+        assertSame(albums, stack.back());
+        assertTrue(stack.isAt(BrowseStack.Level.ALBUMS));
+        assertTrue(stack.isAt(BrowseStack.Level.ARTISTS, BrowseStack.Level.ALBUMS));
+        assertEquals(BrowseStack.Level.ARTISTS, stack.back().level);
+        assertEquals(BrowseStack.Level.SONGS, stack.back().level);
+        assertNull(stack.back());
+    }
+
+    @Test
+    public void genresAndSmartPlaylistsOpenTracks() {
+        BrowseStack stack = new BrowseStack();
+        stack.openFromRoot(BrowseStack.Level.GENRES);
+        assertEquals(BrowseStack.Level.GENRE_TRACKS, stack.openItem("Jazz").level);
+        assertEquals("Jazz", stack.current().name);
+
+        stack.openFromRoot(BrowseStack.Level.SMART_PLAYLISTS);
+        assertEquals(2, stack.depth());
+        BrowseStack.State playlist = stack.openItem("Recent");
+        assertEquals(BrowseStack.Level.SMART_PLAYLIST_TRACKS, playlist.level);
+        assertTrue(stack.isAt(BrowseStack.Level.SMART_PLAYLISTS, BrowseStack.Level.SMART_PLAYLIST_TRACKS));
+        assertFalse(stack.isAt(BrowseStack.Level.GENRES, BrowseStack.Level.GENRE_TRACKS));
+    }
+
+    @Test
+    public void foldersNestAndResetToRoot() {
+        BrowseStack stack = new BrowseStack();
+        BrowseStack.State root = stack.openFromRoot(BrowseStack.Level.FOLDER);
+        assertEquals(FolderTree.ROOT, root.folder);
+        BrowseStack.State music = stack.openFolder(3, "/storage/emulated/0/Music");
+        assertEquals(3, music.folder);
+        assertEquals("/storage/emulated/0/Music", music.name);
+        assertEquals(7, stack.openFolder(7, "/storage/emulated/0/Music/Adele").folder);
+        assertSame(music, stack.back());
+
+        //Songs is the root itself, nothing is pushed
+        BrowseStack.State songs = stack.openFromRoot(BrowseStack.Level.SONGS);
+        assertEquals(BrowseStack.Level.SONGS, songs.level);
+        assertEquals(1, stack.depth());
+        assertSame(songs, stack.current());
+    }
+}
@@ -0,0 +1,131 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Browses a synthetic 100k-track library page by page, the way a MediaBrowser client would,
+ * and checks payload size; the per-page latency is a benchmark.
+ */
+public class BrowseTreeTest {
+
+    private static final int TRACKS = 100000;
+    private static final int ARTISTS = 2000;
+    private static final int ALBUMS_PER_ARTIST = 5;
+    //Binder transactions are limited to 1MB per process, a page must stay far below that
+    private static final int MAX_PAGE_BYTES = 64 * 1024;
+    //95th percentile, the first pages also pay for JIT warm-up
+    private static final long MAX_PAGE_MILLIS = 5;
+
+    private BrowseTree tree;
+
+    @Before
+    public void setUp() {
+        List<Audio> tracks = new ArrayList<>(TRACKS);
+        for (int i = 0; i < TRACKS; i++) {
+            int artist = i % ARTISTS;
+            int album = (i / ARTISTS) % ALBUMS_PER_ARTIST;
+            tracks.add(new Audio("/sdcard/Music/" + artist + "/" + album + "/" + i + ".mp3",
+                    "Track " + i, "Album " + artist + "-" + album, "Artist " + artist));
+        }
+        tree = new BrowseTree(tracks, Locale.US);
+    }
+
+    @Test
+    public void root_listsTopLevelNodes() {
+        BrowseTree.Page page = tree.getChildren(BrowseTree.ROOT, 0, BrowseTree.DEFAULT_PAGE_SIZE);
+        assertEquals(3, page.nodes.size());
+        assertFalse(page.hasMore);
+        assertEquals(BrowseTree.TRACKS, page.nodes.get(0).mediaId);
+    }
+
+    @Test
+    public void tracks_walkEveryPage() {
+        int pageSize = BrowseTree.DEFAULT_PAGE_SIZE;
+        int worstBytes = 0;
+        int seen = 0;
+        int page = 0;
+        while (true) {
+            BrowseTree.Page result = tree.getChildren(BrowseTree.TRACKS, page, pageSize);
+            worstBytes = Math.max(worstBytes, result.estimatedBytes());
+            seen += result.nodes.size();
+            assertTrue(result.nodes.size() <= pageSize);
+            if (!result.hasMore) break;
+            page++;
+        }
+        assertEquals(TRACKS, seen);
+        assertTrue("page payload " + worstBytes, worstBytes < MAX_PAGE_BYTES);
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void pageLatency() {
+        int pageSize = BrowseTree.DEFAULT_PAGE_SIZE;
+        long[] latencies = new long[TRACKS / pageSize];
+        for (int page = 0; page < latencies.length; page++) {
+            long start = System.nanoTime();
+            tree.getChildren(BrowseTree.TRACKS, page, pageSize);
+            latencies[page] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        long p95 = latencies[latencies.length * 95 / 100];
+
+        long[] artistLatencies = new long[ARTISTS / pageSize];
+        for (int page = 0; page < artistLatencies.length; page++) {
+            long start = System.nanoTime();
+            tree.getChildren(BrowseTree.ARTISTS, page, pageSize);
+            artistLatencies[page] = System.nanoTime() - start;
+        }
+        Arrays.sort(artistLatencies);
+        //The first artist page sorts the names, the following ones only slice
+        System.out.println("tracks: p50 " + latencies[latencies.length / 2] / 1000 + "us, p95 " + p95 / 1000
+                + "us, max " + latencies[latencies.length - 1] / 1000 + "us; artists: first page "
+                + artistLatencies[artistLatencies.length - 1] / 1000 + "us, median "
+                + artistLatencies[artistLatencies.length / 2] / 1000 + "us");
+        assertTrue("page latency p95 " + p95, p95 < MAX_PAGE_MILLIS * 1000000L);
+    }
+
+    @Test
+    public void artists_albums_tracks_drillDown() {
+        int artists = 0;
+        for (int page = 0; page < ARTISTS / BrowseTree.DEFAULT_PAGE_SIZE; page++) {
+            BrowseTree.Page result = tree.getChildren(BrowseTree.ARTISTS, page, BrowseTree.DEFAULT_PAGE_SIZE);
+            assertTrue(result.estimatedBytes() < MAX_PAGE_BYTES);
+            artists += result.nodes.size();
+        }
+        assertEquals(ARTISTS, artists);
+
+        BrowseTree.Page albums = tree.getChildren(BrowseTree.ARTIST_PREFIX + "Artist 7", 0, BrowseTree.DEFAULT_PAGE_SIZE);
+        assertEquals(ALBUMS_PER_ARTIST, albums.nodes.size());
+        BrowseTree.Page albumTracks = tree.getChildren(albums.nodes.get(0).mediaId, 0, BrowseTree.DEFAULT_PAGE_SIZE);
+        assertEquals(TRACKS / ARTISTS / ALBUMS_PER_ARTIST, albumTracks.nodes.size());
+        int ordinal = BrowseTree.parseTrackOrdinal(albumTracks.nodes.get(0).mediaId);
+        assertEquals(7, ordinal);
+    }
+
+    @Test
+    public void legacyPageSuffix_isParsed() {
+        BrowseTree.Page second = tree.getChildren(BrowseTree.TRACKS + BrowseTree.PAGE_SEPARATOR + 1, 0, 100);
+        assertEquals("track:100", second.nodes.get(0).mediaId);
+    }
+
+    @Test
+    public void pagesAreCachedPerParent() {
+        BrowseTree.Page first = tree.getChildren(BrowseTree.ALBUMS, 3, BrowseTree.DEFAULT_PAGE_SIZE);
+        assertSame(first, tree.getChildren(BrowseTree.ALBUMS, 3, BrowseTree.DEFAULT_PAGE_SIZE));
+
+        List<Audio> added = new ArrayList<>();
+        added.add(new Audio("/sdcard/new.mp3", "New", "New album", "New artist"));
+        tree.onTracksAdded(TRACKS, added);
+        BrowseTree.Page root = tree.getChildren(BrowseTree.ROOT, 0, BrowseTree.DEFAULT_PAGE_SIZE);
+        assertEquals((TRACKS + 1) + " tracks", root.nodes.get(0).subtitle);
+    }
+}
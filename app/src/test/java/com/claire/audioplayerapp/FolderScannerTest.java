@@ -0,0 +1,282 @@
+package com.claire.audioplayerapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * FolderScanner over a synthetic tree: magic bytes decide what is audio, a rescan of an unchanged
+ * tree lists no directory and opens no file, and a changed folder is the only one listed. Tags
+ * read during the scan are kept in the state with the listing. Scan rates over a 200k-file tree
+ * are a benchmark.
+ */
+public class FolderScannerTest {
+
+    private static final int ARTISTS = 10;
+    private static final int ALBUMS = 5;
+    private static final int FILES_PER_ALBUM = 40;
+    //200k files for the benchmark
+    private static final int LIBRARY_ARTISTS = 40;
+    private static final int LIBRARY_ALBUMS = 25;
+    private static final int LIBRARY_FILES_PER_ALBUM = 200;
+
+    //First bytes of each kind of file in the tree, the last two are not audio
+    private static final byte[][] HEADERS = {
+            bytes("ID3\u0004\u0000\u0000\u0000\u0000\u0000\u0000"),
+            {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x44, 0, 0, 0, 0},
+            bytes("fLaC\u0000\u0000\u0000\""),
+            bytes("OggS\u0000\u0002\u0000\u0000"),
+            bytes("RIFF$\u0000\u0000\u0000WAVEfmt "),
+            bytes("\u0000\u0000\u0000 ftypM4A \u0000\u0000"),
+            {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10, 'J', 'F', 'I', 'F'},
+            bytes("just some text"),
+    };
+    private static final int AUDIO_HEADERS = 6;
+
+    private File root;
+    private File stateFile;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        root = new File(System.getProperty("java.io.tmpdir"), "scan-" + System.nanoTime());
+        assertTrue(root.mkdirs());
+        stateFile = new File(root.getParentFile(), root.getName() + ".state");
+        pool = new ForkJoinPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        delete(root);
+        stateFile.delete();
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) b[i] = (byte) s.charAt(i);
+        return b;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    //Every name ends in .mp3, only the content says what the file is
+    private static int fill(File album, int from, int count) throws IOException {
+        int audio = 0;
+        for (int i = from; i < from + count; i++) {
+            int kind = i % HEADERS.length;
+            write(new File(album, "track " + i + ".mp3"), HEADERS[kind]);
+            if (kind < AUDIO_HEADERS) audio++;
+        }
+        return audio;
+    }
+
+    //Directory mtimes as they would be long after the files were copied
+    private static void settle(File dir) {
+        assertTrue(dir.setLastModified(System.currentTimeMillis() - 60000));
+    }
+
+    private int buildTree(int artists, int albums, int filesPerAlbum) throws IOException {
+        int audio = 0;
+        for (int a = 0; a < artists; a++) {
+            File artist = new File(root, "Artist " + a);
+            for (int b = 0; b < albums; b++) {
+                File album = new File(artist, "Album " + b);
+                assertTrue(album.mkdirs());
+                audio += fill(album, 0, filesPerAlbum);
+                settle(album);
+            }
+            settle(artist);
+        }
+        settle(root);
+        return audio;
+    }
+
+    private static Set<String> paths(List<Audio> tracks) {
+        Set<String> paths = new HashSet<>();
+        for (Audio audio : tracks) paths.add(audio.getData());
+        return paths;
+    }
+
+    @Test
+    public void sniffByContent() {
+        String[] names = {"a.mp3", "a.mp3", "a.flac", "a.ogg", "a.wav", "a.m4a", "a.jpg", "a.txt"};
+        byte[] kinds = {FolderScanner.KIND_MPEG, FolderScanner.KIND_MPEG, FolderScanner.KIND_FLAC,
+                FolderScanner.KIND_OGG, FolderScanner.KIND_WAV, FolderScanner.KIND_MP4,
+                FolderScanner.KIND_NONE, FolderScanner.KIND_NONE};
+        for (int i = 0; i < HEADERS.length; i++) {
+            assertEquals(names[i], kinds[i], FolderScanner.sniff(ByteBuffer.wrap(HEADERS[i]), names[i]));
+        }
+        assertEquals(FolderScanner.KIND_AAC, FolderScanner.sniff(ByteBuffer.wrap(
+                new byte[]{(byte) 0xFF, (byte) 0xF1, 0x50, (byte) 0x80}), "a.aac"));
+        assertEquals(FolderScanner.KIND_AMR, FolderScanner.sniff(ByteBuffer.wrap(bytes("#!AMR\n")), "a.amr"));
+        //Reserved MPEG version, and a free-format/bad bitrate: not frames
+        assertEquals(FolderScanner.KIND_NONE, FolderScanner.sniff(ByteBuffer.wrap(
+                new byte[]{(byte) 0xFF, (byte) 0xEB, (byte) 0x90}), "a.mp3"));
+        assertEquals(FolderScanner.KIND_NONE, FolderScanner.sniff(ByteBuffer.wrap(
+                new byte[]{(byte) 0xFF, (byte) 0xFB, (byte) 0xF0}), "a.mp3"));
+        //A video brand only counts with an audio name
+        byte[] isom = bytes("\u0000\u0000\u0000 ftypisom");
+        assertEquals(FolderScanner.KIND_NONE, FolderScanner.sniff(ByteBuffer.wrap(isom), "clip.mp4"));
+        assertEquals(FolderScanner.KIND_MP4, FolderScanner.sniff(ByteBuffer.wrap(isom), "song.M4A"));
+        assertEquals(FolderScanner.KIND_NONE, FolderScanner.sniff(ByteBuffer.wrap(new byte[]{'I', 'D'}), "a.mp3"));
+    }
+
+    @Test
+    public void nestedRootsAreWalkedOnce() {
+        assertEquals(Arrays.asList("/music", "/other"), FolderScanner.distinctRoots(
+                Arrays.asList("/music/rock/", "/other", "/music", "/music/rock/live")));
+        assertEquals(Arrays.asList("/music", "/music2"), FolderScanner.distinctRoots(
+                Arrays.asList("/music2", "/music")));
+    }
+
+    @Test
+    public void hiddenAndNomediaFoldersAreSkipped() throws IOException {
+        File album = new File(root, "Album");
+        File hidden = new File(root, ".thumbnails");
+        File ignored = new File(root, "Ringtones");
+        assertTrue(album.mkdirs() && hidden.mkdirs() && ignored.mkdirs());
+        fill(album, 0, 2);
+        fill(hidden, 0, 2);
+        fill(ignored, 0, 2);
+        write(new File(ignored, ".nomedia"), new byte[0]);
+
+        List<Audio> tracks = new FolderScanner(stateFile, pool).scan(Collections.singletonList(root.getPath())).tracks;
+        assertEquals(2, tracks.size());
+        Audio audio = tracks.get(0);
+        assertEquals(new File(album, "track 0.mp3").getPath(), audio.getData());
+        assertEquals("track 0", audio.getTitle());
+        assertEquals("Album", audio.getAlbum());
+        assertEquals(FolderScanner.UNKNOWN_ARTIST, audio.getArtist());
+        assertEquals(new File(album, "track 0.mp3").lastModified() / 1000, audio.getDateAdded());
+    }
+
+    @Test
+    public void tagsAreKeptWithTheListing() throws IOException {
+        File album = new File(root, "Album");
+        assertTrue(album.mkdirs());
+        //An MPEG frame and an ID3v1 tag
+        byte[] file = new byte[4 + 128];
+        System.arraycopy(HEADERS[1], 0, file, 0, 4);
+        System.arraycopy(bytes("TAGTagged Title"), 0, file, 4, 15);
+        System.arraycopy(bytes("Tagged Artist"), 0, file, 4 + 33, 13);
+        file[file.length - 1] = 17;
+        write(new File(album, "01.mp3"), file);
+        settle(album);
+        settle(root);
+
+        List<String> roots = Collections.singletonList(root.getPath());
+        for (int scan = 0; scan < 2; scan++) {
+            //The second scan, after a restart, opens no file: the tags come from the state
+            FolderScanner.Result result = new FolderScanner(stateFile, pool).scan(roots);
+            assertEquals(scan == 0 ? 1 : 0, result.filesSniffed);
+            Audio audio = result.tracks.get(0);
+            assertEquals("Tagged Title", audio.getTitle());
+            assertEquals("Tagged Artist", audio.getArtist());
+            //No album in the tag, the folder stands in
+            assertEquals("Album", audio.getAlbum());
+            assertEquals("Rock", audio.getGenre());
+        }
+    }
+
+    @Test
+    public void rescansOnlyWhatChanged() throws IOException {
+        int audio = buildTree(ARTISTS, ALBUMS, FILES_PER_ALBUM);
+        int files = ARTISTS * ALBUMS * FILES_PER_ALBUM;
+        int directories = 1 + ARTISTS + ARTISTS * ALBUMS;
+        List<String> roots = Collections.singletonList(root.getPath());
+
+        FolderScanner.Result cold = new FolderScanner(stateFile, pool).scan(roots);
+        assertEquals(audio, cold.tracks.size());
+        assertEquals(files, cold.files);
+        assertEquals(files, cold.filesSniffed);
+        assertEquals(directories, cold.directoriesListed);
+        assertEquals(audio, paths(cold.tracks).size());
+
+        //A new scanner, as after a restart: everything comes from the state file
+        FolderScanner scanner = new FolderScanner(stateFile, pool);
+        FolderScanner.Result warm = scanner.scan(roots);
+        assertEquals(0, warm.directoriesListed);
+        assertEquals(0, warm.filesSniffed);
+        assertEquals(files, warm.files);
+        assertEquals(paths(cold.tracks), paths(warm.tracks));
+
+        //Copy more files into one album: only that folder is listed, only the new files opened
+        File album = new File(new File(root, "Artist 7"), "Album 3");
+        int added = fill(album, FILES_PER_ALBUM, 16);
+        settle(album);
+        FolderScanner.Result incremental = scanner.scan(roots);
+        assertEquals(1, incremental.directoriesListed);
+        assertEquals(16, incremental.filesSniffed);
+        assertEquals(audio + added, incremental.tracks.size());
+        assertTrue(paths(incremental.tracks).contains(new File(album, "track " + FILES_PER_ALBUM + ".mp3").getPath()));
+
+        //Remove an album: its parent changed, the album is gone from the result and the state
+        File removed = new File(new File(root, "Artist 9"), "Album 0");
+        delete(removed);
+        settle(removed.getParentFile());
+        FolderScanner.Result afterDelete = scanner.scan(roots);
+        assertEquals(1, afterDelete.directoriesListed);
+        assertEquals(audio + added - FILES_PER_ALBUM * AUDIO_HEADERS / HEADERS.length, afterDelete.tracks.size());
+        assertEquals(directories - 1, afterDelete.directories);
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void scanRates() throws IOException {
+        buildTree(LIBRARY_ARTISTS, LIBRARY_ALBUMS, LIBRARY_FILES_PER_ALBUM);
+        int files = LIBRARY_ARTISTS * LIBRARY_ALBUMS * LIBRARY_FILES_PER_ALBUM;
+        int directories = 1 + LIBRARY_ARTISTS + LIBRARY_ARTISTS * LIBRARY_ALBUMS;
+        List<String> roots = Collections.singletonList(root.getPath());
+
+        long start = System.nanoTime();
+        new FolderScanner(stateFile, pool).scan(roots);
+        long coldNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        FolderScanner scanner = new FolderScanner(stateFile, pool);
+        scanner.scan(roots);
+        long warmNanos = System.nanoTime() - start;
+
+        File album = new File(new File(root, "Artist 7"), "Album 3");
+        fill(album, LIBRARY_FILES_PER_ALBUM, 16);
+        settle(album);
+        start = System.nanoTime();
+        scanner.scan(roots);
+        long incrementalNanos = System.nanoTime() - start;
+
+        System.out.println("folder scan: " + files + " files in " + directories + " folders, cold "
+                + coldNanos / 1000000 + "ms = " + (long) (files * 1e9 / coldNanos) + " files/s, unchanged rescan "
+                + warmNanos / 1000000 + "ms = " + (long) (files * 1e9 / warmNanos) + " files/s, one folder changed "
+                + incrementalNanos / 1000000 + "ms, state " + stateFile.length() / 1024 + "KB");
+    }
+}
@@ -0,0 +1,120 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static com.claire.audioplayerapp.TestTracks.ALBUMS_PER_FOLDER;
+import static com.claire.audioplayerapp.TestTracks.DURATION_MS;
+import static com.claire.audioplayerapp.TestTracks.FOLDER_ARTISTS;
+import static org.junit.Assert.*;
+
+/**
+ * Folder tree of a synthetic 100k-track library: collapsed chains, totals kept current as tracks
+ * arrive, a bounded listing cache, and the cost of opening folders as a benchmark.
+ */
+public class FolderTreeTest {
+
+    private static final int TRACKS = 100000;
+    private static final int CACHED = 8;
+
+    private List<Audio> tracks;
+
+    @Before
+    public void setUp() {
+        tracks = TestTracks.tracks(0, TRACKS);
+    }
+
+    private static int child(FolderTree tree, int folder, String name) {
+        for (int child : tree.open(folder).folders) {
+            if (tree.getName(child).equals(name)) return child;
+        }
+        fail("no folder " + name + " in " + tree.getPath(folder));
+        return -1;
+    }
+
+    @Test
+    public void chainsCollapseAndSplit() {
+        FolderTree tree = new FolderTree(tracks.subList(0, 10), Locale.US, CACHED);
+        //storage/emulated/0/Music is one node, each artist folder with its single album another
+        int music = child(tree, FolderTree.ROOT, "storage/emulated/0/Music");
+        int album = child(tree, music, "Artist 3/Album 0");
+        assertArrayEquals(new int[]{3}, tree.open(album).tracks);
+        assertEquals("/storage/emulated/0/Music/Artist 3/Album 0", tree.getPath(album));
+
+        //A track directly in emulated/0 splits the chain, totals stay with each part
+        Audio download = new Audio("/storage/emulated/0/x.mp3", "x", null, null);
+        download.setDuration(500);
+        tree.onTracksAdded(10, Collections.singletonList(download));
+        int storage = child(tree, FolderTree.ROOT, "storage/emulated/0");
+        assertArrayEquals(new int[]{10}, tree.open(storage).tracks);
+        music = child(tree, storage, "Music");
+        assertEquals(10, tree.getTrackCount(music));
+        assertEquals(11, tree.getTrackCount(storage));
+        assertEquals(10 * DURATION_MS + 500, tree.getDuration(FolderTree.ROOT));
+        assertEquals("/storage/emulated/0/Music", tree.getPath(music));
+    }
+
+    @Test
+    public void totalsFollowAddedTracks() {
+        FolderTree tree = new FolderTree(tracks.subList(0, TRACKS / 2), Locale.US, CACHED);
+        tree.onTracksAdded(TRACKS / 2, tracks.subList(TRACKS / 2, TRACKS));
+        assertEquals(TRACKS, tree.getTrackCount(FolderTree.ROOT));
+        assertEquals(TRACKS * DURATION_MS, tree.getDuration(FolderTree.ROOT));
+        int music = child(tree, FolderTree.ROOT, "storage/emulated/0/Music");
+        assertEquals(FOLDER_ARTISTS, tree.open(music).folders.length);
+        int artist = child(tree, music, "Artist 7");
+        assertEquals(TRACKS / FOLDER_ARTISTS, tree.getTrackCount(artist));
+        assertEquals(ALBUMS_PER_FOLDER, tree.open(artist).folders.length);
+        //root, the Music chain, artists and albums
+        assertEquals(2 + FOLDER_ARTISTS + FOLDER_ARTISTS * ALBUMS_PER_FOLDER, tree.getFolderCount());
+    }
+
+    @Test
+    public void listingCacheIsBounded() {
+        FolderTree tree = new FolderTree(tracks, Locale.US, CACHED);
+        int music = child(tree, FolderTree.ROOT, "storage/emulated/0/Music");
+        int[] artists = tree.open(music).folders;
+        for (int i = 0; i < 100; i++) {
+            FolderTree.Listing listing = tree.open(artists[i]);
+            assertEquals(ALBUMS_PER_FOLDER, listing.folders.length);
+            assertTrue(tree.getCachedListingCount() <= CACHED);
+        }
+        //Evicted listings are built again with the same contents
+        assertArrayEquals(tree.open(artists[0]).folders, tree.open(artists[0]).folders);
+        assertEquals(CACHED, tree.getCachedListingCount());
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void openFolderCost() {
+        long start = System.nanoTime();
+        FolderTree tree = new FolderTree(tracks, Locale.US, CACHED);
+        long buildMillis = (System.nanoTime() - start) / 1000000;
+
+        int music = child(tree, FolderTree.ROOT, "storage/emulated/0/Music");
+        int[] artists = tree.open(music).folders;
+        //Browse like a user: an artist, one of its albums, back up, another artist
+        long[] nanos = new long[2000];
+        for (int i = 0; i < nanos.length; i++) {
+            int artist = artists[(i * 7919) % artists.length];
+            long t = System.nanoTime();
+            FolderTree.Listing listing = tree.open(artist);
+            tree.open(listing.folders[i % listing.folders.length]);
+            tree.open(music);
+            nanos[i] = System.nanoTime() - t;
+        }
+        Arrays.sort(nanos);
+        long p50 = nanos[nanos.length / 2] / 1000;
+        long p99 = nanos[nanos.length * 99 / 100] / 1000;
+        System.out.println("folders: " + tree.getFolderCount() + " nodes for " + TRACKS + " tracks, build "
+                + buildMillis + "ms, open artist+album+back p50 " + p50 + "us p99 " + p99 + "us, "
+                + tree.getCachedListingCount() + " listings held");
+        assertTrue("p99 " + p99 + "us", p99 < 5000);
+    }
+}
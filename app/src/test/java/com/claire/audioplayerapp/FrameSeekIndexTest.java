@@ -0,0 +1,263 @@
+package com.claire.audioplayerapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Frame seek index over generated MPEG-1 layer III files: a 3-hour VBR file with an ID3v2 tag, a
+ * Xing frame and an ID3v1 tag, checked frame by frame; seek error of the Xing table of contents
+ * and of a CBR guess for comparison; the stored index and its invalidation. Build, load and seek
+ * times are a benchmark.
+ */
+public class FrameSeekIndexTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int SAMPLES_PER_FRAME = 1152;
+    private static final int[] KBPS = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = new File(System.getProperty("java.io.tmpdir"), "seek-" + System.nanoTime());
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) for (File child : children) delete(child);
+        file.delete();
+    }
+
+    private static int header(int bitrateIndex, int padding) {
+        //MPEG-1 layer III, no CRC, 44.1kHz, joint stereo
+        return 0xFFFB0000 | bitrateIndex << 12 | padding << 9 | 0x40;
+    }
+
+    private static int length(int bitrateIndex, int padding) {
+        return 144 * KBPS[bitrateIndex] * 1000 / SAMPLE_RATE + padding;
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Writes frames with the given bitrate indexes, optionally behind an ID3v2 tag and a Xing frame
+     * and ahead of an ID3v1 tag
+     * @return the offset of every audio frame, then the file length
+     */
+    static long[] write(File file, int[] bitrates, boolean tags, Random random) throws IOException {
+        long[] offsets = new long[bitrates.length + 1];
+        byte[] zeros = new byte[2000];
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        long offset = 0;
+        try {
+            if (tags) {
+                //ID3v2.4, 1000 bytes of frames (syncsafe size 7 << 7 | 104)
+                out.write(new byte[]{'I', 'D', '3', 4, 0, 0, 0, 0, 7, 104});
+                out.write(zeros, 0, 1000);
+                offset += 1010;
+                int xing = length(9, 0);
+                writeInt(out, header(9, 0));
+                out.write(zeros, 0, 32);
+                out.write(new byte[]{'X', 'i', 'n', 'g'});
+                out.write(zeros, 0, xing - 40);
+                offset += xing;
+            }
+            for (int i = 0; i < bitrates.length; i++) {
+                int padding = random.nextInt(2);
+                offsets[i] = offset;
+                writeInt(out, header(bitrates[i], padding));
+                int size = length(bitrates[i], padding);
+                out.write(zeros, 0, size - 4);
+                offset += size;
+            }
+            if (tags) {
+                out.write(new byte[]{'T', 'A', 'G'});
+                out.write(zeros, 0, 125);
+                offset += 128;
+            }
+        } finally {
+            out.close();
+        }
+        offsets[bitrates.length] = offset;
+        return offsets;
+    }
+
+    //A VBR encoder's spread: mostly 96-160kbps, quiet passages lower, loud ones higher
+    static int[] vbrBitrates(int frames, Random random) {
+        int[] bitrates = new int[frames];
+        int level = 8;
+        for (int i = 0; i < frames; i++) {
+            if (random.nextInt(200) == 0) level = 5 + random.nextInt(8);
+            bitrates[i] = Math.max(1, Math.min(14, level + random.nextInt(3) - 1));
+        }
+        return bitrates;
+    }
+
+    //The audio frame that holds the byte at offset
+    private static int frameOf(long[] offsets, int frames, long offset) {
+        int at = Arrays.binarySearch(offsets, 0, frames, offset);
+        return Math.max(at >= 0 ? at : -at - 2, 0);
+    }
+
+    private static long timeOf(int frame) {
+        return (long) frame * SAMPLES_PER_FRAME * 1000 / SAMPLE_RATE;
+    }
+
+    @Test
+    public void threeHourVbrFile() throws IOException {
+        Random random = new Random(11);
+        int frames = (int) (3 * 3600L * SAMPLE_RATE / SAMPLES_PER_FRAME);
+        int[] bitrates = vbrBitrates(frames, random);
+        File audio = new File(dir, "mix.mp3");
+        long[] offsets = write(audio, bitrates, true, random);
+
+        FrameSeekIndex index = FrameSeekIndex.loadOrBuild(new File(dir, "seek"), audio.getPath());
+        FrameSeekIndex loaded = FrameSeekIndex.loadOrBuild(new File(dir, "seek"), audio.getPath());
+
+        assertEquals(frames, index.getFrameCount());
+        assertEquals(frames, loaded.getFrameCount());
+        assertTrue(index.isVariableBitrate());
+        assertEquals(timeOf(frames), index.getDurationMs());
+        for (int frame = 0; frame < frames; frame += 997) {
+            assertEquals(offsets[frame], index.offsetOfFrame(frame));
+            assertEquals(offsets[frame], loaded.offsetOfFrame(frame));
+        }
+        assertEquals(offsets[frames - 1], index.offsetOfFrame(frames - 1));
+        assertEquals(-1, index.frameAt(index.getDurationMs() + 100));
+
+        //Seek targets across the file: the index against the Xing table of contents (100 points,
+        //interpolated) and a CBR guess from the first frame's bitrate
+        long fileLength = offsets[frames];
+        long[] toc = new long[101];
+        for (int p = 0; p <= 100; p++) toc[p] = offsets[Math.min((int) ((long) frames * p / 100), frames - 1)];
+        int targets = 20000;
+        long[] positions = new long[targets];
+        for (int i = 0; i < targets; i++) positions[i] = (long) (random.nextDouble() * (index.getDurationMs() - 1));
+        long indexError = 0, tocError = 0, cbrError = 0;
+        for (long target : positions) {
+            int frame = index.frameAt(target);
+            long offset = index.offsetOfFrame(frame);
+            assertEquals(offsets[frame], offset);
+            long landed = index.timeOfFrame(frame);
+            //Within the frame, 26.1ms, plus the rounding of the frame start to whole ms
+            assertTrue(target + " landed at " + landed, landed <= target && target - landed <= 27);
+            indexError = Math.max(indexError, target - landed);
+
+            double percent = target * 100.0 / index.getDurationMs();
+            int p = (int) percent;
+            long tocOffset = toc[p] + (long) ((toc[Math.min(p + 1, 100)] - toc[p]) * (percent - p));
+            tocError = Math.max(tocError, Math.abs(timeOf(frameOf(offsets, frames, tocOffset)) - target));
+            long cbrOffset = offsets[0] + target * KBPS[bitrates[0]] / 8;
+            cbrError = Math.max(cbrError, Math.abs(timeOf(frameOf(offsets, frames, Math.min(cbrOffset, fileLength))) - target));
+        }
+
+        assertTrue("index " + indexError + "ms, Xing TOC " + tocError + "ms", tocError > indexError);
+        assertTrue("CBR guess " + cbrError + "ms", cbrError > tocError);
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void buildLoadAndSeekCost() throws IOException {
+        Random random = new Random(11);
+        int frames = (int) (3 * 3600L * SAMPLE_RATE / SAMPLES_PER_FRAME);
+        File audio = new File(dir, "mix.mp3");
+        long[] offsets = write(audio, vbrBitrates(frames, random), true, random);
+
+        long start = System.nanoTime();
+        FrameSeekIndex index = FrameSeekIndex.loadOrBuild(new File(dir, "seek"), audio.getPath());
+        long buildMillis = (System.nanoTime() - start) / 1000000;
+        start = System.nanoTime();
+        FrameSeekIndex.loadOrBuild(new File(dir, "seek"), audio.getPath());
+        long loadMillis = (System.nanoTime() - start) / 1000000;
+
+        int targets = 20000;
+        long[] positions = new long[targets];
+        for (int i = 0; i < targets; i++) positions[i] = (long) (random.nextDouble() * (index.getDurationMs() - 1));
+        long sum = 0;
+        //Lookup cost, warmed first
+        for (int round = 0; round < 2; round++) {
+            start = System.nanoTime();
+            for (long target : positions) sum += index.offsetOfFrame(index.frameAt(target));
+        }
+        long lookupNanos = (System.nanoTime() - start) / targets;
+        System.out.println("frame seek index: " + frames + " frames (3h, " + offsets[frames] / (1024 * 1024) + "MB), built in "
+                + buildMillis + "ms, loaded in " + loadMillis + "ms, " + index.estimatedBytes() / 1024 + "KB; seek "
+                + lookupNanos + "ns");
+        assertTrue(sum > 0);
+        assertTrue("lookup " + lookupNanos + "ns", lookupNanos < 100000);
+    }
+
+    @Test
+    public void cbrAndBrokenFiles() throws IOException {
+        Random random = new Random(3);
+        int[] cbr = new int[3000];
+        Arrays.fill(cbr, 9);
+        File constant = new File(dir, "cbr.mp3");
+        write(constant, cbr, false, random);
+        FrameSeekIndex index = FrameSeekIndex.build(constant);
+        assertEquals(3000, index.getFrameCount());
+        assertFalse(index.isVariableBitrate());
+
+        //Garbage in the middle: only the frames before it are covered
+        File broken = new File(dir, "broken.mp3");
+        long[] offsets = write(broken, vbrBitrates(3000, random), false, random);
+        RandomAccessFile file = new RandomAccessFile(broken, "rw");
+        file.seek(offsets[2000]);
+        file.writeInt(0x12345678);
+        file.close();
+        index = FrameSeekIndex.build(broken);
+        assertEquals(2000, index.getFrameCount());
+        assertEquals(offsets[1999], index.offsetOfFrame(1999));
+        assertEquals(-1, index.frameAt(timeOf(2500)));
+
+        //Not audio at all
+        File text = new File(dir, "notes.mp3");
+        OutputStream out = new FileOutputStream(text);
+        out.write("not an mp3".getBytes("UTF-8"));
+        out.close();
+        assertEquals(0, FrameSeekIndex.build(text).getFrameCount());
+        assertEquals(-1, FrameSeekIndex.build(text).frameAt(0));
+    }
+
+    @Test
+    public void storedIndexFollowsTheFile() throws IOException {
+        Random random = new Random(5);
+        File seekDir = new File(dir, "seek");
+        File audio = new File(dir, "book.mp3");
+        write(audio, vbrBitrates(5000, random), true, random);
+        assertEquals(5000, FrameSeekIndex.loadOrBuild(seekDir, audio.getPath()).getFrameCount());
+        assertEquals(1, seekDir.list().length);
+
+        //Re-encoded in place: a different length, the stored index no longer applies
+        long[] offsets = write(audio, vbrBitrates(7000, random), true, random);
+        FrameSeekIndex index = FrameSeekIndex.loadOrBuild(seekDir, audio.getPath());
+        assertEquals(7000, index.getFrameCount());
+        assertEquals(offsets[6999], index.offsetOfFrame(6999));
+        assertEquals(7000, FrameSeekIndex.loadOrBuild(seekDir, audio.getPath()).getFrameCount());
+        assertEquals(1, seekDir.list().length);
+    }
+}
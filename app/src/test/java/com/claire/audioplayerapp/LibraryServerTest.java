@@ -0,0 +1,247 @@
+package com.claire.audioplayerapp;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * LibraryServer on loopback: ranges, the catalog pages and concurrent downloads. Sustained
+ * throughput with dozens of clients, while a timer thread stands in for playback and measures
+ * its oversleep, is a benchmark.
+ */
+public class LibraryServerTest {
+
+    private static final int FILES = 4;
+    private static final int FILE_BYTES = 8 * 1024 * 1024;
+    private static final int CLIENTS = 32;
+    private static final int DOWNLOADS_PER_CLIENT = 4;
+
+    private File dir;
+    private List<Audio> catalog;
+    private byte[][] contents;
+    private LibraryServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File(System.getProperty("java.io.tmpdir"), "library-" + System.nanoTime());
+        assertTrue(dir.mkdirs());
+        catalog = new ArrayList<>();
+        contents = new byte[FILES][];
+        Random random = new Random(1);
+        for (int i = 0; i < FILES; i++) {
+            contents[i] = new byte[FILE_BYTES];
+            random.nextBytes(contents[i]);
+            File file = new File(dir, i + ".mp3");
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(contents[i]);
+            out.close();
+            Audio audio = new Audio(file.getPath(), "Track \"" + i + "\"", "Album", "Artist " + i);
+            audio.setDuration(1000 * i);
+            catalog.add(audio);
+        }
+        catalog.add(new Audio(new File(dir, "missing.mp3").getPath(), "Missing", null, null));
+        server = new LibraryServer(catalog, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        for (File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    private HttpURLConnection open(String path, String method, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        if (range != null) connection.setRequestProperty("Range", range);
+        return connection;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) > 0) out.write(buffer, 0, read);
+        in.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void rangesAndErrors() throws IOException {
+        HttpURLConnection full = open("/tracks/1", "GET", null);
+        assertEquals(200, full.getResponseCode());
+        assertEquals("audio/mpeg", full.getContentType());
+        assertEquals("bytes", full.getHeaderField("Accept-Ranges"));
+        assertArrayEquals(contents[1], readAll(full.getInputStream()));
+
+        HttpURLConnection middle = open("/tracks/2", "GET", "bytes=1000-1999");
+        assertEquals(206, middle.getResponseCode());
+        assertEquals("bytes 1000-1999/" + FILE_BYTES, middle.getHeaderField("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(contents[2], 1000, 2000), readAll(middle.getInputStream()));
+
+        HttpURLConnection tail = open("/tracks/0", "GET", "bytes=-10");
+        assertEquals(206, tail.getResponseCode());
+        assertArrayEquals(Arrays.copyOfRange(contents[0], FILE_BYTES - 10, FILE_BYTES), readAll(tail.getInputStream()));
+
+        HttpURLConnection open = open("/tracks/0", "GET", "bytes=" + (FILE_BYTES - 5) + "-");
+        assertEquals(206, open.getResponseCode());
+        assertEquals(5, readAll(open.getInputStream()).length);
+
+        assertEquals(416, open("/tracks/0", "GET", "bytes=" + FILE_BYTES + "-").getResponseCode());
+        HttpURLConnection head = open("/tracks/3", "HEAD", null);
+        assertEquals(200, head.getResponseCode());
+        assertEquals(String.valueOf(FILE_BYTES), head.getHeaderField("Content-Length"));
+
+        assertEquals(404, open("/tracks/4", "GET", null).getResponseCode());
+        assertEquals(404, open("/tracks/99", "GET", null).getResponseCode());
+        assertEquals(404, open("/tracks/..%2F0.mp3", "GET", null).getResponseCode());
+        assertEquals(404, open("/etc/passwd", "GET", null).getResponseCode());
+        assertEquals(405, open("/tracks/0", "DELETE", null).getResponseCode());
+    }
+
+    @Test
+    public void parseRange() {
+        assertArrayEquals(new long[]{0, 100}, LibraryServer.parseRange("bytes=0-", 100));
+        assertArrayEquals(new long[]{10, 100}, LibraryServer.parseRange("bytes=10-500", 100));
+        assertArrayEquals(new long[]{0, 100}, LibraryServer.parseRange("bytes=-500", 100));
+        assertArrayEquals(new long[]{-1, -1}, LibraryServer.parseRange("bytes=100-", 100));
+        assertArrayEquals(new long[]{-1, -1}, LibraryServer.parseRange("bytes=-0", 100));
+        assertNull(LibraryServer.parseRange("bytes=0-1,5-6", 100));
+        assertNull(LibraryServer.parseRange("bytes=5-1", 100));
+        assertNull(LibraryServer.parseRange("items=0-1", 100));
+        assertNull(LibraryServer.parseRange(null, 100));
+    }
+
+    @Test
+    public void catalogPages() throws IOException {
+        HttpURLConnection page = open("/catalog?offset=1&limit=2", "GET", null);
+        assertEquals(200, page.getResponseCode());
+        JsonObject json = new JsonParser().parse(new String(readAll(page.getInputStream()), "UTF-8")).getAsJsonObject();
+        assertEquals(FILES + 1, json.get("total").getAsInt());
+        assertEquals(2, json.getAsJsonArray("tracks").size());
+        JsonObject track = json.getAsJsonArray("tracks").get(0).getAsJsonObject();
+        assertEquals(1, track.get("id").getAsInt());
+        assertEquals("Track \"1\"", track.get("title").getAsString());
+        assertEquals(1000, track.get("duration").getAsLong());
+        assertFalse(json.toString().contains(dir.getPath()));
+
+        JsonObject past = new JsonParser().parse(new String(readAll(open("/catalog?offset=100", "GET", null)
+                .getInputStream()), "UTF-8")).getAsJsonObject();
+        assertEquals(0, past.getAsJsonArray("tracks").size());
+    }
+
+    //Each client downloads one file after another, returns the bytes received
+    private long downloadConcurrently(int clients, final int downloadsPerClient, final AtomicInteger failures)
+            throws InterruptedException {
+        final AtomicLong received = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(clients);
+        for (int c = 0; c < clients; c++) {
+            final int client = c;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        byte[] buffer = new byte[64 * 1024];
+                        for (int d = 0; d < downloadsPerClient; d++) {
+                            HttpURLConnection connection = open("/tracks/" + ((client + d) % FILES), "GET", null);
+                            InputStream in = connection.getInputStream();
+                            long total = 0;
+                            int read;
+                            while ((read = in.read(buffer)) > 0) total += read;
+                            in.close();
+                            if (total != FILE_BYTES) failures.incrementAndGet();
+                            received.addAndGet(total);
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        return received.get();
+    }
+
+    @Test
+    public void concurrentDownloads() throws Exception {
+        AtomicInteger failures = new AtomicInteger();
+        long received = downloadConcurrently(8, 2, failures);
+        assertEquals(0, failures.get());
+        assertEquals(8L * 2 * FILE_BYTES, received);
+        assertEquals(received, server.getBytesSent());
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void concurrentThroughput() throws Exception {
+        //Stand-in for the playback thread: wakes every 10ms, records how late it was
+        final AtomicLong worstLateNanos = new AtomicLong();
+        final long[] lateness = new long[100000];
+        final AtomicInteger ticks = new AtomicInteger();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        Thread playback = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!stopped.get()) {
+                    long start = System.nanoTime();
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long late = System.nanoTime() - start - 10000000L;
+                    int tick = ticks.getAndIncrement();
+                    if (tick < lateness.length) lateness[tick] = late;
+                    if (late > worstLateNanos.get()) worstLateNanos.set(late);
+                }
+            }
+        });
+        playback.setPriority(Thread.MAX_PRIORITY);
+        playback.start();
+
+        AtomicInteger failures = new AtomicInteger();
+        long start = System.nanoTime();
+        long received = downloadConcurrently(CLIENTS, DOWNLOADS_PER_CLIENT, failures);
+        long nanos = System.nanoTime() - start;
+        stopped.set(true);
+        playback.join();
+
+        int measured = Math.min(ticks.get(), lateness.length);
+        long[] sorted = Arrays.copyOf(lateness, measured);
+        Arrays.sort(sorted);
+        long p99Late = measured > 0 ? sorted[measured * 99 / 100] / 1000 : 0;
+        double megabytes = received / (1024.0 * 1024.0);
+        System.out.println("library server: " + CLIENTS + " clients, " + (int) megabytes + "MB in "
+                + nanos / 1000000 + "ms = " + (int) (megabytes * 1e9 / nanos) + "MB/s, server sent "
+                + server.getBytesSent() / (1024 * 1024) + "MB, 10ms timer late p99 " + p99Late + "us worst "
+                + worstLateNanos.get() / 1000 + "us");
+        assertEquals(0, failures.get());
+        assertEquals((long) CLIENTS * DOWNLOADS_PER_CLIENT * FILE_BYTES, received);
+    }
+}
@@ -0,0 +1,112 @@
+package com.claire.audioplayerapp;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Which entries shrink or drop at each trim level, what is reported, and the size estimates of the
+ * structures registered with it.
+ */
+public class MemoryTrimmerTest {
+
+    //A cache of size bytes that halves on shrink and empties on drop
+    private static class FakeCache implements MemoryTrimmer.Trimmable {
+        final List<String> log;
+        final String name;
+        long size;
+
+        FakeCache(List<String> log, String name, long size) {
+            this.log = log;
+            this.name = name;
+            this.size = size;
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return size;
+        }
+
+        @Override
+        public void trim(boolean all) {
+            log.add(name + (all ? " drop" : " shrink"));
+            size = all ? 0 : size / 2;
+        }
+    }
+
+    private final List<String> log = new ArrayList<>();
+
+    private MemoryTrimmer trimmer() {
+        MemoryTrimmer trimmer = new MemoryTrimmer();
+        //Registered out of order, trimmed by priority
+        trimmer.register("catalog", MemoryTrimmer.PRIORITY_PINNED, new FakeCache(log, "catalog", 4096));
+        trimmer.register("player", MemoryTrimmer.PRIORITY_WORKING, new FakeCache(log, "player", 4096));
+        trimmer.register("folders", MemoryTrimmer.PRIORITY_REBUILDABLE, new FakeCache(log, "folders", 4096));
+        trimmer.register("images", MemoryTrimmer.PRIORITY_DISPOSABLE, new FakeCache(log, "images", 4096));
+        return trimmer;
+    }
+
+    private String trimAt(int level) {
+        log.clear();
+        trimmer().onTrimMemory(level);
+        return log.toString();
+    }
+
+    @Test
+    public void tiersWalkUpThePriorities() {
+        assertEquals("[]", trimAt(0));
+        assertEquals("[images shrink]", trimAt(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE));
+        assertEquals("[images drop, folders shrink]", trimAt(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertEquals("[images drop, folders drop]", trimAt(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        //Hidden but not yet in the background: only the UI's caches
+        assertEquals("[images drop]", trimAt(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertEquals("[images drop, folders drop]", trimAt(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertEquals("[images drop, folders drop, player shrink]", trimAt(ComponentCallbacks2.TRIM_MEMORY_MODERATE));
+        assertEquals("[images drop, folders drop, player drop]", trimAt(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+        log.clear();
+        trimmer().onLowMemory();
+        assertEquals("[images drop, folders drop, player drop]", log.toString());
+    }
+
+    @Test
+    public void reportsBytesPerEntry() {
+        MemoryTrimmer trimmer = trimmer();
+        assertEquals("[images, folders, player, catalog]", trimmer.getSizes().keySet().toString());
+        assertEquals(4 * 4096, trimmer.getTotalBytes());
+        assertEquals(4096 / 2 + 4096, trimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(Long.valueOf(2048), trimmer.getSizes().get("folders"));
+        assertEquals("tier 3, 10KB: images 0KB, folders 2KB, player 4KB, catalog 4KB", trimmer.describe());
+        trimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(4096, trimmer.getTotalBytes());
+    }
+
+    @Test
+    public void structureEstimates() {
+        List<Audio> tracks = TestTracks.tracks(0, 20000);
+        long catalog = MemoryTrimmer.estimatedBytes(tracks);
+        assertTrue(catalog > 20000 * 200);
+
+        FolderTree folders = new FolderTree(tracks, Locale.ROOT, 32);
+        long built = folders.estimatedBytes();
+        for (int node = 0; node < folders.getFolderCount(); node++) folders.open(node);
+        long withListings = folders.estimatedBytes();
+        assertTrue(withListings > built);
+        folders.clearListings();
+        assertEquals(built, folders.estimatedBytes());
+
+        long path = new PathIndex(tracks).estimatedBytes();
+        long browse = new BrowseIndex(tracks, Locale.ROOT).estimatedBytes();
+        long smart = new SmartPlaylistIndex(tracks).estimatedBytes();
+        //Every index is well under the catalog it is built from
+        for (long bytes : new long[]{built, path, browse, smart}) {
+            assertTrue(bytes > 0);
+            assertTrue(bytes + " of " + catalog, bytes < catalog);
+        }
+    }
+}
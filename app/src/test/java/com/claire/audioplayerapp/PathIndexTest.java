@@ -0,0 +1,130 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.claire.audioplayerapp.TestTracks.track;
+import static org.junit.Assert.*;
+
+/**
+ * Exact, normalized and file name lookups and tracks appended after the index was built; the
+ * cost of resolving every path of a large catalog is a benchmark.
+ */
+public class PathIndexTest {
+
+    @Test
+    public void findsByPathAndName() {
+        List<Audio> tracks = new ArrayList<>();
+        tracks.add(track("/storage/emulated/0/Music/a.mp3"));
+        tracks.add(track("/storage/emulated/0/Music/Album/b.flac"));
+        tracks.add(track("/storage/emulated/0/Music/One/same.mp3"));
+        tracks.add(track("/storage/emulated/0/Music/Two/same.mp3"));
+        tracks.add(track("/storage/emulated/0/Music/Ünïcode song.mp3"));
+        PathIndex index = new PathIndex(tracks);
+
+        assertEquals(0, index.find("/storage/emulated/0/Music/a.mp3"));
+        assertEquals(1, index.find("/storage/emulated/0/Music/Other/../Album/./b.flac"));
+        assertEquals(1, index.find("\\storage\\emulated\\0\\Music\\Album\\b.flac"));
+        assertEquals(4, index.find("file:///storage/emulated/0/Music/%C3%9Cn%C3%AFcode%20song.mp3"));
+        //Written on another device: the file name is enough while it is unique
+        assertEquals(1, index.find("/sdcard/Music/Album/B.FLAC"));
+        assertEquals(-1, index.find("/sdcard/Music/same.mp3"));
+        assertEquals(3, index.find("/storage/emulated/0/Music/Two/same.mp3"));
+        assertEquals(-1, index.find("/storage/emulated/0/Music/missing.mp3"));
+
+        //contains() is the exact path only
+        assertTrue(index.contains("/storage/emulated/0/Music//a.mp3"));
+        assertFalse(index.contains("/sdcard/Music/a.mp3"));
+    }
+
+    @Test
+    public void tracksAppendedLater() {
+        List<Audio> tracks = new ArrayList<>();
+        PathIndex index = new PathIndex(tracks);
+        //Past the initial table, so it grows on the way
+        for (int i = 0; i < 100; i++) {
+            tracks.add(track("/music/" + i + ".mp3"));
+            index.add(i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, index.find("/music/" + i + ".mp3"));
+        }
+        assertEquals(-1, index.find("/music/100.mp3"));
+    }
+
+    @Test
+    public void extendedFromCatalogSnapshots() {
+        ArrayList<Audio> initial = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            initial.add(track("/music/" + i + ".mp3"));
+        }
+        AudioCatalog catalog = new AudioCatalog(initial);
+        List<Audio> first = catalog.snapshot();
+        PathIndex index = new PathIndex(first);
+
+        //Past a chunk boundary, and the older snapshot does not see it
+        List<Audio> added = new ArrayList<>();
+        for (int i = 1500; i < 2100; i++) {
+            added.add(track("/music/" + i + ".mp3"));
+        }
+        catalog.addAll(added);
+        assertEquals(1500, first.size());
+        assertEquals(2100, catalog.snapshot().size());
+        assertSame(catalog.get(2099), catalog.snapshot().get(2099));
+
+        assertEquals(-1, index.find("/music/2000.mp3"));
+        index.extend(catalog.snapshot());
+        for (int i = 0; i < 2100; i++) {
+            assertEquals(i, index.find("/music/" + i + ".mp3"));
+        }
+    }
+
+    @Test
+    public void normalize() {
+        assertEquals("/a/c.mp3", PathIndex.normalize(" /a/b/../c.mp3 "));
+        assertEquals("a/c.mp3", PathIndex.normalize("a/./b/../c.mp3"));
+        assertEquals("/a/b.mp3", PathIndex.normalize("FILE:///a//b.mp3"));
+        assertEquals("/a/.hidden/b.mp3", PathIndex.normalize("/a/.hidden/b.mp3"));
+        //Not an escape, left as it is
+        assertEquals("/a/100%.mp3", PathIndex.normalize("file:///a/100%.mp3"));
+    }
+
+    /**
+     * Builds the index over 100k tracks and resolves each of them once by path and once by file
+     * name, as an import of the whole library would.
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void largeCatalog() {
+        int count = 100000;
+        List<Audio> tracks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tracks.add(track("/storage/emulated/0/Music/Artist " + (i % 2000) + "/Album " + (i / 2000) + "/" + i + ".mp3"));
+        }
+        //Warm up
+        for (int run = 0; run < 3; run++) {
+            PathIndex index = new PathIndex(tracks);
+            for (int i = 0; i < count; i += 7) index.find(tracks.get(i).getData());
+        }
+        long start = System.nanoTime();
+        PathIndex index = new PathIndex(tracks);
+        long built = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, index.find(tracks.get(i).getData()));
+        }
+        long byPath = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, index.find("/sdcard/Music/" + i + ".mp3"));
+        }
+        long byName = System.nanoTime() - start;
+        System.out.println(String.format("path index of %d tracks: built in %.1fms, %.0fns by path, %.0fns by name",
+                count, built / 1e6, byPath / (double) count, byName / (double) count));
+        assertTrue(byPath / count < 20000);
+        assertTrue(byName / count < 20000);
+    }
+}
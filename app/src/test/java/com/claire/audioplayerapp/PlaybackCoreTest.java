@@ -0,0 +1,545 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * PlaybackCore against SimulatedPlayer: queue and focus rules, then thousands of random command
+ * sequences with command-to-state latency percentiles in virtual time.
+ */
+public class PlaybackCoreTest {
+
+    private static final int TRACKS = 1000;
+    private static final long PREPARE_MIN_MS = 20;
+    private static final long PREPARE_MAX_MS = 120;
+    private static final long SEEK_MS = 15;
+    private static final long DURATION_MS = 180000;
+    private static final long SKIP_SETTLE_MS = 300;
+
+    //Host that keeps what the service would do
+    static class RecordingHost implements PlaybackCore.Host {
+        final List<PlaybackCore.State> states = new ArrayList<>();
+        final IntList skips = new IntList();
+        int plays;
+        int completions;
+        boolean ended;
+        //What the service writes to disk: the stored index and the queue journal position
+        int trackChanges;
+        int positionChanges;
+        int pending;
+        //Snapshots the journal would write
+        int queueReplacements;
+        //Latency probe: virtual time at which waitingFor was first reached
+        SimulatedPlayer clock;
+        PlaybackCore.State waitingFor;
+        long settledAt = -1;
+
+        @Override
+        public void onTrackChanged(int ordinal) {
+            trackChanges++;
+        }
+
+        @Override
+        public void onTrackPending(int ordinal) {
+            pending++;
+        }
+
+        @Override
+        public void scheduleSettle(long delayMs) {
+            clock.scheduleSettle(delayMs);
+        }
+
+        @Override
+        public void onStateChanged(PlaybackCore.State state) {
+            states.add(state);
+            if (state == waitingFor && settledAt < 0) settledAt = clock.now();
+        }
+
+        @Override
+        public void onTrackEvent(byte event, int ordinal, int positionMs) {
+            if (event == ListeningHistory.EVENT_PLAY) plays++;
+            else if (event == ListeningHistory.EVENT_SKIP) skips.add(ordinal);
+            else completions++;
+        }
+
+        @Override
+        public void onPlaybackEnded() {
+            ended = true;
+        }
+
+        @Override
+        public void onQueueReplaced(UpNextQueue queue, int position) {
+            queueReplacements++;
+        }
+
+        @Override
+        public void onQueuePositionChanged(int position) {
+            positionChanges++;
+        }
+    }
+
+    private SimulatedPlayer player;
+    private RecordingHost host;
+    private PlaybackCore core;
+
+    @Before
+    public void setUp() {
+        player = new SimulatedPlayer(PREPARE_MIN_MS, PREPARE_MAX_MS, SEEK_MS, DURATION_MS, 1);
+        host = new RecordingHost();
+        host.clock = player;
+        core = new PlaybackCore(player, host, 2);
+        player.attach(core);
+        core.setTrackCount(TRACKS);
+    }
+
+    @Test
+    public void skipWrapsAroundCatalog() {
+        core.play(TRACKS - 1);
+        player.advance(PREPARE_MAX_MS);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+        core.skipToNext();
+        assertEquals(0, core.getCurrentOrdinal());
+        core.skipToPrevious();
+        assertEquals(TRACKS - 1, core.getCurrentOrdinal());
+        //Only the skip while playing counts, the second one left a track that was still preparing
+        assertEquals(1, host.skips.size());
+    }
+
+    @Test
+    public void queueIsFollowed() {
+        IntList queue = IntList.of(new int[]{5, 9, 2}, 3);
+        core.playQueue(queue, 1);
+        assertEquals(9, core.getCurrentOrdinal());
+        core.skipToNext();
+        assertEquals(2, core.getCurrentOrdinal());
+        core.skipToNext();
+        assertEquals(5, core.getCurrentOrdinal());
+        assertEquals(9, core.peek(1));
+    }
+
+    @Test
+    public void upNextEditsKeepThePlayingEntry() {
+        core.play(10);
+        core.playNext(500);
+        core.enqueue(700);
+        assertEquals(500, core.peek(1));
+        assertEquals(700, core.getQueue().get(TRACKS + 1));
+        //Move the playing entry to the front, then remove what was after it
+        int playing = core.getQueuePosition();
+        core.moveQueueItem(playing, 0);
+        assertEquals(0, core.getQueuePosition());
+        assertEquals(10, core.getQueue().get(0));
+        core.removeQueueItem(1);
+        assertEquals(10, core.getQueue().get(core.getQueuePosition()));
+        //Ordinal 0 was removed from after the playing entry
+        core.skipToNext();
+        assertEquals(1, core.getCurrentOrdinal());
+    }
+
+    @Test
+    public void selectionIsQueuedInOneReplacement() {
+        core.play(10);
+        //Half the catalog, as selected in the list, plus what is not in the catalog
+        IntList selected = new IntList();
+        for (int i = TRACKS - 1; i >= 0; i -= 2) selected.add(i);
+        selected.add(TRACKS);
+        selected.add(-1);
+        int replacedBefore = host.queueReplacements;
+        core.playNext(selected);
+        assertEquals(replacedBefore + 1, host.queueReplacements);
+        UpNextQueue queue = core.getQueue();
+        assertEquals(TRACKS + TRACKS / 2, queue.size());
+        //Right after the playing entry, in the given order, the catalog order after them
+        assertEquals(10, queue.get(core.getQueuePosition()));
+        assertEquals(TRACKS - 1, core.peek(1));
+        assertEquals(TRACKS - 3, core.peek(2));
+        assertEquals(1, core.peek(TRACKS / 2));
+        assertEquals(11, core.peek(TRACKS / 2 + 1));
+
+        core.enqueue(IntList.of(new int[]{4, 2}, 2));
+        assertEquals(replacedBefore + 2, host.queueReplacements);
+        assertEquals(2, core.getQueue().get(core.getQueue().size() - 1));
+        assertEquals(4, core.getQueue().get(core.getQueue().size() - 2));
+        //Nothing valid, nothing written
+        core.enqueue(IntList.of(new int[]{TRACKS}, 1));
+        core.enqueue(null);
+        assertEquals(replacedBefore + 2, host.queueReplacements);
+        assertEquals(10, core.getCurrentOrdinal());
+    }
+
+    @Test
+    public void pauseWhilePreparingDoesNotStart() {
+        core.play(3);
+        core.pause();
+        player.advance(PREPARE_MAX_MS);
+        assertEquals(PlaybackCore.State.PAUSED, core.getState());
+        core.resume();
+        assertEquals(PlaybackCore.State.SEEKING, core.getState());
+        player.advance(SEEK_MS);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+    }
+
+    @Test
+    public void focusDuckAndLoss() {
+        core.play(0);
+        player.advance(PREPARE_MAX_MS);
+        core.onFocusChange(PlaybackCore.Focus.LOSS_TRANSIENT_CAN_DUCK);
+        assertEquals(0.1f, player.getVolume(), 0f);
+        core.onFocusChange(PlaybackCore.Focus.GAIN);
+        assertEquals(1f, player.getVolume(), 0f);
+
+        player.advance(5000);
+        int lost = player.getPosition();
+        core.onFocusChange(PlaybackCore.Focus.LOSS);
+        assertEquals(PlaybackCore.State.STOPPED, core.getState());
+        core.onFocusChange(PlaybackCore.Focus.GAIN);
+        assertEquals(PlaybackCore.State.PREPARING, core.getState());
+        assertEquals(0, core.getCurrentOrdinal());
+        //Back where focus was lost, not at the top of the track
+        player.advance(PREPARE_MAX_MS + SEEK_MS);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+        assertTrue(player.getPosition() >= lost);
+    }
+
+    @Test
+    public void focusGainKeepsUserPause() {
+        core.play(0);
+        player.advance(PREPARE_MAX_MS);
+        core.pause();
+        core.onFocusChange(PlaybackCore.Focus.LOSS_TRANSIENT);
+        core.onFocusChange(PlaybackCore.Focus.GAIN);
+        assertEquals(PlaybackCore.State.PAUSED, core.getState());
+        //Paused by the transient loss itself: GAIN plays again
+        core.resume();
+        player.advance(SEEK_MS);
+        core.onFocusChange(PlaybackCore.Focus.LOSS_TRANSIENT);
+        core.onFocusChange(PlaybackCore.Focus.GAIN);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+    }
+
+    /**
+     * A paused player released for idleness comes back at the same position, at the cost of one
+     * prepare and one seek, and without counting a new listen.
+     */
+    @Test
+    public void idleReleaseResumesAtPosition() {
+        core.play(5);
+        player.advance(PREPARE_MAX_MS + 30000);
+        core.pause();
+        int paused = core.getResumePosition();
+        assertTrue(core.releaseIdle());
+        assertFalse(core.releaseIdle());
+        assertEquals(PlaybackCore.State.PAUSED, core.getState());
+        int prepares = player.getPrepareCount();
+        int plays = host.plays;
+
+        host.waitingFor = PlaybackCore.State.PLAYING;
+        host.settledAt = -1;
+        long start = player.now();
+        core.resume();
+        player.advance(PREPARE_MAX_MS + SEEK_MS);
+        long latency = host.settledAt - start;
+
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+        assertEquals(5, core.getCurrentOrdinal());
+        assertEquals(prepares + 1, player.getPrepareCount());
+        assertEquals(plays, host.plays);
+        assertTrue(latency >= 0 && latency <= PREPARE_MAX_MS + SEEK_MS);
+        assertTrue(player.getPosition() >= paused);
+        assertTrue(player.getPosition() <= paused + PREPARE_MAX_MS + SEEK_MS);
+    }
+
+    @Test
+    public void seekWhilePlayingPausedAndReleased() {
+        core.play(3);
+        player.advance(PREPARE_MAX_MS + 1000);
+        core.seekTo(60000);
+        assertEquals(PlaybackCore.State.SEEKING, core.getState());
+        player.advance(SEEK_MS);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+        assertTrue(player.getPosition() >= 60000 && player.getPosition() <= 60000 + SEEK_MS);
+
+        //Paused: nothing reaches the player until resume
+        core.pause();
+        core.seekTo(90000);
+        assertEquals(PlaybackCore.State.PAUSED, core.getState());
+        assertEquals(90000, core.getResumePosition());
+        core.resume();
+        player.advance(SEEK_MS);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+        assertTrue(player.getPosition() >= 90000 && player.getPosition() <= 90000 + SEEK_MS);
+
+        //Released while paused: the reload seeks to the new position
+        core.pause();
+        assertTrue(core.releaseIdle());
+        core.seekTo(120000);
+        core.resume();
+        player.advance(PREPARE_MAX_MS + SEEK_MS);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+        assertTrue(player.getPosition() >= 120000 && player.getPosition() <= 120000 + PREPARE_MAX_MS);
+        assertEquals(3, core.getCurrentOrdinal());
+    }
+
+    /**
+     * Ten presses of next, 80ms apart, while a queue plays: prepares and disk writes with and
+     * without the settle window.
+     */
+    @Test
+    public void skipBurstPreparesOnlyTheTarget() {
+        int[] before = skipBurst(0);
+        int[] after = skipBurst(SKIP_SETTLE_MS);
+        assertEquals(10, before[0]);
+        assertEquals(1, after[0]);
+        assertEquals(1, after[1]);
+        assertEquals(1, after[2]);
+    }
+
+    //Prepares, onTrackChanged and onQueuePositionChanged caused by the burst
+    private int[] skipBurst(long settleMs) {
+        setUp();
+        core.setSkipSettleMs(settleMs);
+        int[] ordinals = new int[100];
+        for (int i = 0; i < ordinals.length; i++) ordinals[i] = i;
+        core.playQueue(IntList.of(ordinals, ordinals.length), 0);
+        player.advance(PREPARE_MAX_MS + 5000);
+        int prepares = player.getPrepareCount();
+        int trackChanges = host.trackChanges;
+        int positionChanges = host.positionChanges;
+
+        for (int i = 0; i < 10; i++) {
+            core.skipToNext();
+            //The target is current at once, whether or not it is prepared yet
+            assertEquals(i + 1, core.getCurrentOrdinal());
+            player.advance(80);
+        }
+        player.advance(SKIP_SETTLE_MS + PREPARE_MAX_MS);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+        assertEquals(10, core.getCurrentOrdinal());
+        assertEquals(10, core.getQueuePosition());
+        //Debounced, only the track playing when the burst started counts as skipped
+        if (settleMs > 0) assertEquals(1, host.skips.size());
+        return new int[]{player.getPrepareCount() - prepares, host.trackChanges - trackChanges,
+                host.positionChanges - positionChanges};
+    }
+
+    /**
+     * Start of the service with a saved queue: the entry that was playing is prepared in the same
+     * call, not after a skip settle window, and the saved queue is not written back
+     */
+    @Test
+    public void restoredQueuePreparesAtOnce() {
+        core.setSkipSettleMs(SKIP_SETTLE_MS);
+        UpNextQueue saved = UpNextQueue.of(new int[]{40, 41, 42, 43}, 4);
+        core.playRestoredQueue(saved, 2);
+        assertEquals(1, player.getPrepareCount());
+        assertEquals(PlaybackCore.State.PREPARING, core.getState());
+        assertEquals(42, core.getCurrentOrdinal());
+        assertEquals(2, core.getQueuePosition());
+        assertSame(saved, core.getQueue());
+        assertEquals(0, host.queueReplacements);
+        assertEquals(0, host.positionChanges);
+        //Playing once prepared, well inside the settle window
+        player.advance(PREPARE_MAX_MS);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+        core.skipToNext();
+        player.advance(SKIP_SETTLE_MS + PREPARE_MAX_MS);
+        assertEquals(43, core.getCurrentOrdinal());
+    }
+
+    @Test
+    public void pauseDuringSkipBurstPreparesPaused() {
+        core.setSkipSettleMs(SKIP_SETTLE_MS);
+        core.play(0);
+        player.advance(PREPARE_MAX_MS);
+        core.skipToNext();
+        core.skipToNext();
+        core.pause();
+        player.advance(SKIP_SETTLE_MS + PREPARE_MAX_MS);
+        assertEquals(PlaybackCore.State.PAUSED, core.getState());
+        assertEquals(2, core.getCurrentOrdinal());
+        assertEquals(2, player.getPrepareCount());
+        core.resume();
+        player.advance(SEEK_MS);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+    }
+
+    @Test
+    public void completionEndsPlayback() {
+        //The catalog plays on to its last track and stops there, no wrap around
+        core.play(TRACKS - 2);
+        player.advance(PREPARE_MAX_MS + DURATION_MS);
+        assertEquals(1, host.completions);
+        assertFalse(host.ended);
+        assertEquals(TRACKS - 1, core.getCurrentOrdinal());
+        player.advance(PREPARE_MAX_MS + DURATION_MS);
+        assertEquals(2, host.completions);
+        assertTrue(host.ended);
+        assertEquals(PlaybackCore.State.STOPPED, core.getState());
+    }
+
+    @Test
+    public void completionPlaysTheNextEntry() {
+        //Up next edits are played when the track ends, not only on a skip
+        core.play(10);
+        core.playNext(500);
+        core.enqueue(700);
+        player.advance(PREPARE_MAX_MS + DURATION_MS);
+        assertEquals(500, core.getCurrentOrdinal());
+        assertEquals(11, core.getQueuePosition());
+        int positionChanges = host.positionChanges;
+        player.advance(PREPARE_MAX_MS);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+
+        //An explicit queue ends with its last entry
+        core.playQueue(IntList.of(new int[]{5, 9, 2}, 3), 1);
+        player.advance(PREPARE_MAX_MS + DURATION_MS);
+        assertEquals(2, core.getCurrentOrdinal());
+        assertTrue(host.positionChanges > positionChanges);
+        assertFalse(host.ended);
+        player.advance(PREPARE_MAX_MS + DURATION_MS);
+        assertTrue(host.ended);
+        assertEquals(PlaybackCore.State.STOPPED, core.getState());
+        assertEquals(2, core.getCurrentOrdinal());
+    }
+
+    @Test
+    public void completionFollowsQueueEdits() {
+        core.play(10);
+        player.advance(PREPARE_MAX_MS);
+        //Insert: what was put after the playing entry plays next
+        core.playNext(500);
+        core.enqueue(700);
+        player.advance(DURATION_MS);
+        assertEquals(500, core.getCurrentOrdinal());
+        assertEquals(11, core.getQueuePosition());
+        player.advance(PREPARE_MAX_MS);
+
+        //Move: the enqueued entry is moved right behind the playing one
+        core.moveQueueItem(TRACKS + 1, 12);
+        player.advance(DURATION_MS);
+        assertEquals(700, core.getCurrentOrdinal());
+        assertEquals(12, core.getQueuePosition());
+        player.advance(PREPARE_MAX_MS);
+
+        //Remove: an entry before the playing one and the one after it
+        core.removeQueueItem(0);
+        assertEquals(11, core.getQueuePosition());
+        assertEquals(11, core.getQueue().get(12));
+        core.removeQueueItem(12);
+        player.advance(DURATION_MS);
+        assertEquals(12, core.getCurrentOrdinal());
+        player.advance(PREPARE_MAX_MS);
+
+        //Removing the playing entry lets it finish, then what followed it plays
+        core.removeQueueItem(core.getQueuePosition());
+        player.advance(DURATION_MS);
+        assertEquals(13, core.getCurrentOrdinal());
+        assertEquals(4, host.completions);
+        assertFalse(host.ended);
+    }
+
+    @Test
+    public void completionFollowsShufflePicks() {
+        int[] weights = new int[TRACKS];
+        Arrays.fill(weights, WeightedShuffle.BASE_WEIGHT);
+        core.play(0);
+        core.setShuffle(new WeightedShuffle(weights, TRACKS, 10, new Random(3)));
+        core.setShuffleEnabled(true);
+        for (int i = 0; i < 20; i++) {
+            int picked = core.peek(1);
+            player.advance(PREPARE_MAX_MS + DURATION_MS);
+            assertEquals(picked, core.getCurrentOrdinal());
+        }
+        assertEquals(20, host.completions);
+        assertFalse(host.ended);
+    }
+
+    /**
+     * Replays random sessions of next/previous/pick/pause/resume/focus commands with random gaps.
+     * Latency is measured in virtual time from a command to the state it asks for; commands
+     * overtaken by the next one before they settle are counted separately.
+     */
+    @Test
+    public void randomCommandSequences() {
+        final int sequences = 5000;
+        final int commandsPerSequence = 40;
+        Random random = new Random(99);
+        long[] latencies = new long[sequences * commandsPerSequence];
+        int measured = 0;
+        int overtaken = 0;
+
+        for (int s = 0; s < sequences; s++) {
+            setUp();
+            core.play(random.nextInt(TRACKS));
+            player.advance(PREPARE_MAX_MS);
+            for (int c = 0; c < commandsPerSequence; c++) {
+                long issued = player.now();
+                host.settledAt = -1;
+                host.waitingFor = null;
+                PlaybackCore.State target = command(random.nextInt(7), random);
+                if (target != null && core.getState() == target) {
+                    //Settled synchronously, e.g. pause
+                    host.settledAt = issued;
+                }
+                host.waitingFor = target;
+                //Users press buttons in bursts as well as after a while
+                long gap = random.nextInt(4) == 0 ? random.nextInt(30) : 50 + random.nextInt(1000);
+                player.advance(gap);
+                if (target == null) continue;
+                if (host.settledAt >= 0) {
+                    latencies[measured++] = host.settledAt - issued;
+                } else {
+                    overtaken++;
+                }
+            }
+        }
+
+        long[] sorted = Arrays.copyOf(latencies, measured);
+        Arrays.sort(sorted);
+        long p99 = sorted[measured * 99 / 100];
+        int commands = sequences * commandsPerSequence;
+
+        //The core adds no latency of its own: a command settles within one prepare plus one seek
+        assertTrue("p99 " + p99, p99 <= PREPARE_MAX_MS + SEEK_MS);
+        assertTrue(measured > commands / 2);
+    }
+
+    //Issues one command and returns the state it should lead to, or null when there is none
+    private PlaybackCore.State command(int kind, Random random) {
+        switch (kind) {
+            case 0:
+                core.skipToNext();
+                return PlaybackCore.State.PLAYING;
+            case 1:
+                core.skipToPrevious();
+                return PlaybackCore.State.PLAYING;
+            case 2:
+                core.play(random.nextInt(TRACKS));
+                return PlaybackCore.State.PLAYING;
+            case 3:
+                if (core.getState() == PlaybackCore.State.PREPARING) {
+                    //Paused before it started, there is no state to wait for
+                    core.pause();
+                    return null;
+                }
+                core.pause();
+                return core.getState() == PlaybackCore.State.PAUSED ? PlaybackCore.State.PAUSED : null;
+            case 4:
+                core.resume();
+                return PlaybackCore.State.PLAYING;
+            case 5:
+                core.onFocusChange(PlaybackCore.Focus.LOSS_TRANSIENT);
+                return null;
+            default:
+                core.onFocusChange(PlaybackCore.Focus.GAIN);
+                return null;
+        }
+    }
+}
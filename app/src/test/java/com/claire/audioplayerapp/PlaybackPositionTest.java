@@ -0,0 +1,148 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Extrapolation and republishing of PlaybackPosition, and readers on other threads while the
+ * service publishes; the cost of a read is a benchmark
+ */
+public class PlaybackPositionTest {
+
+    private static final long DURATION = 180000;
+
+    @Test
+    public void positionFollowsTheClock() {
+        PlaybackPosition position = new PlaybackPosition();
+        PlaybackPosition.Snapshot none = position.get();
+        assertEquals(PlaybackPosition.STATE_NONE, none.state);
+        assertEquals(0, none.positionAt(5000));
+
+        PlaybackPosition.Snapshot playing = position.publish(3, PlaybackPosition.STATE_PLAYING, 1000, 10000, 1f, DURATION);
+        assertNotNull(playing);
+        assertTrue(playing.isPlaying());
+        assertEquals(1000, playing.positionAt(10000));
+        assertEquals(3500, playing.positionAt(12500));
+        //Never before the start nor past the end
+        assertEquals(0, playing.positionAt(8000));
+        assertEquals(DURATION, playing.positionAt(10000 + DURATION));
+
+        PlaybackPosition.Snapshot fast = position.publish(3, PlaybackPosition.STATE_PLAYING, 1000, 10000, 2f, DURATION);
+        assertEquals(5000, fast.positionAt(12000));
+
+        //Paused or buffering, the position stays where it was
+        PlaybackPosition.Snapshot paused = position.publish(3, PlaybackPosition.STATE_PAUSED, 5000, 12000, 0f, DURATION);
+        assertFalse(paused.isPlaying());
+        assertEquals(5000, paused.positionAt(60000));
+        //Duration not known yet: no upper bound
+        PlaybackPosition.Snapshot unknown = position.publish(4, PlaybackPosition.STATE_PLAYING, 0, 20000, 1f, 0);
+        assertEquals(DURATION * 2, unknown.positionAt(20000 + DURATION * 2));
+    }
+
+    @Test
+    public void republishesOnlyOnJumps() {
+        PlaybackPosition position = new PlaybackPosition();
+        PlaybackPosition.Snapshot first = position.publish(7, PlaybackPosition.STATE_PLAYING, 0, 1000, 1f, DURATION);
+        assertEquals(1, first.version);
+        //Where the snapshot says playback is by now, give or take the tolerance
+        assertNull(position.publish(7, PlaybackPosition.STATE_PLAYING, 2000, 3000, 1f, DURATION));
+        assertNull(position.publish(7, PlaybackPosition.STATE_PLAYING, 2000 + PlaybackPosition.TOLERANCE_MS, 3000, 1f, DURATION));
+        assertSame(first, position.get());
+
+        //Seek
+        PlaybackPosition.Snapshot seek = position.publish(7, PlaybackPosition.STATE_PLAYING, 60000, 4000, 1f, DURATION);
+        assertNotNull(seek);
+        assertEquals(2, seek.version);
+        //Pause, then the same pause again
+        PlaybackPosition.Snapshot pause = position.publish(7, PlaybackPosition.STATE_PAUSED, 61000, 5000, 0f, DURATION);
+        assertNotNull(pause);
+        assertNull(position.publish(7, PlaybackPosition.STATE_PAUSED, 61000, 9000, 0f, DURATION));
+        //A paused seek moves the position without moving the clock
+        assertNotNull(position.publish(7, PlaybackPosition.STATE_PAUSED, 30000, 9000, 0f, DURATION));
+        //Track change at the same position and state
+        PlaybackPosition.Snapshot next = position.publish(8, PlaybackPosition.STATE_PAUSED, 30000, 9000, 0f, DURATION);
+        assertNotNull(next);
+        assertEquals(8, next.ordinal);
+        //Duration learnt once prepared
+        assertNotNull(position.publish(8, PlaybackPosition.STATE_PAUSED, 30000, 9000, 0f, DURATION + 1));
+        assertEquals(6, position.get().version);
+
+        //A mirror takes what it is given
+        PlaybackPosition mirror = new PlaybackPosition();
+        mirror.set(seek);
+        assertSame(seek, mirror.get());
+    }
+
+    /**
+     * Readers on three threads read and extrapolate as fast as they can while the service
+     * publishes a seek every millisecond. Each seek lands at twice its anchor, so a torn snapshot
+     * shows as a mismatch.
+     *
+     * @return torn snapshots read, nanoseconds spent reading over all threads
+     */
+    private static long[] readWhilePublishing(final int readers, final long readsEach) throws InterruptedException {
+        final PlaybackPosition position = new PlaybackPosition();
+        position.publish(0, PlaybackPosition.STATE_PLAYING, 0, 0, 1f, 0);
+        final AtomicLong torn = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final long[] sink = new long[readers];
+        Thread[] threads = new Thread[readers];
+        for (int t = 0; t < readers; t++) {
+            final int id = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long sum = 0, bad = 0;
+                    long start = System.nanoTime();
+                    for (long i = 0; i < readsEach; i++) {
+                        PlaybackPosition.Snapshot snapshot = position.get();
+                        if (snapshot.positionMs != 2 * snapshot.anchorMs) bad++;
+                        sum += snapshot.positionAt(snapshot.anchorMs + (i & 1023));
+                    }
+                    nanos.addAndGet(System.nanoTime() - start);
+                    torn.addAndGet(bad);
+                    sink[id] = sum;
+                }
+            });
+        }
+        for (Thread thread : threads) thread.start();
+        int published = 0;
+        long at = 0;
+        boolean reading;
+        do {
+            //A second on the clock, two seconds on: a seek forward every time
+            at += 1000;
+            if (position.publish(0, PlaybackPosition.STATE_PLAYING, 2 * at, at, 1f, 0) != null) published++;
+            Thread.sleep(1);
+            reading = false;
+            for (Thread thread : threads) reading |= thread.isAlive();
+        } while (reading);
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(at / 1000, published);
+        for (long sum : sink) assertTrue(sum > 0);
+        return new long[]{torn.get(), nanos.get()};
+    }
+
+    @Test
+    public void readersNeverSeeTornSnapshots() throws InterruptedException {
+        assertEquals(0, readWhilePublishing(3, 500000)[0]);
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void readCost() throws InterruptedException {
+        final int readers = 3;
+        final long readsEach = 5000000;
+        long[] result = readWhilePublishing(readers, readsEach);
+        double perRead = result[1] / (double) (readers * readsEach);
+        System.out.println(String.format("position reads: %d readers x %d, %.1fns each", readers, readsEach, perRead));
+        assertEquals(0, result[0]);
+        //A frame is 16ms; reading the position must be a vanishing part of it
+        assertTrue(perRead < 1000);
+    }
+}
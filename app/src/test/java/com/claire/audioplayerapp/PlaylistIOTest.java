@@ -0,0 +1,145 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * M3U, M3U8 and PLS import against a small catalog (comments, byte order mark, relative and
+ * foreign paths) and export and import again; importing a large playlist is a benchmark.
+ */
+public class PlaylistIOTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String MUSIC = "/storage/emulated/0/Music";
+
+    private List<Audio> tracks;
+    private PathIndex index;
+
+    @Before
+    public void setUp() {
+        tracks = new ArrayList<>();
+        tracks.add(new Audio(MUSIC + "/Artist/Album/01 Intro.mp3", "Intro", "Album", "Artist"));
+        tracks.add(new Audio(MUSIC + "/Artist/Album/02 Song.mp3", "Song", "Album", "Artist"));
+        tracks.add(new Audio(MUSIC + "/Other/夜曲.flac", "夜曲", "Album", null));
+        index = new PathIndex(tracks);
+    }
+
+    private IntList read(String text, PlaylistIO.Format format, String baseDir, int expectedMissing) throws IOException {
+        IntList out = new IntList();
+        int missing = PlaylistIO.importPlaylist(new ByteArrayInputStream(text.getBytes(UTF_8)), format, baseDir, index, out);
+        assertEquals(expectedMissing, missing);
+        return out;
+    }
+
+    @Test
+    public void formatFromFileName() {
+        assertEquals(PlaylistIO.Format.PLS, PlaylistIO.formatOf("Road trip.PLS"));
+        assertEquals(PlaylistIO.Format.M3U, PlaylistIO.formatOf("Road trip.m3u8"));
+        assertEquals(PlaylistIO.Format.M3U, PlaylistIO.formatOf("msf:1234"));
+        assertEquals(PlaylistIO.Format.M3U, PlaylistIO.formatOf(null));
+    }
+
+    @Test
+    public void importM3u() throws IOException {
+        String m3u = "\uFEFF#EXTM3U\n"
+                + "#EXTINF:123,Artist - Song\n"
+                + MUSIC + "/Artist/Album/02 Song.mp3\n"
+                + "\n"
+                + "  " + MUSIC + "/Artist/Album/01 Intro.mp3  \r\n"
+                + "# a comment\n"
+                + "file://" + MUSIC + "/Other/%E5%A4%9C%E6%9B%B2.flac\n"
+                + MUSIC + "/Artist/Album/03 Missing.mp3\n";
+        assertArrayEquals(new int[]{1, 0, 2}, read(m3u, PlaylistIO.Format.M3U, null, 1).toArray());
+    }
+
+    @Test
+    public void relativePaths() throws IOException {
+        String m3u8 = "Album/01 Intro.mp3\n"
+                + "./Album/02 Song.mp3\n"
+                + "../Other/夜曲.flac\n"
+                + "..\\Other\\夜曲.flac\n";
+        assertArrayEquals(new int[]{0, 1, 2, 2}, read(m3u8, PlaylistIO.Format.M3U, MUSIC + "/Artist", 0).toArray());
+        //No directory to resolve against (a document URI): only the file name can match
+        assertArrayEquals(new int[]{0, 1, 2, 2}, read(m3u8, PlaylistIO.Format.M3U, null, 0).toArray());
+        //A Windows path from another machine resolves by its file name
+        assertArrayEquals(new int[]{1}, read("C:\\Music\\02 Song.mp3\n", PlaylistIO.Format.M3U, MUSIC, 0).toArray());
+    }
+
+    @Test
+    public void importPls() throws IOException {
+        String pls = "[playlist]\n"
+                + "File1=" + MUSIC + "/Other/夜曲.flac\n"
+                + "Title1=夜曲\n"
+                + "Length1=-1\n"
+                + "file2 = Album/01 Intro.mp3\n"
+                + "File3=\n"
+                + "File4=/sdcard/Music/gone.mp3\n"
+                + "NumberOfEntries=4\n"
+                + "Version=2\n";
+        assertArrayEquals(new int[]{2, 0}, read(pls, PlaylistIO.Format.PLS, MUSIC + "/Artist", 1).toArray());
+    }
+
+    @Test
+    public void exportAndImportAgain() throws IOException {
+        IntList ordinals = IntList.of(new int[]{2, 0, 1, 0}, 4);
+        for (PlaylistIO.Format format : PlaylistIO.Format.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PlaylistIO.exportPlaylist(tracks, ordinals, format, out);
+            String text = new String(out.toByteArray(), UTF_8);
+            if (format == PlaylistIO.Format.PLS) {
+                assertTrue(text.startsWith("[playlist]\n"));
+                assertTrue(text.contains("Title2=Artist - Intro\n"));
+                assertTrue(text.contains("Title1=夜曲\n"));
+                assertTrue(text.contains("NumberOfEntries=4\n"));
+            } else {
+                assertTrue(text.startsWith("#EXTM3U\n#EXTINF:-1,夜曲\n" + MUSIC + "/Other/夜曲.flac\n"));
+            }
+            assertArrayEquals(ordinals.toArray(), read(text, format, null, 0).toArray());
+        }
+    }
+
+    /**
+     * A 100k entry M3U8 against a 100k track catalog, half of the entries relative to the
+     * playlist: the whole import within a second
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void largePlaylist() throws IOException {
+        int count = 100000;
+        tracks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tracks.add(new Audio(MUSIC + "/Artist " + (i % 500) + "/" + i + ".mp3", "Track " + i, "Album", "Artist"));
+        }
+        index = new PathIndex(tracks);
+        StringBuilder text = new StringBuilder("#EXTM3U\n");
+        for (int i = count - 1; i >= 0; i--) {
+            text.append("#EXTINF:-1,Track ").append(i).append('\n');
+            text.append(i % 2 == 0 ? MUSIC + "/" : "").append("Artist ").append(i % 500).append('/').append(i).append(".mp3\n");
+        }
+        byte[] bytes = text.toString().getBytes(UTF_8);
+        //Warm up
+        for (int i = 0; i < 3; i++) {
+            PlaylistIO.importPlaylist(new ByteArrayInputStream(bytes), PlaylistIO.Format.M3U, MUSIC, index, new IntList());
+        }
+        IntList out = new IntList();
+        long start = System.nanoTime();
+        int missing = PlaylistIO.importPlaylist(new ByteArrayInputStream(bytes), PlaylistIO.Format.M3U, MUSIC, index, out);
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("playlist import: %d entries in %.1fms", count, elapsed / 1e6));
+        assertEquals(0, missing);
+        assertEquals(count, out.size());
+        assertEquals(count - 1, out.get(0));
+        assertEquals(0, out.get(count - 1));
+        assertTrue(elapsed < 1000000000L);
+    }
+}
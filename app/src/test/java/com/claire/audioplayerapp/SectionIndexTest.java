@@ -0,0 +1,209 @@
+package com.claire.audioplayerapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.claire.audioplayerapp.TestTracks.tracks;
+import static org.junit.Assert.*;
+
+/**
+ * Section index of a 50k-track list as published by TrackSorter: every row lies in the section of
+ * its own key and sections follow tracks merged in later. The cost of building the index and of
+ * jumping to a section is a benchmark.
+ */
+public class SectionIndexTest {
+
+    private static final int TRACKS = 50000;
+
+    private ForkJoinPool pool;
+    private TrackSorter sorter;
+    private final LinkedBlockingQueue<Object[]> published = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool();
+        sorter = new TrackSorter(Locale.US, pool, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        sorter.setCallback(new TrackSorter.Callback() {
+            @Override
+            public void onSorted(TrackSorter.SortMode mode, int[] order, SectionIndex sections) {
+                published.add(new Object[]{mode, order, sections});
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        sorter.shutdown();
+        assertTrue(sorter.awaitTermination(30000));
+        pool.shutdown();
+    }
+
+    //Waits for the order of mode, skipping other modes
+    private Object[] next(TrackSorter.SortMode mode) throws InterruptedException {
+        while (true) {
+            Object[] sorted = published.poll(30, TimeUnit.SECONDS);
+            assertNotNull("no order for " + mode, sorted);
+            if (sorted[0] == mode) return sorted;
+        }
+    }
+
+    private static String expectedLabel(Audio audio, TrackSorter.SortMode mode) {
+        switch (mode) {
+            case DATE_ADDED:
+                Calendar calendar = Calendar.getInstance();
+                calendar.setTimeInMillis(audio.getDateAdded() * 1000L);
+                return String.valueOf(calendar.get(Calendar.YEAR));
+            case ARTIST:
+                return label(audio.getArtist());
+            case ALBUM:
+                return label(audio.getAlbum());
+            default:
+                return label(audio.getTitle());
+        }
+    }
+
+    private static String label(String text) {
+        int key = SectionIndex.letterKey(TrackSorter.sortableText(text));
+        return new String(Character.toChars(key));
+    }
+
+    private static void assertSectionsMatch(List<Audio> tracks, TrackSorter.SortMode mode, int[] order,
+                                            SectionIndex sections) {
+        assertEquals(order.length, sections.getRowCount());
+        for (int position = 0; position < order.length; position++) {
+            int section = sections.getSectionForPosition(position);
+            assertEquals("row " + position, expectedLabel(tracks.get(order[position]), mode), sections.getLabel(section));
+            assertTrue(sections.getStart(section) <= position);
+        }
+    }
+
+    @Test
+    public void letterKeys() {
+        assertEquals('A', SectionIndex.letterKey(TrackSorter.sortableText("The Alpha")));
+        assertEquals('E', SectionIndex.letterKey("Élan"));
+        assertEquals('O', SectionIndex.letterKey("Öffnung"));
+        assertEquals('Ω', SectionIndex.letterKey("ωmega"));
+        assertEquals('海', SectionIndex.letterKey("海洋"));
+        assertEquals(SectionIndex.KEY_OTHER, SectionIndex.letterKey("123 Go"));
+        assertEquals(SectionIndex.KEY_OTHER, SectionIndex.letterKey("(Live)"));
+        assertEquals(SectionIndex.KEY_OTHER, SectionIndex.letterKey(""));
+    }
+
+    /**
+     * The activity is destroyed while the first sort runs, as on a rotation: the pool is shut down
+     * right behind the sorter, and whatever the worker is in the middle of must end quietly
+     * instead of throwing on the worker thread.
+     */
+    @Test
+    public void shutdownDuringSortIsQuiet() throws Exception {
+        final List<Throwable> uncaught = new ArrayList<>();
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable e) {
+                synchronized (uncaught) {
+                    uncaught.add(e);
+                }
+            }
+        });
+        try {
+            for (int run = 0; run < 5; run++) {
+                ForkJoinPool shortLived = new ForkJoinPool();
+                TrackSorter sorting = new TrackSorter(Locale.US, shortLived, new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+                sorting.build(tracks(0, TRACKS));
+                sorting.onTracksAdded(TRACKS, tracks(TRACKS, 100));
+                //Let the first sort get going, the later runs stop it at different points
+                Thread.sleep(run * 20);
+                sorting.shutdown();
+                shortLived.shutdown();
+                assertTrue(sorting.awaitTermination(30000));
+            }
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+        }
+        synchronized (uncaught) {
+            assertEquals(uncaught.toString(), 0, uncaught.size());
+        }
+    }
+
+    @Test
+    public void sectionsFollowEveryOrder() throws Exception {
+        List<Audio> tracks = tracks(0, TRACKS);
+        sorter.build(tracks);
+        for (TrackSorter.SortMode mode : TrackSorter.SortMode.values()) {
+            Object[] sorted = next(mode);
+            assertSectionsMatch(tracks, mode, (int[]) sorted[1], (SectionIndex) sorted[2]);
+        }
+        //Titles sort without their article, "The Alpha" is filed under A
+        SectionIndex titles = sorter.getSections(TrackSorter.SortMode.TITLE);
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < titles.getSectionCount(); i++) labels.add(titles.getLabel(i));
+        assertTrue(labels.toString(), labels.containsAll(Arrays.asList("#", "A", "B", "E", "O", "Z")));
+        assertFalse(labels.contains("T"));
+
+        List<Audio> added = tracks(TRACKS, 1000);
+        List<Audio> all = new ArrayList<>(tracks);
+        all.addAll(added);
+        sorter.onTracksAdded(TRACKS, added);
+        for (TrackSorter.SortMode mode : TrackSorter.SortMode.values()) {
+            Object[] sorted = next(mode);
+            assertSectionsMatch(all, mode, (int[]) sorted[1], (SectionIndex) sorted[2]);
+        }
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void buildAndJumpCost() throws Exception {
+        List<Audio> tracks = tracks(0, TRACKS);
+        sorter.build(tracks);
+        int[] order = (int[]) next(TrackSorter.SortMode.TITLE)[1];
+        int[] keys = new int[TRACKS];
+        for (int i = 0; i < TRACKS; i++) keys[i] = SectionIndex.letterKey(TrackSorter.sortableText(tracks.get(i).getTitle()));
+
+        //Warm up, then time a rebuild like the one after every merge
+        SectionIndex sections = null;
+        for (int i = 0; i < 20; i++) sections = SectionIndex.build(order, keys);
+        long start = System.nanoTime();
+        final int builds = 50;
+        for (int i = 0; i < builds; i++) sections = SectionIndex.build(order, keys);
+        long buildMicros = (System.nanoTime() - start) / builds / 1000;
+
+        int count = sections.getSectionCount();
+        long sum = 0;
+        final int jumps = 1000000;
+        start = System.nanoTime();
+        for (int i = 0; i < jumps; i++) {
+            int section = i % count;
+            sum += sections.getStart(section) + sections.getSectionForPosition(i % TRACKS);
+        }
+        long jumpNanos = (System.nanoTime() - start) / jumps;
+
+        System.out.println("sections: " + count + " over " + TRACKS + " rows, build " + buildMicros
+                + "us, jump + position lookup " + jumpNanos + "ns");
+        assertTrue(sum > 0);
+        assertTrue("build " + buildMicros + "us", buildMicros < 50000);
+        assertTrue("jump " + jumpNanos + "ns", jumpNanos < 2000);
+    }
+}
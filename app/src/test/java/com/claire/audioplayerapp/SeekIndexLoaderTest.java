@@ -0,0 +1,137 @@
+package com.claire.audioplayerapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Which tracks get an index, the hand-over on the main thread, requests overtaken by the next
+ * track and trimming. Both executors are queues the test runs by hand.
+ */
+public class SeekIndexLoaderTest {
+
+    private static final long MIN_DURATION_MS = 60000;
+
+    private File dir;
+    private File vbr;
+    private File cbr;
+    private final Tasks worker = new Tasks();
+    private final Tasks mainThread = new Tasks();
+    private SeekIndexLoader loader;
+
+    private static class Tasks implements Executor {
+        final List<Runnable> queued = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queued.add(command);
+        }
+
+        int runAll() {
+            int count = queued.size();
+            for (int i = 0; i < count; i++) queued.remove(0).run();
+            return count;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File(System.getProperty("java.io.tmpdir"), "seek-loader-" + System.nanoTime());
+        assertTrue(new File(dir, "index").mkdirs());
+        Random random = new Random(5);
+        vbr = new File(dir, "vbr.mp3");
+        FrameSeekIndexTest.write(vbr, FrameSeekIndexTest.vbrBitrates(4000, random), true, random);
+        cbr = new File(dir, "cbr.mp3");
+        int[] bitrates = new int[4000];
+        Arrays.fill(bitrates, 9);
+        FrameSeekIndexTest.write(cbr, bitrates, false, random);
+        loader = new SeekIndexLoader(new File(dir, "index"), MIN_DURATION_MS, worker, mainThread);
+    }
+
+    @After
+    public void tearDown() {
+        File[] indexes = new File(dir, "index").listFiles();
+        if (indexes != null) for (File index : indexes) index.delete();
+        new File(dir, "index").delete();
+        vbr.delete();
+        cbr.delete();
+        dir.delete();
+    }
+
+    private static Audio track(File file, long durationMs) {
+        Audio audio = TestTracks.track(file.getPath());
+        audio.setDuration(durationMs);
+        return audio;
+    }
+
+    @Test
+    public void indexesLongVbrMp3s() {
+        loader.load(track(vbr, 0));
+        assertEquals(1, worker.runAll());
+        //Handed over on the main thread only
+        assertNull(loader.get());
+        assertEquals(1, mainThread.runAll());
+        FrameSeekIndex index = loader.get();
+        assertNotNull(index);
+        assertEquals(4000, index.getFrameCount());
+        assertTrue(loader.estimatedBytes() > 0);
+
+        //CBR files are left to MediaPlayer, and the previous track's index goes at once
+        loader.load(track(cbr, 0));
+        assertNull(loader.get());
+        assertEquals(1, worker.runAll());
+        assertEquals(0, mainThread.runAll());
+        assertNull(loader.get());
+    }
+
+    @Test
+    public void skipsShortAndOtherTracks() {
+        loader.load(track(vbr, MIN_DURATION_MS - 1));
+        loader.load(TestTracks.track("/storage/emulated/0/Music/a.flac"));
+        loader.load(new Audio(null, "title", "album", "artist"));
+        assertEquals(0, worker.runAll());
+        //Missing file
+        loader.load(track(new File(dir, "gone.mp3"), 0));
+        assertEquals(1, worker.runAll());
+        assertEquals(0, mainThread.runAll());
+        assertNull(loader.get());
+    }
+
+    @Test
+    public void laterTrackOvertakesQueuedRequests() {
+        loader.load(track(vbr, 0));
+        loader.load(track(cbr, 0));
+        worker.runAll();
+        mainThread.runAll();
+        assertNull(loader.get());
+
+        //Built, but the next track started before the hand-over ran
+        loader.load(track(vbr, 0));
+        worker.runAll();
+        loader.load(track(cbr, 0));
+        mainThread.runAll();
+        assertNull(loader.get());
+    }
+
+    @Test
+    public void trimsOnlyUnderFullPressure() {
+        loader.load(track(vbr, 0));
+        worker.runAll();
+        mainThread.runAll();
+        loader.trim(false);
+        assertNotNull(loader.get());
+        loader.trim(true);
+        assertNull(loader.get());
+        assertEquals(0, loader.estimatedBytes());
+    }
+}
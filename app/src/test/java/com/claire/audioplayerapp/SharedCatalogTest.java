@@ -0,0 +1,135 @@
+package com.claire.audioplayerapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+
+import static com.claire.audioplayerapp.TestTracks.tracks;
+import static org.junit.Assert.*;
+
+/**
+ * Shared catalog of 100k tracks: round trip, appends seen after refresh(), a republish while the
+ * old file is still mapped. The cost of publishing, mapping and decoding compared to the Gson
+ * JSON it replaces is a benchmark.
+ */
+public class SharedCatalogTest {
+
+    private static final int TRACKS = 100000;
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() {
+        dir = new File(System.getProperty("java.io.tmpdir"), "catalog-" + System.nanoTime());
+        assertTrue(dir.mkdirs());
+        file = new File(dir, "catalog.bin");
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    private static void assertSame(Audio expected, Audio actual) {
+        assertEquals(expected.getData(), actual.getData());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getAlbum(), actual.getAlbum());
+        assertEquals(expected.getArtist(), actual.getArtist());
+        assertEquals(expected.getGenre(), actual.getGenre());
+        assertEquals(expected.getDateAdded(), actual.getDateAdded());
+        assertEquals(expected.getDuration(), actual.getDuration());
+    }
+
+    @Test
+    public void roundTripAndAppend() throws Exception {
+        List<Audio> tracks = tracks(0, 1000);
+        tracks.add(new Audio("/a.mp3", null, null, null));
+        SharedCatalog.publish(file, tracks);
+        SharedCatalog catalog = SharedCatalog.open(file);
+        assertEquals(tracks.size(), catalog.size());
+        for (int i = 0; i < tracks.size(); i++) assertSame(tracks.get(i), catalog.get(i));
+
+        List<Audio> added = tracks(5000, 10);
+        SharedCatalog.append(file, added);
+        //Not visible until refreshed
+        assertEquals(tracks.size(), catalog.size());
+        assertEquals(tracks.size() + 10, catalog.refresh());
+        assertSame(added.get(9), catalog.get(tracks.size() + 9));
+        assertSame(tracks.get(500), catalog.get(500));
+    }
+
+    /**
+     * What the service does on browseExecutor: the shuffle weights read paths only, the browse
+     * tree is built over the mapping itself and picks up appends once it is refreshed
+     */
+    @Test
+    public void readDirectlyOffTheMapping() throws Exception {
+        List<Audio> tracks = tracks(0, 1000);
+        tracks.add(new Audio(null, "No path", null, null));
+        SharedCatalog.publish(file, tracks);
+        SharedCatalog catalog = SharedCatalog.open(file);
+        for (int i = 0; i < tracks.size(); i++) assertEquals(tracks.get(i).getData(), catalog.getData(i));
+
+        BrowseTree tree = new BrowseTree(catalog, Locale.US);
+        List<Audio> added = tracks(5000, 10);
+        SharedCatalog.append(file, added);
+        int firstOrdinal = catalog.size();
+        catalog.refresh();
+        tree.onTracksAdded(firstOrdinal, added);
+        assertEquals(tracks.size() + 10, catalog.size());
+        BrowseTree.Page page = tree.getChildren(BrowseTree.TRACKS, 0, 2000);
+        assertEquals(tracks.size() + 10, page.nodes.size());
+        assertEquals(added.get(9).getTitle(), page.nodes.get(page.nodes.size() - 1).title);
+        BrowseTree.Page albums = tree.getChildren(BrowseTree.ARTIST_PREFIX + TestTracks.ARTISTS[3], 0, 2000);
+        assertFalse(albums.nodes.isEmpty());
+    }
+
+    @Test
+    public void republishKeepsOldMappingReadable() throws Exception {
+        SharedCatalog.publish(file, tracks(0, 100));
+        SharedCatalog old = SharedCatalog.open(file);
+        SharedCatalog.publish(file, tracks(1000, 5));
+        assertEquals(TestTracks.track(99).getTitle(), old.get(99).getTitle());
+        SharedCatalog reopened = SharedCatalog.open(file);
+        assertEquals(5, reopened.size());
+        assertEquals(TestTracks.track(1004).getTitle(), reopened.get(4).getTitle());
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void publishMapAndDecodeCost() throws Exception {
+        List<Audio> tracks = tracks(0, TRACKS);
+
+        long start = System.nanoTime();
+        SharedCatalog.publish(file, tracks);
+        long publishNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        SharedCatalog catalog = SharedCatalog.open(file);
+        long openNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int length = 0;
+        for (int i = 0; i < TRACKS; i++) length += catalog.get((int) ((i * 7919L) % TRACKS)).getData().length();
+        long getNanos = (System.nanoTime() - start) / TRACKS;
+
+        start = System.nanoTime();
+        String json = new com.google.gson.Gson().toJson(tracks);
+        long jsonNanos = System.nanoTime() - start;
+
+        System.out.println("catalog: " + TRACKS + " tracks, " + file.length() / 1024 + "KB mapped (JSON "
+                + json.length() / 1024 + "KB on the heap), publish " + publishNanos / 1000000 + "ms, open "
+                + openNanos / 1000000 + "ms, get " + getNanos + "ns, JSON write alone " + jsonNanos / 1000000 + "ms");
+        assertTrue(length > 0);
+        //Opening only indexes record offsets: one int per track on the heap
+        assertTrue("open " + openNanos / 1000000 + "ms", openNanos < 500000000L);
+        assertTrue("get " + getNanos + "ns", getNanos < 20000);
+    }
+}
@@ -0,0 +1,170 @@
+package com.claire.audioplayerapp;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * PlaybackCore.Player on a virtual clock: prepare and seek complete after configurable delays,
+ * tracks complete after a fixed duration. Nothing sleeps, advance() runs the scheduled callbacks
+ * in time order, so a run is deterministic for a given seed.
+ */
+public class SimulatedPlayer implements PlaybackCore.Player {
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final int generation;
+        final int type;
+
+        Event(long time, long sequence, int generation, int type) {
+            this.time = time;
+            this.sequence = sequence;
+            this.generation = generation;
+            this.type = type;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) return time < other.time ? -1 : 1;
+            return sequence < other.sequence ? -1 : sequence > other.sequence ? 1 : 0;
+        }
+    }
+
+    private static final int PREPARED = 0;
+    private static final int SEEK_COMPLETE = 1;
+    private static final int COMPLETION = 2;
+    //PlaybackCore.Host.scheduleSettle() of a test host, on the same clock
+    private static final int SETTLE = 3;
+
+    private final long prepareMinMs;
+    private final long prepareMaxMs;
+    private final long seekMs;
+    private final long durationMs;
+    private final Random random;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private PlaybackCore core;
+
+    private long now;
+    private long sequence;
+    //Bumped by prepare(), stop() and release(): callbacks of an older generation are dropped
+    private int generation;
+    private boolean started;
+    private long startedAt;
+    private long position;
+    private float volume = 1f;
+    private int prepares;
+    //Only the latest settle request runs
+    private long settleSequence = -1;
+
+    public SimulatedPlayer(long prepareMinMs, long prepareMaxMs, long seekMs, long durationMs, long seed) {
+        this.prepareMinMs = prepareMinMs;
+        this.prepareMaxMs = prepareMaxMs;
+        this.seekMs = seekMs;
+        this.durationMs = durationMs;
+        this.random = new Random(seed);
+    }
+
+    public void attach(PlaybackCore core) {
+        this.core = core;
+    }
+
+    public long now() {
+        return now;
+    }
+
+    public float getVolume() {
+        return volume;
+    }
+
+    public int getPrepareCount() {
+        return prepares;
+    }
+
+    /**
+     * Runs every callback due within the next millis of virtual time
+     */
+    public void advance(long millis) {
+        long until = now + millis;
+        while (!events.isEmpty() && events.peek().time <= until) {
+            Event event = events.poll();
+            now = event.time;
+            if (event.type == SETTLE) {
+                if (event.sequence == settleSequence) core.onSettled();
+                continue;
+            }
+            if (event.generation != generation) continue;
+            if (event.type == PREPARED) {
+                core.onPrepared();
+            } else if (event.type == SEEK_COMPLETE) {
+                core.onSeekComplete();
+            } else {
+                core.onCompletion();
+            }
+        }
+        now = until;
+    }
+
+    public void scheduleSettle(long delayMs) {
+        settleSequence = sequence;
+        schedule(delayMs, SETTLE);
+    }
+
+    private void schedule(long delay, int type) {
+        events.add(new Event(now + delay, sequence++, generation, type));
+    }
+
+    @Override
+    public void prepare(int ordinal) {
+        generation++;
+        prepares++;
+        started = false;
+        position = 0;
+        long jitter = prepareMaxMs > prepareMinMs ? (long) (random.nextDouble() * (prepareMaxMs - prepareMinMs)) : 0;
+        schedule(prepareMinMs + jitter, PREPARED);
+    }
+
+    @Override
+    public void start() {
+        if (started) return;
+        started = true;
+        startedAt = now;
+        schedule(durationMs - position, COMPLETION);
+    }
+
+    @Override
+    public void pause() {
+        position = getPosition();
+        started = false;
+        //Drop the pending completion, start() schedules a new one
+        generation++;
+    }
+
+    @Override
+    public void stop() {
+        started = false;
+        generation++;
+    }
+
+    @Override
+    public void seekTo(int positionMs) {
+        position = positionMs;
+        startedAt = now;
+        schedule(seekMs, SEEK_COMPLETE);
+    }
+
+    @Override
+    public int getPosition() {
+        return (int) (started ? position + now - startedAt : position);
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        this.volume = volume;
+    }
+
+    @Override
+    public void release() {
+        started = false;
+        generation++;
+    }
+}
@@ -0,0 +1,230 @@
+package com.claire.audioplayerapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static com.claire.audioplayerapp.TestTracks.DAY_MS;
+import static com.claire.audioplayerapp.TestTracks.NOW;
+import static com.claire.audioplayerapp.TestTracks.tracks;
+import static org.junit.Assert.*;
+
+/**
+ * Smart playlist rules over a 100k-track catalog: parsing, every condition against a scan of the
+ * catalog, catalog additions and plays read back from ListeningHistory files; evaluation cost is
+ * a benchmark.
+ */
+public class SmartPlaylistIndexTest {
+
+    private static final int TRACKS = 100000;
+
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = new File(System.getProperty("java.io.tmpdir"), "smart-" + System.nanoTime());
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    //Brute-force reading of one rule, negation included
+    private static boolean matches(SmartPlaylist.Rule rule, Audio audio, long lastPlayed) {
+        boolean match;
+        String artist = lower(audio.getArtist()), album = lower(audio.getAlbum()), genre = lower(audio.getGenre());
+        String value = rule.value.toLowerCase(Locale.ROOT);
+        long firstDayStart = (NOW / DAY_MS - (rule.condition == SmartPlaylist.Condition.PLAYED
+                || !rule.condition.takesDays() ? 0 : rule.getDays()) + 1) * DAY_MS;
+        switch (rule.condition) {
+            case ARTIST_IS: match = artist.equals(value); break;
+            case ARTIST_CONTAINS: match = artist.contains(value); break;
+            case ALBUM_IS: match = album.equals(value); break;
+            case ALBUM_CONTAINS: match = album.contains(value); break;
+            case GENRE_IS: match = genre.equals(value); break;
+            case GENRE_CONTAINS: match = genre.contains(value); break;
+            case ADDED_WITHIN_DAYS: match = audio.getDateAdded() * 1000 >= firstDayStart; break;
+            case PLAYED_WITHIN_DAYS: match = lastPlayed >= firstDayStart; break;
+            default: match = lastPlayed > 0; break;
+        }
+        return match != rule.negated;
+    }
+
+    private static String lower(String value) {
+        return (value == null || value.trim().isEmpty() ? BrowseIndex.UNKNOWN : value).toLowerCase(Locale.ROOT);
+    }
+
+    private static int[] scan(SmartPlaylist playlist, List<Audio> tracks, long[] lastPlayed) {
+        IntList out = new IntList();
+        for (int i = 0; i < tracks.size(); i++) {
+            boolean all = true, any = false;
+            for (SmartPlaylist.Rule rule : playlist.getRules()) {
+                boolean match = matches(rule, tracks.get(i), lastPlayed[i]);
+                all &= match;
+                any |= match;
+            }
+            if (playlist.isMatchAll() ? all : any) out.add(i);
+        }
+        return out.toArray();
+    }
+
+    private static final String[][] PLAYLISTS = {
+            {"all", "artist is adele"},
+            {"all", "artist contains beatles\nnot album contains live"},
+            {"all", "added in the last 30 days\nnever played"},
+            {"any", "genre is Jazz\nplayed in the last 7 days"},
+            {"any", "not genre contains pop\nartist is ABBA"},
+            {"all", "album is <unknown>\ngenre is <unknown>\nplayed"},
+            {"all", "artist is Nobody"},
+            {"all", ""},
+    };
+
+    private static SmartPlaylist playlist(String[] definition) {
+        return SmartPlaylist.parse(definition[1], definition[0].equals("all"), definition[1]);
+    }
+
+    @Test
+    public void parseAndFormat() {
+        SmartPlaylist playlist = SmartPlaylist.parse("Fresh", true,
+                "Artist is  Adele \n\nAdded in the last 30 days\nNEVER PLAYED\nnot album contains Live\nplayed in the last 1 day");
+        assertEquals(5, playlist.getRules().size());
+        SmartPlaylist.Rule artist = playlist.getRules().get(0);
+        assertEquals(SmartPlaylist.Condition.ARTIST_IS, artist.condition);
+        assertEquals("Adele", artist.value);
+        assertEquals(30, playlist.getRules().get(1).getDays());
+        assertTrue(playlist.getRules().get(2).negated);
+        assertEquals("artist is Adele\nadded in the last 30 days\nnever played\nnot album contains Live\nplayed in the last 1 day",
+                playlist.getRulesText());
+        assertEquals(playlist.getRulesText(), SmartPlaylist.parse("Fresh", true, playlist.getRulesText()).getRulesText());
+
+        String[] bad = {"artist was Adele", "artist is ", "added in the last week", "added in the last 0 days"};
+        for (String line : bad) {
+            try {
+                SmartPlaylist.parse("Bad", true, line);
+                fail(line);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(line.trim()));
+            }
+        }
+    }
+
+    @Test
+    public void rulesMatchACatalogScan() throws Exception {
+        List<Audio> tracks = tracks(0, TRACKS);
+        long[] lastPlayed = new long[TRACKS + 1000];
+        //Plays written by the playback side, read back from its files
+        ListeningHistory history = new ListeningHistory(dir);
+        for (int i = 0; i < TRACKS; i += 13) {
+            history.record(ListeningHistory.EVENT_PLAY, tracks.get(i).getData(), 0);
+        }
+        history.flush();
+        history.awaitIdle();
+        SmartPlaylistIndex index = new SmartPlaylistIndex(tracks);
+        final ListeningHistory.Reader reader = new ListeningHistory.Reader(dir);
+        assertEquals((TRACKS + 12) / 13, reader.poll(index));
+        //The history clock is real time; move those plays to NOW minus a few days for the rules
+        SmartPlaylistIndex shifted = new SmartPlaylistIndex(tracks);
+        for (int i = 0; i < TRACKS; i += 13) {
+            lastPlayed[i] = NOW - (i % 10) * DAY_MS;
+            shifted.onPlayed(ListeningHistory.trackKey(tracks.get(i).getData()), lastPlayed[i]);
+        }
+        assertArrayEquals(index.evaluate(SmartPlaylist.parse("p", true, "played"), NOW).toIntList().toArray(),
+                shifted.evaluate(SmartPlaylist.parse("p", true, "played"), NOW).toIntList().toArray());
+
+        for (String[] definition : PLAYLISTS) {
+            SmartPlaylist playlist = playlist(definition);
+            assertArrayEquals(definition[1], scan(playlist, tracks, lastPlayed),
+                    shifted.evaluate(playlist, NOW).toIntList().toArray());
+        }
+
+        //New tracks and new plays, folded in without a rebuild
+        List<Audio> added = tracks(TRACKS, 1000);
+        List<Audio> all = new ArrayList<>(tracks);
+        all.addAll(added);
+        shifted.onTracksAdded(TRACKS, added);
+        for (int i = 0; i < 50; i++) {
+            int ordinal = TRACKS + i * 20;
+            lastPlayed[ordinal] = NOW - DAY_MS / 2;
+            shifted.onPlayed(ListeningHistory.trackKey(all.get(ordinal).getData()), lastPlayed[ordinal]);
+            //An older play of a track changes nothing
+            shifted.onPlayed(ListeningHistory.trackKey(all.get(ordinal).getData()), NOW - 100 * DAY_MS);
+        }
+        //Played again today, moves out of its old day
+        lastPlayed[13 * 5] = NOW;
+        shifted.onPlayed(ListeningHistory.trackKey(all.get(13 * 5).getData()), NOW);
+        for (String[] definition : PLAYLISTS) {
+            SmartPlaylist playlist = playlist(definition);
+            assertArrayEquals(definition[1], scan(playlist, all, lastPlayed),
+                    shifted.evaluate(playlist, NOW).toIntList().toArray());
+        }
+        assertEquals(TRACKS + 1000, shifted.getTrackCount());
+
+        //A play recorded before its track reaches the catalog
+        String path = "/music/later.mp3";
+        shifted.onPlayed(ListeningHistory.trackKey(path), NOW);
+        List<Audio> later = new ArrayList<>();
+        later.add(new Audio(path, "Later", "Later", "Later", NOW / 1000));
+        shifted.onTracksAdded(TRACKS + 1000, later);
+        assertArrayEquals(new int[]{TRACKS + 1000},
+                shifted.evaluate(SmartPlaylist.parse("p", true, "artist is later\nplayed in the last 1 day"), NOW)
+                        .toIntList().toArray());
+
+        //Nothing new in the files: nothing to read
+        assertEquals(0, reader.poll(index));
+        history.record(ListeningHistory.EVENT_SKIP, tracks.get(1).getData(), 5000);
+        history.flush();
+        history.awaitIdle();
+        assertEquals(1, reader.poll(index));
+
+        //Compaction folds the log into the aggregates, the reader starts over from them
+        history.close();
+        File log = new File(dir, "history.log");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (log.length() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(0, log.length());
+        assertEquals((TRACKS + 12) / 13 + 1, reader.poll(index));
+        assertEquals(0, reader.poll(index));
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void evaluationCost() {
+        List<Audio> tracks = tracks(0, TRACKS);
+        long start = System.nanoTime();
+        SmartPlaylistIndex index = new SmartPlaylistIndex(tracks);
+        long buildMillis = (System.nanoTime() - start) / 1000000;
+        for (int i = 0; i < TRACKS; i += 3) {
+            index.onPlayed(ListeningHistory.trackKey(tracks.get(i).getData()), NOW - (i % 60) * DAY_MS);
+        }
+
+        StringBuilder report = new StringBuilder("smart playlists: " + TRACKS + " tracks, index built in "
+                + buildMillis + "ms");
+        int rounds = 2000;
+        long sum = 0;
+        for (String[] definition : PLAYLISTS) {
+            SmartPlaylist playlist = playlist(definition);
+            for (int i = 0; i < rounds; i++) sum += index.evaluate(playlist, NOW).cardinality();
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) sum += index.evaluate(playlist, NOW).cardinality();
+            long micros = (System.nanoTime() - start) / rounds / 1000;
+            report.append("\n  ").append(definition[0]).append(" [").append(definition[1].replace('\n', ';'))
+                    .append("] ").append(micros).append("us");
+            assertTrue(definition[1] + " " + micros + "us", micros < 5000);
+        }
+        start = System.nanoTime();
+        IntList queue = index.evaluate(playlist(PLAYLISTS[4]), NOW).toIntList();
+        report.append("\n  to queue of ").append(queue.size()).append(": ")
+                .append((System.nanoTime() - start) / 1000).append("us");
+        System.out.println(report);
+        assertTrue(sum > 0);
+    }
+}
@@ -0,0 +1,198 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stage report and overlap of StartupTrace, and the cold start order of PlaybackCore traced on a
+ * simulated player: preparation first with focus, session and notification alongside it, and a
+ * denied focus stopping the prepare.
+ */
+public class StartupTraceTest {
+
+    private static final long MS = 1000000;
+    //The tap, 1s after boot
+    private static final long TAP = 1000 * MS;
+    private static final long PREPARE_MS = 140;
+
+    //Stage of length ms from at, returns its end
+    private static long stage(StartupTrace trace, String name, long at, long ms) {
+        trace.begin(name, at);
+        trace.end(name, at + ms * MS);
+        return at + ms * MS;
+    }
+
+    /**
+     * PlaybackCore.Startup that traces its steps on the simulated player's clock, each taking a
+     * few virtual milliseconds
+     */
+    private static class TracedStartup implements PlaybackCore.Startup {
+        final SimulatedPlayer player;
+        final StartupTrace trace;
+        final List<String> order = new ArrayList<>();
+        boolean focusGranted = true;
+
+        TracedStartup(SimulatedPlayer player, StartupTrace trace) {
+            this.player = player;
+            this.trace = trace;
+        }
+
+        private void step(String name, long ms) {
+            order.add(name);
+            trace.begin(name, player.now() * MS);
+            player.advance(ms);
+            trace.end(name, player.now() * MS);
+        }
+
+        @Override
+        public boolean requestFocus() {
+            step("focus", 3);
+            return focusGranted;
+        }
+
+        @Override
+        public void initSession() {
+            step("session", 9);
+        }
+
+        @Override
+        public void showNotification() {
+            step("notification", 18);
+        }
+    }
+
+    private SimulatedPlayer player;
+    private StartupTrace trace;
+    private TracedStartup startup;
+    private PlaybackCore core;
+
+    @Before
+    public void setUp() {
+        player = new SimulatedPlayer(PREPARE_MS, PREPARE_MS, 0, 180000, 1);
+        trace = new StartupTrace(0);
+        startup = new TracedStartup(player, trace);
+        PlaybackCoreTest.RecordingHost host = new PlaybackCoreTest.RecordingHost();
+        host.clock = player;
+        core = new PlaybackCore(new PlaybackCore.Player() {
+            //The service's player, traced where MediaPlayerService traces it
+            @Override
+            public void prepare(int ordinal) {
+                startup.order.add("prepare");
+                trace.begin("prepare", player.now() * MS);
+                player.prepare(ordinal);
+            }
+
+            @Override
+            public void start() {
+                trace.end("prepare", player.now() * MS);
+                trace.finish(player.now() * MS);
+                player.start();
+            }
+
+            @Override
+            public void pause() {
+                player.pause();
+            }
+
+            @Override
+            public void stop() {
+                player.stop();
+            }
+
+            @Override
+            public void seekTo(int positionMs) {
+                player.seekTo(positionMs);
+            }
+
+            @Override
+            public int getPosition() {
+                return player.getPosition();
+            }
+
+            @Override
+            public void setVolume(float volume) {
+                player.setVolume(volume);
+            }
+
+            @Override
+            public void release() {
+                player.release();
+            }
+        }, host, 2);
+        player.attach(core);
+        core.setTrackCount(10);
+    }
+
+    @Test
+    public void stagesAndOverlap() {
+        StartupTrace trace = new StartupTrace(TAP);
+        assertEquals(-1, trace.getFirstAudioMs());
+        trace.begin("catalog", TAP + 10 * MS);
+        trace.begin("prepare", TAP + 12 * MS);
+        trace.end("catalog", TAP + 20 * MS);
+        assertEquals("no audio yet: catalog 10-20ms, prepare 12-?", trace.describe());
+        //An open stage does not count
+        assertEquals(0, trace.getOverlapMs());
+        trace.end("prepare", TAP + 50 * MS);
+        assertEquals(8, trace.getOverlapMs());
+        //Ending what is not open changes nothing
+        trace.end("focus", TAP + 60 * MS);
+        trace.end("prepare", TAP + 70 * MS);
+        trace.finish(TAP + 60 * MS);
+        trace.finish(TAP + 90 * MS);
+        assertTrue(trace.isFinished());
+        assertEquals(60, trace.getFirstAudioMs());
+        assertEquals(68, trace.getSerialMs());
+        assertEquals("first audio 60ms (back to back 68ms): catalog 10-20ms, prepare 12-50ms", trace.describe());
+
+        //A stage inside another only counts once in the union
+        StartupTrace nested = new StartupTrace(0);
+        stage(nested, "prepare", 0, 100);
+        stage(nested, "focus", 10 * MS, 5);
+        stage(nested, "session", 20 * MS, 10);
+        assertEquals(15, nested.getOverlapMs());
+    }
+
+    @Test
+    public void coldStartPreparesFirst() {
+        assertTrue(core.startCold(null, 0, 3, startup));
+        assertEquals(Arrays.asList("prepare", "focus", "session", "notification"), startup.order);
+        assertEquals(PlaybackCore.State.PREPARING, core.getState());
+        assertFalse(trace.isFinished());
+
+        player.advance(PREPARE_MS);
+        assertEquals(PlaybackCore.State.PLAYING, core.getState());
+        //Focus, session and notification ran inside the preparation
+        assertEquals(PREPARE_MS, trace.getFirstAudioMs());
+        assertEquals(3 + 9 + 18, trace.getOverlapMs());
+        assertEquals(PREPARE_MS + 3 + 9 + 18, trace.getSerialMs());
+    }
+
+    @Test
+    public void restoredQueuePreparesFirst() {
+        UpNextQueue saved = UpNextQueue.of(new int[]{7, 2, 5}, 3);
+        assertTrue(core.startCold(saved, 1, 2, startup));
+        assertEquals(Arrays.asList("prepare", "focus", "session", "notification"), startup.order);
+        assertEquals(2, core.getCurrentOrdinal());
+        assertEquals(1, core.getQueuePosition());
+    }
+
+    @Test
+    public void focusDenialStopsPrepare() {
+        startup.focusGranted = false;
+        assertFalse(core.startCold(null, 0, 3, startup));
+        //Stopped while preparing, session and notification are still set up
+        assertEquals(PlaybackCore.State.STOPPED, core.getState());
+        assertEquals(Arrays.asList("prepare", "focus", "session", "notification"), startup.order);
+
+        player.advance(PREPARE_MS * 2);
+        assertEquals(PlaybackCore.State.STOPPED, core.getState());
+        assertFalse(trace.isFinished());
+    }
+}
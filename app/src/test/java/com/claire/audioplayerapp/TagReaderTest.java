@@ -0,0 +1,475 @@
+package com.claire.audioplayerapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static org.junit.Assert.*;
+
+/**
+ * TagReader over generated files of every format it reads, each with a picture or a long audio
+ * part in the way; and damaged files. A library of a few thousand multi-megabyte files read
+ * serially and on a ForkJoinPool, with bytes read and bytes allocated per file, is a benchmark.
+ */
+public class TagReaderTest {
+
+    private static final String TITLE = "夜に駆ける 🎵";
+    private static final int AUDIO_BYTES = 3 * 1024 * 1024;
+
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = new File(System.getProperty("java.io.tmpdir"), "tags-" + System.nanoTime());
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        dir.delete();
+    }
+
+    //A file as head, a hole of gap zero bytes standing for the audio, and tail
+    private static class Sample {
+        final String name;
+        final byte[] head;
+        final long gap;
+        final byte[] tail;
+
+        Sample(String name, byte[] head, long gap, byte[] tail) {
+            this.name = name;
+            this.head = head;
+            this.gap = gap;
+            this.tail = tail;
+        }
+
+        File write(File dir, String prefix) throws IOException {
+            File file = new File(dir, prefix + name);
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
+            try {
+                out.write(head);
+                out.seek(head.length + gap);
+                out.write(tail);
+                out.setLength(head.length + gap + tail.length);
+            } finally {
+                out.close();
+            }
+            return file;
+        }
+    }
+
+    private static class Bytes extends ByteArrayOutputStream {
+        Bytes text(String s, String charset) {
+            try {
+                byte[] b = s.getBytes(charset);
+                write(b, 0, b.length);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return this;
+        }
+
+        Bytes ascii(String s) {
+            return text(s, "ISO-8859-1");
+        }
+
+        Bytes be(long value, int bytes) {
+            for (int i = bytes - 1; i >= 0; i--) write((int) (value >>> 8 * i));
+            return this;
+        }
+
+        Bytes le(long value, int bytes) {
+            for (int i = 0; i < bytes; i++) write((int) (value >>> 8 * i));
+            return this;
+        }
+
+        Bytes syncsafe(int value) {
+            return be((value >>> 21 & 0x7F) << 24 | (value >>> 14 & 0x7F) << 16 | (value >>> 7 & 0x7F) << 8 | value & 0x7F, 4);
+        }
+
+        Bytes add(byte[] b) {
+            write(b, 0, b.length);
+            return this;
+        }
+
+        Bytes zeros(int n) {
+            return add(new byte[n]);
+        }
+    }
+
+    private static byte[] textFrame(int major, String id, int encoding, String text) throws IOException {
+        Bytes body = new Bytes();
+        body.write(encoding);
+        switch (encoding) {
+            case 0: body.text(text, "ISO-8859-1").zeros(1); break;
+            case 1: body.be(0xFFFE, 2).text(text, "UTF-16LE").zeros(2); break;
+            case 2: body.text(text, "UTF-16BE").zeros(2); break;
+            default: body.text(text, "UTF-8").zeros(1); break;
+        }
+        return frame(major, id, 0, body.toByteArray());
+    }
+
+    private static byte[] frame(int major, String id, int format, byte[] body) {
+        Bytes frame = new Bytes().ascii(id);
+        if (major == 2) frame.be(body.length, 3);
+        else if (major == 3) frame.be(body.length, 4).be(format, 2);
+        else frame.syncsafe(body.length).be(format, 2);
+        return frame.add(body).toByteArray();
+    }
+
+    private static byte[] id3v2(int major, int flags, byte[]... frames) {
+        Bytes tag = new Bytes();
+        for (byte[] frame : frames) tag.add(frame);
+        tag.zeros(256); //padding
+        byte[] body = tag.toByteArray();
+        return new Bytes().ascii("ID3").be(major, 1).be(0, 1).be(flags, 1).syncsafe(body.length).add(body).toByteArray();
+    }
+
+    private static byte[] id3v1(String title, int genre) {
+        Bytes tag = new Bytes().ascii("TAG").ascii(title).zeros(30 - title.length());
+        tag.ascii("v1 artist").zeros(21).ascii("v1 album").zeros(22).zeros(4 + 30);
+        return tag.add(new byte[]{(byte) genre}).toByteArray();
+    }
+
+    private static byte[] mpegFrames() {
+        //One MPEG-1 layer III frame header, the hole after it stands for the rest
+        return new Bytes().be(0xFFFB9064, 4).zeros(413).toByteArray();
+    }
+
+    private static byte[] picture(int size, Random random) {
+        byte[] picture = new byte[size];
+        random.nextBytes(picture);
+        return picture;
+    }
+
+    private static Sample mp3v23(Random random) throws IOException {
+        byte[] apic = new Bytes().be(0, 1).ascii("image/jpeg").zeros(1).be(3, 1).zeros(1).add(picture(300 * 1024, random)).toByteArray();
+        byte[] tag = id3v2(3, 0, textFrame(3, "TIT2", 1, TITLE), frame(3, "APIC", 0, apic),
+                textFrame(3, "TPE1", 0, "Yoasobi"), textFrame(3, "TALB", 1, "The Book"), textFrame(3, "TCON", 0, "(17)"));
+        return new Sample("v23.mp3", new Bytes().add(tag).add(mpegFrames()).toByteArray(), AUDIO_BYTES, id3v1("ignored", 13));
+    }
+
+    private static Sample mp3v24() throws IOException {
+        //Extended header, a frame with a data length indicator, a per-frame unsynchronised one
+        byte[] extended = new Bytes().syncsafe(6).be(1, 1).be(0, 1).toByteArray();
+        Bytes album = new Bytes().be(0, 1).ascii("Cafÿÿ Tunes").zeros(1);
+        byte[] raw = album.toByteArray();
+        Bytes unsynchronised = new Bytes();
+        for (byte b : raw) {
+            unsynchronised.write(b);
+            if ((b & 0xFF) == 0xFF) unsynchronised.write(0);
+        }
+        byte[] withLength = new Bytes().syncsafe(9).be(3, 1).text("Radwimps", "UTF-8").toByteArray();
+        Bytes tag = new Bytes().add(extended).add(textFrame(4, "TIT2", 3, TITLE))
+                .add(frame(4, "TPE1", 0x01, withLength)).add(frame(4, "TALB", 0x02, unsynchronised.toByteArray()))
+                .add(textFrame(4, "TCON", 3, "13")).add(textFrame(4, "TLEN", 0, "215000")).zeros(64);
+        byte[] body = tag.toByteArray();
+        byte[] head = new Bytes().ascii("ID3").be(4, 1).be(0, 1).be(0x40, 1).syncsafe(body.length).add(body).add(mpegFrames()).toByteArray();
+        return new Sample("v24.mp3", head, AUDIO_BYTES, new byte[0]);
+    }
+
+    private static Sample mp3v22() throws IOException {
+        byte[] tag = id3v2(2, 0, textFrame(2, "TT2", 0, "Old Song"), textFrame(2, "TP1", 0, "Old Band"),
+                textFrame(2, "TAL", 0, "Old Album"), textFrame(2, "TCO", 0, "(8)Cool Jazz"));
+        return new Sample("v22.mp3", new Bytes().add(tag).add(mpegFrames()).toByteArray(), AUDIO_BYTES, new byte[0]);
+    }
+
+    private static Sample mp3Unsynchronised() throws IOException {
+        //2.3 with the whole tag unsynchronised: 0xFF in the text is followed by an inserted 0x00
+        byte[] frames = new Bytes().add(textFrame(3, "TIT2", 0, "ÿà la carte")).add(textFrame(3, "TPE1", 0, "Sync"))
+                .zeros(64).toByteArray();
+        Bytes body = new Bytes();
+        for (byte b : frames) {
+            body.write(b);
+            if ((b & 0xFF) == 0xFF) body.write(0);
+        }
+        byte[] head = new Bytes().ascii("ID3").be(3, 1).be(0, 1).be(0x80, 1).syncsafe(body.size()).add(body.toByteArray())
+                .add(mpegFrames()).toByteArray();
+        return new Sample("unsync.mp3", head, AUDIO_BYTES, new byte[0]);
+    }
+
+    private static Sample mp3v1Only() {
+        return new Sample("v1.mp3", mpegFrames(), AUDIO_BYTES, id3v1("Just v1", 17));
+    }
+
+    private static byte[] vorbisComments(String... comments) throws IOException {
+        Bytes block = new Bytes();
+        byte[] vendor = "reference libFLAC 1.3.2".getBytes("UTF-8");
+        block.le(vendor.length, 4).add(vendor).le(comments.length, 4);
+        for (String comment : comments) {
+            byte[] b = comment.getBytes("UTF-8");
+            block.le(b.length, 4).add(b);
+        }
+        return block.toByteArray();
+    }
+
+    private static Sample flac(Random random) throws IOException {
+        Bytes head = new Bytes().ascii("fLaC");
+        //STREAMINFO: 44.1kHz, 2 channels, 16 bits, 3 minutes
+        head.be(0, 1).be(34, 3).be(4096, 2).be(4096, 2).be(0, 3).be(0, 3)
+                .be((44100L << 44) | (1L << 41) | (15L << 36) | 44100L * 180, 8).zeros(16);
+        byte[] picture = picture(200 * 1024, random);
+        head.be(6, 1).be(picture.length, 3).add(picture);
+        byte[] comments = vorbisComments("ENCODER=test", "title=" + TITLE, "Artist=Aimer", "ALBUM=Daydream", "GENRE=J-Pop");
+        head.be(0x84, 1).be(comments.length, 3).add(comments);
+        return new Sample("a.flac", head.toByteArray(), AUDIO_BYTES, new byte[0]);
+    }
+
+    //Pages of one logical stream, packets laced across pages of at most 255 segments
+    private static byte[] oggPages(byte[]... packets) {
+        List<Integer> lacing = new ArrayList<>();
+        Bytes data = new Bytes();
+        for (byte[] packet : packets) {
+            int left = packet.length;
+            while (left >= 255) {
+                lacing.add(255);
+                left -= 255;
+            }
+            lacing.add(left);
+            data.add(packet);
+        }
+        byte[] all = data.toByteArray();
+        Bytes pages = new Bytes();
+        int segment = 0, offset = 0, sequence = 0;
+        boolean continued = false;
+        while (segment < lacing.size()) {
+            int count = Math.min(255, lacing.size() - segment);
+            int length = 0;
+            for (int s = segment; s < segment + count; s++) length += lacing.get(s);
+            pages.ascii("OggS").be(0, 1).be(continued ? 1 : sequence == 0 ? 2 : 0, 1).zeros(8).le(7, 4).le(sequence++, 4).zeros(4)
+                    .be(count, 1);
+            for (int s = segment; s < segment + count; s++) pages.be(lacing.get(s), 1);
+            pages.write(all, offset, length);
+            continued = lacing.get(segment + count - 1) == 255;
+            segment += count;
+            offset += length;
+        }
+        return pages.toByteArray();
+    }
+
+    private static Sample ogg(Random random) throws IOException {
+        byte[] identification = new Bytes().be(1, 1).ascii("vorbis").zeros(23).toByteArray();
+        //A cover in front of the title pushes the comment packet over two pages
+        char[] cover = new char[90 * 1024];
+        for (int i = 0; i < cover.length; i++) cover[i] = (char) ('A' + random.nextInt(26));
+        byte[] comments = new Bytes().be(3, 1).ascii("vorbis")
+                .add(vorbisComments("METADATA_BLOCK_PICTURE=" + new String(cover), "TITLE=" + TITLE, "ARTIST=Sigur Rós",
+                        "ALBUM=( )", "GENRE=Post-Rock")).be(1, 1).toByteArray();
+        byte[] setup = new Bytes().be(5, 1).ascii("vorbis").zeros(3000).toByteArray();
+        return new Sample("a.ogg", oggPages(identification, comments, setup), AUDIO_BYTES, new byte[0]);
+    }
+
+    private static Sample opus() throws IOException {
+        byte[] head = new Bytes().ascii("OpusHead").be(1, 1).be(2, 1).zeros(9).toByteArray();
+        byte[] tags = new Bytes().ascii("OpusTags").add(vorbisComments("title=Opus Song", "artist=Opus Band")).toByteArray();
+        return new Sample("a.opus", oggPages(head, tags), AUDIO_BYTES, new byte[0]);
+    }
+
+    private static byte[] atom(String type, byte[]... children) {
+        Bytes body = new Bytes();
+        for (byte[] child : children) body.add(child);
+        byte[] b = body.toByteArray();
+        Bytes atom = new Bytes().be(8 + b.length, 4);
+        if (type.charAt(0) == '©') atom.be(0xA9, 1).ascii(type.substring(1));
+        else atom.ascii(type);
+        return atom.add(b).toByteArray();
+    }
+
+    private static byte[] item(String type, int dataType, byte[] value) {
+        return atom(type, atom("data", new Bytes().be(dataType, 4).be(0, 4).add(value).toByteArray()));
+    }
+
+    private static Sample m4a() throws IOException {
+        byte[] mvhd = atom("mvhd", new Bytes().be(0, 4).be(0, 4).be(0, 4).be(1000, 4).be(241500, 4).zeros(80).toByteArray());
+        byte[] trak = atom("trak", new byte[40 * 1024]);
+        byte[] ilst = atom("ilst", item("©nam", 1, TITLE.getBytes("UTF-8")), item("©ART", 1, "Utada".getBytes("UTF-8")),
+                item("covr", 13, new byte[50 * 1024]), item("©alb", 1, "Fantôme".getBytes("UTF-8")),
+                item("gnre", 0, new byte[]{0, 18}));
+        byte[] meta = atom("meta", new byte[4], atom("hdlr", new byte[25]), ilst);
+        byte[] moov = atom("moov", mvhd, trak, atom("udta", meta));
+        //moov after the audio, as most encoders leave it
+        byte[] head = new Bytes().add(atom("ftyp", new Bytes().ascii("M4A ").be(0, 4).ascii("M4A mp42isom").toByteArray()))
+                .be(8 + AUDIO_BYTES, 4).ascii("mdat").toByteArray();
+        return new Sample("a.m4a", head, AUDIO_BYTES, moov);
+    }
+
+    private List<Sample> samples() throws IOException {
+        Random random = new Random(7);
+        List<Sample> samples = new ArrayList<>();
+        samples.add(mp3v23(random));
+        samples.add(mp3v24());
+        samples.add(mp3v22());
+        samples.add(mp3Unsynchronised());
+        samples.add(mp3v1Only());
+        samples.add(flac(random));
+        samples.add(ogg(random));
+        samples.add(opus());
+        samples.add(m4a());
+        return samples;
+    }
+
+    private static String describe(TagReader.Tags tags) {
+        return tags.title + " / " + tags.artist + " / " + tags.album + " / " + tags.genre + " / " + tags.durationMs;
+    }
+
+    @Test
+    public void everyFormat() throws IOException {
+        String[] expected = {
+                TITLE + " / Yoasobi / The Book / Rock / 0",
+                TITLE + " / Radwimps / Cafÿÿ Tunes / Pop / 215000",
+                "Old Song / Old Band / Old Album / Cool Jazz / 0",
+                "ÿà la carte / Sync / null / null / 0",
+                "Just v1 / v1 artist / v1 album / Rock / 0",
+                TITLE + " / Aimer / Daydream / J-Pop / 180000",
+                TITLE + " / Sigur Rós / ( ) / Post-Rock / 0",
+                "Opus Song / Opus Band / null / null / 0",
+                TITLE + " / Utada / Fantôme / Rock / 241500",
+        };
+        TagReader reader = new TagReader();
+        TagReader.Tags tags = new TagReader.Tags();
+        List<Sample> samples = samples();
+        for (int i = 0; i < samples.size(); i++) {
+            File file = samples.get(i).write(dir, "");
+            long before = reader.getBytesRead();
+            assertTrue(file.getName(), reader.read(file, tags));
+            assertEquals(file.getName(), expected[i], describe(tags));
+            //Pictures and audio are skipped: a few windows at most, whatever the file's size
+            long read = reader.getBytesRead() - before;
+            assertTrue(file.getName() + " read " + read, read <= 5 * TagReader.READ_BYTES + 128 * 1024);
+        }
+    }
+
+    @Test
+    public void damagedAndForeignFiles() throws IOException {
+        TagReader reader = new TagReader();
+        TagReader.Tags tags = new TagReader.Tags();
+        //Not audio
+        assertFalse(reader.read(new Sample("a.txt", "just some text".getBytes("UTF-8"), 0, new byte[0]).write(dir, ""), tags));
+        assertFalse(reader.read(new File(dir, "missing.mp3"), tags));
+        assertNull(tags.title);
+
+        //Every sample cut short at many points and with random bytes written over it: no exception
+        Random random = new Random(13);
+        for (Sample sample : samples()) {
+            byte[] whole = new Bytes().add(sample.head).zeros(64 * 1024).add(sample.tail).toByteArray();
+            for (int round = 0; round < 60; round++) {
+                byte[] damaged = Arrays.copyOf(whole, random.nextInt(whole.length + 1));
+                for (int k = 0; k < 8 && damaged.length > 0; k++) damaged[random.nextInt(damaged.length)] = (byte) random.nextInt();
+                File file = new Sample("damaged-" + sample.name, damaged, 0, new byte[0]).write(dir, round + "-");
+                reader.read(file, tags);
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void genreNames() {
+        assertEquals("Rock", TagReader.genreName("17"));
+        assertEquals("Rock", TagReader.genreName("(17)"));
+        assertEquals("Live Rock", TagReader.genreName("(17)Live Rock"));
+        assertEquals("Synthwave", TagReader.genreName("Synthwave"));
+        assertEquals("2017", TagReader.genreName("2017"));
+        assertEquals("(999)", TagReader.genreName("(999)"));
+        byte[] data = {1, (byte) 0xFF, 0, (byte) 0xE0, (byte) 0xFF, 0, 0, 2};
+        assertEquals(6, TagReader.resync(data, 0, data.length));
+        assertArrayEquals(new byte[]{1, (byte) 0xFF, (byte) 0xE0, (byte) 0xFF, 0, 2}, Arrays.copyOf(data, 6));
+    }
+
+    //Bytes allocated by this thread so far, -1 where the JVM does not tell
+    private static long allocatedBytes() {
+        try {
+            Class<?> bean = Class.forName("com.sun.management.ThreadMXBean");
+            Method method = bean.getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void libraryThroughput() throws Exception {
+        List<Sample> samples = samples();
+        final List<File> library = new ArrayList<>();
+        long libraryBytes = 0;
+        for (int i = 0; i < 3000; i++) {
+            File file = samples.get(i % samples.size()).write(dir, i + "-");
+            library.add(file);
+            libraryBytes += file.length();
+        }
+
+        TagReader reader = new TagReader();
+        TagReader.Tags tags = new TagReader.Tags();
+        //Warm: page cache, JIT, the buffers grown to what the library needs
+        for (File file : library) assertTrue(reader.read(file, tags));
+
+        long read = reader.getBytesRead();
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        int titles = 0;
+        for (File file : library) {
+            reader.read(file, tags);
+            if (tags.title != null) titles++;
+        }
+        long serialNanos = System.nanoTime() - start;
+        long allocatedPerFile = allocated < 0 ? -1 : (allocatedBytes() - allocated) / library.size();
+        long readPerFile = (reader.getBytesRead() - read) / library.size();
+        assertEquals(library.size(), titles);
+
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            class Chunk extends RecursiveAction {
+                final int from, to;
+
+                Chunk(int from, int to) {
+                    this.from = from;
+                    this.to = to;
+                }
+
+                @Override
+                protected void compute() {
+                    if (to - from > 64) {
+                        int middle = (from + to) >>> 1;
+                        invokeAll(new Chunk(from, middle), new Chunk(middle, to));
+                        return;
+                    }
+                    TagReader reader = new TagReader();
+                    TagReader.Tags tags = new TagReader.Tags();
+                    for (int i = from; i < to; i++) {
+                        if (!reader.read(library.get(i), tags)) throw new AssertionError(library.get(i));
+                    }
+                }
+            }
+            pool.invoke(new Chunk(0, library.size()));
+            start = System.nanoTime();
+            pool.invoke(new Chunk(0, library.size()));
+            long parallelNanos = System.nanoTime() - start;
+
+            System.out.println("tag reader: " + library.size() + " files, " + libraryBytes / library.size() / 1024
+                    + "KB each, read " + readPerFile / 1024 + "KB each; serial " + (long) (library.size() * 1e9 / serialNanos)
+                    + " files/s, parallel (" + pool.getParallelism() + " threads) "
+                    + (long) (library.size() * 1e9 / parallelNanos) + " files/s; allocated " + allocatedPerFile + " bytes/file");
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue("read " + readPerFile, readPerFile < libraryBytes / library.size() / 20);
+        //The open file and the strings returned, nothing that grows with the tag
+        if (allocatedPerFile >= 0) assertTrue("allocated " + allocatedPerFile, allocatedPerFile < 2048);
+    }
+}
@@ -0,0 +1,54 @@
+package com.claire.audioplayerapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 測試曲目 The synthetic library the tests build their catalogs from. Every field of track i
+ * follows from i, so a test can build any slice of the same library again (the tracks it appends
+ * later, or a catalog to compare against), and each field cycles through a small vocabulary.
+ */
+final class TestTracks {
+
+    static final long DAY_MS = 86400000L;
+    //Track i was added (i % 400) days before NOW
+    static final long NOW = 1700000000000L;
+    static final long DURATION_MS = 180000;
+    //Files lie in /storage/emulated/0/Music/Artist (i % FOLDER_ARTISTS)/Album (i / FOLDER_ARTISTS % ALBUMS_PER_FOLDER)
+    static final int FOLDER_ARTISTS = 2000;
+    static final int ALBUMS_PER_FOLDER = 5;
+
+    //Title words: articles, accents, other scripts, digits and punctuation
+    static final String[] WORDS = {
+            "The Alpha", "Élan", "beta", "Ωmega", "123 Go", "a Cappella", "Zulu", "Öffnung", "海洋", "(Live)"
+    };
+    static final String[] ARTISTS = {"Adele", "The Beatles", "Beatles Tribute", "Björk", "ABBA", "Miles Davis"};
+    static final String[] ALBUMS = {"Live at Wembley", "Greatest Hits", "Unplugged (Live)", "Debut", null};
+    static final String[] GENRES = {"Pop", "Rock", "Jazz", "Pop Rock", ""};
+
+    private TestTracks() {
+    }
+
+    static Audio track(int i) {
+        Audio audio = new Audio("/storage/emulated/0/Music/Artist " + (i % FOLDER_ARTISTS)
+                + "/Album " + (i / FOLDER_ARTISTS % ALBUMS_PER_FOLDER) + "/" + i + ".mp3",
+                WORDS[i % WORDS.length] + " " + i, ALBUMS[(i / 11) % ALBUMS.length],
+                ARTISTS[(i / 7) % ARTISTS.length], (NOW - (i % 400) * DAY_MS) / 1000);
+        audio.setGenre(GENRES[(i / 3) % GENRES.length]);
+        audio.setDuration(DURATION_MS);
+        return audio;
+    }
+
+    static List<Audio> tracks(int from, int count) {
+        List<Audio> tracks = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            tracks.add(track(i));
+        }
+        return tracks;
+    }
+
+    //Only the path matters
+    static Audio track(String path) {
+        return new Audio(path, "title", "album", "artist");
+    }
+}
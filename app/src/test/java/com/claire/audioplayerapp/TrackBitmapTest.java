@@ -0,0 +1,129 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * TrackBitmap against java.util.BitSet on sparse, dense and mixed chunks; the cost of set
+ * operations over a 100k-track catalog is a benchmark.
+ */
+public class TrackBitmapTest {
+
+    private static final int TRACKS = 100000;
+
+    private static TrackBitmap random(Random random, BitSet reference, int from, int to, double density) {
+        TrackBitmap bitmap = new TrackBitmap();
+        for (int i = from; i < to; i++) {
+            if (random.nextDouble() < density) {
+                bitmap.add(i);
+                reference.set(i);
+            }
+        }
+        return bitmap;
+    }
+
+    private static void assertSame(BitSet expected, TrackBitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        int[] members = new int[expected.cardinality()];
+        int n = 0;
+        for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) members[n++] = i;
+        assertArrayEquals(members, actual.toIntList().toArray());
+    }
+
+    @Test
+    public void matchesBitSet() {
+        Random random = new Random(3);
+        //Densities either side of the array/bitset switch, over several chunks
+        double[] densities = {0.001, 0.05, 0.07, 0.5, 0.99};
+        for (double da : densities) {
+            for (double db : densities) {
+                BitSet a = new BitSet(), b = new BitSet();
+                TrackBitmap x = random(random, a, 0, 3 * 65536 + 100, da);
+                TrackBitmap y = random(random, b, 40000, 5 * 65536, db);
+
+                BitSet and = (BitSet) a.clone();
+                and.and(b);
+                assertSame(and, TrackBitmap.and(x, y));
+                BitSet or = (BitSet) a.clone();
+                or.or(b);
+                assertSame(or, TrackBitmap.or(x, y));
+                BitSet andNot = (BitSet) a.clone();
+                andNot.andNot(b);
+                assertSame(andNot, TrackBitmap.andNot(x, y));
+                //Inputs are left alone
+                assertSame(a, x);
+                assertSame(b, y);
+            }
+        }
+    }
+
+    @Test
+    public void addRemoveAcrossTheSwitch() {
+        TrackBitmap bitmap = new TrackBitmap();
+        BitSet reference = new BitSet();
+        Random random = new Random(5);
+        //Grows one chunk past 4096 members into a bitset, then shrinks it back
+        for (int i = 0; i < 20000; i++) {
+            int ordinal = random.nextInt(65536) + 65536;
+            bitmap.add(ordinal);
+            reference.set(ordinal);
+        }
+        assertSame(reference, bitmap);
+        for (int i = 0; i < 200000; i++) {
+            int ordinal = random.nextInt(65536) + 65536;
+            bitmap.remove(ordinal);
+            reference.clear(ordinal);
+        }
+        assertSame(reference, bitmap);
+        assertTrue(bitmap.contains(reference.nextSetBit(0)) || reference.isEmpty());
+        for (int i = reference.nextSetBit(0); i >= 0; i = reference.nextSetBit(i + 1)) bitmap.remove(i);
+        assertTrue(bitmap.isEmpty());
+        bitmap.remove(12);
+        assertFalse(bitmap.contains(12));
+
+        BitSet range = new BitSet();
+        range.set(70000, 140000);
+        assertSame(range, TrackBitmap.range(70000, 140000));
+        assertTrue(TrackBitmap.range(5, 5).isEmpty());
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void operationCost() {
+        Random random = new Random(7);
+        BitSet ignored = new BitSet();
+        //An artist, a genre, the tracks added in the last month, the tracks ever played
+        TrackBitmap artist = random(random, ignored, 0, TRACKS, 0.002);
+        TrackBitmap genre = random(random, ignored, 0, TRACKS, 0.2);
+        TrackBitmap recent = random(random, ignored, TRACKS - 5000, TRACKS, 0.9);
+        TrackBitmap played = random(random, ignored, 0, TRACKS, 0.4);
+        TrackBitmap all = TrackBitmap.range(0, TRACKS);
+
+        int rounds = 20000;
+        long sum = 0;
+        for (int warm = 0; warm < 2; warm++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                //(genre OR artist) AND recent AND NOT played
+                TrackBitmap result = TrackBitmap.andNot(TrackBitmap.and(TrackBitmap.or(genre, artist), recent), played);
+                sum += result.cardinality();
+            }
+            long nanos = (System.nanoTime() - start) / rounds;
+            long notStart = System.nanoTime();
+            for (int i = 0; i < rounds; i++) sum += TrackBitmap.andNot(all, played).cardinality();
+            long notNanos = (System.nanoTime() - notStart) / rounds;
+            if (warm == 1) {
+                System.out.println("track bitmap: " + TRACKS + " tracks, (genre OR artist) AND recent AND NOT played "
+                        + nanos / 1000 + "us, NOT played " + notNanos / 1000 + "us; genre " + genre.sizeInBytes() / 1024
+                        + "KB, artist " + artist.sizeInBytes() + "B");
+                assertTrue("combined " + nanos + "ns", nanos < 1000000);
+            }
+        }
+        assertTrue(sum > 0);
+    }
+}
@@ -0,0 +1,126 @@
+package com.claire.audioplayerapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * The descriptor pool: least recently used entries are evicted and closed, a descriptor being
+ * warmed or handed to the player stays open until it is released, and prefetch() warms a file.
+ */
+public class TrackReadaheadTest {
+
+    private File dir;
+    private ExecutorService executor;
+    private TrackReadahead readahead;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File(System.getProperty("java.io.tmpdir"), "readahead-" + System.nanoTime());
+        assertTrue(dir.mkdirs());
+        for (int i = 0; i < 4; i++) {
+            FileOutputStream out = new FileOutputStream(path(i));
+            try {
+                out.write(new byte[3000]);
+            } finally {
+                out.close();
+            }
+        }
+        executor = Executors.newSingleThreadExecutor();
+        readahead = new TrackReadahead(2, 1024, executor);
+    }
+
+    @After
+    public void tearDown() {
+        readahead.close();
+        for (int i = 0; i < 4; i++) {
+            new File(path(i)).delete();
+        }
+        dir.delete();
+    }
+
+    private String path(int i) {
+        return new File(dir, i + ".mp3").getPath();
+    }
+
+    private static boolean isOpen(TrackReadahead.Source source) throws IOException {
+        return source.getFileDescriptor().valid();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        TrackReadahead.Source first = readahead.acquire(path(0));
+        readahead.release(first);
+        TrackReadahead.Source second = readahead.acquire(path(1));
+        readahead.release(second);
+        //Touch the first again, the second is now the eldest
+        assertSame(first, readahead.acquire(path(0)));
+        readahead.release(first);
+
+        TrackReadahead.Source third = readahead.acquire(path(2));
+        readahead.release(third);
+        assertEquals(2, readahead.pooledCount());
+        assertFalse(isOpen(second));
+        assertTrue(isOpen(first));
+        assertTrue(isOpen(third));
+        //Evicted, so it comes back as a new descriptor
+        TrackReadahead.Source reopened = readahead.acquire(path(1));
+        assertNotSame(second, reopened);
+        assertEquals(3000, reopened.getLength());
+        readahead.release(reopened);
+    }
+
+    @Test
+    public void pinnedSourceOutlivesEviction() throws IOException {
+        //Held by the player while setDataSource() runs
+        TrackReadahead.Source playing = readahead.acquire(path(0));
+        readahead.release(readahead.acquire(path(1)));
+        readahead.release(readahead.acquire(path(2)));
+        assertEquals(2, readahead.pooledCount());
+        assertTrue(isOpen(playing));
+
+        //Pinned twice, closed by the last release only
+        TrackReadahead.Source warming = readahead.acquire(path(3));
+        readahead.acquire(path(3));
+        readahead.releasePool();
+        assertEquals(0, readahead.pooledCount());
+        readahead.release(warming);
+        assertTrue(isOpen(warming));
+        readahead.release(warming);
+        assertFalse(isOpen(warming));
+
+        assertTrue(isOpen(playing));
+        readahead.release(playing);
+        assertFalse(isOpen(playing));
+    }
+
+    @Test
+    public void prefetchWarms() throws Exception {
+        readahead.prefetch(path(0));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        TrackReadahead.Source source = readahead.acquire(path(0));
+        assertTrue(source.isWarm());
+        assertTrue(isOpen(source));
+        readahead.release(source);
+        assertTrue(isOpen(source));
+
+        //Cold when the player opens it first
+        TrackReadahead.Source cold = readahead.acquire(path(1));
+        assertFalse(cold.isWarm());
+        readahead.release(cold);
+        //Not queued once the executor is gone
+        readahead.prefetch(path(2));
+        assertEquals(2, readahead.pooledCount());
+    }
+}
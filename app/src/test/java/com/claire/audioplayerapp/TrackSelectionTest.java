@@ -0,0 +1,132 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Toggle, range and select all over a displayed order. The cost of selecting a large library and
+ * handing it over in display order, which is all the activity does before the one command, is a
+ * benchmark.
+ */
+public class TrackSelectionTest {
+
+    //A sorted list: display position -> catalog ordinal
+    private static int[] shuffledOrder(int rows, long seed) {
+        int[] order = new int[rows];
+        for (int i = 0; i < rows; i++) order[i] = i;
+        Random random = new Random(seed);
+        for (int i = rows - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+
+    @Test
+    public void toggleAndRange() {
+        int[] order = {7, 3, 9, 0, 5, 2};
+        TrackSelection selection = new TrackSelection();
+        assertTrue(selection.isEmpty());
+        assertTrue(selection.toggle(3));
+        assertTrue(selection.toggle(5));
+        assertFalse(selection.toggle(3));
+        assertEquals(1, selection.size());
+        assertFalse(selection.contains(3));
+
+        //From the last toggled row (ordinal 3 at position 1) to position 3
+        assertEquals(1, selection.extendTo(order, order.length, 3));
+        assertArrayEquals(new int[]{3, 9, 0, 5}, selection.inOrder(order, order.length).toArray());
+        //And on from there, backwards
+        assertEquals(3, selection.extendTo(order, order.length, 0));
+        assertArrayEquals(new int[]{7, 3, 9, 0, 5}, selection.inOrder(order, order.length).toArray());
+        assertEquals(5, selection.size());
+
+        //No anchor: just the row
+        selection.clear();
+        assertEquals(-1, selection.extendTo(order, order.length, 5));
+        assertArrayEquals(new int[]{2}, selection.inOrder(order, order.length).toArray());
+        //The anchor left the list (a smaller one is shown now)
+        int[] subset = {9, 0};
+        assertEquals(-1, selection.extendTo(subset, subset.length, 0));
+        assertEquals(2, selection.size());
+
+        //Catalog order, no order array
+        selection.clear();
+        selection.toggle(2);
+        assertEquals(2, selection.extendTo(null, 10, 6));
+        assertArrayEquals(new int[]{2, 3, 4, 5, 6}, selection.inOrder(null, 10).toArray());
+    }
+
+    @Test
+    public void selectAll() {
+        int[] order = shuffledOrder(1000, 1);
+        TrackSelection selection = new TrackSelection();
+        selection.selectAll(order, order.length);
+        assertEquals(1000, selection.size());
+        assertArrayEquals(order, selection.inOrder(order, order.length).toArray());
+        //The order handed in is left as it was
+        assertArrayEquals(shuffledOrder(1000, 1), order);
+        selection.toggle(order[10]);
+        assertEquals(999, selection.size());
+        assertEquals(order[11], selection.inOrder(order, order.length).get(10));
+
+        selection.selectAll(null, 70000);
+        assertEquals(70000, selection.size());
+        IntList all = selection.inOrder(null, 70000);
+        assertEquals(69999, all.get(69999));
+    }
+
+    /**
+     * Select all, a range over most of the list and the hand-over, on a 50k track library in a
+     * sorted order. Each is done once per action, and must stay well inside a frame.
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void largeLibrary() {
+        int rows = 50000;
+        int[] order = shuffledOrder(rows, 7);
+        TrackSelection selection = new TrackSelection();
+        //Warm up
+        for (int i = 0; i < 20; i++) {
+            selection.selectAll(order, rows);
+            selection.inOrder(order, rows);
+            selection.clear();
+            selection.toggle(order[100]);
+            selection.extendTo(order, rows, rows - 100);
+            selection.inOrder(order, rows);
+        }
+        int runs = 20;
+        long selectAll = 0, range = 0, handOver = 0;
+        IntList selected = null;
+        for (int i = 0; i < runs; i++) {
+            selection.clear();
+            long start = System.nanoTime();
+            selection.selectAll(order, rows);
+            selectAll += System.nanoTime() - start;
+
+            selection.clear();
+            selection.toggle(order[100]);
+            start = System.nanoTime();
+            selection.extendTo(order, rows, rows - 100);
+            range += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            selected = selection.inOrder(order, rows);
+            handOver += System.nanoTime() - start;
+        }
+        assertEquals(rows - 199, selected.size());
+        assertEquals(order[100], selected.get(0));
+        assertEquals(order[rows - 100], selected.get(selected.size() - 1));
+        System.out.println(String.format("selection of %d rows: select all %.2fms, range %.2fms, in display order %.2fms",
+                rows, selectAll / 1e6 / runs, range / 1e6 / runs, handOver / 1e6 / runs));
+        assertTrue(selectAll / runs < 16000000);
+        assertTrue(range / runs < 16000000);
+        assertTrue(handOver / runs < 16000000);
+    }
+}
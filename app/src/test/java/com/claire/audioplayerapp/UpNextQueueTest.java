@@ -0,0 +1,129 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Up-next queue of 100k entries checked against an ArrayList model, its balance under edits, and a
+ * journal round trip; the cost of each edit is a benchmark.
+ */
+public class UpNextQueueTest {
+
+    private static final int ENTRIES = 100000;
+    private static final int EDITS = 200000;
+
+    private UpNextQueue queue;
+    private List<Integer> model;
+
+    @Before
+    public void setUp() {
+        queue = UpNextQueue.range(ENTRIES);
+        model = new ArrayList<>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) model.add(i);
+    }
+
+    @Test
+    public void randomEdits_matchModel() {
+        Random random = new Random(5);
+        for (int i = 0; i < 20000; i++) {
+            int op = random.nextInt(4);
+            if (op == 0) {
+                int index = random.nextInt(model.size() + 1);
+                queue.insert(index, i);
+                model.add(index, i);
+            } else if (op == 1 && model.size() > 1) {
+                int index = random.nextInt(model.size());
+                assertEquals((int) model.remove(index), queue.remove(index));
+            } else if (op == 2) {
+                int from = random.nextInt(model.size());
+                int to = random.nextInt(model.size());
+                queue.move(from, to);
+                model.add(to, model.remove(from));
+            } else {
+                int index = random.nextInt(model.size());
+                assertEquals((int) model.get(index), queue.get(index));
+            }
+        }
+        int[] values = queue.toArray();
+        assertEquals(model.size(), values.length);
+        for (int i = 0; i < values.length; i++) assertEquals((int) model.get(i), values[i]);
+    }
+
+    @Test
+    public void staysBalancedUnderEdits() {
+        Random random = new Random(8);
+        for (int i = 0; i < EDITS; i++) queue.insert(random.nextInt(queue.size() + 1), i);
+        for (int i = 0; i < EDITS; i++) queue.move(random.nextInt(queue.size()), random.nextInt(queue.size()));
+        for (int i = 0; i < EDITS; i++) queue.remove(random.nextInt(queue.size()));
+        assertEquals(ENTRIES, queue.size());
+        //A balanced tree stays within a small multiple of log2(n) ~ 17
+        assertTrue("depth " + queue.depth(), queue.depth() < 60);
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void editsAreLogarithmic() {
+        Random random = new Random(8);
+        //Warm-up
+        for (int i = 0; i < EDITS / 10; i++) queue.move(random.nextInt(ENTRIES), random.nextInt(ENTRIES));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < EDITS; i++) queue.insert(random.nextInt(queue.size() + 1), i);
+        long insert = (System.nanoTime() - start) / EDITS;
+        start = System.nanoTime();
+        for (int i = 0; i < EDITS; i++) queue.move(random.nextInt(queue.size()), random.nextInt(queue.size()));
+        long move = (System.nanoTime() - start) / EDITS;
+        start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < EDITS; i++) sum += queue.get(random.nextInt(queue.size()));
+        long get = (System.nanoTime() - start) / EDITS;
+        start = System.nanoTime();
+        for (int i = 0; i < EDITS; i++) queue.remove(random.nextInt(queue.size()));
+        long remove = (System.nanoTime() - start) / EDITS;
+
+        System.out.println("up next (" + ENTRIES + "-" + (ENTRIES + EDITS) + " entries): insert " + insert
+                + "ns, move " + move + "ns, get " + get + "ns, remove " + remove + "ns, depth "
+                + queue.depth() + " (" + sum % 10 + ")");
+        assertTrue(insert < 20000 && move < 20000 && get < 20000 && remove < 20000);
+    }
+
+    @Test
+    public void journal_restoresSnapshotAndEdits() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "upnext-" + System.nanoTime());
+        assertTrue(dir.mkdirs());
+        List<Audio> catalog = TestTracks.tracks(0, ENTRIES);
+        QueueJournal journal = new QueueJournal(dir);
+        journal.setCatalog(catalog);
+        journal.replace(queue, 3);
+        queue.insert(4, 99);
+        queue.move(0, ENTRIES);
+        queue.remove(10);
+        journal.setPosition(2);
+        journal.close();
+        Thread.sleep(200);
+
+        //Another catalog does not get the ordinals, a grown one does
+        List<Audio> other = new ArrayList<>(catalog);
+        other.set(5, new Audio("/music/moved.mp3", "", "", ""));
+        QueueJournal reopened = new QueueJournal(dir);
+        reopened.setCatalog(other);
+        assertNull(reopened.restore());
+        catalog.add(new Audio("/music/new.mp3", "", "", ""));
+        reopened.setCatalog(catalog);
+        UpNextQueue restored = reopened.restore();
+        assertNotNull(restored);
+        assertEquals(2, reopened.getRestoredPosition());
+        assertArrayEquals(queue.toArray(), restored.toArray());
+        reopened.close();
+        for (File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,105 @@
+package com.claire.audioplayerapp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Weighted shuffle over a synthetic 100k-track library: exclusion of recent picks and the
+ * resulting distribution. Picks per second and weight update cost are benchmarks.
+ */
+public class WeightedShuffleTest {
+
+    private static final int TRACKS = 100000;
+    private static final int EXCLUDE = 50;
+    private static final int ROUNDS = 1000000;
+
+    private int[] weights;
+    private WeightedShuffle shuffle;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        weights = new int[TRACKS];
+        long now = 100L * 24 * 60 * 60 * 1000;
+        for (int i = 0; i < TRACKS; i++) {
+            int plays = random.nextInt(50);
+            float skipRate = random.nextFloat();
+            long lastPlayed = plays == 0 ? 0 : now - random.nextInt(60) * 24L * 60 * 60 * 1000;
+            weights[i] = WeightedShuffle.weightOf(plays, skipRate, lastPlayed, now);
+        }
+        shuffle = new WeightedShuffle(weights, TRACKS, EXCLUDE, new Random(7));
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void picksPerSecond() {
+        //Warm-up, then measure
+        for (int i = 0; i < ROUNDS / 10; i++) shuffle.pick();
+        long start = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < ROUNDS; i++) checksum += shuffle.pick();
+        long elapsed = System.nanoTime() - start;
+        System.out.println("pick: " + (ROUNDS * 1000000000L / elapsed) + " picks/s, "
+                + elapsed / ROUNDS + "ns each (" + checksum % 10 + ")");
+        //A skip must never wait on the shuffle: far below a millisecond per pick
+        assertTrue(elapsed / ROUNDS < 50000);
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void weightUpdateCost() {
+        Random random = new Random(3);
+        for (int i = 0; i < ROUNDS / 10; i++) shuffle.setWeight(random.nextInt(TRACKS), 1 + random.nextInt(5000));
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            shuffle.setWeight(random.nextInt(TRACKS), 1 + random.nextInt(5000));
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println("setWeight: " + elapsed / ROUNDS + "ns each");
+        assertTrue(elapsed / ROUNDS < 50000);
+
+        long expected = 0;
+        for (int i = 0; i < TRACKS; i++) expected += shuffle.getWeight(i);
+        assertEquals(expected, shuffle.totalWeight());
+    }
+
+    @Test
+    public void recentPicksAreExcluded() {
+        int[] lastSeen = new int[TRACKS];
+        Arrays.fill(lastSeen, -EXCLUDE - 1);
+        for (int i = 0; i < 200000; i++) {
+            int ordinal = shuffle.pick();
+            assertTrue("repeat after " + (i - lastSeen[ordinal]), i - lastSeen[ordinal] > EXCLUDE);
+            lastSeen[ordinal] = i;
+        }
+    }
+
+    @Test
+    public void distributionFollowsWeights() {
+        int[] small = {1000, 3000, 0, 6000};
+        WeightedShuffle four = new WeightedShuffle(small, small.length, 0, new Random(1));
+        int[] counts = new int[small.length];
+        for (int i = 0; i < 100000; i++) counts[four.pick()]++;
+        assertEquals(0, counts[2]);
+        assertEquals(0.1, counts[0] / 100000.0, 0.01);
+        assertEquals(0.3, counts[1] / 100000.0, 0.01);
+        assertEquals(0.6, counts[3] / 100000.0, 0.01);
+    }
+
+    @Test
+    public void addedTracksCanBePicked() {
+        int[] none = {0, 0, 0};
+        WeightedShuffle grown = new WeightedShuffle(none, none.length, 0, new Random(1));
+        assertEquals(-1, grown.pick());
+        for (int i = 0; i < 40; i++) grown.add(i == 37 ? 500 : 0);
+        assertEquals(43, grown.size());
+        assertEquals(500, grown.totalWeight());
+        assertEquals(40, grown.pick());
+    }
+}